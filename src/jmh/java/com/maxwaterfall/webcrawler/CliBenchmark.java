@@ -0,0 +1,57 @@
+package com.maxwaterfall.webcrawler;
+
+import com.maxwaterfall.webcrawler.crawl.VisitedPage;
+import com.maxwaterfall.webcrawler.crawl.VisitedPages;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Printing the result of a crawl with {@link Cli#logResult}, sorting included. The output goes
+ * nowhere so only the cost of producing it is measured.
+ *
+ * <p>Seen links are sorted in place, so after the first call they are already in order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CliBenchmark {
+
+  private static final URI START = URI.create("http://localhost:8080/");
+
+  @Param({"1000", "100000"})
+  public int pages;
+
+  private Cli cli;
+  private Set<VisitedPage> visitedPages;
+
+  @Setup
+  public void setup() {
+    var nowhere = new PrintStream(OutputStream.nullOutputStream());
+    cli = new Cli(nowhere, nowhere);
+    visitedPages = VisitedPages.generate(pages, 20);
+  }
+
+  @Benchmark
+  public void logResult() throws IOException {
+    cli.logResult(START, visitedPages, Duration.ofSeconds(1));
+  }
+}
@@ -0,0 +1,134 @@
+package com.maxwaterfall.webcrawler;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scheduling throughput of {@link TaskExecutor} as the number of scheduling threads grows,
+ * compared against the original monitor based implementation.
+ *
+ * <p>Tasks run inline on the scheduling thread, so only the cost of tracking them is measured, not
+ * the cost of an executor queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskExecutorBenchmark {
+
+  private static final Runnable NO_OP = () -> {};
+
+  private final TaskExecutor taskExecutor = new TaskExecutor(new InlineExecutorService());
+  private final SynchronizedTaskExecutor synchronizedTaskExecutor =
+      new SynchronizedTaskExecutor(new InlineExecutorService());
+
+  @Benchmark
+  @Threads(1)
+  public void lockFree01Thread() {
+    taskExecutor.scheduleTask(NO_OP);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void lockFree04Threads() {
+    taskExecutor.scheduleTask(NO_OP);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public void lockFree16Threads() {
+    taskExecutor.scheduleTask(NO_OP);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void synchronized01Thread() {
+    synchronizedTaskExecutor.scheduleTask(NO_OP);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void synchronized04Threads() {
+    synchronizedTaskExecutor.scheduleTask(NO_OP);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public void synchronized16Threads() {
+    synchronizedTaskExecutor.scheduleTask(NO_OP);
+  }
+
+  /** The original TaskExecutor, every call takes the monitor and completions wake all waiters. */
+  static class SynchronizedTaskExecutor {
+
+    private final AtomicInteger noOfTasks = new AtomicInteger(0);
+    private final InlineExecutorService executorService;
+
+    SynchronizedTaskExecutor(InlineExecutorService executorService) {
+      this.executorService = executorService;
+    }
+
+    synchronized void scheduleTask(Runnable task) {
+      noOfTasks.incrementAndGet();
+      executorService.execute(
+          () -> {
+            try {
+              task.run();
+            } finally {
+              completeTask();
+            }
+          });
+    }
+
+    private synchronized void completeTask() {
+      noOfTasks.decrementAndGet();
+      notifyAll();
+    }
+  }
+
+  /** Runs every task straight away on the calling thread. */
+  static class InlineExecutorService extends AbstractExecutorService {
+
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+
+    @Override
+    public void shutdown() {}
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return List.of();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.HttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Fetches and scans one synthetic page from an in-process server, with the body read onto the heap
+ * as in the past or into pooled direct buffers as async crawls do now.
+ *
+ * <p>Run with 'mvn -Pbenchmarks test-compile exec:exec -Djmh.args="BodyBuffering -prof gc"' and
+ * compare the gc.alloc.rate.norm of each, the bytes allocated per page. The server runs in the same
+ * JVM, so both include what it allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BodyBufferingBenchmark {
+
+  /** The size of the page in KiB. */
+  @Param({"64", "1024"})
+  public int size;
+
+  @Param({"false", "true"})
+  public boolean gzip;
+
+  private final LinkExtractor extractor = new StreamingLinkExtractor();
+  private HttpServer server;
+  private ExecutorService serverThreads;
+  private HttpClient client;
+  private URI pageUri;
+  private byte[] body;
+
+  @Setup
+  public void setup() throws IOException {
+    body = LinkExtractorBenchmark.syntheticPage(size * 1024);
+    if (gzip) {
+      var gzipped = new ByteArrayOutputStream();
+      try (var out = new GZIPOutputStream(gzipped)) {
+        out.write(body);
+      }
+      body = gzipped.toByteArray();
+    }
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", this::respond);
+    serverThreads = Executors.newFixedThreadPool(2);
+    server.setExecutor(serverThreads);
+    server.start();
+    client = HttpClient.builder().version(java.net.http.HttpClient.Version.HTTP_1_1).build();
+    pageUri = URI.create("http://localhost:" + server.getAddress().getPort() + "/page.html");
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.stop(0);
+    serverThreads.shutdownNow();
+  }
+
+  @Benchmark
+  public void heap(Blackhole blackhole)
+      throws IOException, InterruptedException, ExecutionException {
+    var response = client.getAsync(pageUri).get();
+    extractor.extract(
+        new ByteArrayInputStream(response.body()),
+        StandardCharsets.UTF_8,
+        pageUri,
+        listener(blackhole));
+  }
+
+  @Benchmark
+  public void pooled(Blackhole blackhole)
+      throws IOException, InterruptedException, ExecutionException {
+    var response = client.getPooledAsync(pageUri, Map.of()).get();
+    try (var html = response.body()) {
+      extractor.extract(html, StandardCharsets.UTF_8, pageUri, listener(blackhole));
+    }
+  }
+
+  private static LinkExtractor.Listener listener(Blackhole blackhole) {
+    return new LinkExtractor.Listener() {
+      @Override
+      public void onBase(String href) {
+        blackhole.consume(href);
+      }
+
+      @Override
+      public void onAnchor(String href) {
+        blackhole.consume(href);
+      }
+    };
+  }
+
+  private void respond(HttpExchange exchange) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+    if (gzip) {
+      exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+    }
+    exchange.sendResponseHeaders(200, body.length);
+    try (var out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
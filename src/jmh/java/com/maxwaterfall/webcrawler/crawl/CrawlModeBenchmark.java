@@ -0,0 +1,74 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.HttpClient;
+import com.maxwaterfall.webcrawler.SyntheticSite;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Crawls a local synthetic site with each executor mode, comparing the fixed thread pool against
+ * virtual threads (and async fetching) as server latency rises.
+ *
+ * <p>VIRTUAL_THREADS needs the benchmark to run on Java 21 or newer, e.g. with
+ * '-Pbenchmarks,jdk21'.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CrawlModeBenchmark {
+
+  @Param({"BLOCKING", "VIRTUAL_THREADS", "ASYNC"})
+  public CrawlConfig.Mode mode;
+
+  @Param({"0", "50"})
+  public int latencyMillis;
+
+  @Param({"2000"})
+  public int pages;
+
+  private SyntheticSite site;
+  private Crawler crawler;
+
+  @Setup
+  public void setup() throws Exception {
+    site = new SyntheticSite(pages, 20, Duration.ofMillis(latencyMillis));
+    crawler =
+        new Crawler(
+            new HttpClient(),
+            CrawlConfig.builder()
+                .mode(mode)
+                .maxConcurrentRequests(pages)
+                .maxConnectionsPerHost(pages)
+                .build());
+  }
+
+  @TearDown
+  public void tearDown() {
+    crawler.close();
+    site.close();
+  }
+
+  @Benchmark
+  public int crawl() throws CrawlFailedException {
+    int visited = crawler.crawl(site.startUri()).getVisitedPages().size();
+    if (visited != pages) {
+      throw new IllegalStateException("Visited " + visited + " of " + pages + " pages");
+    }
+    return visited;
+  }
+}
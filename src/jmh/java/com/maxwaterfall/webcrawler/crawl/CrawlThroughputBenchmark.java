@@ -0,0 +1,62 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.HttpClient;
+import com.maxwaterfall.webcrawler.SyntheticSite;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end crawl of a generated 100k page site served in-process. The score is the time per
+ * page, so the crawl rate in pages per second is 1,000,000 divided by it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(CrawlThroughputBenchmark.PAGES)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CrawlThroughputBenchmark {
+
+  static final int PAGES = 100_000;
+
+  @Param({"BLOCKING", "ASYNC"})
+  public CrawlConfig.Mode mode;
+
+  private SyntheticSite site;
+  private Crawler crawler;
+
+  @Setup
+  public void setup() throws Exception {
+    site = new SyntheticSite(PAGES, 10, Duration.ZERO);
+    crawler = new Crawler(new HttpClient(), CrawlConfig.builder().mode(mode).build());
+  }
+
+  @TearDown
+  public void tearDown() {
+    crawler.close();
+    site.close();
+  }
+
+  @Benchmark
+  public int crawl() throws CrawlFailedException {
+    int visited = crawler.crawl(site.startUri()).getVisitedPages().size();
+    if (visited != PAGES) {
+      throw new IllegalStateException("Visited " + visited + " of " + PAGES + " pages");
+    }
+    return visited;
+  }
+}
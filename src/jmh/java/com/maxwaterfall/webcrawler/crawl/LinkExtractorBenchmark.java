@@ -0,0 +1,121 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the streaming and Jsoup link extractors on the integration test pages and on large
+ * synthetic pages.
+ *
+ * <p>Run with 'mvn -Pbenchmarks test-compile exec:exec -Djmh.args="LinkExtractor -prof gc"' to
+ * also see the allocation rate of each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LinkExtractorBenchmark {
+
+  private static final URI PAGE_URI = URI.create("http://localhost:8080/page.html");
+
+  /** 'fixtures' is every integration test page, otherwise the size of a synthetic page in KiB. */
+  @Param({"fixtures", "64", "1024", "16384"})
+  public String pages;
+
+  private final LinkExtractor streaming = new StreamingLinkExtractor();
+  private final LinkExtractor jsoup = new JsoupLinkExtractor();
+  private final List<byte[]> html = new ArrayList<>();
+
+  @Setup
+  public void setup() throws IOException {
+    if (pages.equals("fixtures")) {
+      for (int i = 1; i <= 8; i++) {
+        try (var page = getClass().getResourceAsStream("/__files/page" + i + ".html")) {
+          html.add(page.readAllBytes());
+        }
+      }
+    } else {
+      html.add(syntheticPage(Integer.parseInt(pages) * 1024));
+    }
+  }
+
+  @Benchmark
+  public void streaming(Blackhole blackhole) throws IOException {
+    extract(streaming, blackhole);
+  }
+
+  @Benchmark
+  public void jsoup(Blackhole blackhole) throws IOException {
+    extract(jsoup, blackhole);
+  }
+
+  private void extract(LinkExtractor extractor, Blackhole blackhole) throws IOException {
+    var listener =
+        new LinkExtractor.Listener() {
+          @Override
+          public void onBase(String href) {
+            blackhole.consume(href);
+          }
+
+          @Override
+          public void onAnchor(String href) {
+            blackhole.consume(href);
+          }
+        };
+
+    for (var page : html) {
+      extractor.extract(
+          new ByteArrayInputStream(page), StandardCharsets.UTF_8, PAGE_URI, listener);
+    }
+  }
+
+  /**
+   * Generates a page of roughly the given size that looks like a typical content heavy page:
+   * nested blocks of text, a link every few paragraphs and the odd script and comment.
+   */
+  static byte[] syntheticPage(int size) {
+    var out = new ByteArrayOutputStream(size + 1024);
+    write(out, "<!DOCTYPE html>\n<html>\n<head><title>Synthetic page</title>");
+    write(out, "<script>var links = '<a href=\"/not-a-link\">';</script></head>\n<body>\n");
+
+    for (int i = 0; out.size() < size; i++) {
+      write(out, "<div class=\"section\"><div class=\"inner\">\n");
+      write(out, "<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod ");
+      write(out, "tempor incididunt ut labore et dolore magna aliqua. &copy; &amp; more.</p>\n");
+      write(out, "<a class=\"link\" href=\"/section/" + i + "/page?ref=synthetic&amp;n=" + i);
+      write(out, "\">Section " + i + "</a>\n");
+      if (i % 10 == 0) {
+        write(out, "<!-- <a href=\"/commented-out\"> -->\n");
+        write(out, "<a href='https://other.example.com/" + i + "'>External</a>\n");
+      }
+      write(out, "</div></div>\n");
+    }
+
+    write(out, "</body>\n</html>\n");
+    return out.toByteArray();
+  }
+
+  private static void write(ByteArrayOutputStream out, String s) {
+    out.writeBytes(s.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,142 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Turning the hrefs found on a page into dedupe keys, with a {@link UriCanonicalizer} and with the
+ * legacy path that encoded, parsed and resolved a {@link URI} for each href and then normalized it
+ * with {@link URI#getAuthority()}, {@link URI#getPath()} and {@link URI#getQuery()}. The legacy
+ * encoding was SnakeYAML's UriEncoder, copied here so the dependency could go.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UriBenchmark {
+
+  /** What the legacy encoding left as it was, besides letters and digits. */
+  private static final String LEGACY_SAFE_CHARS = "-_.!~*'()@:$&,;=[]/";
+
+  private static final URI PAGE_URI = URI.create("http://localhost:8080/section/page.html?id=1");
+
+  /** A mix of the hrefs seen on real pages. */
+  private static final List<String> HREFS =
+      List.of(
+          "/page1.html",
+          "http://localhost:8080/page2",
+          " http://localhost:8080/page7",
+          "page3.html",
+          "../up/page4.html",
+          "./same/page5.html?query=string&other=1",
+          "https://localhost:8080/secure/page6",
+          "/path with spaces/page 7.html",
+          "/unicode/s\u00e9quence",
+          "#fragment",
+          "?only=query",
+          "//localhost:8080/protocol-relative",
+          "http://not.this.domain.com/test",
+          "mailto:someone@example.com",
+          "/page8/inner-page/inner-inner-page#section-2");
+
+  private List<URI> uris;
+
+  @Setup
+  public void setup() {
+    uris = new ArrayList<>(legacyHrefToUri(PAGE_URI, HREFS));
+  }
+
+  @Benchmark
+  public Set<String> legacyKeys() {
+    var keys = new HashSet<String>();
+    for (var uri : legacyHrefToUri(PAGE_URI, HREFS)) {
+      keys.add(legacyNormalizeUri(uri));
+    }
+    return keys;
+  }
+
+  @Benchmark
+  public Set<String> canonicalizerKeys() {
+    var canonicalizer = new UriCanonicalizer(PAGE_URI);
+    var keys = new HashSet<String>();
+    for (var href : HREFS) {
+      if (canonicalizer.canonicalize(href)) {
+        keys.add(canonicalizer.key());
+      }
+    }
+    return keys;
+  }
+
+  @Benchmark
+  public void normalizeUri(Blackhole blackhole) {
+    for (var uri : uris) {
+      blackhole.consume(Crawl.normalizeUri(uri));
+    }
+  }
+
+  @Benchmark
+  public void legacyNormalizeUri(Blackhole blackhole) {
+    for (var uri : uris) {
+      blackhole.consume(legacyNormalizeUri(uri));
+    }
+  }
+
+  private static Set<URI> legacyHrefToUri(URI baseUri, List<String> hrefs) {
+    return hrefs.stream()
+        .filter(s -> !s.isEmpty())
+        .map(href -> URI.create(legacyEncode(href.stripLeading())))
+        .map(uri -> uri.isAbsolute() ? uri : baseUri.resolve(uri))
+        .filter(uri -> uri.getScheme().equals("http") || uri.getScheme().equals("https"))
+        .collect(Collectors.toSet());
+  }
+
+  /** Percent-encodes the UTF-8 of every other character, as the legacy path's encoder did. */
+  private static String legacyEncode(String href) {
+    var encoded = new StringBuilder(href.length());
+    for (int i = 0; i < href.length(); ) {
+      int codePoint = href.codePointAt(i);
+      int next = i + Character.charCount(codePoint);
+      if (codePoint < 128
+          && (Character.isLetterOrDigit(codePoint) || LEGACY_SAFE_CHARS.indexOf(codePoint) >= 0)) {
+        encoded.append((char) codePoint);
+      } else {
+        for (byte b : href.substring(i, next).getBytes(StandardCharsets.UTF_8)) {
+          encoded.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xf, 16)));
+          encoded.append(Character.toUpperCase(Character.forDigit(b & 0xf, 16)));
+        }
+      }
+      i = next;
+    }
+    return encoded.toString();
+  }
+
+  private static String legacyNormalizeUri(URI uri) {
+    var normalized = uri.getAuthority();
+    if (uri.getPath() != null) {
+      normalized += uri.getPath();
+    }
+    if (uri.getQuery() != null) {
+      normalized += uri.getQuery();
+    }
+    return normalized;
+  }
+}
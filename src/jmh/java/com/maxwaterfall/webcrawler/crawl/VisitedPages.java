@@ -0,0 +1,31 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+/** Builds crawl results for benchmarks outside this package. */
+public final class VisitedPages {
+
+  private VisitedPages() {}
+
+  /**
+   * Generates the result of crawling a site where every page links to the given number of other
+   * pages. Pages and links are generated out of order, as they would be by a real crawl.
+   */
+  public static Set<VisitedPage> generate(int pages, int linksPerPage) {
+    var visitedPages = new HashSet<VisitedPage>(pages * 2);
+    for (int page = 0; page < pages; page++) {
+      var seenLinks = new ArrayList<String>(linksPerPage);
+      for (int link = 0; link < linksPerPage; link++) {
+        seenLinks.add(link(Math.floorMod(page * 31 + link * 7919, pages)));
+      }
+      visitedPages.add(new VisitedPage(link(page), seenLinks));
+    }
+    return visitedPages;
+  }
+
+  private static String link(int page) {
+    return "localhost:8080/section/" + (page % 97) + "/page-" + page + ".html";
+  }
+}
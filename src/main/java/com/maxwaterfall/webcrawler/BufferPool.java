@@ -0,0 +1,53 @@
+package com.maxwaterfall.webcrawler;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A bounded pool of direct buffers of one size, so bodies are read off the heap without allocating
+ * new buffers for every page.
+ *
+ * <p>A buffer is allocated when the pool is empty, and a buffer given back to a full pool is left
+ * to the garbage collector. Safe for concurrent use.
+ */
+class BufferPool {
+
+  private final int bufferSize;
+  private final int maxBuffers;
+  /** The buffers waiting to be reused, last given back first. */
+  private final ArrayDeque<ByteBuffer> free;
+
+  /**
+   * @param bufferSize the capacity of every buffer.
+   * @param maxBuffers the most buffers kept for reuse.
+   */
+  BufferPool(int bufferSize, int maxBuffers) {
+    this.bufferSize = bufferSize;
+    this.maxBuffers = maxBuffers;
+    this.free = new ArrayDeque<>();
+  }
+
+  /** Takes an empty buffer from the pool, or allocates one if there's none. */
+  ByteBuffer acquire() {
+    ByteBuffer buffer;
+    synchronized (this) {
+      buffer = free.pollFirst();
+    }
+    return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+  }
+
+  /** Gives a buffer back to the pool. It must not be used afterwards. */
+  void release(ByteBuffer buffer) {
+    buffer.clear();
+    synchronized (this) {
+      if (free.size() < maxBuffers) {
+        free.addFirst(buffer);
+      }
+    }
+  }
+
+  /** Number of buffers waiting in the pool. */
+  synchronized int available() {
+    return free.size();
+  }
+}
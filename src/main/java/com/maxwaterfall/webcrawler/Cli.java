@@ -1,15 +1,36 @@
 package com.maxwaterfall.webcrawler;
 
+import com.maxwaterfall.webcrawler.crawl.CrawlConfig;
+import com.maxwaterfall.webcrawler.crawl.CrawlMetrics;
+import com.maxwaterfall.webcrawler.crawl.CrawlResult;
 import com.maxwaterfall.webcrawler.crawl.Crawler;
+import com.maxwaterfall.webcrawler.crawl.FrontierPriority;
+import com.maxwaterfall.webcrawler.crawl.VisitListener;
 import com.maxwaterfall.webcrawler.crawl.VisitedPage;
+import com.maxwaterfall.webcrawler.crawl.VisitedSetStats;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Clock;
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Cli is responsible for interpreting, validating and executing commands. It is also responsible
@@ -37,73 +58,566 @@ public class Cli {
   /**
    * Interprets, validates and executes commands.
    *
-   * <p>If the command is valid, the only argument should be the starting link.
+   * <p>If the command is valid, the only argument should be the starting link. Options of the form
+   * '--name=value' may come before or after it.
    *
    * @param args the arguments passed by the user to the program.
    * @return the system exit code.
    */
   public int interpret(String... args) {
+    var options = new HashMap<String, String>();
+    var arguments = new ArrayList<String>();
+    for (var arg : args) {
+      if (arg.startsWith("--")) {
+        var nameAndValue = arg.substring(2).split("=", 2);
+        options.put(nameAndValue[0], nameAndValue.length == 2 ? nameAndValue[1] : "");
+      } else {
+        arguments.add(arg);
+      }
+    }
+
+    // A resumed crawl carries on from the start link it was given the first time.
+    var resume = options.remove("resume");
+    var outputFile = options.remove("output-file");
+    var outputOption = options.remove("output");
+    var sortedOption = options.remove("sorted");
+    var progressOption = options.remove("progress");
+    var metricsFile = options.remove("metrics-file");
+
     // Only argument is the starting link.
-    if (args.length < 1) {
+    if (arguments.size() < 1 && resume == null) {
       log("Missing [starting-link] argument");
       logUsage();
       return 1;
     }
 
     URI start = null;
-    try {
-      start = URI.create(args[0]);
-    } catch (IllegalArgumentException e) {
-      errorLog("'" + args[0] + "' is not a valid uri");
-      logUsage();
-      return 1;
+    if (resume == null) {
+      try {
+        start = URI.create(arguments.get(0));
+      } catch (IllegalArgumentException e) {
+        errorLog("'" + arguments.get(0) + "' is not a valid uri");
+        logUsage();
+        return 1;
+      }
+
+      if (start.getScheme() == null) {
+        errorLog("'" + arguments.get(0) + "' must contain a scheme");
+        logUsage();
+        return 1;
+      }
     }
 
-    if (start.getScheme() == null) {
-      errorLog("'" + args[0] + "' must contain a scheme");
+    HttpClient.Builder httpClient;
+    CrawlConfig config;
+    Output output;
+    boolean sorted;
+    int progressSeconds;
+    try {
+      httpClient = httpClient(options);
+      config = crawlConfig(options);
+      output =
+          outputOption == null
+              ? Output.TEXT
+              : enumOption(Output.class, Map.entry("output", outputOption));
+      // Text is always sorted, the other formats only when asked to.
+      sorted = output == Output.TEXT || booleanOption("sorted", sortedOption);
+      progressSeconds =
+          progressOption == null ? 0 : intOption(Map.entry("progress", progressOption));
+      if (output == Output.GRAPH && outputFile == null) {
+        throw new IllegalArgumentException("--output=graph needs an --output-file to map");
+      }
+    } catch (IllegalArgumentException e) {
+      errorLog(e.getMessage());
       logUsage();
       return 1;
     }
 
+    // Progress and the summary go wherever the pages don't.
+    var status = output == Output.TEXT || outputFile != null ? outputStream : errorStream;
+    FileChannel file = null;
+    Crawler crawler = null;
+    ScheduledExecutorService progress = null;
     try {
-      log("Starting to crawl " + start.toString() + ", please wait");
+      if (outputFile != null) {
+        // The graph is written by mapping the file, which needs it to be readable too.
+        file =
+            FileChannel.open(
+                Path.of(outputFile),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+      }
+      var pages = resultWriter(output, sorted, file);
+
+      crawler = new Crawler(httpClient.build(), config);
+      if (progressSeconds > 0) {
+        progress = logProgress(status, crawler.getMetrics(), progressSeconds);
+      }
       var timerStart = clock.instant();
-      var visitedPages = new Crawler(new HttpClient()).crawl(start);
-      logResult(start, visitedPages, Duration.between(timerStart, clock.instant()));
+      VisitListener listener = page -> write(pages, page);
+      CrawlResult result;
+      if (resume != null) {
+        status.println("Resuming the crawl in " + resume + ", please wait");
+        result = crawler.resume(Path.of(resume), listener);
+      } else {
+        status.println("Starting to crawl " + start.toString() + ", please wait");
+        result = crawler.crawl(start, listener);
+      }
+      var timeTaken = Duration.between(timerStart, clock.instant());
+      if (progress != null) {
+        progress.shutdownNow();
+      }
+
+      // Text on stdout goes between the header and the summary, anything else is written first.
+      boolean inline = output == Output.TEXT && file == null;
+      if (!inline) {
+        pages.finish();
+      }
+      logResult(
+          status,
+          result.getStart(),
+          inline ? pages : null,
+          result.getTotalVisited(),
+          timeTaken);
+      if (file != null) {
+        status.println("    Pages written to: " + outputFile);
+      }
+      if (metricsFile != null) {
+        try (var out = Files.newOutputStream(Path.of(metricsFile))) {
+          MetricsReport.write(crawler.getMetrics(), timeTaken, out);
+        }
+        status.println("    Metrics written to: " + metricsFile);
+      }
+      if (config.getVisitedSet() != CrawlConfig.VisitedSetType.STRINGS) {
+        logVisitedSetStats(status, result.getVisitedSetStats());
+      }
+      if (config.isSkipDuplicates()) {
+        // Only listed where people read the pages too.
+        logDuplicates(status, result.getDuplicates(), output == Output.TEXT);
+      }
+      if (result.getUnvisited() > 0) {
+        status.println(
+            "    Stopped at the page or time limit: "
+                + result.getUnvisited()
+                + " uris left unvisited");
+      }
       return 0;
     } catch (Exception e) {
       errorLog("An unexpected error occurred");
       e.printStackTrace(errorStream);
       logUsage();
       return 1;
+    } finally {
+      if (progress != null) {
+        progress.shutdownNow();
+      }
+      if (crawler != null) {
+        crawler.close();
+      }
+      if (file != null) {
+        try {
+          file.close();
+        } catch (IOException e) {
+          errorLog("Could not close " + outputFile);
+        }
+      }
+    }
+  }
+
+  /** Formats the visited pages can be written in. */
+  private enum Output {
+    TEXT,
+    NDJSON,
+    EDGES,
+    GRAPH
+  }
+
+  /**
+   * Creates the writer of the visited pages.
+   *
+   * @param file the output file, or null to write to the output stream.
+   */
+  private ResultWriter resultWriter(Output output, boolean sorted, FileChannel file)
+      throws IOException {
+    OutputStream out = file == null ? outputStream : Channels.newOutputStream(file);
+    ResultWriter writer;
+    switch (output) {
+      case TEXT:
+        writer = new TextResultWriter(out);
+        break;
+      case NDJSON:
+        writer = new NdjsonResultWriter(out);
+        break;
+      case EDGES:
+        writer = new EdgeListResultWriter(out);
+        break;
+      case GRAPH:
+        writer = new GraphResultWriter(file);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown output " + output);
+    }
+    return sorted ? new SortedResultWriter(writer) : writer;
+  }
+
+  private static void write(ResultWriter writer, VisitedPage page) {
+    try {
+      writer.write(page);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Configures the http client from the '--name=value' options that are about it, removing them
+   * from the options. Also used by the load harness.
+   */
+  static HttpClient.Builder httpClient(Map<String, String> options) {
+    var builder = HttpClient.builder();
+    var iterator = options.entrySet().iterator();
+    while (iterator.hasNext()) {
+      var option = iterator.next();
+      switch (option.getKey()) {
+        case "connect-timeout":
+          builder.connectTimeout(timeoutOption(option));
+          break;
+        case "request-timeout":
+          builder.requestTimeout(timeoutOption(option));
+          break;
+        case "http-version":
+          builder.version(httpVersionOption(option));
+          break;
+        case "max-page-bytes":
+          builder.maxBodyBytes(intOption(option));
+          break;
+        case "compression":
+          builder.compression(booleanOption(option.getKey(), option.getValue()));
+          break;
+        default:
+          continue;
+      }
+      iterator.remove();
+    }
+    return builder;
+  }
+
+  /**
+   * Builds the crawl config from the '--name=value' options given by the user. Also used by the
+   * load harness.
+   */
+  static CrawlConfig crawlConfig(Map<String, String> options) {
+    var builder = CrawlConfig.builder();
+    List<InetSocketAddress> clusterNodes = null;
+    Integer clusterNode = null;
+    for (var option : options.entrySet()) {
+      switch (option.getKey()) {
+        case "parser":
+          builder.parser(enumOption(CrawlConfig.Parser.class, option));
+          break;
+        case "mode":
+          builder.mode(enumOption(CrawlConfig.Mode.class, option));
+          break;
+        case "max-concurrent-requests":
+          builder.maxConcurrentRequests(intOption(option));
+          break;
+        case "frontier-memory-limit":
+          builder.frontierMemoryLimit(intOption(option));
+          break;
+        case "frontier-order":
+          builder.frontierPriority(frontierPriorityOption(option));
+          break;
+        case "max-depth":
+          builder.maxDepth(intOption(option));
+          break;
+        case "max-pages":
+          builder.maxPages(intOption(option));
+          break;
+        case "time-budget":
+          builder.timeBudget(timeoutOption(option));
+          break;
+        case "robots-txt":
+          builder.respectRobotsTxt(booleanOption(option.getKey(), option.getValue()));
+          break;
+        case "seed-sitemaps":
+          builder.seedSitemaps(booleanOption(option.getKey(), option.getValue()));
+          break;
+        case "parse-threads":
+          builder.parseThreads(intOption(option));
+          break;
+        case "max-connections-per-host":
+          builder.maxConnectionsPerHost(intOption(option));
+          break;
+        case "host-requests-per-second":
+          builder.hostRequestsPerSecond(doubleOption(option));
+          break;
+        case "adaptive-concurrency":
+          builder.adaptiveConcurrency(booleanOption(option.getKey(), option.getValue()));
+          break;
+        case "visited-set":
+          builder.visitedSet(enumOption(CrawlConfig.VisitedSetType.class, option));
+          break;
+        case "expected-uris":
+          builder.expectedUris(intOption(option));
+          break;
+        case "checkpoint-dir":
+          builder.checkpointDirectory(Path.of(option.getValue()));
+          break;
+        case "response-cache-dir":
+          builder.responseCacheDirectory(Path.of(option.getValue()));
+          break;
+        case "skip-duplicates":
+          builder.skipDuplicates(booleanOption(option.getKey(), option.getValue()));
+          break;
+        case "duplicate-similarity":
+          builder.duplicateSimilarity(doubleOption(option));
+          break;
+        case "cluster-nodes":
+          clusterNodes = addressesOption(option);
+          break;
+        case "cluster-node":
+          clusterNode = intOption(option);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option '--" + option.getKey() + "'");
+      }
+    }
+    if ((clusterNodes == null) != (clusterNode == null)) {
+      throw new IllegalArgumentException(
+          "--cluster-nodes and --cluster-node must be used together");
+    }
+    if (clusterNodes != null) {
+      builder.cluster(clusterNodes, clusterNode);
+    }
+    return builder.build();
+  }
+
+  /** Parses a comma separated list of 'host:port' addresses. */
+  private static List<InetSocketAddress> addressesOption(Map.Entry<String, String> option) {
+    var addresses = new ArrayList<InetSocketAddress>();
+    for (var address : option.getValue().split(",")) {
+      int colon = address.lastIndexOf(':');
+      try {
+        addresses.add(
+            new InetSocketAddress(
+                address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+      } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+        throw new IllegalArgumentException(
+            "'" + address + "' is not a valid host:port for --" + option.getKey());
+      }
+    }
+    return addresses;
+  }
+
+  private static <E extends Enum<E>> E enumOption(Class<E> type, Map.Entry<String, String> option) {
+    try {
+      return Enum.valueOf(type, option.getValue().toUpperCase(Locale.ROOT).replace('-', '_'));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(
+          "'" + option.getValue() + "' is not a valid value for --" + option.getKey());
+    }
+  }
+
+  /** Parses the order the frontier is visited in, null meaning the order uris were found. */
+  private static FrontierPriority frontierPriorityOption(Map.Entry<String, String> option) {
+    switch (option.getValue()) {
+      case "found":
+        return null;
+      case "depth":
+        return FrontierPriority.byDepth();
+      case "in-links":
+        return FrontierPriority.byInLinks();
+      default:
+        throw new IllegalArgumentException(
+            "'" + option.getValue() + "' is not a valid value for --" + option.getKey());
+    }
+  }
+
+  /** Parses a number of seconds, 0 meaning no timeout. */
+  private static Duration timeoutOption(Map.Entry<String, String> option) {
+    int seconds = intOption(option);
+    return seconds == 0 ? null : Duration.ofSeconds(seconds);
+  }
+
+  private static java.net.http.HttpClient.Version httpVersionOption(
+      Map.Entry<String, String> option) {
+    switch (option.getValue()) {
+      case "1.1":
+        return java.net.http.HttpClient.Version.HTTP_1_1;
+      case "2":
+        return java.net.http.HttpClient.Version.HTTP_2;
+      default:
+        throw new IllegalArgumentException(
+            "'" + option.getValue() + "' is not a valid value for --" + option.getKey());
+    }
+  }
+
+  private static boolean booleanOption(String name, String value) {
+    if (value == null || value.equals("false")) return false;
+    if (value.isEmpty() || value.equals("true")) return true;
+    throw new IllegalArgumentException("'" + value + "' is not a valid value for --" + name);
+  }
+
+  private static double doubleOption(Map.Entry<String, String> option) {
+    try {
+      return Double.parseDouble(option.getValue());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(
+          "'" + option.getValue() + "' is not a valid number for --" + option.getKey());
+    }
+  }
+
+  private static int intOption(Map.Entry<String, String> option) {
+    try {
+      return Integer.parseInt(option.getValue());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(
+          "'" + option.getValue() + "' is not a valid number for --" + option.getKey());
+    }
+  }
+
+  void logResult(URI start, Set<VisitedPage> visitedPages, Duration timeTaken) throws IOException {
+    var pages = new SortedResultWriter(new TextResultWriter(outputStream));
+    for (var page : visitedPages) {
+      pages.write(page);
     }
+    logResult(outputStream, start, pages, visitedPages.size(), timeTaken);
   }
 
-  private void logResult(URI start, Set<VisitedPage> visitedPages, Duration timeTaken) {
-    log("Crawl starting from " + start + " complete\n");
-    log("Visited:");
+  /**
+   * Prints the summary of a crawl.
+   *
+   * @param pages the pages to print before the summary, or null if they went elsewhere.
+   */
+  private void logResult(
+      PrintStream status, URI start, ResultWriter pages, long totalVisited, Duration timeTaken)
+      throws IOException {
+    status.println("Crawl starting from " + start + " complete\n");
+    if (pages != null) {
+      status.println("Visited:");
+      status.flush();
+      pages.finish();
+      status.println("");
+    }
+    status.println("Summary:");
+    status.println("    Total visited: " + totalVisited);
+    status.println("    Crawl time: " + timeTaken);
+  }
 
-    var sorted = sortVisitedPages(visitedPages);
+  /**
+   * Prints a line with the progress of the crawl every interval until the returned executor is shut
+   * down. Rates are over the last interval.
+   */
+  private static ScheduledExecutorService logProgress(
+      PrintStream status, CrawlMetrics metrics, int intervalSeconds) {
+    var executor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              var thread = new Thread(runnable, "progress");
+              thread.setDaemon(true);
+              return thread;
+            });
+    var last = new long[] {System.nanoTime(), 0, 0};
+    executor.scheduleAtFixedRate(
+        () -> {
+          long now = System.nanoTime();
+          long pages = metrics.getPagesVisited();
+          long bytes = metrics.getBytesRead();
+          double seconds = (now - last[0]) / 1e9;
+          status.println(
+              String.format(
+                  Locale.ROOT,
+                  "    Progress: %d visited (%.1f/s), %.1f MB read (%.2f MB/s), %d in flight,"
+                      + " %d in frontier, %d tasks, %d errors",
+                  pages,
+                  (pages - last[1]) / seconds,
+                  bytes / 1e6,
+                  (bytes - last[2]) / 1e6 / seconds,
+                  metrics.getRequestsInFlight(),
+                  metrics.getFrontierSize(),
+                  metrics.getPendingTasks(),
+                  metrics.getErrors()));
+          last[0] = now;
+          last[1] = pages;
+          last[2] = bytes;
+        },
+        intervalSeconds,
+        intervalSeconds,
+        TimeUnit.SECONDS);
+    return executor;
+  }
 
-    sorted.forEach(
-        vp -> {
-          log("    " + vp.getPageLink());
-          vp.getSeenLinks()
-              .forEach(
-                  link -> {
-                    log("        - " + link);
-                  });
-        });
+  private void logVisitedSetStats(PrintStream status, VisitedSetStats stats) {
+    status.println(
+        String.format(
+            Locale.ROOT,
+            "    Visited set: %s, %d uris, %d bytes, false positive rate %.3g",
+            stats.getType().name().toLowerCase(Locale.ROOT),
+            stats.getSize(),
+            stats.getMemoryBytes(),
+            stats.getFalsePositiveRate()));
+  }
 
-    log("");
-    log("Summary:");
-    log("    Total visited: " + sorted.size());
-    log("    Crawl time: " + timeTaken);
+  /**
+   * Prints how many pages were duplicates of others.
+   *
+   * @param list whether to also print each page with its duplicates.
+   */
+  private static void logDuplicates(
+      PrintStream status, Map<String, List<String>> duplicates, boolean list) {
+    long pages = duplicates.values().stream().mapToLong(List::size).sum();
+    status.println("    Duplicates: " + pages + " pages, their links weren't followed");
+    if (!list) return;
+
+    for (var cluster : new TreeMap<>(duplicates).entrySet()) {
+      status.println("        " + cluster.getKey());
+      cluster.getValue().stream().sorted().forEach(page -> status.println("            - " + page));
+    }
   }
 
   private void logUsage() {
     errorLog(
-        "Usage: java -jar crawler.jar [starting-link]\nExample: java -jar crawler.jar https://example.com/");
+        "Usage: java -jar crawler.jar [options] [starting-link]\n"
+            + "Example: java -jar crawler.jar https://example.com/\n"
+            + "Options:\n"
+            + "    --parser=streaming|jsoup       how links are extracted from pages (default: streaming)\n"
+            + "    --mode=blocking|async|virtual-threads\n"
+            + "                                   how pages are fetched (default: blocking)\n"
+            + "    --max-concurrent-requests=N    most visits in progress at once (default: 256)\n"
+            + "    --frontier-memory-limit=N      uris waiting on the heap before spilling (default: 100000)\n"
+            + "    --frontier-order=found|depth|in-links\n"
+            + "                                   which waiting uris are visited first (default: found)\n"
+            + "    --max-depth=N                  most links followed from the starting-link\n"
+            + "    --max-pages=N                  most pages visited\n"
+            + "    --time-budget=SECONDS          stop starting visits after SECONDS, 0 for no limit\n"
+            + "    --robots-txt=true|false        skip uris the host's robots.txt disallows (default: true)\n"
+            + "    --seed-sitemaps                also visit the pages listed in the host's sitemaps\n"
+            + "    --parse-threads=N              threads parsing pages in async mode (default: cores)\n"
+            + "    --max-connections-per-host=N   most connections to a host at once (default: 256)\n"
+            + "    --host-requests-per-second=N   most requests a second to a host (default: no limit)\n"
+            + "    --adaptive-concurrency         tune connections per host from response times\n"
+            + "    --visited-set=strings|fingerprint|bloom\n"
+            + "                                   how visited uris are remembered (default: strings)\n"
+            + "    --expected-uris=N              uris expected, sizes the visited set (default: 100000)\n"
+            + "    --checkpoint-dir=DIR           checkpoint the crawl to DIR so it can be resumed\n"
+            + "    --resume=DIR                   resume the crawl checkpointed to DIR, no starting-link\n"
+            + "    --response-cache-dir=DIR       cache validators in DIR, only fetch changed pages\n"
+            + "    --skip-duplicates              don't follow links of pages with near-duplicate text\n"
+            + "    --duplicate-similarity=N       share of text near-duplicates have in common (default: 0.9)\n"
+            + "    --http-version=1.1|2           preferred http version (default: 2)\n"
+            + "    --connect-timeout=SECONDS      wait for a connection, 0 for ever (default: 10)\n"
+            + "    --request-timeout=SECONDS      wait for a response, 0 for ever (default: 30)\n"
+            + "    --max-page-bytes=N             most bytes read of a page (default: 10485760)\n"
+            + "    --compression=true|false       ask for compressed pages (default: true)\n"
+            + "    --cluster-nodes=HOST:PORT,...  split the crawl between these processes\n"
+            + "    --cluster-node=N               index of this process in --cluster-nodes\n"
+            + "    --output=text|ndjson|edges|graph\n"
+            + "                                   format of the visited pages (default: text)\n"
+            + "    --output-file=FILE             write the visited pages to FILE instead of stdout\n"
+            + "    --sorted                       sort ndjson, edges and graph output, text always is\n"
+            + "    --progress=SECONDS             print progress every SECONDS while crawling\n"
+            + "    --metrics-file=FILE            write a json report of the crawl metrics to FILE");
   }
 
   private void errorLog(Object obj) {
@@ -113,17 +627,4 @@ public class Cli {
   private void log(Object obj) {
     outputStream.println(obj);
   }
-
-  /** Sorts the visited pages using natural order. */
-  private List<VisitedPage> sortVisitedPages(Set<VisitedPage> visitedPages) {
-    var sorted = new ArrayList<>(visitedPages);
-
-    // First sort all the 'seen' links on each page.
-    sorted.forEach(vp -> vp.getSeenLinks().sort(Comparator.naturalOrder()));
-
-    // Now sort the visited page links themselves.
-    sorted.sort(Comparator.comparing(VisitedPage::getPageLink));
-
-    return sorted;
-  }
 }
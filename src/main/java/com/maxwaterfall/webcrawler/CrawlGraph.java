@@ -0,0 +1,227 @@
+package com.maxwaterfall.webcrawler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the crawl graph written by '--output=graph', see {@link GraphResultWriter}. The file is
+ * memory-mapped: opening it only reads the header, and each lookup only touches the pages of the
+ * file it needs, so a graph of any size opens at once and doesn't take up heap.
+ *
+ * <p>Every uri, visited or only linked to, is a node with an id from 0 to {@link #getNodeCount()}
+ * - 1. Uris are normalized the same way as in the other outputs, e.g. 'example.com/a'. Safe for
+ * concurrent use.
+ *
+ * <h2>Format</h2>
+ *
+ * <p>All numbers are little-endian, so the sections can also be mapped directly as arrays by other
+ * tools. The header is:
+ *
+ * <ul>
+ *   <li>int magic 'CRG1' and int version 1.
+ *   <li>long number of nodes n and long number of edges m.
+ *   <li>for each section in the order below, its long offset in the file and long length in bytes.
+ * </ul>
+ *
+ * <p>The sections are:
+ *
+ * <ol>
+ *   <li>uri offsets: int[n + 1], where the utf-8 bytes of uri i start and end in the uri bytes.
+ *   <li>uri table: int[power of two at least 2n], open addressing by {@link #hash} with linear
+ *       probing, each slot holds id + 1 or 0 if it's empty.
+ *   <li>visited: long[(n + 63) / 64], bit i is set if node i was visited.
+ *   <li>out index: int[n + 1], where the links of node i start and end in the out edges.
+ *   <li>out edges: int[m], the ids each page links to, in the order they were found on it.
+ *   <li>in index: int[n + 1], where the pages linking to node i start and end in the in edges.
+ *   <li>in edges: int[m], the ids of the pages linking to each node.
+ *   <li>uri bytes: the utf-8 bytes of every uri, back to back.
+ * </ol>
+ */
+public class CrawlGraph implements Closeable {
+
+  static final int MAGIC = 'C' | 'R' << 8 | 'G' << 16 | '1' << 24;
+  static final int VERSION = 1;
+
+  static final int URI_OFFSETS = 0;
+  static final int URI_TABLE = 1;
+  static final int VISITED = 2;
+  static final int OUT_INDEX = 3;
+  static final int OUT_EDGES = 4;
+  static final int IN_INDEX = 5;
+  static final int IN_EDGES = 6;
+  static final int URI_BYTES = 7;
+  static final int SECTIONS = 8;
+
+  static final int HEADER_BYTES = 4 + 4 + 8 + 8 + SECTIONS * 16;
+
+  private final FileChannel channel;
+  private final int nodeCount;
+  private final long edgeCount;
+
+  private final IntBuffer uriOffsets;
+  private final IntBuffer uriTable;
+  private final LongBuffer visited;
+  private final IntBuffer outIndex;
+  private final IntBuffer outEdges;
+  private final IntBuffer inIndex;
+  private final IntBuffer inEdges;
+  private final ByteBuffer uriBytes;
+
+  private CrawlGraph(FileChannel channel) throws IOException {
+    this.channel = channel;
+    var header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    while (header.hasRemaining() && channel.read(header) >= 0) {}
+    header.flip();
+    if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+      throw new IOException("Not a crawl graph");
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported crawl graph version " + version);
+    }
+    this.nodeCount = (int) header.getLong();
+    this.edgeCount = header.getLong();
+
+    var sections = new ByteBuffer[SECTIONS];
+    for (int i = 0; i < SECTIONS; i++) {
+      long offset = header.getLong();
+      long length = header.getLong();
+      sections[i] =
+          channel
+              .map(FileChannel.MapMode.READ_ONLY, offset, length)
+              .order(ByteOrder.LITTLE_ENDIAN);
+    }
+    this.uriOffsets = sections[URI_OFFSETS].asIntBuffer();
+    this.uriTable = sections[URI_TABLE].asIntBuffer();
+    this.visited = sections[VISITED].asLongBuffer();
+    this.outIndex = sections[OUT_INDEX].asIntBuffer();
+    this.outEdges = sections[OUT_EDGES].asIntBuffer();
+    this.inIndex = sections[IN_INDEX].asIntBuffer();
+    this.inEdges = sections[IN_EDGES].asIntBuffer();
+    this.uriBytes = sections[URI_BYTES];
+  }
+
+  /** Opens a crawl graph file. */
+  public static CrawlGraph open(Path file) throws IOException {
+    var channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      return new CrawlGraph(channel);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /** Number of uris in the graph, visited or not. */
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+  /** Number of links from visited pages. */
+  public long getEdgeCount() {
+    return edgeCount;
+  }
+
+  /** Returns the normalized uri of a node. */
+  public String getUri(int id) {
+    checkId(id);
+    int start = uriOffsets.get(id);
+    var bytes = new byte[uriOffsets.get(id + 1) - start];
+    uriBytes.duplicate().position(start).get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Finds the node of a normalized uri.
+   *
+   * @return the id of the uri, or -1 if it isn't in the graph.
+   */
+  public int getId(String uri) {
+    var bytes = uri.getBytes(StandardCharsets.UTF_8);
+    int mask = uriTable.limit() - 1;
+    for (int slot = (int) hash(bytes) & mask; ; slot = (slot + 1) & mask) {
+      int id = uriTable.get(slot) - 1;
+      if (id < 0) return -1;
+      if (uriEquals(id, bytes)) return id;
+    }
+  }
+
+  /** Whether the page of the node was visited, rather than only linked to. */
+  public boolean isVisited(int id) {
+    checkId(id);
+    return (visited.get(id >>> 6) & (1L << id)) != 0;
+  }
+
+  /** Number of links on the page, 0 if it wasn't visited. */
+  public int getOutDegree(int id) {
+    checkId(id);
+    return outIndex.get(id + 1) - outIndex.get(id);
+  }
+
+  /** Number of visited pages linking to the node. */
+  public int getInDegree(int id) {
+    checkId(id);
+    return inIndex.get(id + 1) - inIndex.get(id);
+  }
+
+  /** Returns the ids of the links on the page, in the order they were found on it. */
+  public int[] getOutLinks(int id) {
+    checkId(id);
+    return ints(outEdges, outIndex.get(id), outIndex.get(id + 1));
+  }
+
+  /** Returns the ids of the visited pages linking to the node. */
+  public int[] getInLinks(int id) {
+    checkId(id);
+    return ints(inEdges, inIndex.get(id), inIndex.get(id + 1));
+  }
+
+  /** Closes the file. The mappings are released once they are garbage collected. */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /** The hash of the utf-8 bytes of a uri in the uri table, FNV-1a then the MurmurHash3 mix. */
+  static long hash(byte[] bytes) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : bytes) {
+      hash ^= b & 0xFF;
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  private boolean uriEquals(int id, byte[] bytes) {
+    int start = uriOffsets.get(id);
+    if (uriOffsets.get(id + 1) - start != bytes.length) return false;
+    for (int i = 0; i < bytes.length; i++) {
+      if (uriBytes.get(start + i) != bytes[i]) return false;
+    }
+    return true;
+  }
+
+  private static int[] ints(IntBuffer buffer, int start, int end) {
+    var ints = new int[end - start];
+    buffer.duplicate().position(start).get(ints);
+    return ints;
+  }
+
+  private void checkId(int id) {
+    if (id < 0 || id >= nodeCount) {
+      throw new IndexOutOfBoundsException(
+          "id must be between 0 and " + (nodeCount - 1) + " but was " + id);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package com.maxwaterfall.webcrawler;
+
+import com.maxwaterfall.webcrawler.crawl.VisitedPage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes a compact binary edge list. Every uri is written once and given the next id, starting from
+ * 0, pages then refer to uris by id. Numbers are unsigned LEB128 varints.
+ *
+ * <p>Each record starts with a tag byte:
+ *
+ * <ul>
+ *   <li>'N', length, utf-8 uri: defines the next id.
+ *   <li>'P', page id, number of links, the id of each link: a visited page and its links.
+ * </ul>
+ *
+ * <p>A uri is always defined before the first page that refers to it. Keeps the id of every uri in
+ * memory, but never the links themselves.
+ */
+class EdgeListResultWriter implements ResultWriter {
+
+  static final int NODE = 'N';
+  static final int PAGE = 'P';
+
+  private final OutputStream out;
+  private final Map<String, Integer> ids;
+  private int[] linkIds;
+
+  EdgeListResultWriter(OutputStream out) {
+    this.out = new BufferedOutputStream(out, 64 * 1024);
+    this.ids = new HashMap<>();
+    this.linkIds = new int[64];
+  }
+
+  @Override
+  public synchronized void write(VisitedPage page) throws IOException {
+    int pageId = id(page.getPageLink());
+    var links = page.getSeenLinks();
+    if (linkIds.length < links.size()) {
+      linkIds = new int[links.size()];
+    }
+    for (int i = 0; i < links.size(); i++) {
+      linkIds[i] = id(links.get(i));
+    }
+
+    out.write(PAGE);
+    writeVarint(pageId);
+    writeVarint(links.size());
+    for (int i = 0; i < links.size(); i++) {
+      writeVarint(linkIds[i]);
+    }
+  }
+
+  @Override
+  public synchronized void finish() throws IOException {
+    out.flush();
+  }
+
+  /** Finds the id of a uri, defining it first if it hasn't been seen before. */
+  private int id(String uri) throws IOException {
+    var id = ids.get(uri);
+    if (id != null) return id;
+
+    id = ids.size();
+    ids.put(uri, id);
+    var bytes = uri.getBytes(StandardCharsets.UTF_8);
+    out.write(NODE);
+    writeVarint(bytes.length);
+    out.write(bytes);
+    return id;
+  }
+
+  private void writeVarint(int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+}
@@ -0,0 +1,170 @@
+package com.maxwaterfall.webcrawler;
+
+import com.maxwaterfall.webcrawler.crawl.VisitedPage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts visited pages by link in a bounded amount of memory. Pages are collected into runs, each
+ * run that grows past the memory limit is sorted and spilled to a temporary file, and the runs are
+ * merged when the pages are drained. If everything fits in one run nothing touches the disk.
+ *
+ * <p>The links of each page are sorted as it is added. Safe for concurrent use.
+ */
+class ExternalPageSorter {
+
+  static final long DEFAULT_MAX_RUN_BYTES = 64L * 1024 * 1024;
+
+  private static final Comparator<VisitedPage> BY_LINK =
+      Comparator.comparing(VisitedPage::getPageLink);
+
+  private final long maxRunBytes;
+  private final List<VisitedPage> run;
+  private final List<Path> spilledRuns;
+  private long runBytes;
+
+  ExternalPageSorter() {
+    this(DEFAULT_MAX_RUN_BYTES);
+  }
+
+  /** Alternative constructor with a smaller memory limit for testing. */
+  ExternalPageSorter(long maxRunBytes) {
+    this.maxRunBytes = maxRunBytes;
+    this.run = new ArrayList<>();
+    this.spilledRuns = new ArrayList<>();
+  }
+
+  synchronized void add(VisitedPage page) throws IOException {
+    page.getSeenLinks().sort(Comparator.naturalOrder());
+    run.add(page);
+    runBytes += estimateBytes(page);
+    if (runBytes >= maxRunBytes) {
+      spill();
+    }
+  }
+
+  /** Number of runs that have been spilled to disk so far. */
+  synchronized int getSpilledRuns() {
+    return spilledRuns.size();
+  }
+
+  /** Writes every page added so far in order, then forgets them and deletes the spilled runs. */
+  synchronized void drainTo(ResultWriter writer) throws IOException {
+    if (spilledRuns.isEmpty()) {
+      run.sort(BY_LINK);
+      for (var page : run) {
+        writer.write(page);
+      }
+      clearRun();
+      return;
+    }
+
+    spill();
+    var readers = new ArrayList<RunReader>();
+    try {
+      var heads = new PriorityQueue<RunReader>(Comparator.comparing(r -> r.head, BY_LINK));
+      for (var path : spilledRuns) {
+        var reader = new RunReader(path);
+        readers.add(reader);
+        if (reader.next()) heads.add(reader);
+      }
+
+      while (!heads.isEmpty()) {
+        var reader = heads.poll();
+        writer.write(reader.head);
+        if (reader.next()) heads.add(reader);
+      }
+    } finally {
+      for (var reader : readers) {
+        reader.in.close();
+      }
+      for (var path : spilledRuns) {
+        Files.deleteIfExists(path);
+      }
+      spilledRuns.clear();
+    }
+  }
+
+  /** Sorts the current run and writes it to a temporary file. */
+  private void spill() throws IOException {
+    run.sort(BY_LINK);
+    var path = Files.createTempFile("webcrawler-pages", ".run");
+    spilledRuns.add(path);
+    try (var out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024))) {
+      out.writeInt(run.size());
+      for (var page : run) {
+        writeString(out, page.getPageLink());
+        out.writeInt(page.getSeenLinks().size());
+        for (var link : page.getSeenLinks()) {
+          writeString(out, link);
+        }
+      }
+    }
+    clearRun();
+  }
+
+  private void clearRun() {
+    run.clear();
+    runBytes = 0;
+  }
+
+  /** Roughly how much heap a page takes up. */
+  private static long estimateBytes(VisitedPage page) {
+    long bytes = 64 + 40 + 2L * page.getPageLink().length();
+    for (var link : page.getSeenLinks()) {
+      bytes += 8 + 40 + 2L * link.length();
+    }
+    return bytes;
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    var bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    var bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** Reads the pages of a spilled run back one at a time. */
+  private static class RunReader {
+
+    private final DataInputStream in;
+    private int remaining;
+    private VisitedPage head;
+
+    RunReader(Path path) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024));
+      this.remaining = in.readInt();
+    }
+
+    /** Moves to the next page of the run, returns false once there are none left. */
+    boolean next() throws IOException {
+      if (remaining == 0) return false;
+      remaining--;
+
+      var pageLink = readString(in);
+      int noOfLinks = in.readInt();
+      var seenLinks = new ArrayList<String>(noOfLinks);
+      for (int i = 0; i < noOfLinks; i++) {
+        seenLinks.add(readString(in));
+      }
+      head = new VisitedPage(pageLink, seenLinks);
+      return true;
+    }
+  }
+}
@@ -0,0 +1,234 @@
+package com.maxwaterfall.webcrawler;
+
+import com.maxwaterfall.webcrawler.crawl.VisitedPage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the crawl graph as a node table and CSR adjacency lists in a memory-mapped file, see
+ * {@link CrawlGraph} for the format and for reading it back.
+ *
+ * <p>While crawling, every uri is given the next id and each page is appended to a temporary file
+ * as its id, number of links and link ids. Only the ids of the uris and the degree of every node
+ * are kept in memory. Once the crawl is finished, the out and in edges are placed straight into the
+ * mapped file from the temporary one, then the uris are written after them.
+ */
+class GraphResultWriter implements ResultWriter {
+
+  private final FileChannel file;
+  private final Map<String, Integer> ids;
+  private final List<String> uris;
+  private final BitSet visited;
+  private int[] outDegrees;
+  private int[] inDegrees;
+  private long edges;
+
+  private final Path pagesFile;
+  private final DataOutputStream pages;
+
+  /** @param file the file to write to, opened for reading and writing. */
+  GraphResultWriter(FileChannel file) throws IOException {
+    this.file = file;
+    this.ids = new HashMap<>();
+    this.uris = new ArrayList<>();
+    this.visited = new BitSet();
+    this.outDegrees = new int[1024];
+    this.inDegrees = new int[1024];
+    this.pagesFile = Files.createTempFile("webcrawler-graph", ".pages");
+    pagesFile.toFile().deleteOnExit();
+    this.pages =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(pagesFile), 64 * 1024));
+  }
+
+  @Override
+  public synchronized void write(VisitedPage page) throws IOException {
+    int pageId = id(page.getPageLink());
+    var links = page.getSeenLinks();
+    visited.set(pageId);
+    outDegrees[pageId] += links.size();
+    edges += links.size();
+
+    pages.writeInt(pageId);
+    pages.writeInt(links.size());
+    for (var link : links) {
+      int linkId = id(link);
+      inDegrees[linkId]++;
+      pages.writeInt(linkId);
+    }
+  }
+
+  @Override
+  public synchronized void finish() throws IOException {
+    pages.close();
+    try {
+      writeGraph();
+    } finally {
+      Files.deleteIfExists(pagesFile);
+    }
+  }
+
+  private void writeGraph() throws IOException {
+    int nodes = uris.size();
+    int tableSize = 1;
+    while (tableSize < 2L * nodes) {
+      tableSize <<= 1;
+    }
+
+    var lengths = new long[CrawlGraph.SECTIONS];
+    lengths[CrawlGraph.URI_OFFSETS] = 4L * (nodes + 1);
+    lengths[CrawlGraph.URI_TABLE] = 4L * tableSize;
+    lengths[CrawlGraph.VISITED] = 8L * ((nodes + 63) / 64);
+    lengths[CrawlGraph.OUT_INDEX] = 4L * (nodes + 1);
+    lengths[CrawlGraph.OUT_EDGES] = 4L * edges;
+    lengths[CrawlGraph.IN_INDEX] = 4L * (nodes + 1);
+    lengths[CrawlGraph.IN_EDGES] = 4L * edges;
+    // Sections are mapped on their own, so each must fit in one buffer.
+    for (long length : lengths) {
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("The crawl graph is too large, a section would be " + length);
+      }
+    }
+    var offsets = new long[CrawlGraph.SECTIONS];
+    long offset = CrawlGraph.HEADER_BYTES;
+    for (int i = 0; i < CrawlGraph.SECTIONS; i++) {
+      offset = (offset + 7) & ~7;
+      offsets[i] = offset;
+      offset += lengths[i];
+    }
+
+    file.truncate(0);
+    writeEdges(nodes, offsets, lengths);
+    writeVisited(map(CrawlGraph.VISITED, offsets, lengths));
+    lengths[CrawlGraph.URI_BYTES] =
+        writeUris(
+            map(CrawlGraph.URI_OFFSETS, offsets, lengths).asIntBuffer(),
+            map(CrawlGraph.URI_TABLE, offsets, lengths).asIntBuffer(),
+            offsets[CrawlGraph.URI_BYTES]);
+
+    var header = ByteBuffer.allocate(CrawlGraph.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(CrawlGraph.MAGIC).putInt(CrawlGraph.VERSION).putLong(nodes).putLong(edges);
+    for (int i = 0; i < CrawlGraph.SECTIONS; i++) {
+      header.putLong(offsets[i]).putLong(lengths[i]);
+    }
+    header.flip();
+    long position = 0;
+    while (header.hasRemaining()) {
+      position += file.write(header, position);
+    }
+  }
+
+  /** Fills in the indexes from the degrees, then places every edge read back from the pages. */
+  private void writeEdges(int nodes, long[] offsets, long[] lengths) throws IOException {
+    var outIndex = map(CrawlGraph.OUT_INDEX, offsets, lengths).asIntBuffer();
+    var inIndex = map(CrawlGraph.IN_INDEX, offsets, lengths).asIntBuffer();
+    // Where the next out and in edge of each node goes.
+    var outNext = new int[nodes];
+    var inNext = new int[nodes];
+    int outStart = 0;
+    int inStart = 0;
+    for (int id = 0; id < nodes; id++) {
+      outIndex.put(id, outStart);
+      inIndex.put(id, inStart);
+      outNext[id] = outStart;
+      inNext[id] = inStart;
+      outStart += outDegrees[id];
+      inStart += inDegrees[id];
+    }
+    outIndex.put(nodes, outStart);
+    inIndex.put(nodes, inStart);
+    outDegrees = null;
+    inDegrees = null;
+
+    var outEdges = map(CrawlGraph.OUT_EDGES, offsets, lengths).asIntBuffer();
+    var inEdges = map(CrawlGraph.IN_EDGES, offsets, lengths).asIntBuffer();
+    try (var in =
+        new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(pagesFile), 64 * 1024))) {
+      while (true) {
+        int pageId;
+        try {
+          pageId = in.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        int links = in.readInt();
+        for (int i = 0; i < links; i++) {
+          int linkId = in.readInt();
+          outEdges.put(outNext[pageId]++, linkId);
+          inEdges.put(inNext[linkId]++, pageId);
+        }
+      }
+    }
+  }
+
+  private void writeVisited(ByteBuffer section) {
+    section.asLongBuffer().put(visited.toLongArray());
+  }
+
+  /**
+   * Appends the utf-8 bytes of every uri at the end of the file, filling in their offsets and the
+   * table to look them up by.
+   *
+   * @return the number of bytes written.
+   */
+  private long writeUris(IntBuffer uriOffsets, IntBuffer uriTable, long start) throws IOException {
+    int mask = uriTable.limit() - 1;
+    int length = 0;
+    var out = new BufferedOutputStream(Channels.newOutputStream(file.position(start)), 64 * 1024);
+    for (int id = 0; id < uris.size(); id++) {
+      var bytes = uris.get(id).getBytes(StandardCharsets.UTF_8);
+      uriOffsets.put(id, length);
+      int slot = (int) CrawlGraph.hash(bytes) & mask;
+      while (uriTable.get(slot) != 0) {
+        slot = (slot + 1) & mask;
+      }
+      uriTable.put(slot, id + 1);
+      out.write(bytes);
+      length += bytes.length;
+      if (length < 0) {
+        throw new IOException("The crawl graph is too large, the uris take more than 2 GiB");
+      }
+    }
+    uriOffsets.put(uris.size(), length);
+    out.flush();
+    return length;
+  }
+
+  private ByteBuffer map(int section, long[] offsets, long[] lengths) throws IOException {
+    return file.map(FileChannel.MapMode.READ_WRITE, offsets[section], lengths[section])
+        .order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** Finds the id of a uri, giving it the next one if it hasn't been seen before. */
+  private int id(String uri) {
+    var id = ids.get(uri);
+    if (id != null) return id;
+
+    id = ids.size();
+    ids.put(uri, id);
+    uris.add(uri);
+    if (id == outDegrees.length) {
+      outDegrees = Arrays.copyOf(outDegrees, id * 2);
+      inDegrees = Arrays.copyOf(inDegrees, id * 2);
+    }
+    return id;
+  }
+}
@@ -1,18 +1,86 @@
 package com.maxwaterfall.webcrawler;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
+/**
+ * Fetches pages over HTTP. Use {@link #builder()} to change the defaults.
+ *
+ * <p>HTTP/2 is preferred, so requests to the same host share a connection where the server
+ * supports it, otherwise idle HTTP/1.1 connections are kept alive and reused. Redirects are not
+ * followed, they are returned to the caller.
+ *
+ * <p>Bodies compressed with gzip or deflate are decoded. A body with a Content-Type that isn't html
+ * or a Content-Length over the limit is skipped without being downloaded, the response then has an
+ * empty body. A body without a Content-Length is cut off at the limit. Other files, e.g.
+ * robots.txt, are fetched with {@link #getFile}. Safe for concurrent use.
+ *
+ * <p>{@link #getPooledAsync} reads bodies off the heap, into direct buffers of a bounded pool that
+ * are reused from page to page.
+ */
 public class HttpClient {
 
+  private static final byte[] EMPTY = new byte[0];
+  /** The capacity of the pooled buffers bodies are read into. */
+  private static final int POOLED_BUFFER_SIZE = 16 * 1024;
+
+  private static final long MAX_POOLED_BYTES = 1L << 40;
+
   private final java.net.http.HttpClient httpClient;
+  private final Duration requestTimeout;
+  private final long maxBodyBytes;
+  private final boolean compression;
+  private final BufferPool bufferPool;
 
+  /** Creates a client with the default options. */
   public HttpClient() {
-    this.httpClient = java.net.http.HttpClient.newBuilder().build();
+    this(builder());
+  }
+
+  private HttpClient(Builder builder) {
+    var client =
+        java.net.http.HttpClient.newBuilder()
+            .version(builder.version)
+            .followRedirects(java.net.http.HttpClient.Redirect.NEVER)
+            .sslContext(LazySslContext.create())
+            .sslParameters(LazySslContext.defaultParameters());
+    if (builder.connectTimeout != null) {
+      client.connectTimeout(builder.connectTimeout);
+    }
+    this.httpClient = client.build();
+    this.requestTimeout = builder.requestTimeout;
+    this.maxBodyBytes = builder.maxBodyBytes;
+    this.compression = builder.compression;
+    this.bufferPool =
+        new BufferPool(POOLED_BUFFER_SIZE, (int) (builder.maxPooledBytes / POOLED_BUFFER_SIZE));
+  }
+
+  public static Builder builder() {
+    return new Builder();
   }
 
   /**
@@ -22,7 +90,615 @@ public class HttpClient {
    * @return the HttpResponse.
    */
   public HttpResponse<InputStream> get(URI uri) throws IOException, InterruptedException {
-    var request = HttpRequest.newBuilder().GET().uri(uri).build();
-    return httpClient.send(request, BodyHandlers.ofInputStream());
+    return get(uri, Map.of());
+  }
+
+  /**
+   * Makes a HTTP GET request to the given uri with extra headers, e.g. to make it conditional.
+   *
+   * @param uri to GET.
+   * @param headers to add to the request.
+   * @return the HttpResponse.
+   */
+  public HttpResponse<InputStream> get(URI uri, Map<String, String> headers)
+      throws IOException, InterruptedException {
+    return httpClient.send(request(uri, headers), this::streamBody);
+  }
+
+  /**
+   * Makes a HTTP GET request for a file that isn't a page, e.g. robots.txt or a sitemap. The body
+   * is streamed whatever its Content-Type, and is cut off at the given limit instead of the limit
+   * of pages.
+   *
+   * @param uri to GET.
+   * @param maxBodyBytes the most bytes read of the decoded body.
+   * @return the HttpResponse.
+   */
+  public HttpResponse<InputStream> getFile(URI uri, long maxBodyBytes)
+      throws IOException, InterruptedException {
+    return httpClient.send(
+        request(uri, Map.of()),
+        response -> {
+          var encoding = contentEncoding(response.headers());
+          return BodySubscribers.mapping(
+              BodySubscribers.ofInputStream(),
+              body -> new DecodingInputStream(body, encoding, maxBodyBytes));
+        });
+  }
+
+  /**
+   * Makes a non-blocking HTTP GET request to the given uri. No thread is held while waiting for the
+   * response, the whole body is read before the returned future completes.
+   *
+   * @param uri to GET.
+   * @return a future that completes with the HttpResponse.
+   */
+  public CompletableFuture<HttpResponse<byte[]>> getAsync(URI uri) {
+    return getAsync(uri, Map.of());
+  }
+
+  /**
+   * Makes a non-blocking HTTP GET request to the given uri with extra headers.
+   *
+   * @param uri to GET.
+   * @param headers to add to the request.
+   * @return a future that completes with the HttpResponse.
+   */
+  public CompletableFuture<HttpResponse<byte[]>> getAsync(URI uri, Map<String, String> headers) {
+    var cutOff = new CutOff();
+    return httpClient
+        .sendAsync(request(uri, headers), response -> byteArrayBody(response, cutOff))
+        .whenComplete((response, e) -> cutOff.cancel());
+  }
+
+  /**
+   * Makes a non-blocking HTTP GET request to the given uri, reading the body into pooled direct
+   * buffers instead of onto the heap. The whole body is read before the returned future completes.
+   * Close the body once it has been read, so its buffers are reused.
+   *
+   * @param uri to GET.
+   * @param headers to add to the request.
+   * @return a future that completes with the HttpResponse.
+   */
+  public CompletableFuture<HttpResponse<PooledBody>> getPooledAsync(
+      URI uri, Map<String, String> headers) {
+    var cutOff = new CutOff();
+    return httpClient
+        .sendAsync(request(uri, headers), response -> pooledBody(response, cutOff))
+        .whenComplete((response, e) -> cutOff.cancel());
+  }
+
+  private HttpRequest request(URI uri, Map<String, String> headers) {
+    var request = HttpRequest.newBuilder().GET().uri(uri);
+    if (requestTimeout != null) {
+      request.timeout(requestTimeout);
+    }
+    if (compression) {
+      request.header("Accept-Encoding", "gzip, deflate");
+    }
+    headers.forEach(request::header);
+    return request.build();
+  }
+
+  private BodySubscriber<InputStream> streamBody(ResponseInfo response) {
+    if (!isWanted(response)) {
+      return skipping(InputStream.nullInputStream());
+    }
+    // Decoding reads the gzip header, so it is left until the caller first reads the body.
+    var encoding = contentEncoding(response.headers());
+    return BodySubscribers.mapping(
+        BodySubscribers.ofInputStream(),
+        body -> new DecodingInputStream(body, encoding, maxBodyBytes));
+  }
+
+  private BodySubscriber<byte[]> byteArrayBody(ResponseInfo response, CutOff cutOff) {
+    if (!isWanted(response)) {
+      return skipping(EMPTY);
+    }
+    var encoding = contentEncoding(response.headers());
+    return BodySubscribers.mapping(
+        new LimitedByteArraySubscriber(maxBodyBytes, cutOff),
+        body -> encoding == null ? body : decode(body, encoding));
+  }
+
+  private BodySubscriber<PooledBody> pooledBody(ResponseInfo response, CutOff cutOff) {
+    if (!isWanted(response)) {
+      return skipping(new PooledBody(bufferPool));
+    }
+    return new PooledBodySubscriber(
+        new PooledBody(bufferPool), contentEncoding(response.headers()), maxBodyBytes, cutOff);
+  }
+
+  private byte[] decode(byte[] body, String encoding) {
+    var decoded = new ByteArrayOutputStream();
+    try (var in =
+        new DecodingInputStream(new ByteArrayInputStream(body), encoding, maxBodyBytes)) {
+      in.transferTo(decoded);
+    } catch (EOFException e) {
+      // The body was cut off at the limit, keep what could be decoded.
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return decoded.toByteArray();
+  }
+
+  /** Whether the body of the response is html that isn't too large. */
+  private boolean isWanted(ResponseInfo response) {
+    var headers = response.headers();
+    try {
+      if (headers.firstValueAsLong("Content-Length").orElse(-1) > maxBodyBytes) return false;
+    } catch (NumberFormatException e) {
+      // Not a usable length, the body is still cut off at the limit.
+    }
+
+    // A response that doesn't say what it is might be html.
+    var contentType = headers.firstValue("Content-Type").orElse(null);
+    if (contentType == null) return true;
+    int parameters = contentType.indexOf(';');
+    var mediaType =
+        (parameters < 0 ? contentType : contentType.substring(0, parameters))
+            .strip()
+            .toLowerCase(Locale.ROOT);
+    return mediaType.isEmpty()
+        || mediaType.equals("text/html")
+        || mediaType.equals("application/xhtml+xml");
+  }
+
+  /** Returns the encoding the body must be decoded with, or null if it isn't encoded. */
+  private String contentEncoding(HttpHeaders headers) {
+    if (!compression) return null;
+    var encoding = headers.firstValue("Content-Encoding").orElse("").strip();
+    return encoding.isEmpty() || encoding.equalsIgnoreCase("identity")
+        ? null
+        : encoding.toLowerCase(Locale.ROOT);
+  }
+
+  /** Cancels the body as soon as it starts, so it isn't downloaded, and completes with empty. */
+  private static <T> BodySubscriber<T> skipping(T empty) {
+    return new BodySubscriber<>() {
+      @Override
+      public CompletionStage<T> getBody() {
+        return CompletableFuture.completedFuture(empty);
+      }
+
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.cancel();
+      }
+
+      @Override
+      public void onNext(List<ByteBuffer> item) {}
+
+      @Override
+      public void onError(Throwable throwable) {}
+
+      @Override
+      public void onComplete() {}
+    };
+  }
+
+  /**
+   * Decodes a body as it's read, and stops reading it once the limit of decoded bytes is reached.
+   * The decoder is only created by the first read.
+   */
+  private static class DecodingInputStream extends InputStream {
+
+    private final InputStream body;
+    private final String encoding;
+    private InputStream decoded;
+    private long remaining;
+
+    /** @param limit the most decoded bytes read. */
+    DecodingInputStream(InputStream body, String encoding, long limit) {
+      this.body = body;
+      this.encoding = encoding;
+      this.remaining = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) return -1;
+      int b = decoded().read();
+      if (b >= 0) remaining--;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      if (remaining <= 0) return -1;
+      int read = decoded().read(b, off, (int) Math.min(len, remaining));
+      if (read > 0) remaining -= read;
+      return read;
+    }
+
+    /** Closing before the body is fully read aborts the rest of the download. */
+    @Override
+    public void close() throws IOException {
+      if (decoded != null) {
+        decoded.close();
+      } else {
+        body.close();
+      }
+    }
+
+    private InputStream decoded() throws IOException {
+      if (decoded == null) {
+        if (encoding == null) {
+          decoded = body;
+        } else if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+          decoded = new GZIPInputStream(body);
+        } else if (encoding.equals("deflate")) {
+          decoded = new InflaterInputStream(body);
+        } else {
+          throw new IOException("Unsupported Content-Encoding '" + encoding + "'");
+        }
+      }
+      return decoded;
+    }
+  }
+
+  /**
+   * Collects a body into a byte array, and cancels the download once it reaches the limit through
+   * a {@link CutOff}.
+   */
+  private static class LimitedByteArraySubscriber implements BodySubscriber<byte[]> {
+
+    private final long limit;
+    private final ByteArrayOutputStream body;
+    private final CompletableFuture<byte[]> result;
+    private final CutOff cutOff;
+    private Flow.Subscription subscription;
+
+    /** @param cutOff cancels the download once the response has completed, if it's cut off. */
+    LimitedByteArraySubscriber(long limit, CutOff cutOff) {
+      this.limit = limit;
+      this.body = new ByteArrayOutputStream();
+      this.result = new CompletableFuture<>();
+      this.cutOff = cutOff;
+    }
+
+    @Override
+    public CompletionStage<byte[]> getBody() {
+      return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+      if (result.isDone()) return;
+      for (var buffer : buffers) {
+        int length = (int) Math.min(buffer.remaining(), limit - body.size());
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        body.writeBytes(bytes);
+        if (body.size() >= limit) {
+          cutOff.cutOff(subscription);
+          result.complete(body.toByteArray());
+          return;
+        }
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      result.complete(body.toByteArray());
+    }
+  }
+
+  /**
+   * Cancels the download of a body that was cut off at the limit, once the response has completed.
+   * Over HTTP/2 cancelling the stream fails the response unless its body has been handed over, and
+   * the client takes the body from the subscriber on another thread, so the subscriber itself
+   * can't cancel.
+   */
+  private static class CutOff {
+
+    private volatile Flow.Subscription subscription;
+
+    void cutOff(Flow.Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    void cancel() {
+      var cutOff = subscription;
+      if (cutOff != null) {
+        cutOff.cancel();
+      }
+    }
+  }
+
+  /**
+   * Copies a body into pooled buffers, decoding it on the way if it's compressed, and cancels the
+   * download once the limit of decoded bytes is reached. Only the inflater's window is held on the
+   * heap, the gzip header is skipped as it arrives and the trailer isn't checked: the body is
+   * complete at the end of the compressed data, and the bytes after it are ignored.
+   */
+  private static class PooledBodySubscriber implements BodySubscriber<PooledBody> {
+
+    // The fields of a gzip header in order, see RFC 1952.
+    private static final int GZIP_FIXED = 0;
+    private static final int GZIP_EXTRA_LENGTH = 1;
+    private static final int GZIP_EXTRA = 2;
+    private static final int GZIP_NAME = 3;
+    private static final int GZIP_COMMENT = 4;
+    private static final int GZIP_CRC = 5;
+    private static final int GZIP_DONE = 6;
+    /** The flag that says whether each field is there, by field. */
+    private static final int[] GZIP_FLAGS = {0, 4, 0, 8, 16, 2};
+
+    private final PooledBody body;
+    private final String encoding;
+    private final CompletableFuture<PooledBody> result;
+    private final CutOff cutOff;
+    private long remaining;
+    private Flow.Subscription subscription;
+
+    private Inflater inflater;
+    private int gzipField = GZIP_DONE;
+    private int gzipFlags;
+    private int gzipRead;
+    private int gzipExtraLength;
+
+    /**
+     * @param limit the most decoded bytes read.
+     * @param cutOff cancels the download once the response has completed, if the limit is reached.
+     */
+    PooledBodySubscriber(PooledBody body, String encoding, long limit, CutOff cutOff) {
+      this.body = body;
+      this.encoding = encoding;
+      this.result = new CompletableFuture<>();
+      this.cutOff = cutOff;
+      this.remaining = limit;
+    }
+
+    @Override
+    public CompletionStage<PooledBody> getBody() {
+      return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+      if (result.isDone()) return;
+      try {
+        for (var buffer : buffers) {
+          if (encoding == null ? copy(buffer) : inflate(buffer)) {
+            cutOff.cutOff(subscription);
+            onComplete();
+            return;
+          }
+          if (inflater != null && inflater.finished()) {
+            onComplete();
+            return;
+          }
+        }
+      } catch (IOException e) {
+        subscription.cancel();
+        onError(e);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      if (result.isDone()) return;
+      end();
+      body.close();
+      result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      if (result.isDone()) return;
+      end();
+      body.finish();
+      result.complete(body);
+    }
+
+    /**
+     * Copies the bytes of a buffer into the body.
+     *
+     * @return true if the limit has been reached.
+     */
+    private boolean copy(ByteBuffer in) {
+      while (in.hasRemaining()) {
+        var out = body.writable();
+        int length = (int) Math.min(Math.min(in.remaining(), out.remaining()), remaining);
+        int limit = in.limit();
+        in.limit(in.position() + length);
+        out.put(in);
+        in.limit(limit);
+        remaining -= length;
+        if (remaining == 0) return true;
+      }
+      return false;
+    }
+
+    /**
+     * Inflates the bytes of a buffer into the body. The inflater reads the buffer in place, so all
+     * of it is used before returning.
+     *
+     * @return true if the limit has been reached.
+     */
+    private boolean inflate(ByteBuffer in) throws IOException {
+      if (inflater == null) {
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+          inflater = new Inflater(true);
+          gzipField = GZIP_FIXED;
+        } else if (encoding.equals("deflate")) {
+          inflater = new Inflater();
+        } else {
+          throw new IOException("Unsupported Content-Encoding '" + encoding + "'");
+        }
+      }
+      if (!skipGzipHeader(in)) return false;
+
+      inflater.setInput(in);
+      try {
+        while (!inflater.finished()) {
+          var out = body.writable();
+          int inflated = inflater.inflate(out);
+          if (inflated >= remaining) {
+            out.position(out.position() - (int) (inflated - remaining));
+            remaining = 0;
+            return true;
+          }
+          remaining -= inflated;
+          if (inflated == 0 && inflater.needsInput()) return false;
+          if (inflater.needsDictionary()) throw new ZipException("Needs a preset dictionary");
+        }
+      } catch (DataFormatException e) {
+        throw new ZipException(e.getMessage());
+      }
+      // The end of the compressed data, the rest is the gzip trailer.
+      return false;
+    }
+
+    /**
+     * Reads past as much of the gzip header as the buffer holds, if the body is gzipped.
+     *
+     * @return true once all of the header has been read.
+     */
+    private boolean skipGzipHeader(ByteBuffer in) throws ZipException {
+      while (gzipField != GZIP_DONE) {
+        if (!in.hasRemaining()) return false;
+        int b = in.get() & 0xFF;
+        switch (gzipField) {
+          case GZIP_FIXED:
+            if ((gzipRead == 0 && b != 0x1f) || (gzipRead == 1 && b != 0x8b)) {
+              throw new ZipException("Not in GZIP format");
+            }
+            if (gzipRead == 2 && b != 8) throw new ZipException("Unsupported compression method");
+            if (gzipRead == 3) gzipFlags = b;
+            if (++gzipRead == 10) nextGzipField(GZIP_FIXED);
+            break;
+          case GZIP_EXTRA_LENGTH:
+            gzipExtraLength |= b << (8 * gzipRead);
+            if (++gzipRead == 2) {
+              gzipRead = 0;
+              gzipField = GZIP_EXTRA;
+              if (gzipExtraLength == 0) nextGzipField(GZIP_EXTRA);
+            }
+            break;
+          case GZIP_EXTRA:
+            if (++gzipRead == gzipExtraLength) nextGzipField(GZIP_EXTRA);
+            break;
+          case GZIP_NAME:
+          case GZIP_COMMENT:
+            // Zero terminated.
+            if (b == 0) nextGzipField(gzipField);
+            break;
+          case GZIP_CRC:
+            if (++gzipRead == 2) nextGzipField(GZIP_CRC);
+            break;
+          default:
+            throw new IllegalStateException("Unknown gzip header field " + gzipField);
+        }
+      }
+      return true;
+    }
+
+    /** Moves on to the first field after the given one that the flags say is there. */
+    private void nextGzipField(int after) {
+      gzipRead = 0;
+      gzipField = GZIP_DONE;
+      for (int field = GZIP_CRC; field > after; field--) {
+        if ((gzipFlags & GZIP_FLAGS[field]) != 0) gzipField = field;
+      }
+    }
+
+    private void end() {
+      if (inflater != null) {
+        inflater.end();
+      }
+    }
+  }
+
+  public static class Builder {
+
+    private java.net.http.HttpClient.Version version = java.net.http.HttpClient.Version.HTTP_2;
+    private Duration connectTimeout = Duration.ofSeconds(10);
+    private Duration requestTimeout = Duration.ofSeconds(30);
+    private long maxBodyBytes = 10 * 1024 * 1024;
+    private boolean compression = true;
+    private long maxPooledBytes = 16 * 1024 * 1024;
+
+    private Builder() {}
+
+    /**
+     * The HTTP version to use. With HTTP/2, the default, requests to a host that supports it share
+     * one connection. Hosts that don't are spoken to over HTTP/1.1 either way.
+     */
+    public Builder version(java.net.http.HttpClient.Version version) {
+      this.version = version;
+      return this;
+    }
+
+    /** How long to wait for a connection to be made, null to wait forever. 10s by default. */
+    public Builder connectTimeout(Duration connectTimeout) {
+      this.connectTimeout = requirePositive("connectTimeout", connectTimeout);
+      return this;
+    }
+
+    /** How long to wait for a response to start, null to wait forever. 30s by default. */
+    public Builder requestTimeout(Duration requestTimeout) {
+      this.requestTimeout = requirePositive("requestTimeout", requestTimeout);
+      return this;
+    }
+
+    /** The most bytes of a page that are read, once decoded. 10 MiB by default. */
+    public Builder maxBodyBytes(long maxBodyBytes) {
+      if (maxBodyBytes < 1) {
+        throw new IllegalArgumentException(
+            "maxBodyBytes must be at least 1 but was " + maxBodyBytes);
+      }
+      this.maxBodyBytes = maxBodyBytes;
+      return this;
+    }
+
+    /** Asks for gzip or deflate compressed bodies and decodes them. On by default. */
+    public Builder compression(boolean compression) {
+      this.compression = compression;
+      return this;
+    }
+
+    /**
+     * The most bytes of buffers kept for reuse between bodies read by {@link #getPooledAsync}, 0 to
+     * keep none. They are held off the heap. 16 MiB by default.
+     */
+    public Builder maxPooledBytes(long maxPooledBytes) {
+      if (maxPooledBytes < 0 || maxPooledBytes > MAX_POOLED_BYTES) {
+        throw new IllegalArgumentException(
+            "maxPooledBytes must be between 0 and 1 TiB but was " + maxPooledBytes);
+      }
+      this.maxPooledBytes = maxPooledBytes;
+      return this;
+    }
+
+    public HttpClient build() {
+      return new HttpClient(this);
+    }
+
+    private static Duration requirePositive(String name, Duration value) {
+      if (value != null && (value.isNegative() || value.isZero())) {
+        throw new IllegalArgumentException(name + " must be positive but was " + value);
+      }
+      return value;
+    }
   }
 }
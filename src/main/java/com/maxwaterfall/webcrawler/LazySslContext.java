@@ -0,0 +1,108 @@
+package com.maxwaterfall.webcrawler;
+
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.Security;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * The default {@link SSLContext}, initialized when the first https connection needs it instead of
+ * when the client is built. Initializing it loads the trusted certificates, which takes about as
+ * long as the rest of the startup of a small crawl and isn't needed at all for a http site.
+ */
+final class LazySslContext extends SSLContext {
+
+  /** The protocols the JDK enables by default, unless jdk.tls.client.protocols says otherwise. */
+  private static final String[] DEFAULT_PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+
+  private LazySslContext() {
+    super(new Spi(), Security.getProvider("SunJSSE"), "Default");
+  }
+
+  static SSLContext create() {
+    return new LazySslContext();
+  }
+
+  /**
+   * Returns the parameters of every connection. Without them the client asks the context for its
+   * defaults straight away. The cipher suites are left to the default context, and the protocols
+   * have to be listed for the client to offer http/2.
+   */
+  static SSLParameters defaultParameters() {
+    var parameters = new SSLParameters();
+    var protocols = System.getProperty("jdk.tls.client.protocols");
+    parameters.setProtocols(
+        protocols == null || protocols.isBlank()
+            ? DEFAULT_PROTOCOLS.clone()
+            : protocols.trim().split("\\s*,\\s*"));
+    return parameters;
+  }
+
+  /** Hands everything to the default context, which is created once and kept by the JDK. */
+  private static class Spi extends SSLContextSpi {
+
+    @Override
+    protected void engineInit(
+        KeyManager[] keyManagers, TrustManager[] trustManagers, SecureRandom random)
+        throws KeyManagementException {
+      throw new KeyManagementException("The default context is initialized automatically");
+    }
+
+    @Override
+    protected SSLSocketFactory engineGetSocketFactory() {
+      return context().getSocketFactory();
+    }
+
+    @Override
+    protected SSLServerSocketFactory engineGetServerSocketFactory() {
+      return context().getServerSocketFactory();
+    }
+
+    @Override
+    protected SSLEngine engineCreateSSLEngine() {
+      return context().createSSLEngine();
+    }
+
+    @Override
+    protected SSLEngine engineCreateSSLEngine(String host, int port) {
+      return context().createSSLEngine(host, port);
+    }
+
+    @Override
+    protected SSLSessionContext engineGetServerSessionContext() {
+      return context().getServerSessionContext();
+    }
+
+    @Override
+    protected SSLSessionContext engineGetClientSessionContext() {
+      return context().getClientSessionContext();
+    }
+
+    @Override
+    protected SSLParameters engineGetDefaultSSLParameters() {
+      return context().getDefaultSSLParameters();
+    }
+
+    @Override
+    protected SSLParameters engineGetSupportedSSLParameters() {
+      return context().getSupportedSSLParameters();
+    }
+
+    private static SSLContext context() {
+      try {
+        return SSLContext.getDefault();
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("No default TLS context", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.maxwaterfall.webcrawler;
+
+import com.maxwaterfall.webcrawler.crawl.CrawlMetrics;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes the metrics of a crawl as a single json object, e.g. '{"crawlTimeMillis":1200,
+ * "pagesVisited":40,...,"latencyMillis":{"fetch":{"count":40,"mean":12.1,"p50":11.0,...}}}'.
+ */
+class MetricsReport {
+
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+  private MetricsReport() {}
+
+  static void write(CrawlMetrics metrics, Duration crawlTime, OutputStream out) throws IOException {
+    var writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    writer.write("{\"crawlTimeMillis\":" + crawlTime.toMillis());
+    writer.write(",\"pagesVisited\":" + metrics.getPagesVisited());
+    writer.write(",\"bytesRead\":" + metrics.getBytesRead());
+    writer.write(",\"pagesPerSecond\":" + number(metrics.getPagesPerSecond()));
+    writer.write(",\"bytesPerSecond\":" + number(metrics.getBytesPerSecond()));
+    writer.write(",\"errors\":" + metrics.getErrors());
+    writer.write(",\"statusCounts\":");
+    writeCounts(writer, metrics.getStatusCounts());
+    writer.write(",\"errorCounts\":");
+    writeCounts(writer, metrics.getErrorCounts());
+    writer.write(",\"latencyMillis\":{");
+    var phases = CrawlMetrics.Phase.values();
+    for (int i = 0; i < phases.length; i++) {
+      if (i > 0) writer.write(',');
+      var histogram = metrics.getLatency(phases[i]);
+      writer.write('"' + phases[i].name().toLowerCase(Locale.ROOT) + "\":{");
+      writer.write("\"count\":" + histogram.getCount());
+      writer.write(",\"mean\":" + millis(histogram.getMean()));
+      for (int p = 0; p < PERCENTILES.length; p++) {
+        writer.write(",\"" + PERCENTILE_NAMES[p] + "\":");
+        writer.write(millis(histogram.getPercentile(PERCENTILES[p])));
+      }
+      writer.write(",\"max\":" + millis(histogram.getMax()) + "}");
+    }
+    writer.write("}}\n");
+    writer.flush();
+  }
+
+  /** Writes the counts as an object, the keys are numbers or class names so need no escaping. */
+  private static void writeCounts(Writer writer, Map<?, Long> counts) throws IOException {
+    writer.write('{');
+    boolean first = true;
+    for (var count : counts.entrySet()) {
+      if (!first) writer.write(',');
+      first = false;
+      writer.write("\"" + count.getKey() + "\":" + count.getValue());
+    }
+    writer.write('}');
+  }
+
+  private static String millis(double nanos) {
+    return number(nanos / 1_000_000);
+  }
+
+  private static String number(double value) {
+    return String.format(Locale.ROOT, "%.3f", value);
+  }
+}
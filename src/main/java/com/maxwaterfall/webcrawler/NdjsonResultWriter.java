@@ -0,0 +1,59 @@
+package com.maxwaterfall.webcrawler;
+
+import com.maxwaterfall.webcrawler.crawl.VisitedPage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes each page as one line of json, e.g. '{"page":"example.com/","links":["example.com/a"]}'.
+ */
+class NdjsonResultWriter implements ResultWriter {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final Writer out;
+
+  NdjsonResultWriter(OutputStream out) {
+    this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+  }
+
+  @Override
+  public synchronized void write(VisitedPage page) throws IOException {
+    out.write("{\"page\":");
+    writeString(page.getPageLink());
+    out.write(",\"links\":[");
+    var links = page.getSeenLinks();
+    for (int i = 0; i < links.size(); i++) {
+      if (i > 0) out.write(',');
+      writeString(links.get(i));
+    }
+    out.write("]}\n");
+  }
+
+  @Override
+  public synchronized void finish() throws IOException {
+    out.flush();
+  }
+
+  private void writeString(String s) throws IOException {
+    out.write('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.write('\\');
+        out.write(c);
+      } else if (c < 0x20) {
+        out.write("\\u00");
+        out.write(HEX[c >> 4]);
+        out.write(HEX[c & 0xF]);
+      } else {
+        out.write(c);
+      }
+    }
+    out.write('"');
+  }
+}
@@ -0,0 +1,111 @@
+package com.maxwaterfall.webcrawler;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The decoded body of a response, held off the heap in direct buffers taken from a pool. See
+ * {@link HttpClient#getPooledAsync}.
+ *
+ * <p>Close the body once it has been read to give its buffers back to the pool, they must not be
+ * read afterwards. A body that isn't closed is left to the garbage collector. NOT safe for
+ * concurrent use.
+ */
+public final class PooledBody implements Closeable {
+
+  private final BufferPool pool;
+  private final List<ByteBuffer> buffers;
+  /** The buffer being written into, not yet in the list. */
+  private ByteBuffer current;
+  private long length;
+
+  PooledBody(BufferPool pool) {
+    this.pool = pool;
+    this.buffers = new ArrayList<>();
+  }
+
+  /** Number of bytes in the body. */
+  public long length() {
+    return length;
+  }
+
+  /**
+   * Returns the buffers holding the body in order, each positioned at its first byte and limited
+   * to its last. They must not be changed, read them with absolute gets or through duplicates.
+   */
+  public List<ByteBuffer> buffers() {
+    return Collections.unmodifiableList(buffers);
+  }
+
+  /** Returns a stream reading the body from its start. */
+  public InputStream inputStream() {
+    return new InputStream() {
+      private int next;
+      private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+      @Override
+      public int read() {
+        return nextBuffer() ? buffer.get() & 0xFF : -1;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        if (len == 0) return 0;
+        if (!nextBuffer()) return -1;
+        int read = Math.min(len, buffer.remaining());
+        buffer.get(b, off, read);
+        return read;
+      }
+
+      /** Moves on to the next buffer if this one has been read, returning false at the end. */
+      private boolean nextBuffer() {
+        while (!buffer.hasRemaining()) {
+          if (next == buffers.size()) return false;
+          buffer = buffers.get(next++).duplicate();
+        }
+        return true;
+      }
+    };
+  }
+
+  /** Gives the buffers back to the pool. Closing again does nothing. */
+  @Override
+  public void close() {
+    for (var buffer : buffers) {
+      pool.release(buffer);
+    }
+    buffers.clear();
+    if (current != null) {
+      pool.release(current);
+      current = null;
+    }
+  }
+
+  /** Returns a buffer with room to write the body into, taking another if the last one is full. */
+  ByteBuffer writable() {
+    if (current != null && !current.hasRemaining()) {
+      finish();
+    }
+    if (current == null) {
+      current = pool.acquire();
+    }
+    return current;
+  }
+
+  /** Ends writing, the bytes written since the last call are added to the body. */
+  void finish() {
+    if (current == null) return;
+    current.flip();
+    if (current.hasRemaining()) {
+      length += current.remaining();
+      buffers.add(current);
+    } else {
+      pool.release(current);
+    }
+    current = null;
+  }
+}
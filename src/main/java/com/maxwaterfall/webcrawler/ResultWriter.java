@@ -0,0 +1,13 @@
+package com.maxwaterfall.webcrawler;
+
+import com.maxwaterfall.webcrawler.crawl.VisitedPage;
+import java.io.IOException;
+
+/** Writes visited pages out as they arrive. Safe for concurrent use. */
+interface ResultWriter {
+
+  void write(VisitedPage page) throws IOException;
+
+  /** Writes anything held back and flushes, without closing the underlying stream. */
+  void finish() throws IOException;
+}
@@ -0,0 +1,36 @@
+package com.maxwaterfall.webcrawler;
+
+import com.maxwaterfall.webcrawler.crawl.VisitedPage;
+import java.io.IOException;
+
+/**
+ * Holds pages back until the crawl is finished, then writes them sorted by link, each with its
+ * links sorted too. Pages that don't fit in memory are sorted on disk with an {@link
+ * ExternalPageSorter}.
+ */
+class SortedResultWriter implements ResultWriter {
+
+  private final ResultWriter delegate;
+  private final ExternalPageSorter sorter;
+
+  SortedResultWriter(ResultWriter delegate) {
+    this(delegate, new ExternalPageSorter());
+  }
+
+  /** Alternative constructor with a sorter for testing. */
+  SortedResultWriter(ResultWriter delegate, ExternalPageSorter sorter) {
+    this.delegate = delegate;
+    this.sorter = sorter;
+  }
+
+  @Override
+  public void write(VisitedPage page) throws IOException {
+    sorter.add(page);
+  }
+
+  @Override
+  public void finish() throws IOException {
+    sorter.drainTo(delegate);
+    delegate.finish();
+  }
+}
@@ -1,43 +1,89 @@
 package com.maxwaterfall.webcrawler;
 
+import java.util.Queue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
 /**
  * Executes tasks using an ExecutorService.
  *
- * <p>Calling waitForCompletion() will block until all tasks have been completed.
+ * <p>Calling waitForCompletion() will block until all tasks have been completed. This includes
+ * asynchronous tasks, which are complete once the stage they return completes.
+ *
+ * <p>Lock free: scheduling and completing a task is a single atomic update of the task count.
+ * Waiting threads are parked and only woken when the count drops to zero.
  */
 public class TaskExecutor {
 
-  private final AtomicInteger noOfTasks;
+  private final AtomicLong noOfTasks;
   private final ExecutorService executorService;
+  private final Queue<Thread> waiters;
 
   public TaskExecutor(ExecutorService executorService) {
-    this.noOfTasks = new AtomicInteger(0);
+    this.noOfTasks = new AtomicLong(0);
     this.executorService = executorService;
+    this.waiters = new ConcurrentLinkedQueue<>();
+  }
+
+  public void scheduleTask(Runnable task) {
+    noOfTasks.incrementAndGet();
+    try {
+      executorService.execute(
+          () -> {
+            try {
+              task.run();
+            } finally {
+              completeTask();
+            }
+          });
+    } catch (RuntimeException e) {
+      completeTask();
+      throw e;
+    }
   }
 
-  public synchronized void scheduleTask(Runnable task) {
+  /**
+   * Starts an asynchronous task on the calling thread. The task counts as running until the stage
+   * it returns completes, however it completes.
+   */
+  public void scheduleAsyncTask(Supplier<? extends CompletionStage<?>> task) {
     noOfTasks.incrementAndGet();
-    executorService.submit(
-        () -> {
-          try {
-            task.run();
-          } finally {
-            completeTask();
-          }
-        });
+    try {
+      task.get().whenComplete((result, e) -> completeTask());
+    } catch (RuntimeException e) {
+      completeTask();
+      throw e;
+    }
+  }
+
+  private void completeTask() {
+    if (noOfTasks.decrementAndGet() == 0) {
+      waiters.forEach(LockSupport::unpark);
+    }
   }
 
-  private synchronized void completeTask() {
-    noOfTasks.decrementAndGet();
-    notifyAll();
+  /** Number of tasks that have been scheduled but haven't completed yet. */
+  public long getPendingTasks() {
+    return noOfTasks.get();
   }
 
-  public synchronized void waitForCompletion() throws InterruptedException {
-    while (noOfTasks.get() > 0) {
-      wait();
+  public void waitForCompletion() throws InterruptedException {
+    var current = Thread.currentThread();
+    // Registered before checking the count, so an unpark that races with the check is not lost.
+    waiters.add(current);
+    try {
+      while (noOfTasks.get() > 0) {
+        LockSupport.park(this);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+    } finally {
+      waiters.remove(current);
     }
   }
 }
@@ -0,0 +1,35 @@
+package com.maxwaterfall.webcrawler;
+
+import com.maxwaterfall.webcrawler.crawl.VisitedPage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/** Writes each page as an indented line followed by a line per link, for people to read. */
+class TextResultWriter implements ResultWriter {
+
+  private final Writer out;
+
+  TextResultWriter(OutputStream out) {
+    this.out = new BufferedWriter(new OutputStreamWriter(out), 64 * 1024);
+  }
+
+  @Override
+  public synchronized void write(VisitedPage page) throws IOException {
+    out.write("    ");
+    out.write(page.getPageLink());
+    out.write(System.lineSeparator());
+    for (var link : page.getSeenLinks()) {
+      out.write("        - ");
+      out.write(link);
+      out.write(System.lineSeparator());
+    }
+  }
+
+  @Override
+  public synchronized void finish() throws IOException {
+    out.flush();
+  }
+}
@@ -0,0 +1,77 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Bloom filter over the normalized uris. The smallest of the visited sets, a few bytes per uri,
+ * but approximate: a uri that was never added is sometimes reported as already visited and so is
+ * skipped. The filter is sized so that happens at most at the configured rate once the expected
+ * number of uris has been added, beyond that the rate climbs quickly.
+ *
+ * <p>Bits are set with compare and swap, while holding one of a few locks picked by the top bits of
+ * the fingerprint. Concurrent adds of the same uri take the same lock, so only one of them sees
+ * bits it set itself and reports the uri as new. Adds of other uris rarely contend.
+ */
+class BloomVisitedSet implements VisitedSet {
+
+  private static final int LOCK_BITS = 6;
+
+  private final AtomicLongArray bits;
+  private final long bitCount;
+  private final int hashCount;
+  private final LongAdder added;
+  private final Object[] locks;
+
+  BloomVisitedSet(long expectedUris, double falsePositiveRate) {
+    long n = Math.max(1, expectedUris);
+    long optimalBits =
+        (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+    long words = Math.max(1, (optimalBits + 63) / 64);
+    if (words > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("A Bloom filter for " + expectedUris + " uris is too big");
+    }
+
+    this.bits = new AtomicLongArray((int) words);
+    this.bitCount = words * 64;
+    this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    this.added = new LongAdder();
+    this.locks = new Object[1 << LOCK_BITS];
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  @Override
+  public boolean add(String normalizedUri) {
+    long hash = FingerprintVisitedSet.fingerprint(normalizedUri);
+    // Double hashing: the k bit positions are h1 + i * h2.
+    long h1 = hash;
+    long h2 = (hash >>> 32) | 1;
+
+    boolean changed = false;
+    synchronized (locks[(int) (hash >>> (64 - LOCK_BITS))]) {
+      for (int i = 0; i < hashCount; i++) {
+        long bit = Math.floorMod(h1 + i * h2, bitCount);
+        long mask = 1L << bit;
+        long previous = bits.getAndAccumulate((int) (bit >>> 6), mask, (word, m) -> word | m);
+        changed |= (previous & mask) == 0;
+      }
+    }
+
+    if (changed) added.increment();
+    return changed;
+  }
+
+  @Override
+  public VisitedSetStats stats() {
+    long setBits = 0;
+    for (int i = 0; i < bits.length(); i++) {
+      setBits += Long.bitCount(bits.get(i));
+    }
+    // A uri is a false positive if all of its k bits happen to be set already.
+    double falsePositiveRate = Math.pow((double) setBits / bitCount, hashCount);
+    return new VisitedSetStats(
+        CrawlConfig.VisitedSetType.BLOOM, added.sum(), 16 + bitCount / 8, falsePositiveRate);
+  }
+}
@@ -0,0 +1,236 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Persists a crawl to a directory so it can be resumed if the process dies.
+ *
+ * <p>The directory holds the start uri, a {@link MappedFrontierQueue} of every uri scheduled and a
+ * journal of every page visited. Visits are handed to a single writer thread which journals them in
+ * batches, then marks them done in the frontier, so fetch workers never wait on the disk.
+ */
+class Checkpoint implements Closeable {
+
+  private static final String PROPERTIES = "crawl.properties";
+  private static final String JOURNAL = "visited.journal";
+  private static final int MAX_BATCH = 1024;
+
+  /** Queued to stop the writer thread once everything before it is written. */
+  private static final Entry END = new Entry(Visit.NO_ID, null);
+
+  private final Path directory;
+  private final URI start;
+  private final int segmentSize;
+  private final BlockingQueue<Entry> entries;
+  private MappedFrontierQueue frontier;
+  private Thread writer;
+  private volatile IOException writeFailure;
+
+  private Checkpoint(Path directory, URI start, int segmentSize) {
+    this.directory = directory;
+    this.start = start;
+    this.segmentSize = segmentSize;
+    this.entries = new LinkedBlockingQueue<>();
+  }
+
+  /**
+   * Starts a new checkpoint in the directory.
+   *
+   * @throws IllegalStateException if the directory already holds a crawl.
+   */
+  static Checkpoint create(Path directory, URI start) throws IOException {
+    return create(directory, start, MappedFrontierQueue.DEFAULT_SEGMENT_SIZE);
+  }
+
+  /** Alternative with a smaller frontier segment size for testing. */
+  static Checkpoint create(Path directory, URI start, int segmentSize) throws IOException {
+    Files.createDirectories(directory);
+    var properties = directory.resolve(PROPERTIES);
+    if (Files.exists(properties)) {
+      throw new IllegalStateException(directory + " already holds a crawl, resume it instead");
+    }
+
+    var crawl = new Properties();
+    crawl.setProperty("start", start.toString());
+    try (var out = Files.newOutputStream(properties)) {
+      crawl.store(out, "Crawl checkpoint");
+    }
+    return new Checkpoint(directory, start, segmentSize);
+  }
+
+  /** Opens the checkpoint of an earlier crawl in the directory. */
+  static Checkpoint open(Path directory) throws IOException {
+    return open(directory, MappedFrontierQueue.DEFAULT_SEGMENT_SIZE);
+  }
+
+  /** Alternative with a smaller frontier segment size for testing. */
+  static Checkpoint open(Path directory, int segmentSize) throws IOException {
+    var crawl = new Properties();
+    try (var in = Files.newInputStream(directory.resolve(PROPERTIES))) {
+      crawl.load(in);
+    }
+    return new Checkpoint(directory, URI.create(crawl.getProperty("start")), segmentSize);
+  }
+
+  URI getStart() {
+    return start;
+  }
+
+  /**
+   * Opens the persistent frontier.
+   *
+   * @param scheduled receives every uri that was scheduled before the checkpoint was opened.
+   */
+  FrontierQueue openFrontier(Consumer<URI> scheduled) throws IOException {
+    frontier = new MappedFrontierQueue(directory, segmentSize, scheduled);
+    return frontier;
+  }
+
+  /**
+   * Replays the journal and starts the writer so new visits can be recorded. A record cut short by
+   * the process dying is dropped, its page will be visited again.
+   *
+   * @param visited receives every page visited before the checkpoint was opened.
+   */
+  void openJournal(Consumer<VisitedPage> visited) throws IOException {
+    var journal = directory.resolve(JOURNAL);
+    long complete = 0;
+    if (Files.exists(journal)) {
+      try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal)))) {
+        while (true) {
+          var pageLink = readBytes(in);
+          int noOfLinks = in.readInt();
+          var seenLinks = new ArrayList<String>(noOfLinks);
+          long recordSize = 4 + pageLink.length + 4;
+          for (int i = 0; i < noOfLinks; i++) {
+            var link = readBytes(in);
+            seenLinks.add(new String(link, StandardCharsets.UTF_8));
+            recordSize += 4 + link.length;
+          }
+          visited.accept(new VisitedPage(new String(pageLink, StandardCharsets.UTF_8), seenLinks));
+          complete += recordSize;
+        }
+      } catch (EOFException e) {
+        // Reached the end of the journal, or of its last complete record.
+      }
+    }
+
+    var channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    channel.truncate(complete);
+    channel.position(complete);
+    var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+    writer = new Thread(() -> write(out), "checkpoint-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Records that a visit is finished, without waiting for it to be written.
+   *
+   * @param page the page visited, or null if the visit failed and there's nothing to journal.
+   */
+  void record(Visit visit, VisitedPage page) {
+    entries.add(new Entry(visit.getId(), page));
+  }
+
+  /**
+   * Waits for every recorded visit to be written.
+   *
+   * @throws IOException if any of them could not be written.
+   */
+  @Override
+  public void close() throws IOException {
+    if (writer != null) {
+      entries.add(END);
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting for the checkpoint to be written", e);
+      }
+    }
+    if (writeFailure != null) {
+      throw writeFailure;
+    }
+  }
+
+  /** Runs on the writer thread, writing entries in batches until the end is reached. */
+  private void write(DataOutputStream out) {
+    var batch = new ArrayList<Entry>(MAX_BATCH);
+    try (out) {
+      while (true) {
+        batch.add(entries.take());
+        entries.drainTo(batch, MAX_BATCH - 1);
+
+        for (var entry : batch) {
+          if (entry != END && entry.page != null) {
+            writeString(out, entry.page.getPageLink());
+            out.writeInt(entry.page.getSeenLinks().size());
+            for (var link : entry.page.getSeenLinks()) {
+              writeString(out, link);
+            }
+          }
+        }
+        out.flush();
+
+        // Only once the pages are safely written can they be skipped after a restart.
+        for (var entry : batch) {
+          if (entry != END && entry.id != Visit.NO_ID) {
+            frontier.markDone(entry.id);
+          }
+        }
+
+        if (batch.contains(END)) return;
+        batch.clear();
+      }
+    } catch (IOException e) {
+      writeFailure = e;
+      System.err.println("Could not write the crawl checkpoint to " + directory);
+      e.printStackTrace();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    var bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    var bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static class Entry {
+
+    private final long id;
+    private final VisitedPage page;
+
+    Entry(long id, VisitedPage page) {
+      this.id = id;
+      this.page = page;
+    }
+  }
+}
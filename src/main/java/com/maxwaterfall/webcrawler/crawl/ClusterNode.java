@@ -0,0 +1,435 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * One node of a crawl split over several processes. The normalized uri space is split between the
+ * nodes with a {@link HashRing}, each node only visits the uris it owns and forwards the others to
+ * their owner in batches.
+ *
+ * <p>Nodes talk over plain TCP. Every message is '[byte type][int from node]' followed by its
+ * fields, see the constants below. Each node sends on its own connection to every peer and reads
+ * what peers send on the connections they opened to it.
+ *
+ * <p>Node 0 detects when the whole cluster is finished by counting: it repeatedly asks every node
+ * whether it is idle and how many uris it has sent and received. Once two rounds in a row find every
+ * node idle and the same totals, with everything sent received, no uri can still be on its way and
+ * node 0 tells every node to stop.
+ *
+ * <p>Safe for concurrent use.
+ */
+class ClusterNode implements Closeable {
+
+  /** '[int count]' then '[int length][utf-8 uri][int depth]' for each uri. */
+  private static final byte LINKS = 1;
+  /** '[long round]', asks for a STATUS. */
+  private static final byte PROBE = 2;
+  /** '[long round][boolean idle][long sent][long received]'. */
+  private static final byte STATUS = 3;
+  /** No fields, the crawl is finished. */
+  private static final byte DONE = 4;
+
+  private static final int BATCH_SIZE = 512;
+  private static final long FLUSH_INTERVAL_MILLIS = 20;
+  private static final long PROBE_INTERVAL_MILLIS = 100;
+  private static final long PROBE_TIMEOUT_MILLIS = 5_000;
+  /** How long peers that haven't started yet are waited for. */
+  private static final long CONNECT_TIMEOUT_MILLIS = 60_000;
+
+  private final List<InetSocketAddress> nodes;
+  private final int self;
+  private final HashRing ring;
+  private final Peer[] peers;
+  private final AtomicLong sent;
+  private final AtomicLong received;
+  private final CompletableFuture<Void> finished;
+
+  private Consumer<Visit> receiver;
+  private BooleanSupplier idle;
+  private ServerSocket server;
+  private ScheduledExecutorService flusher;
+
+  /** Replies to the probe round in progress, only used on node 0. */
+  private long round;
+
+  private Status[] statuses;
+  private CountDownLatch replies;
+
+  /**
+   * @param nodes the address every node listens on, the same list on every node.
+   * @param self the index of this node in the list.
+   */
+  ClusterNode(List<InetSocketAddress> nodes, int self) {
+    this.nodes = List.copyOf(nodes);
+    this.self = self;
+    this.ring = new HashRing(nodes.size());
+    this.peers = new Peer[nodes.size()];
+    for (int node = 0; node < peers.length; node++) {
+      if (node != self) peers[node] = new Peer(node);
+    }
+    this.sent = new AtomicLong();
+    this.received = new AtomicLong();
+    this.finished = new CompletableFuture<>();
+  }
+
+  /**
+   * Starts listening for peers.
+   *
+   * @param receiver schedules the uris forwarded to this node, must not block.
+   * @param idle whether this node has nothing left to visit right now.
+   */
+  void start(Consumer<Visit> receiver, BooleanSupplier idle) throws IOException {
+    this.receiver = receiver;
+    this.idle = idle;
+    server = new ServerSocket();
+    server.setReuseAddress(true);
+    server.bind(nodes.get(self));
+    daemon("cluster-acceptor", this::accept).start();
+
+    flusher =
+        Executors.newSingleThreadScheduledExecutor(runnable -> daemon("cluster-flusher", runnable));
+    flusher.scheduleWithFixedDelay(
+        this::flushAll, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    if (self == 0) {
+      daemon("cluster-coordinator", this::coordinate).start();
+    }
+  }
+
+  /** Whether this node visits the normalized uri. */
+  boolean owns(String normalizedUri) {
+    return ring.owner(normalizedUri) == self;
+  }
+
+  /**
+   * Sends a uri owned by another node to it, batched with others.
+   *
+   * @param depth the number of links followed from the start uri to reach it.
+   */
+  void forward(String normalizedUri, URI uri, int depth) {
+    var peer = peers[ring.owner(normalizedUri)];
+    peer.add(new Visit(uri, Visit.NO_ID, depth));
+  }
+
+  /**
+   * Waits until every node in the cluster has finished.
+   *
+   * @throws IOException if a peer couldn't be reached.
+   */
+  void awaitTermination() throws InterruptedException, IOException {
+    try {
+      finished.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException
+          ? (IOException) e.getCause()
+          : new IOException(e.getCause());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    finished.complete(null);
+    if (flusher != null) {
+      flusher.shutdownNow();
+    }
+    if (server != null) {
+      server.close();
+    }
+    for (var peer : peers) {
+      if (peer != null) peer.close();
+    }
+  }
+
+  private void accept() {
+    while (!server.isClosed()) {
+      try {
+        var socket = server.accept();
+        daemon("cluster-reader", () -> read(socket)).start();
+      } catch (IOException e) {
+        // Closed.
+      }
+    }
+  }
+
+  /** Handles the messages a peer sends until it disconnects. */
+  private void read(Socket socket) {
+    try (socket;
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+      while (true) {
+        byte type = in.readByte();
+        int from = in.readInt();
+        switch (type) {
+          case LINKS:
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+              var bytes = new byte[in.readInt()];
+              in.readFully(bytes);
+              var uri = URI.create(new String(bytes, StandardCharsets.UTF_8));
+              receiver.accept(new Visit(uri, Visit.NO_ID, in.readInt()));
+            }
+            // Only counted once scheduled, so a probe can't see it received but not yet pending.
+            received.addAndGet(count);
+            break;
+          case PROBE:
+            long probed = in.readLong();
+            flushAll();
+            var status = status();
+            peers[from].send(
+                out -> {
+                  out.writeByte(STATUS);
+                  out.writeInt(self);
+                  out.writeLong(probed);
+                  out.writeBoolean(status.idle);
+                  out.writeLong(status.sent);
+                  out.writeLong(status.received);
+                });
+            break;
+          case STATUS:
+            onStatus(
+                from, in.readLong(), new Status(in.readBoolean(), in.readLong(), in.readLong()));
+            break;
+          case DONE:
+            finished.complete(null);
+            break;
+          default:
+            throw new IOException("Unknown message type " + type + " from node " + from);
+        }
+      }
+    } catch (EOFException | SocketException e) {
+      // The peer disconnected.
+    } catch (IOException e) {
+      finished.completeExceptionally(e);
+    }
+  }
+
+  /** Probes the cluster until it is finished, runs on node 0 only. */
+  private void coordinate() {
+    long[] previousTotals = null;
+    try {
+      while (!finished.isDone()) {
+        Thread.sleep(PROBE_INTERVAL_MILLIS);
+        flushAll();
+
+        long probed;
+        CountDownLatch latch;
+        synchronized (this) {
+          probed = ++round;
+          statuses = new Status[nodes.size()];
+          statuses[self] = status();
+          replies = latch = new CountDownLatch(nodes.size() - 1);
+        }
+        for (var peer : peers) {
+          if (peer == null) continue;
+          peer.send(
+              out -> {
+                out.writeByte(PROBE);
+                out.writeInt(self);
+                out.writeLong(probed);
+              });
+        }
+        if (!latch.await(PROBE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+          previousTotals = null;
+          continue;
+        }
+
+        var totals = totals();
+        if (totals == null) {
+          previousTotals = null;
+        } else if (previousTotals != null
+            && previousTotals[0] == totals[0]
+            && previousTotals[1] == totals[1]) {
+          for (var peer : peers) {
+            if (peer == null) continue;
+            peer.send(
+                out -> {
+                  out.writeByte(DONE);
+                  out.writeInt(self);
+                });
+          }
+          finished.complete(null);
+        } else {
+          previousTotals = totals;
+        }
+      }
+    } catch (InterruptedException | IOException e) {
+      finished.completeExceptionally(e);
+    }
+  }
+
+  private synchronized void onStatus(int from, long probed, Status status) {
+    if (probed != round || statuses[from] != null) return;
+    statuses[from] = status;
+    replies.countDown();
+  }
+
+  /**
+   * Returns the uris sent and received over the cluster in the last round, or null if some node
+   * wasn't idle or some uri is still on its way.
+   */
+  private synchronized long[] totals() {
+    long totalSent = 0;
+    long totalReceived = 0;
+    for (var status : statuses) {
+      if (!status.idle) return null;
+      totalSent += status.sent;
+      totalReceived += status.received;
+    }
+    return totalSent == totalReceived ? new long[] {totalSent, totalReceived} : null;
+  }
+
+  /** The counters are read after checking idle, anything that arrives later shows up next round. */
+  private Status status() {
+    boolean isIdle = idle.getAsBoolean();
+    for (var peer : peers) {
+      if (peer != null && peer.hasBuffered()) isIdle = false;
+    }
+    return new Status(isIdle, sent.get(), received.get());
+  }
+
+  private void flushAll() {
+    try {
+      for (var peer : peers) {
+        if (peer != null) peer.flush();
+      }
+    } catch (IOException e) {
+      finished.completeExceptionally(e);
+    }
+  }
+
+  private static Thread daemon(String name, Runnable runnable) {
+    var thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  private static class Status {
+
+    private final boolean idle;
+    private final long sent;
+    private final long received;
+
+    Status(boolean idle, long sent, long received) {
+      this.idle = idle;
+      this.sent = sent;
+      this.received = received;
+    }
+  }
+
+  /** Writes a message to a peer. */
+  private interface Message {
+
+    void writeTo(DataOutputStream out) throws IOException;
+  }
+
+  /** The connection to another node and the uris waiting to be forwarded to it. */
+  private class Peer {
+
+    private final int node;
+    private final List<Visit> buffered;
+    private Socket socket;
+    private DataOutputStream out;
+
+    Peer(int node) {
+      this.node = node;
+      this.buffered = new ArrayList<>();
+    }
+
+    void add(Visit visit) {
+      boolean full;
+      synchronized (this) {
+        buffered.add(visit);
+        full = buffered.size() >= BATCH_SIZE;
+      }
+      if (full) {
+        try {
+          flush();
+        } catch (IOException e) {
+          finished.completeExceptionally(e);
+        }
+      }
+    }
+
+    synchronized boolean hasBuffered() {
+      return !buffered.isEmpty();
+    }
+
+    /** Sends the buffered uris, they only count as sent once written. */
+    synchronized void flush() throws IOException {
+      if (buffered.isEmpty()) return;
+      send(
+          out -> {
+            out.writeByte(LINKS);
+            out.writeInt(self);
+            out.writeInt(buffered.size());
+            for (var visit : buffered) {
+              var bytes = visit.getUri().toString().getBytes(StandardCharsets.UTF_8);
+              out.writeInt(bytes.length);
+              out.write(bytes);
+              out.writeInt(visit.getDepth());
+            }
+          });
+      sent.addAndGet(buffered.size());
+      buffered.clear();
+    }
+
+    synchronized void send(Message message) throws IOException {
+      connect();
+      message.writeTo(out);
+      out.flush();
+    }
+
+    synchronized void close() throws IOException {
+      if (socket != null) socket.close();
+    }
+
+    /** Connects if not connected yet, retrying while the peer is starting up. */
+    private void connect() throws IOException {
+      if (socket != null) return;
+
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS);
+      while (true) {
+        var attempt = new Socket();
+        try {
+          attempt.setTcpNoDelay(true);
+          attempt.connect(nodes.get(node));
+          socket = attempt;
+          out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+          return;
+        } catch (IOException e) {
+          attempt.close();
+          if (System.nanoTime() > deadline || finished.isDone()) {
+            throw new IOException("Could not connect to node " + node + " at " + nodes.get(node), e);
+          }
+        }
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted connecting to node " + node, e);
+        }
+      }
+    }
+  }
+}
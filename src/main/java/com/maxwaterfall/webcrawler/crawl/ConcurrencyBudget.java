@@ -0,0 +1,64 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.util.LinkedHashSet;
+
+/**
+ * The most visits in flight across every crawl of a {@link Crawler}, shared fairly between them.
+ *
+ * <p>A frontier takes a slot for each visit it dispatches and gives it back once the visit is
+ * released. A frontier that finds no slot free waits in line, once. A freed slot is handed to the
+ * frontier at the front of the line instead of going back to the pool, and a frontier that still
+ * has uris after using it joins the back of the line again. So crawls running at the same time take
+ * turns, however many uris each of them has waiting.
+ *
+ * <p>Safe for concurrent use.
+ */
+class ConcurrencyBudget {
+
+  private final int limit;
+  private int inUse;
+  /** Frontiers waiting for a slot, in the order they asked. */
+  private final LinkedHashSet<Frontier> waiting;
+
+  ConcurrencyBudget(int limit) {
+    this.limit = limit;
+    this.waiting = new LinkedHashSet<>();
+  }
+
+  /**
+   * Takes a slot for a visit if one is free and no other frontier is waiting for one. Otherwise the
+   * frontier waits in line, and is {@link Frontier#granted() granted} a slot once it's its turn.
+   *
+   * @return true if a slot was taken.
+   */
+  synchronized boolean tryAcquire(Frontier frontier) {
+    if (inUse < limit && waiting.isEmpty()) {
+      inUse++;
+      return true;
+    }
+    if (waiting.add(frontier)) {
+      frontier.waitForTurn();
+    }
+    return false;
+  }
+
+  /** Gives back a slot, handing it to the frontier at the front of the line if there is one. */
+  void release() {
+    Frontier next;
+    synchronized (this) {
+      var line = waiting.iterator();
+      if (!line.hasNext()) {
+        inUse--;
+        return;
+      }
+      next = line.next();
+      line.remove();
+    }
+    next.granted();
+  }
+
+  /** Number of slots taken. */
+  synchronized int inUse() {
+    return inUse;
+  }
+}
@@ -0,0 +1,128 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.util.Arrays;
+
+/**
+ * Fingerprints the text of a page as it is read, without keeping the text.
+ *
+ * <p>Words are runs of letters and digits, compared ignoring case, and a run of text passed to
+ * {@link #onText} always ends a word. Two fingerprints are kept: an exact hash of the sequence of
+ * words, and a MinHash signature of the shingles, every run of {@link #SHINGLE_WORDS} consecutive
+ * words. The share of equal values in the signatures of two pages estimates the share of shingles
+ * they have in common. NOT safe for concurrent use.
+ *
+ * <p>The signature is a one permutation MinHash: each shingle is hashed once, the top bits of the
+ * hash pick one of {@link #MIN_HASHES} bins and the smallest of the other bits in each bin is kept.
+ * A bin no shingle fell into borrows from the next bin that has one, so pages with few shingles
+ * can still be compared.
+ */
+final class ContentFingerprint {
+
+  /** How many consecutive words make up each shingle. */
+  static final int SHINGLE_WORDS = 3;
+  /** How many values the MinHash signature has. */
+  static final int MIN_HASHES = 32;
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private static final int BIN_BITS = Integer.numberOfTrailingZeros(MIN_HASHES);
+  private static final int EMPTY = Integer.MAX_VALUE;
+  /** Added for each bin skipped, so a borrowed value doesn't match the bin it came from. */
+  private static final int BORROWED = 0x2f0b_3c7d;
+
+  /** The smallest value of the shingles in each bin so far, EMPTY if none fell into it. */
+  private final int[] minHashes = new int[MIN_HASHES];
+
+  private long word = FNV_OFFSET;
+  private boolean inWord;
+  private long previousWord;
+  private long wordBeforeThat;
+
+  private long exactHash = FNV_OFFSET;
+  private int words;
+  private int shingles;
+
+  ContentFingerprint() {
+    Arrays.fill(minHashes, EMPTY);
+  }
+
+  /** Adds a run of the page's text. */
+  void onText(char[] chars, int offset, int length) {
+    for (int i = offset, end = offset + length; i < end; i++) {
+      char c = chars[i];
+      if (c < 0x80) {
+        // Most text is ascii, which doesn't need the Character tables.
+        if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+        if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+          word = (word ^ c) * FNV_PRIME;
+          inWord = true;
+        } else {
+          endWord();
+        }
+      } else if (Character.isLetterOrDigit(c)) {
+        word = (word ^ Character.toLowerCase(c)) * FNV_PRIME;
+        inWord = true;
+      } else {
+        endWord();
+      }
+    }
+    endWord();
+  }
+
+  /** Number of words in the text so far. */
+  int getWords() {
+    return words;
+  }
+
+  /** Number of shingles in the signature so far. */
+  int getShingles() {
+    return shingles;
+  }
+
+  /** A hash of every word of the text in order. Equal for pages with the same words. */
+  long getExactHash() {
+    return exactHash;
+  }
+
+  /** The i-th value of the signature, meaningless without shingles. */
+  int getMinHash(int i) {
+    for (int skipped = 0; skipped < MIN_HASHES; skipped++) {
+      int value = minHashes[(i + skipped) % MIN_HASHES];
+      if (value != EMPTY) return value + skipped * BORROWED;
+    }
+    return EMPTY;
+  }
+
+  private void endWord() {
+    if (!inWord) return;
+
+    long hash = mix(word);
+    word = FNV_OFFSET;
+    inWord = false;
+
+    exactHash = mix(exactHash ^ hash);
+    if (++words >= SHINGLE_WORDS) {
+      // Rotated so that the order of the words matters.
+      addShingle(
+          mix(hash ^ Long.rotateLeft(previousWord, 21) ^ Long.rotateLeft(wordBeforeThat, 42)));
+    }
+    wordBeforeThat = previousWord;
+    previousWord = hash;
+  }
+
+  private void addShingle(long hash) {
+    int bin = (int) (hash >>> (Long.SIZE - BIN_BITS));
+    // Never EMPTY.
+    int value = (int) hash >>> 2;
+    if (value < minHashes[bin]) minHashes[bin] = value;
+    shingles++;
+  }
+
+  /** The finalizer of SplitMix64, spreads every input bit over the whole hash. */
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
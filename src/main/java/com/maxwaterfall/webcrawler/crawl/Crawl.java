@@ -2,169 +2,913 @@ package com.maxwaterfall.webcrawler.crawl;
 
 import com.maxwaterfall.webcrawler.HttpClient;
 import com.maxwaterfall.webcrawler.TaskExecutor;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
-import java.util.stream.Collectors;
-import org.jsoup.Jsoup;
-import org.yaml.snakeyaml.util.UriEncoder;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
- * Crawls web pages. NOT safe for concurrent use. Can only be used once.
+ * Crawls web pages. NOT safe for concurrent use. Can only be used once, but may be cancelled from
+ * any thread.
+ *
+ * <p>In {@link CrawlConfig.Mode#BLOCKING} mode each visit runs on a thread of the executor. In
+ * {@link CrawlConfig.Mode#ASYNC} mode pages are downloaded without holding a thread and the
+ * executor is only used to parse them. In {@link CrawlConfig.Mode#VIRTUAL_THREADS} mode each visit
+ * runs on its own virtual thread.
+ *
+ * <p>In every mode a visit only starts once the {@link PolitenessScheduler} lets it go to the host,
+ * and holds a slot of the {@link ConcurrencyBudget}. Both are shared with the other crawls of the
+ * crawler.
+ *
+ * <p>In a cluster each node only visits the uris it owns, see {@link ClusterNode}, and the crawl
+ * finishes once every node has run out of uris.
+ *
+ * <p>With a {@link ResponseCache} pages fetched by an earlier crawl are requested conditionally,
+ * and a page the server says hasn't changed reuses its cached links without being downloaded or
+ * parsed.
+ *
+ * <p>With duplicates skipped, the text of every page is fingerprinted as it's parsed and the links
+ * of a page with nearly the same text as one visited before are recorded but not followed.
+ *
+ * <p>The frontier is visited in the order uris were found, or by their rank with a {@link
+ * FrontierPriority}. The links of pages at the max depth are recorded but not followed. Once the
+ * max pages have been visited or the time budget is up no more visits are started, and the crawl
+ * finishes once those in progress have.
+ *
+ * <p>The robots.txt of the start host is fetched once before the crawl starts, and links it
+ * disallows are dropped before they are scheduled. Its sitemaps can be read alongside the crawl to
+ * seed the frontier, see {@link SitemapReader}.
  *
  * <p>To start the crawl, call start().
  */
 class Crawl {
 
+  /** How many times a page is tried when its host keeps asking to slow down. */
+  private static final int MAX_ATTEMPTS = 5;
+  /** How many redirects in a row are followed by one visit, the rest wait in the frontier. */
+  private static final int MAX_REDIRECTS = 5;
+  /** The most sitemaps read when seeding, counting those listed by sitemap indexes. */
+  private static final int MAX_SITEMAPS = 1_000;
+
   private final TaskExecutor taskExecutor;
+  private final ExecutorService executorService;
   private final HttpClient httpClient;
+  private final LinkExtractor linkExtractor;
+  private final CrawlConfig.Mode mode;
+  private final int maxConcurrentRequests;
+  private final int frontierMemoryLimit;
+  private final FrontierPriority frontierPriority;
+  private final int maxDepth;
+  private final long maxPages;
+  private final Duration timeBudget;
+  private final boolean respectRobotsTxt;
+  private final boolean seedSitemaps;
+  private final PolitenessScheduler politeness;
+  private final ConcurrencyBudget budget;
+
   private final URI start;
+  /** The lowercase host of the start uri, only uris on it are visited. */
+  private final String startHost;
   /** A set of normalized uris that are scheduled to be visited. */
-  private final Set<String> scheduledVisits;
+  private final VisitedSet scheduledVisits;
+
+  /** Receives every page as soon as its visit is finished. */
+  private final VisitListener listener;
+
+  private final LongAdder totalVisited;
+  /** The first exception thrown by the listener, it fails the crawl once it is finished. */
+  private final AtomicReference<RuntimeException> listenerFailure;
+  /** Persists the crawl so it can be resumed, or null if it isn't checkpointed. */
+  private final Checkpoint checkpoint;
+  /**
+   * Validators and links of pages fetched before, or null if responses aren't cached. Shared by the
+   * crawls of the crawler, which closes it.
+   */
+  private final ResponseCache responseCache;
+  /** Fingerprints of the text of the pages visited, or null if duplicates aren't skipped. */
+  private final DuplicateIndex duplicates;
+
+  private final CrawlMetrics metrics;
+  /** This node of a crawl split over several processes, or null if the crawl isn't. */
+  private final ClusterNode cluster;
+
+  /**
+   * The 'http://authority/' prefix of uris the start host redirects to https, or null until it
+   * does. Once known, http links are visited over https without asking for the redirect.
+   */
+  private volatile String httpsUpgrade;
+
+  /** The robots.txt rules of the start host, or null if they aren't respected. */
+  private RobotsRules robots;
+
+  private volatile Frontier frontier;
+  private volatile boolean cancelled;
+  /** The frontier queue when the crawl isn't checkpointed, deleted once the crawl is finished. */
+  private Closeable temporaryQueue;
+  /** The frontier queue if it's ranked by a priority, which is told about every link found. */
+  private PriorityFrontierQueue priorityQueue;
 
-  private final Set<VisitedPage> visitedPages;
   private boolean crawled;
 
-  Crawl(URI start, HttpClient httpClient, ExecutorService executorService) {
+  Crawl(
+      URI start,
+      HttpClient httpClient,
+      ExecutorService executorService,
+      PolitenessScheduler politeness,
+      ConcurrencyBudget budget,
+      LinkExtractor linkExtractor,
+      CrawlConfig config,
+      VisitListener listener,
+      Checkpoint checkpoint,
+      ResponseCache responseCache,
+      CrawlMetrics metrics) {
     this.httpClient = httpClient;
+    this.linkExtractor = linkExtractor;
+    this.executorService = executorService;
     this.taskExecutor = new TaskExecutor(executorService);
+    this.mode = config.getMode();
+    this.maxConcurrentRequests = config.getMaxConcurrentRequests();
+    this.frontierMemoryLimit = config.getFrontierMemoryLimit();
+    this.frontierPriority = config.getFrontierPriority();
+    this.maxDepth = config.getMaxDepth();
+    this.maxPages = config.getMaxPages();
+    this.timeBudget = config.getTimeBudget();
+    this.respectRobotsTxt = config.isRespectRobotsTxt();
+    this.seedSitemaps = config.isSeedSitemaps();
+    this.politeness = politeness;
+    this.budget = budget;
     this.start = start;
-    this.scheduledVisits = ConcurrentHashMap.newKeySet();
-    this.visitedPages = ConcurrentHashMap.newKeySet();
+    this.startHost = start.getHost() == null ? null : start.getHost().toLowerCase(Locale.ROOT);
+    this.scheduledVisits = VisitedSet.create(config);
+    this.listener = listener;
+    this.totalVisited = new LongAdder();
+    this.listenerFailure = new AtomicReference<>();
+    this.checkpoint = checkpoint;
+    this.responseCache = responseCache;
+    this.duplicates =
+        config.isSkipDuplicates() ? new DuplicateIndex(config.getDuplicateSimilarity()) : null;
+    this.metrics = metrics;
+    this.cluster =
+        config.getClusterNodes().isEmpty()
+            ? null
+            : new ClusterNode(config.getClusterNodes(), config.getClusterNodeIndex());
   }
 
   /**
    * Initiates a crawl, starting with the start uri.
    *
-   * @return all pages that have been visited and all links on those pages.
-   * @throws CrawlFailedException if the crawl fails.
+   * <p>If the crawl is checkpointed and the checkpoint is from an earlier crawl, carries on where
+   * that crawl stopped instead.
+   *
+   * <p>Visited pages are only passed to the listener, the result doesn't hold them.
+   *
+   * @return a summary of the crawl.
+   * @throws CrawlFailedException if the crawl or the listener fails.
    */
-  Set<VisitedPage> start() throws CrawlFailedException {
+  CrawlResult start() throws CrawlFailedException {
     if (crawled) {
       throw new IllegalStateException("A crawl must only be used once");
     }
     crawled = true;
-    scheduleVisit(start);
 
+    CrawlFailedException failure = null;
     try {
+      frontier =
+          new Frontier(
+              frontierQueue(),
+              maxConcurrentRequests,
+              budget,
+              taskExecutor,
+              maxPages,
+              timeBudget,
+              this::dispatch);
+      if (cancelled) {
+        frontier.stop();
+      }
+      metrics.attach(frontier, taskExecutor);
+      var rules = fetchRobots();
+      if (respectRobotsTxt) {
+        robots = rules;
+      }
+      if (cluster != null) {
+        cluster.start(this::scheduleOwnedVisit, this::isIdle);
+      }
+      scheduleVisit(start);
+      if (seedSitemaps && maxDepth > 0) {
+        var sitemaps =
+            rules.getSitemaps().isEmpty() ? List.of("/sitemap.xml") : rules.getSitemaps();
+        taskExecutor.scheduleTask(() -> readSitemaps(sitemaps));
+      }
+      frontier.resume();
+
+      if (cluster != null) {
+        cluster.awaitTermination();
+      }
       taskExecutor.waitForCompletion();
+    } catch (IOException e) {
+      failure = new CrawlFailedException(e);
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
-      throw new CrawlFailedException(e);
+      failure = new CrawlFailedException(e);
+    } finally {
+      metrics.detach(frontier, taskExecutor);
+      closeTemporaryQueue();
+      closeCluster();
+      failure = close(checkpoint, failure);
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    if (listenerFailure.get() != null) {
+      throw new CrawlFailedException(listenerFailure.get());
     }
 
-    return this.visitedPages;
+    return new CrawlResult(
+        start,
+        Set.of(),
+        totalVisited.sum(),
+        scheduledVisits.stats(),
+        duplicates == null ? Map.of() : duplicates.getClusters(),
+        frontier.isStopped() ? frontier.size() : 0);
   }
 
   /**
-   * Visits a page.
+   * Stops starting visits, the crawl finishes once those in progress have. The result counts the
+   * uris left unvisited.
+   */
+  void cancel() {
+    cancelled = true;
+    var current = frontier;
+    if (current != null) {
+      current.stop();
+    }
+  }
+
+  /**
+   * Creates the queue for the frontier. With a checkpoint the queue is on disk, and the pages
+   * visited and uris scheduled by an earlier crawl are restored from it. Otherwise it spills to
+   * temporary files once it holds more than the frontier memory limit.
+   */
+  private FrontierQueue frontierQueue() throws IOException {
+    if (checkpoint == null && frontierPriority != null) {
+      priorityQueue = new PriorityFrontierQueue(frontierPriority, frontierMemoryLimit);
+      temporaryQueue = priorityQueue;
+      return priorityQueue;
+    }
+    if (checkpoint == null) {
+      var spillingQueue = new SpillingFrontierQueue(frontierMemoryLimit);
+      temporaryQueue = spillingQueue;
+      return spillingQueue;
+    }
+    // Pages reached by following a redirect are only in the journal, not the frontier.
+    checkpoint.openJournal(
+        page -> {
+          scheduledVisits.add(page.getPageLink());
+          onVisited(page);
+        });
+    return checkpoint.openFrontier(uri -> scheduledVisits.add(normalizeUri(uri)));
+  }
+
+  /**
+   * Fetches the robots.txt of the start host, if it's needed. A host that can't be reached allows
+   * everything, the visit to the start uri reports the failure.
+   */
+  private RobotsRules fetchRobots() throws InterruptedException {
+    if (startHost == null || (!respectRobotsTxt && !seedSitemaps)) return RobotsRules.ALLOW_ALL;
+    try {
+      return RobotsRules.fetch(httpClient, start);
+    } catch (IOException e) {
+      System.err.println("Could not fetch the robots.txt of " + startHost);
+      return RobotsRules.ALLOW_ALL;
+    }
+  }
+
+  /**
+   * Reads sitemaps one after another, scheduling every page in them as a link from the start uri
+   * and reading the sitemaps listed by sitemap indexes after them. Sitemaps are streamed and each
+   * page is scheduled as soon as it's read, so visits start while the sitemap is still downloading.
+   * Stops early once the frontier stops. Sitemaps aren't rate-limited by politeness, there are
+   * only a few of them.
    *
-   * <p>Extracts all links ('href' attribute from '<a>' tags) from the visited page. Schedules a
-   * visit to all links on the page that are on the start domain and haven't already been visited.
+   * @param sitemaps the uris of the sitemaps, resolved against the start uri.
+   */
+  private void readSitemaps(List<String> sitemaps) {
+    var waiting = new ArrayDeque<URI>();
+    var seen = new HashSet<String>();
+    var sitemap = new UriCanonicalizer(start);
+    Consumer<String> addSitemap =
+        loc -> {
+          if (sitemap.canonicalize(loc) && seen.add(sitemap.key())) {
+            waiting.add(sitemap.toUri());
+          }
+        };
+    sitemaps.forEach(addSitemap);
+
+    var page = new UriCanonicalizer(start);
+    Consumer<String> schedulePage =
+        loc -> {
+          if (page.canonicalize(loc)) {
+            scheduleLink(page, page.key(), 1);
+          }
+        };
+    for (int read = 0; read < MAX_SITEMAPS && !waiting.isEmpty(); read++) {
+      if (frontier.isStopped()) return;
+      var uri = waiting.poll();
+      try {
+        var response = httpClient.getFile(uri, SitemapReader.MAX_BYTES);
+        try (var body = response.body()) {
+          if (response.statusCode() == 200) {
+            SitemapReader.read(body, schedulePage, addSitemap);
+          }
+        }
+      } catch (IOException e) {
+        System.err.println("Could not read the sitemap " + uri);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void closeCluster() {
+    if (cluster == null) return;
+    try {
+      cluster.close();
+    } catch (IOException e) {
+      System.err.println("Could not close the connections to the cluster");
+    }
+  }
+
+  /**
+   * Closes a resource of the crawl whether or not the crawl failed.
+   *
+   * @param resource the resource, or null if the crawl doesn't have it.
+   * @param failure what the crawl failed with so far, or null.
+   * @return what the crawl failed with, with a failure to close added to it.
+   */
+  private static CrawlFailedException close(AutoCloseable resource, CrawlFailedException failure) {
+    if (resource == null) return failure;
+    try {
+      resource.close();
+    } catch (Exception e) {
+      if (failure == null) return new CrawlFailedException(e);
+      failure.addSuppressed(e);
+    }
+    return failure;
+  }
+
+  private void closeTemporaryQueue() {
+    if (temporaryQueue == null) return;
+    try {
+      temporaryQueue.close();
+    } catch (IOException e) {
+      System.err.println("Could not delete the frontier spill file");
+    }
+  }
+
+  /**
+   * Visits a page once the politeness scheduler allows, trying again later if the host asks to slow
+   * down.
+   *
+   * <p>If the page redirects to a uri that hasn't been scheduled yet, the redirect is followed as
+   * part of the same visit rather than scheduled as a new one. Pages reached that way are recorded
+   * as soon as they are visited, before the page that redirected to them.
+   *
+   * @param pageUri the uri of the page to visit.
+   * @param depth the number of links followed from the start uri to reach the page.
+   * @param attempt the number of this attempt, starting from 1.
+   * @param redirects the number of redirects followed to reach this page.
+   * @param dispatchedAt the {@link System#nanoTime()} the visit left the frontier.
+   * @return a future that completes with the visited page, or null if the visit failed. It never
+   *     completes exceptionally.
+   */
+  private CompletableFuture<VisitedPage> visitPolitely(
+      URI pageUri, int depth, int attempt, int redirects, long dispatchedAt) {
+    return politeness
+        .acquire(pageUri.getHost())
+        .thenCompose(
+            permit ->
+                mode == CrawlConfig.Mode.ASYNC
+                    ? visitAsync(pageUri, depth, permit, dispatchedAt)
+                    : CompletableFuture.supplyAsync(
+                        () -> visit(pageUri, depth, permit, dispatchedAt), executorService))
+        .handle(
+            (fetched, e) -> {
+              var cause = e instanceof CompletionException ? e.getCause() : e;
+              if (cause instanceof HostThrottledException && attempt < MAX_ATTEMPTS) {
+                return visitPolitely(pageUri, depth, attempt + 1, redirects, dispatchedAt);
+              }
+              if (cause != null) {
+                visitFailed(pageUri, cause);
+                return CompletableFuture.<VisitedPage>completedFuture(null);
+              }
+              return followRedirect(fetched, depth, redirects);
+            })
+        .thenCompose(page -> page);
+  }
+
+  /**
+   * Visits the page a fetched page redirects to, if any, without going back through the frontier.
+   * The page it redirects to is at the same depth, and counts as a page visited.
+   *
+   * @return a future that completes with the fetched page once the redirect has been visited.
+   */
+  private CompletableFuture<VisitedPage> followRedirect(Fetched fetched, int depth, int redirects) {
+    if (fetched == null || fetched.redirect == null) {
+      return CompletableFuture.completedFuture(fetched == null ? null : fetched.page);
+    }
+    if (redirects >= MAX_REDIRECTS || !frontier.tryStartVisit()) {
+      frontier.push(fetched.redirect, depth);
+      return CompletableFuture.completedFuture(fetched.page);
+    }
+    return visitPolitely(fetched.redirect, depth, 1, redirects + 1, System.nanoTime())
+        .thenApply(
+            target -> {
+              if (target != null) {
+                visited(new Visit(fetched.redirect, Visit.NO_ID, depth), target);
+              }
+              return fetched.page;
+            });
+  }
+
+  /**
+   * Visits a page, blocking the calling thread until it has been downloaded and parsed.
    *
    * @param pageUri the uri of the page to visit.
+   * @param depth the number of links followed from the start uri to reach the page.
+   * @param permit released once the page has been read.
+   * @param dispatchedAt the {@link System#nanoTime()} the visit left the frontier.
+   * @return the fetched page, or null if the visit failed.
+   * @throws HostThrottledException if the host asked to slow down.
    */
-  private void visit(URI pageUri) {
+  private Fetched visit(
+      URI pageUri, int depth, PolitenessScheduler.Permit permit, long dispatchedAt) {
+    int statusCode = -1;
+    String retryAfter = null;
+    long latency = 0;
     try {
-      var response = httpClient.get(pageUri);
+      var cached = cached(pageUri);
+      long sentAt = System.nanoTime();
+      metrics.recordLatency(CrawlMetrics.Phase.SCHEDULE, sentAt - dispatchedAt);
+      var response = httpClient.get(pageUri, conditionalHeaders(cached));
+      latency = System.nanoTime() - sentAt;
+      metrics.recordLatency(CrawlMetrics.Phase.FETCH, latency);
+      statusCode = response.statusCode();
+      retryAfter = response.headers().firstValue("Retry-After").orElse(null);
+      try (var html = new CountingInputStream(response.body())) {
+        try {
+          return onResponse(
+              pageUri,
+              depth,
+              statusCode,
+              response.headers(),
+              (charset, links) -> linkExtractor.extract(html, charset, pageUri, links),
+              cached);
+        } finally {
+          metrics.recordBytes(html.getCount());
+        }
+      }
+    } catch (HostThrottledException e) {
+      throw e;
+    } catch (Exception e) {
+      visitFailed(pageUri, e);
+      return null;
+    } finally {
+      permit.release(statusCode, retryAfter, latency);
+    }
+  }
 
-      if (response.statusCode() >= 300 && response.statusCode() < 400) {
-        var redirectUri = URI.create(response.headers().firstValue("Location").orElseThrow());
-        // Consider this uri visited and schedule a visit to the redirect uri.
-        visitedPages.add(new VisitedPage(normalizeUri(pageUri), new ArrayList<>()));
-        scheduleVisit(redirectUri);
-        return;
+  /**
+   * Visits a page without blocking. The page is downloaded without holding a thread, into pooled
+   * buffers off the heap, and then parsed on the parse executor.
+   *
+   * @param pageUri the uri of the page to visit.
+   * @param depth the number of links followed from the start uri to reach the page.
+   * @param permit released once the page has been downloaded.
+   * @param dispatchedAt the {@link System#nanoTime()} the visit left the frontier.
+   * @return a future that completes with the fetched page, or null if the visit failed. It
+   *     completes exceptionally only with a {@link HostThrottledException}.
+   */
+  private CompletableFuture<Fetched> visitAsync(
+      URI pageUri, int depth, PolitenessScheduler.Permit permit, long dispatchedAt) {
+    var cached = cached(pageUri);
+    long sentAt = System.nanoTime();
+    metrics.recordLatency(CrawlMetrics.Phase.SCHEDULE, sentAt - dispatchedAt);
+    return httpClient
+        .getPooledAsync(pageUri, conditionalHeaders(cached))
+        .whenComplete(
+            (response, e) -> {
+              long latency = System.nanoTime() - sentAt;
+              metrics.recordLatency(CrawlMetrics.Phase.FETCH, latency);
+              permit.release(
+                  response == null ? -1 : response.statusCode(),
+                  response == null
+                      ? null
+                      : response.headers().firstValue("Retry-After").orElse(null),
+                  latency);
+            })
+        .thenApplyAsync(
+            response -> {
+              try (var html = response.body()) {
+                metrics.recordBytes(html.length());
+                return onResponse(
+                    pageUri,
+                    depth,
+                    response.statusCode(),
+                    response.headers(),
+                    (charset, links) -> linkExtractor.extract(html, charset, pageUri, links),
+                    cached);
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            },
+            executorService)
+        .exceptionally(
+            e -> {
+              var cause = e instanceof CompletionException ? e.getCause() : e;
+              if (cause instanceof HostThrottledException) {
+                throw (HostThrottledException) cause;
+              }
+              visitFailed(pageUri, cause);
+              return null;
+            });
+  }
+
+  /**
+   * Handles the response from visiting a page.
+   *
+   * <p>Extracts all links ('href' attribute from '<a>' tags) from the visited page, resolving them
+   * against the page's '<base>' if it has one. Schedules a visit to all links on the page that are
+   * on the start domain and haven't already been visited. Each link is scheduled as soon as it's
+   * found, while the rest of the page is still downloading, unless duplicates are skipped.
+   *
+   * <p>If the page hasn't changed since it was cached, its cached links are used instead. If it has
+   * validators, its links are cached for the next crawl.
+   *
+   * <p>If duplicates are skipped and the page has the same or nearly the same text as a page
+   * visited before, its links are recorded but not scheduled. Pages answered from the cache aren't
+   * fingerprinted.
+   *
+   * <p>The links of a page at the max depth are recorded but not scheduled.
+   *
+   * <p>A redirect is a visited page without links. The uri it redirects to is claimed so that it
+   * can be followed straight away.
+   *
+   * @param depth the number of links followed from the start uri to reach the page.
+   * @param html the body of the response.
+   * @param cached the cached entry of the page, or null if it isn't cached.
+   * @return the visited page.
+   */
+  private Fetched onResponse(
+      URI pageUri,
+      int depth,
+      int statusCode,
+      HttpHeaders headers,
+      Html html,
+      ResponseCache.Entry cached)
+      throws IOException {
+    metrics.recordStatus(statusCode);
+    if (statusCode == 429 || statusCode == 503) {
+      throw new HostThrottledException(pageUri, statusCode);
+    }
+    if (statusCode == 304 && cached != null) {
+      // The cached links are already absolute and canonical.
+      var canonicalizer = new UriCanonicalizer((String) null);
+      return new Fetched(
+          scheduleLinks(pageUri, depth, canonicalizer, cached.getLinks(), null, true), null);
+    }
+    if (statusCode >= 300 && statusCode < 400) {
+      return new Fetched(
+          new VisitedPage(normalizeUri(pageUri), new ArrayList<>()),
+          redirectTarget(pageUri, depth, headers));
+    }
+
+    List<String> cacheLinks = null;
+    String etag = null;
+    String lastModified = null;
+    if (responseCache != null && statusCode == 200) {
+      etag = headers.firstValue("ETag").orElse(null);
+      lastModified = headers.firstValue("Last-Modified").orElse(null);
+      if (etag != null || lastModified != null) {
+        cacheLinks = new ArrayList<>();
       }
+    }
 
-      var html = response.body();
-      var hrefs = extractHrefFromATags(html, pageUri);
-      var pageUris = hrefToUri(pageUri, hrefs);
+    VisitedPage page;
+    long parseStart = System.nanoTime();
+    if (duplicates == null) {
+      // Nothing waits for the whole page, so each link is scheduled as soon as it's found and
+      // fetching it overlaps with downloading the rest of the page.
+      var pageLinks = new PageLinks(depth, cacheLinks, true);
+      html.extract(charset(headers), new ExtractedLinks(pageUri, pageLinks::add));
+      metrics.recordLatency(CrawlMetrics.Phase.PARSE, System.nanoTime() - parseStart);
+      page = pageLinks.page(pageUri);
+    } else {
+      var fingerprint = new ContentFingerprint();
+      var links = new ExtractedLinks(fingerprint);
+      html.extract(charset(headers), links);
+      metrics.recordLatency(CrawlMetrics.Phase.PARSE, System.nanoTime() - parseStart);
 
-      // Schedule a visit to each uri on the page.
-      pageUris.forEach(this::scheduleVisit);
+      // A page without text has nothing to compare.
+      boolean duplicate =
+          fingerprint.getWords() > 0 && duplicates.add(normalizeUri(pageUri), fingerprint) != null;
+      page =
+          scheduleLinks(
+              pageUri,
+              depth,
+              links.canonicalizer(pageUri),
+              links.getHrefs(),
+              cacheLinks,
+              !duplicate);
+    }
+    if (cacheLinks != null) {
+      responseCache.put(
+          page.getPageLink(), new ResponseCache.Entry(etag, lastModified, cacheLinks));
+    }
+    return new Fetched(page, null);
+  }
 
-      // This uri is considered visited now.
-      visitedPages.add(
-          new VisitedPage(
-              normalizeUri(pageUri),
-              pageUris.stream().map(this::normalizeUri).collect(Collectors.toList())));
-    } catch (Exception e) {
-      System.err.println("An error occurred whilst visiting " + pageUri);
-      e.printStackTrace();
+  /**
+   * Resolves the 'Location' of a redirect against the page and claims it for this visit.
+   *
+   * <p>A redirect from http to https of the same uri is always followed, the uri was claimed under
+   * the same key already. It also means every http uri of the host will be visited over https.
+   *
+   * @return the uri to follow, or null if there isn't one or it's someone else's to visit.
+   */
+  private URI redirectTarget(URI pageUri, int depth, HttpHeaders headers) {
+    var location = headers.firstValue("Location").orElse(null);
+    var link = new UriCanonicalizer(pageUri);
+    if (location == null || !link.canonicalize(location)) return null;
+
+    var key = link.key();
+    var target = link.toString();
+    if (!key.equals(normalizeUri(pageUri))) {
+      return claim(link, key, depth) ? visitUri(target) : null;
+    }
+    var page = pageUri.toString();
+    if (page.startsWith("http:") && target.equals("https:" + page.substring(5))) {
+      httpsUpgrade = page.substring(0, page.indexOf('/', "http://".length()) + 1);
+      return link.toUri();
     }
+    // The same page again, or from https back to http.
+    return null;
   }
 
   /**
-   * Schedules a visit to the given uri.
+   * Canonicalizes the links on a page and schedules a visit to each of them, see {@link PageLinks}.
    *
-   * <p>A visit is only scheduled if the uri has the same full domain as the start domain and has
-   * not already been visited.
+   * @param depth the number of links followed from the start uri to reach the page.
+   * @param cacheLinks collects the canonical links to cache, or null if they aren't cached.
+   * @param schedule whether to schedule the links, or only record them. They are never scheduled
+   *     from a page at the max depth.
+   * @return the visited page.
+   */
+  private VisitedPage scheduleLinks(
+      URI pageUri,
+      int depth,
+      UriCanonicalizer canonicalizer,
+      List<String> hrefs,
+      List<String> cacheLinks,
+      boolean schedule) {
+    var links = new PageLinks(depth, cacheLinks, schedule);
+    for (var href : hrefs) {
+      links.add(canonicalizer, href);
+    }
+    return links.page(pageUri);
+  }
+
+  /**
+   * The links of one page, each scheduled as it's added. Only used by the thread visiting the page.
    *
-   * <p>Synchronized so each uri is only visited once.
+   * <p>Each href is parsed once, and duplicates on the page are dropped by their key before any
+   * {@link URI} is created. Only links that are newly scheduled become uris.
    */
-  private void scheduleVisit(URI uri) {
-    // Edge case where the uri has no host e.g. 'http://www.s%C3%B8kbar.no', ignore it.
-    if (uri.getHost() == null) return;
-    if (!uri.getHost().equals(start.getHost())) return;
+  private class PageLinks {
 
-    var normalizedUri = normalizeUri(uri);
+    private final int depth;
+    private final List<String> cacheLinks;
+    private final boolean follow;
+    private final List<String> seenLinks = new ArrayList<>();
+    private final Set<String> seenOnPage = new HashSet<>();
 
-    synchronized (this) {
-      if (!scheduledVisits.contains(normalizedUri)) {
-        taskExecutor.scheduleTask(() -> visit(uri));
-        scheduledVisits.add(normalizedUri);
+    /**
+     * @param depth the number of links followed from the start uri to reach the page.
+     * @param cacheLinks collects the canonical links to cache, or null if they aren't cached.
+     * @param schedule whether to schedule the links, or only record them. They are never
+     *     scheduled from a page at the max depth.
+     */
+    PageLinks(int depth, List<String> cacheLinks, boolean schedule) {
+      this.depth = depth;
+      this.cacheLinks = cacheLinks;
+      this.follow = schedule && depth < maxDepth;
+    }
+
+    /** Records the href, resolved by the canonicalizer, and schedules it unless seen before. */
+    void add(UriCanonicalizer canonicalizer, String href) {
+      if (!canonicalizer.canonicalize(href)) return;
+
+      var key = canonicalizer.key();
+      if (!seenOnPage.add(key)) return;
+      seenLinks.add(key);
+      if (cacheLinks != null) {
+        cacheLinks.add(canonicalizer.toString());
+      }
+      if (follow) {
+        scheduleLink(canonicalizer, key, depth + 1);
       }
     }
+
+    /** Returns the visited page with the links added so far. */
+    VisitedPage page(URI pageUri) {
+      return new VisitedPage(normalizeUri(pageUri), seenLinks);
+    }
+  }
+
+  /**
+   * Looks up the cached entry of a page. A cache that can't be read is treated as a miss, the page
+   * is just downloaded again.
+   *
+   * @return the entry, or null if the page isn't cached.
+   */
+  private ResponseCache.Entry cached(URI pageUri) {
+    if (responseCache == null) return null;
+    try {
+      return responseCache.get(normalizeUri(pageUri));
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /** Returns the headers that make the request conditional on the page having changed. */
+  private static Map<String, String> conditionalHeaders(ResponseCache.Entry cached) {
+    if (cached == null) return Map.of();
+
+    var headers = new LinkedHashMap<String, String>();
+    if (cached.getEtag() != null) {
+      headers.put("If-None-Match", cached.getEtag());
+    }
+    if (cached.getLastModified() != null) {
+      headers.put("If-Modified-Since", cached.getLastModified());
+    }
+    return headers;
+  }
+
+  /** Records a finished visit, this uri is considered visited now. */
+  private void visited(Visit visit, VisitedPage page) {
+    if (page != null) {
+      metrics.recordVisited();
+      onVisited(page);
+    }
+    if (checkpoint != null) {
+      checkpoint.record(visit, page);
+    }
+  }
+
+  private void onVisited(VisitedPage page) {
+    totalVisited.increment();
+    try {
+      listener.onVisited(page);
+    } catch (RuntimeException e) {
+      listenerFailure.compareAndSet(null, e);
+    }
+  }
+
+  private void visitFailed(URI pageUri, Throwable e) {
+    metrics.recordError(e);
+    System.err.println("An error occurred whilst visiting " + pageUri);
+    e.printStackTrace();
   }
 
   /**
-   * Converts a list of 'href' attribute values to a set of usable, absolute uris.
+   * Schedules a visit to the given uri.
    *
-   * <p>Does a best attempt at parsing the href value by encoding it and removing leading
-   * whitespaces.
+   * <p>A visit is only scheduled if the uri has the same full domain as the start domain, is
+   * allowed by its robots.txt and has not already been visited. Scheduled uris wait in the
+   * frontier until there is capacity to visit them.
    *
-   * <p>If a href does not resolve to a uri that has a http or https scheme, it will not be included
-   * in the output.
+   * <p>Adding to the visited set is atomic, so each uri is only scheduled once without taking a
+   * lock on the crawl.
+   *
+   * <p>In a cluster, uris owned by another node are forwarded to it instead.
    */
-  private Set<URI> hrefToUri(URI baseUri, List<String> links) {
-    return links.stream()
-        .filter(s -> !s.isEmpty())
-        // Edge case where uri contains whitespace at the beginning.
-        .map(String::stripLeading)
-        .map(UriEncoder::encode)
-        .map(URI::create)
-        .map(
-            uri -> {
-              if (uri.isAbsolute()) {
-                return uri;
-              }
+  private void scheduleVisit(URI uri) {
+    var canonicalizer = new UriCanonicalizer((String) null);
+    if (canonicalizer.canonicalize(uri.toString())) {
+      scheduleLink(canonicalizer, canonicalizer.key(), 0);
+    }
+  }
 
-              return baseUri.resolve(uri);
-            })
-        // Only use links that use http/https scheme.
-        .filter(uri -> uri.getScheme().equals("http") || uri.getScheme().equals("https"))
-        .collect(Collectors.toSet());
+  /**
+   * Schedules a visit to the link the canonicalizer last accepted, see {@link #scheduleVisit}. The
+   * {@link URI} is only created if the link is scheduled, or ranked again by the priority.
+   *
+   * @param key the key of the link.
+   * @param depth the number of links followed from the start uri to reach the link.
+   */
+  private void scheduleLink(UriCanonicalizer link, String key, int depth) {
+    if (claim(link, key, depth)) {
+      frontier.push(visitUri(link.toString()), depth);
+    } else if (priorityQueue != null) {
+      priorityQueue.linked(key, () -> visitUri(link.toString()));
+    }
+  }
+
+  /**
+   * Claims the link the canonicalizer last accepted for this node to visit, see {@link
+   * #scheduleVisit}. A link owned by another node of the cluster is forwarded to it instead.
+   *
+   * @param depth the number of links followed from the start uri to reach the link.
+   * @return true if the link should be visited by this node, and hadn't been claimed before.
+   */
+  private boolean claim(UriCanonicalizer link, String key, int depth) {
+    if (startHost == null || !link.hasHost(startHost)) return false;
+    if (robots != null && !link.isAllowed(robots)) return false;
+
+    if (cluster != null && !cluster.owns(key)) {
+      cluster.forward(key, link.toUri(), depth);
+      return false;
+    }
+    return scheduledVisits.add(key);
   }
 
-  /** Extracts the 'href' attribute value from every '<a>' tag in the given html. */
-  private List<String> extractHrefFromATags(InputStream html, URI baseUri) throws IOException {
-    var doc = Jsoup.parse(html, null, baseUri.toString());
-    return doc.body().getElementsByTag("a").stream()
-        .map(e -> e.attr("href"))
-        .collect(Collectors.toList());
+  /** Returns the uri to visit for a canonical uri, over https if the host is known to want it. */
+  private URI visitUri(String uri) {
+    var upgrade = httpsUpgrade;
+    if (upgrade != null && uri.startsWith(upgrade)) {
+      return URI.create("https:" + uri.substring("http:".length()));
+    }
+    return URI.create(uri);
+  }
+
+  /** Schedules a visit to a uri another node of the cluster found and this node owns. */
+  private void scheduleOwnedVisit(Visit visit) {
+    if (scheduledVisits.add(normalizeUri(visit.getUri()))) {
+      frontier.push(visitUri(visit.getUri().toString()), visit.getDepth());
+    }
+  }
+
+  /** Whether nothing is waiting to be visited or in progress on this node right now. */
+  private boolean isIdle() {
+    return taskExecutor.getPendingTasks() == 0 && (frontier.size() == 0 || frontier.isStopped());
+  }
+
+  /** Starts a visit taken from the frontier, releasing it again once done. */
+  private void dispatch(Visit visit) {
+    long dispatchedAt = System.nanoTime();
+    taskExecutor.scheduleAsyncTask(
+        () ->
+            visitPolitely(visit.getUri(), visit.getDepth(), 1, 0, dispatchedAt)
+                .thenAccept(page -> visited(visit, page))
+                .whenComplete((result, e) -> frontier.release()));
+  }
+
+  /** Returns the charset named in the Content-Type header, or null if there isn't a usable one. */
+  private static Charset charset(HttpHeaders headers) {
+    var contentType = headers.firstValue("Content-Type").orElse("");
+    for (var parameter : contentType.split(";")) {
+      var nameAndValue = parameter.split("=", 2);
+      if (nameAndValue.length == 2 && nameAndValue[0].strip().equalsIgnoreCase("charset")) {
+        try {
+          return Charset.forName(nameAndValue[1].strip().replace("\"", ""));
+        } catch (IllegalArgumentException e) {
+          return null;
+        }
+      }
+    }
+    return null;
   }
 
   /**
    * 'Normalizes' a uri to try prevent duplicates. Only keeps the authority, path, and query parts
    * of the uri. E.g. 'https://example.com/' and 'http://example.com/' will both become
    * 'example.com/'.
+   *
+   * <p>Http and https uris are canonicalized first, see {@link UriCanonicalizer#key()}.
    */
-  private String normalizeUri(URI uri) {
+  static String normalizeUri(URI uri) {
+    var key = UriCanonicalizer.key(uri);
+    if (key != null) {
+      return key;
+    }
+
     var normalized = uri.getAuthority();
     if (uri.getPath() != null) {
       normalized += uri.getPath();
@@ -175,4 +919,25 @@ class Crawl {
 
     return normalized;
   }
+
+  /** A page that has been fetched, and the uri it redirects to that should be visited next. */
+  private static class Fetched {
+
+    private final VisitedPage page;
+    /** The claimed uri the page redirects to, or null if there isn't one to follow. */
+    private final URI redirect;
+
+    Fetched(VisitedPage page, URI redirect) {
+      this.page = page;
+      this.redirect = redirect;
+    }
+  }
+
+  /** The body of a response, however it was fetched. */
+  @FunctionalInterface
+  private interface Html {
+
+    /** Reads the links of the body with the link extractor. */
+    void extract(Charset charset, ExtractedLinks links) throws IOException;
+  }
 }
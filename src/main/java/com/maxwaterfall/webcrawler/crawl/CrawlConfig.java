@@ -0,0 +1,496 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Options that change how a crawl is carried out. Use {@link #builder()} to create one, any option
+ * that isn't set keeps its default.
+ */
+public class CrawlConfig {
+
+  /** How links are extracted from each visited page. */
+  public enum Parser {
+    /** Scans the html as it downloads without building a document. The default. */
+    STREAMING,
+    /** Builds a full Jsoup document, more lenient with badly formed html. */
+    JSOUP
+  }
+
+  /** How pages are fetched. */
+  public enum Mode {
+    /** Each visit holds a thread from a fixed pool while it waits for the network. The default. */
+    BLOCKING,
+    /**
+     * Pages are fetched without holding a thread, only parsing runs on a pool sized to the cores.
+     * Allows many more requests in flight against slow servers. Bodies are read into pooled
+     * buffers off the heap, see {@link com.maxwaterfall.webcrawler.HttpClient#getPooledAsync}.
+     */
+    ASYNC,
+    /**
+     * Each visit runs on its own virtual thread, so blocking on the network costs no platform
+     * thread. Needs Java 21 or newer.
+     */
+    VIRTUAL_THREADS
+  }
+
+  /** How the uris that have already been scheduled are remembered. */
+  public enum VisitedSetType {
+    /** Every normalized uri as a String. Exact, the default. */
+    STRINGS,
+    /** 64-bit fingerprints in a primitive hash table. 11-21 bytes per uri, practically exact. */
+    FINGERPRINT,
+    /**
+     * A Bloom filter sized by expectedUris and bloomFalsePositiveRate. A few bytes per uri, but
+     * some pages may be wrongly skipped.
+     */
+    BLOOM
+  }
+
+  private final Parser parser;
+  private final Mode mode;
+  private final int maxConcurrentRequests;
+  private final int totalConcurrentRequests;
+  private final int frontierMemoryLimit;
+  private final FrontierPriority frontierPriority;
+  private final int maxDepth;
+  private final long maxPages;
+  private final Duration timeBudget;
+  private final boolean respectRobotsTxt;
+  private final boolean seedSitemaps;
+  private final int parseThreads;
+  private final int maxConnectionsPerHost;
+  private final double hostRequestsPerSecond;
+  private final boolean adaptiveConcurrency;
+  private final VisitedSetType visitedSet;
+  private final long expectedUris;
+  private final double bloomFalsePositiveRate;
+  private final Path checkpointDirectory;
+  private final Path responseCacheDirectory;
+  private final boolean skipDuplicates;
+  private final double duplicateSimilarity;
+  private final List<InetSocketAddress> clusterNodes;
+  private final int clusterNodeIndex;
+
+  private CrawlConfig(Builder builder) {
+    this.parser = builder.parser;
+    this.mode = builder.mode;
+    this.maxConcurrentRequests = builder.maxConcurrentRequests;
+    this.totalConcurrentRequests =
+        builder.totalConcurrentRequests == 0
+            ? builder.maxConcurrentRequests
+            : builder.totalConcurrentRequests;
+    this.frontierMemoryLimit = builder.frontierMemoryLimit;
+    this.frontierPriority = builder.frontierPriority;
+    this.maxDepth = builder.maxDepth;
+    this.maxPages = builder.maxPages;
+    this.timeBudget = builder.timeBudget;
+    this.respectRobotsTxt = builder.respectRobotsTxt;
+    this.seedSitemaps = builder.seedSitemaps;
+    this.parseThreads = builder.parseThreads;
+    this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+    this.hostRequestsPerSecond = builder.hostRequestsPerSecond;
+    this.adaptiveConcurrency = builder.adaptiveConcurrency;
+    this.visitedSet = builder.visitedSet;
+    this.expectedUris = builder.expectedUris;
+    this.bloomFalsePositiveRate = builder.bloomFalsePositiveRate;
+    this.checkpointDirectory = builder.checkpointDirectory;
+    this.responseCacheDirectory = builder.responseCacheDirectory;
+    this.skipDuplicates = builder.skipDuplicates;
+    this.duplicateSimilarity = builder.duplicateSimilarity;
+    this.clusterNodes = builder.clusterNodes;
+    this.clusterNodeIndex = builder.clusterNodeIndex;
+  }
+
+  public static CrawlConfig defaults() {
+    return builder().build();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public Parser getParser() {
+    return parser;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
+
+  /** The most visits in progress at once across all the crawls of a crawler. */
+  public int getTotalConcurrentRequests() {
+    return totalConcurrentRequests;
+  }
+
+  public int getFrontierMemoryLimit() {
+    return frontierMemoryLimit;
+  }
+
+  /** The order uris in the frontier are visited in, or null to visit them in the order found. */
+  public FrontierPriority getFrontierPriority() {
+    return frontierPriority;
+  }
+
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public long getMaxPages() {
+    return maxPages;
+  }
+
+  /** How long new visits are started for, or null if there is no limit. */
+  public Duration getTimeBudget() {
+    return timeBudget;
+  }
+
+  /** Whether uris the robots.txt of the host disallows are skipped. */
+  public boolean isRespectRobotsTxt() {
+    return respectRobotsTxt;
+  }
+
+  /** Whether the frontier is seeded with the pages listed in the host's sitemaps. */
+  public boolean isSeedSitemaps() {
+    return seedSitemaps;
+  }
+
+  public int getParseThreads() {
+    return parseThreads;
+  }
+
+  public int getMaxConnectionsPerHost() {
+    return maxConnectionsPerHost;
+  }
+
+  public double getHostRequestsPerSecond() {
+    return hostRequestsPerSecond;
+  }
+
+  public boolean isAdaptiveConcurrency() {
+    return adaptiveConcurrency;
+  }
+
+  public VisitedSetType getVisitedSet() {
+    return visitedSet;
+  }
+
+  public long getExpectedUris() {
+    return expectedUris;
+  }
+
+  public double getBloomFalsePositiveRate() {
+    return bloomFalsePositiveRate;
+  }
+
+  /** The directory the crawl is checkpointed to, or null if it isn't. */
+  public Path getCheckpointDirectory() {
+    return checkpointDirectory;
+  }
+
+  /** The directory responses are cached in between crawls, or null if they aren't. */
+  public Path getResponseCacheDirectory() {
+    return responseCacheDirectory;
+  }
+
+  /** Whether the links of pages with nearly the same text as an earlier page are skipped. */
+  public boolean isSkipDuplicates() {
+    return skipDuplicates;
+  }
+
+  /** The share of their text two pages must have in common for them to be duplicates. */
+  public double getDuplicateSimilarity() {
+    return duplicateSimilarity;
+  }
+
+  /** The addresses of every node of the cluster, empty if the crawl runs in one process. */
+  public List<InetSocketAddress> getClusterNodes() {
+    return clusterNodes;
+  }
+
+  /** The index of this process in {@link #getClusterNodes()}. */
+  public int getClusterNodeIndex() {
+    return clusterNodeIndex;
+  }
+
+  public static class Builder {
+
+    private Parser parser = Parser.STREAMING;
+    private Mode mode = Mode.BLOCKING;
+    private int maxConcurrentRequests = 256;
+    private int totalConcurrentRequests;
+    private int frontierMemoryLimit = 100_000;
+    private FrontierPriority frontierPriority;
+    private int maxDepth = Integer.MAX_VALUE;
+    private long maxPages = Long.MAX_VALUE;
+    private Duration timeBudget;
+    private boolean respectRobotsTxt = true;
+    private boolean seedSitemaps = false;
+    private int parseThreads = Runtime.getRuntime().availableProcessors();
+    private int maxConnectionsPerHost = 256;
+    private double hostRequestsPerSecond = 0;
+    private boolean adaptiveConcurrency = false;
+    private VisitedSetType visitedSet = VisitedSetType.STRINGS;
+    private long expectedUris = 100_000;
+    private double bloomFalsePositiveRate = 0.000_001;
+    private Path checkpointDirectory;
+    private Path responseCacheDirectory;
+    private boolean skipDuplicates = false;
+    private double duplicateSimilarity = 0.9;
+    private List<InetSocketAddress> clusterNodes = List.of();
+    private int clusterNodeIndex;
+
+    private Builder() {}
+
+    public Builder parser(Parser parser) {
+      this.parser = parser;
+      return this;
+    }
+
+    public Builder mode(Mode mode) {
+      this.mode = mode;
+      return this;
+    }
+
+    /** The most visits that can be in progress at once, however they are fetched. */
+    public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+      this.maxConcurrentRequests = requirePositive("maxConcurrentRequests", maxConcurrentRequests);
+      return this;
+    }
+
+    /**
+     * The most visits in progress at once across all the crawls a {@link Crawler} runs at the same
+     * time, shared out between them in turn. maxConcurrentRequests by default, so crawls running
+     * together share what one crawl would use.
+     */
+    public Builder totalConcurrentRequests(int totalConcurrentRequests) {
+      this.totalConcurrentRequests =
+          requirePositive("totalConcurrentRequests", totalConcurrentRequests);
+      return this;
+    }
+
+    /**
+     * The most uris waiting in the frontier that are kept on the heap, the rest are spilled to a
+     * temporary file until there is room. Checkpointed crawls keep the frontier on disk anyway.
+     */
+    public Builder frontierMemoryLimit(int frontierMemoryLimit) {
+      this.frontierMemoryLimit = requirePositive("frontierMemoryLimit", frontierMemoryLimit);
+      return this;
+    }
+
+    /**
+     * Visits the uris in the frontier in the order of their rank, e.g. {@link
+     * FrontierPriority#byDepth()}, rather than the order they were found. Ranks are kept apart in
+     * memory and spilled under one frontierMemoryLimit. Can't be used with a checkpoint, whose
+     * frontier is kept in order on disk. Visited in the order found by default.
+     */
+    public Builder frontierPriority(FrontierPriority frontierPriority) {
+      this.frontierPriority = frontierPriority;
+      return this;
+    }
+
+    /**
+     * The most links followed from the start uri, the links of pages at this depth are recorded but
+     * not visited. 0 only visits the start uri. No limit by default.
+     */
+    public Builder maxDepth(int maxDepth) {
+      if (maxDepth < 0) {
+        throw new IllegalArgumentException("maxDepth must be 0 or more but was " + maxDepth);
+      }
+      this.maxDepth = maxDepth;
+      return this;
+    }
+
+    /**
+     * The most pages visited. Once reached no more visits are started, the crawl finishes once
+     * those in progress have. No limit by default.
+     */
+    public Builder maxPages(long maxPages) {
+      if (maxPages < 1) {
+        throw new IllegalArgumentException("maxPages must be at least 1 but was " + maxPages);
+      }
+      this.maxPages = maxPages;
+      return this;
+    }
+
+    /**
+     * How long visits are started for, from the start of the crawl. Once it's up the crawl
+     * finishes as soon as the visits in progress have. With a checkpoint, the crawl can be resumed
+     * where it stopped. Null, the default, means no limit.
+     */
+    public Builder timeBudget(Duration timeBudget) {
+      if (timeBudget != null && (timeBudget.isNegative() || timeBudget.isZero())) {
+        throw new IllegalArgumentException("timeBudget must be positive but was " + timeBudget);
+      }
+      this.timeBudget = timeBudget;
+      return this;
+    }
+
+    /**
+     * Fetches the robots.txt of the host once before the crawl starts, and skips the uris it
+     * disallows for the 'webcrawler' user-agent or, if no group names it, for '*'. A robots.txt
+     * that isn't found allows everything, and one the server fails to give disallows everything.
+     * On by default.
+     */
+    public Builder respectRobotsTxt(boolean respectRobotsTxt) {
+      this.respectRobotsTxt = respectRobotsTxt;
+      return this;
+    }
+
+    /**
+     * Reads the sitemaps listed in the robots.txt, or '/sitemap.xml' if it lists none, alongside
+     * the crawl and schedules every page in them as if the start uri linked to it. Sitemap indexes
+     * are followed. Off by default.
+     */
+    public Builder seedSitemaps(boolean seedSitemaps) {
+      this.seedSitemaps = seedSitemaps;
+      return this;
+    }
+
+    /** Number of threads used to parse pages in {@link Mode#ASYNC} mode. */
+    public Builder parseThreads(int parseThreads) {
+      this.parseThreads = requirePositive("parseThreads", parseThreads);
+      return this;
+    }
+
+    /** The most concurrent connections to a single host. */
+    public Builder maxConnectionsPerHost(int maxConnectionsPerHost) {
+      this.maxConnectionsPerHost = requirePositive("maxConnectionsPerHost", maxConnectionsPerHost);
+      return this;
+    }
+
+    /**
+     * The most requests per second sent to a single host, bursts of up to a second's worth are
+     * allowed. 0, the default, means no limit.
+     */
+    public Builder hostRequestsPerSecond(double hostRequestsPerSecond) {
+      if (!(hostRequestsPerSecond >= 0) || Double.isInfinite(hostRequestsPerSecond)) {
+        throw new IllegalArgumentException(
+            "hostRequestsPerSecond must be 0 or more but was " + hostRequestsPerSecond);
+      }
+      this.hostRequestsPerSecond = hostRequestsPerSecond;
+      return this;
+    }
+
+    /**
+     * Starts each host on a few connections and tunes the limit from its response times, never
+     * going above maxConnectionsPerHost. Off by default.
+     */
+    public Builder adaptiveConcurrency(boolean adaptiveConcurrency) {
+      this.adaptiveConcurrency = adaptiveConcurrency;
+      return this;
+    }
+
+    public Builder visitedSet(VisitedSetType visitedSet) {
+      this.visitedSet = visitedSet;
+      return this;
+    }
+
+    /** How many uris the crawl is expected to find, used to size the visited set up front. */
+    public Builder expectedUris(long expectedUris) {
+      if (expectedUris < 1) {
+        throw new IllegalArgumentException(
+            "expectedUris must be at least 1 but was " + expectedUris);
+      }
+      this.expectedUris = expectedUris;
+      return this;
+    }
+
+    /** The false positive rate of a {@link VisitedSetType#BLOOM} set once it holds expectedUris. */
+    public Builder bloomFalsePositiveRate(double bloomFalsePositiveRate) {
+      if (!(bloomFalsePositiveRate > 0 && bloomFalsePositiveRate < 1)) {
+        throw new IllegalArgumentException(
+            "bloomFalsePositiveRate must be between 0 and 1 but was " + bloomFalsePositiveRate);
+      }
+      this.bloomFalsePositiveRate = bloomFalsePositiveRate;
+      return this;
+    }
+
+    /**
+     * Keeps the frontier and the visited pages on disk in this directory, so a crawl that dies can
+     * be carried on with {@link Crawler#resume}. The directory holds a single crawl, further crawls
+     * of the same crawler are checkpointed in a directory of their own passed to {@link
+     * Crawler#crawl(java.net.URI, VisitListener, Path)}. Not checkpointed by default.
+     */
+    public Builder checkpointDirectory(Path checkpointDirectory) {
+      this.checkpointDirectory = checkpointDirectory;
+      return this;
+    }
+
+    /**
+     * Remembers the 'ETag', 'Last-Modified' and links of every page in this directory. The next
+     * crawl using the same directory asks the server whether each page changed, and reuses the
+     * links of pages that didn't without downloading them. The crawls of a crawler share the
+     * directory, but it can't be shared by two crawlers at the same time. Not cached by default.
+     */
+    public Builder responseCacheDirectory(Path responseCacheDirectory) {
+      this.responseCacheDirectory = responseCacheDirectory;
+      return this;
+    }
+
+    /**
+     * Fingerprints the text of every page as it's parsed, and doesn't follow the links of a page
+     * whose text is the same or nearly the same as a page visited before, e.g. the same page under
+     * another query string. The page is still visited and its links still recorded. Duplicates are
+     * reported in the {@link CrawlResult}. Off by default.
+     */
+    public Builder skipDuplicates(boolean skipDuplicates) {
+      this.skipDuplicates = skipDuplicates;
+      return this;
+    }
+
+    /**
+     * The share of their runs of three words two pages must have in common for them to be
+     * duplicates, estimated from MinHash signatures. Pages with the same words always are. 0.9 by
+     * default.
+     */
+    public Builder duplicateSimilarity(double duplicateSimilarity) {
+      if (!(duplicateSimilarity > 0 && duplicateSimilarity <= 1)) {
+        throw new IllegalArgumentException(
+            "duplicateSimilarity must be more than 0 and at most 1 but was "
+                + duplicateSimilarity);
+      }
+      this.duplicateSimilarity = duplicateSimilarity;
+      return this;
+    }
+
+    /**
+     * Splits the crawl between several processes, each visiting its share of the uris. Every node
+     * must be started with the same list of nodes and the same start uri. Node 0 decides when the
+     * crawl is finished. Not clustered by default.
+     *
+     * @param nodes the address each node listens on for its peers.
+     * @param self the index of this process in the nodes.
+     */
+    public Builder cluster(List<InetSocketAddress> nodes, int self) {
+      if (self < 0 || self >= nodes.size()) {
+        throw new IllegalArgumentException(
+            "cluster node must be between 0 and " + (nodes.size() - 1) + " but was " + self);
+      }
+      this.clusterNodes = List.copyOf(nodes);
+      this.clusterNodeIndex = self;
+      return this;
+    }
+
+    public CrawlConfig build() {
+      if (frontierPriority != null && checkpointDirectory != null) {
+        throw new IllegalArgumentException(
+            "frontierPriority can't be used with a checkpointDirectory");
+      }
+      return new CrawlConfig(this);
+    }
+
+    private static int requirePositive(String name, int value) {
+      if (value < 1) {
+        throw new IllegalArgumentException(name + " must be at least 1 but was " + value);
+      }
+      return value;
+    }
+  }
+}
@@ -0,0 +1,246 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.TaskExecutor;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what the crawls of a {@link Crawler} did, and how much work is waiting in the ones that
+ * are running. Counters add up over every crawl of the crawler.
+ *
+ * <p>Recording only touches LongAdders and atomic arrays and doesn't allocate, so it is always on.
+ * While any crawl is running the metrics are also registered with the platform MBean server as
+ * 'com.maxwaterfall.webcrawler:type=CrawlMetrics,name=N'. Registering happens in the background,
+ * starting the MBean server would hold up the first request of a crawl by about as long as the
+ * rest of the startup.
+ *
+ * <p>Safe for concurrent use.
+ */
+public class CrawlMetrics implements CrawlMetricsMXBean {
+
+  /** The stages a visit goes through, each with its own latency histogram. */
+  public enum Phase {
+    /** From leaving the frontier until the request is sent, waiting on the host and a thread. */
+    SCHEDULE,
+    /**
+     * From sending the request until the response is available. That is the headers when
+     * blocking, as the body is read while parsing, and the whole body in async mode.
+     */
+    FETCH,
+    /** Extracting the links from the body, including reading it when blocking. */
+    PARSE
+  }
+
+  private static final AtomicInteger IDS = new AtomicInteger();
+
+  private final long createdAt;
+  private final LongAdder pagesVisited;
+  private final LongAdder bytesRead;
+  private final LongAdder errors;
+  private final AtomicLongArray statusCounts;
+  private final Map<Class<?>, LongAdder> errorCounts;
+  private final Map<Phase, LatencyHistogram> latencies;
+  private final ObjectName name;
+
+  /** The frontiers and task executors of the crawls that are running. */
+  private final Set<Frontier> frontiers;
+
+  private final Set<TaskExecutor> taskExecutors;
+
+  CrawlMetrics() {
+    this.createdAt = System.nanoTime();
+    this.pagesVisited = new LongAdder();
+    this.bytesRead = new LongAdder();
+    this.errors = new LongAdder();
+    this.statusCounts = new AtomicLongArray(600);
+    this.errorCounts = new ConcurrentHashMap<>();
+    this.latencies = new EnumMap<>(Phase.class);
+    this.frontiers = ConcurrentHashMap.newKeySet();
+    this.taskExecutors = ConcurrentHashMap.newKeySet();
+    for (var phase : Phase.values()) {
+      latencies.put(phase, new LatencyHistogram());
+    }
+    try {
+      this.name =
+          new ObjectName(
+              "com.maxwaterfall.webcrawler:type=CrawlMetrics,name=" + IDS.incrementAndGet());
+    } catch (JMException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Reports the queues of a crawl that is starting, and registers the metrics with JMX in the
+   * background if it's the only crawl running.
+   */
+  synchronized void attach(Frontier frontier, TaskExecutor taskExecutor) {
+    frontiers.add(frontier);
+    taskExecutors.add(taskExecutor);
+    if (taskExecutors.size() == 1) {
+      CompletableFuture.runAsync(this::register);
+    }
+  }
+
+  /** Registers the metrics with JMX, unless the crawls are over by now. */
+  private void register() {
+    var server = ManagementFactory.getPlatformMBeanServer();
+    synchronized (this) {
+      if (taskExecutors.isEmpty()) return;
+      try {
+        if (!server.isRegistered(name)) {
+          server.registerMBean(this, name);
+        }
+      } catch (JMException e) {
+        // Only JMX misses out, the metrics can still be read from the crawler.
+      }
+    }
+  }
+
+  /**
+   * Stops reporting the queues of a crawl that finished, and unregisters the metrics once no crawl
+   * is running.
+   *
+   * @param frontier the frontier of the crawl, or null if it never got one.
+   */
+  synchronized void detach(Frontier frontier, TaskExecutor taskExecutor) {
+    if (frontier != null) {
+      frontiers.remove(frontier);
+    }
+    taskExecutors.remove(taskExecutor);
+    if (!taskExecutors.isEmpty()) return;
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    } catch (JMException e) {
+      // Wasn't registered.
+    }
+  }
+
+  void recordVisited() {
+    pagesVisited.increment();
+  }
+
+  void recordBytes(long bytes) {
+    bytesRead.add(bytes);
+  }
+
+  void recordStatus(int statusCode) {
+    if (statusCode >= 0 && statusCode < statusCounts.length()) {
+      statusCounts.incrementAndGet(statusCode);
+    }
+  }
+
+  void recordError(Throwable e) {
+    errors.increment();
+    errorCounts.computeIfAbsent(e.getClass(), type -> new LongAdder()).increment();
+  }
+
+  void recordLatency(Phase phase, long nanos) {
+    latencies.get(phase).record(nanos);
+  }
+
+  @Override
+  public long getPagesVisited() {
+    return pagesVisited.sum();
+  }
+
+  /** Bytes of response bodies read. */
+  @Override
+  public long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  /** Pages visited a second since the crawler was created. */
+  @Override
+  public double getPagesPerSecond() {
+    return perSecond(getPagesVisited());
+  }
+
+  /** Bytes read a second since the crawler was created. */
+  @Override
+  public double getBytesPerSecond() {
+    return perSecond(getBytesRead());
+  }
+
+  /** Visits taken from the frontier that haven't finished yet. */
+  @Override
+  public int getRequestsInFlight() {
+    return frontiers.stream().mapToInt(Frontier::inFlight).sum();
+  }
+
+  /** Uris waiting in the frontier. */
+  @Override
+  public long getFrontierSize() {
+    return frontiers.stream().mapToLong(Frontier::size).sum();
+  }
+
+  /** Tasks scheduled on the task executor that haven't completed yet. */
+  @Override
+  public long getPendingTasks() {
+    return taskExecutors.stream().mapToLong(TaskExecutor::getPendingTasks).sum();
+  }
+
+  /** Visits that failed without a usable response. */
+  @Override
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  /** Number of responses with each status code. */
+  @Override
+  public Map<Integer, Long> getStatusCounts() {
+    var counts = new TreeMap<Integer, Long>();
+    for (int i = 0; i < statusCounts.length(); i++) {
+      long count = statusCounts.get(i);
+      if (count > 0) counts.put(i, count);
+    }
+    return Collections.unmodifiableMap(counts);
+  }
+
+  /** Number of failed visits by the class name of the error. */
+  @Override
+  public Map<String, Long> getErrorCounts() {
+    var counts = new TreeMap<String, Long>();
+    errorCounts.forEach((type, count) -> counts.put(type.getName(), count.sum()));
+    return Collections.unmodifiableMap(counts);
+  }
+
+  @Override
+  public Map<String, Double> getLatencyMillis() {
+    var millis = new TreeMap<String, Double>();
+    for (var phase : Phase.values()) {
+      var histogram = getLatency(phase);
+      var prefix = phase.name().toLowerCase(Locale.ROOT);
+      millis.put(prefix + ".p50", toMillis(histogram.getPercentile(50)));
+      millis.put(prefix + ".p99", toMillis(histogram.getPercentile(99)));
+      millis.put(prefix + ".max", toMillis(histogram.getMax()));
+    }
+    return Collections.unmodifiableMap(millis);
+  }
+
+  /** The latencies of a phase, in nanoseconds. */
+  public LatencyHistogram getLatency(Phase phase) {
+    return latencies.get(phase);
+  }
+
+  private double perSecond(long count) {
+    long elapsed = System.nanoTime() - createdAt;
+    return elapsed <= 0 ? 0 : count * 1e9 / elapsed;
+  }
+
+  private static double toMillis(long nanos) {
+    return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
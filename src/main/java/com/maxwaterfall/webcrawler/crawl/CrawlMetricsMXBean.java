@@ -0,0 +1,30 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.util.Map;
+
+/** The metrics of a crawler as seen through JMX. See {@link CrawlMetrics}. */
+public interface CrawlMetricsMXBean {
+
+  long getPagesVisited();
+
+  long getBytesRead();
+
+  double getPagesPerSecond();
+
+  double getBytesPerSecond();
+
+  int getRequestsInFlight();
+
+  long getFrontierSize();
+
+  long getPendingTasks();
+
+  long getErrors();
+
+  Map<Integer, Long> getStatusCounts();
+
+  Map<String, Long> getErrorCounts();
+
+  /** The 50th, 99th percentile and max of each phase in milliseconds, e.g. 'fetch.p99'. */
+  Map<String, Double> getLatencyMillis();
+}
@@ -0,0 +1,72 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** The outcome of a crawl. */
+public class CrawlResult {
+
+  private final URI start;
+  private final Set<VisitedPage> visitedPages;
+  private final long totalVisited;
+  private final VisitedSetStats visitedSetStats;
+  private final Map<String, List<String>> duplicates;
+  private final long unvisited;
+
+  CrawlResult(
+      URI start,
+      Set<VisitedPage> visitedPages,
+      long totalVisited,
+      VisitedSetStats visitedSetStats,
+      Map<String, List<String>> duplicates,
+      long unvisited) {
+    this.start = start;
+    this.visitedPages = visitedPages;
+    this.totalVisited = totalVisited;
+    this.visitedSetStats = visitedSetStats;
+    this.duplicates = duplicates;
+    this.unvisited = unvisited;
+  }
+
+  /** The uri the crawl started from. */
+  public URI getStart() {
+    return start;
+  }
+
+  /**
+   * All pages that have been visited and all links on those pages. Empty if the pages were passed
+   * to a {@link VisitListener} instead.
+   */
+  public Set<VisitedPage> getVisitedPages() {
+    return visitedPages;
+  }
+
+  /** Number of pages that have been visited. */
+  public long getTotalVisited() {
+    return totalVisited;
+  }
+
+  /** How much memory was used to remember which uris had been scheduled. */
+  public VisitedSetStats getVisitedSetStats() {
+    return visitedSetStats;
+  }
+
+  /**
+   * Clusters of pages with the same or nearly the same text, found when duplicates are skipped.
+   * Each page that has duplicates is mapped to them, the links of the duplicates weren't followed.
+   * Empty if duplicates aren't skipped.
+   */
+  public Map<String, List<String>> getDuplicates() {
+    return duplicates;
+  }
+
+  /**
+   * Number of uris left waiting in the frontier when the max pages or the time budget stopped the
+   * crawl, 0 if it ran until there were none.
+   */
+  public long getUnvisited() {
+    return unvisited;
+  }
+}
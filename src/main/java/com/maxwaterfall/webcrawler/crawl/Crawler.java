@@ -1,28 +1,398 @@
 package com.maxwaterfall.webcrawler.crawl;
 
 import com.maxwaterfall.webcrawler.HttpClient;
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Path;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class Crawler {
+/**
+ * Crawls sites, any number of them at the same time. A crawler is meant to live for as long as
+ * there are sites to crawl: every crawl it runs shares its http client and so its connections,
+ * its threads, the politeness of each host and a budget of {@link
+ * CrawlConfig#getTotalConcurrentRequests() visits in flight}, which the crawls running at the same
+ * time take turns with.
+ *
+ * <p>{@link #crawl(URI)} runs a crawl on the calling thread, {@link #crawlAsync} on a thread of the
+ * crawler and can be cancelled. Close the crawler once it's no longer needed to stop its threads,
+ * they are daemon threads and don't keep the JVM alive in the meantime.
+ *
+ * <p>Safe for concurrent use.
+ */
+public class Crawler implements Closeable {
 
   private final HttpClient httpClient;
+  private final CrawlConfig config;
   private final ExecutorService executorService;
+  /**
+   * Runs the crawls started with crawlAsync, each holds a thread until it's finished. Created by
+   * the first of them, most users only ever crawl on their own thread.
+   */
+  private ExecutorService crawlThreads;
+  /**
+   * The cache of every crawl, opened by the first of them. One per directory, since each instance
+   * appends to the log and compacts it without knowing about the others.
+   */
+  private ResponseCache responseCache;
+  private final PolitenessScheduler politeness;
+  private final ConcurrencyBudget budget;
+  private final CrawlMetrics metrics;
+  /** The crawls that are running, each with a future that completes once it's finished. */
+  private final Map<Crawl, CompletableFuture<Void>> running;
+  private volatile boolean closed;
 
   public Crawler(HttpClient httpClient) {
+    this(httpClient, CrawlConfig.defaults());
+  }
+
+  public Crawler(HttpClient httpClient, CrawlConfig config) {
     this.httpClient = httpClient;
-    this.executorService = Executors.newFixedThreadPool(32);
+    this.config = config;
+    this.executorService = executorService(config);
+    this.politeness = new PolitenessScheduler(config);
+    this.budget = new ConcurrencyBudget(config.getTotalConcurrentRequests());
+    this.metrics = new CrawlMetrics();
+    this.running = new ConcurrentHashMap<>();
+  }
+
+  /** What the crawls of this crawler did so far, and the queues of those that are running. */
+  public CrawlMetrics getMetrics() {
+    return metrics;
   }
 
   /**
-   * Initiates a crawl, starting with the start uri.
+   * Initiates a crawl, starting with the start uri. If the config has a checkpoint directory the
+   * crawl is checkpointed there, the directory must not hold a crawl already.
    *
    * @return all pages that have been visited and all links on those pages.
    * @throws CrawlFailedException if the crawl fails.
    */
-  public Set<VisitedPage> crawl(URI startUri) throws CrawlFailedException {
-    return new Crawl(startUri, httpClient, executorService).start();
+  public CrawlResult crawl(URI startUri) throws CrawlFailedException {
+    var visitedPages = ConcurrentHashMap.<VisitedPage>newKeySet();
+    return withVisitedPages(crawl(startUri, visitedPages::add), visitedPages);
+  }
+
+  /**
+   * Like {@link #crawl(URI)}, but passes each page to the listener as soon as it has been visited
+   * instead of keeping them all in memory.
+   *
+   * @return a summary of the crawl without the visited pages.
+   * @throws CrawlFailedException if the crawl or the listener fails.
+   */
+  public CrawlResult crawl(URI startUri, VisitListener listener) throws CrawlFailedException {
+    return run(() -> newCrawl(startUri, listener, config.getCheckpointDirectory()));
+  }
+
+  /**
+   * Like {@link #crawl(URI, VisitListener)}, but checkpoints the crawl in the given directory
+   * instead of the one of the config, so that a crawler can run any number of checkpointed crawls.
+   *
+   * @param checkpointDirectory a directory that doesn't hold a crawl already.
+   * @return a summary of the crawl without the visited pages.
+   * @throws CrawlFailedException if the crawl or the listener fails.
+   */
+  public CrawlResult crawl(URI startUri, VisitListener listener, Path checkpointDirectory)
+      throws CrawlFailedException {
+    checkCheckpointable();
+    return run(() -> newCrawl(startUri, listener, checkpointDirectory));
+  }
+
+  /**
+   * Like {@link #crawl(URI, VisitListener)}, but runs the crawl on a thread of the crawler and
+   * returns straight away. Cancelling the future stops starting visits, the visits in progress
+   * still finish and are passed to the listener.
+   *
+   * @return a future that completes with a summary of the crawl, or exceptionally with a {@link
+   *     CrawlFailedException} if the crawl or the listener fails, or with an {@link
+   *     IllegalStateException} if the crawler is closed or the checkpoint directory holds a crawl.
+   */
+  public CompletableFuture<CrawlResult> crawlAsync(URI startUri, VisitListener listener) {
+    return runAsync(() -> newCrawl(startUri, listener, config.getCheckpointDirectory()));
+  }
+
+  /**
+   * Like {@link #crawlAsync(URI, VisitListener)}, but checkpoints the crawl in the given directory
+   * instead of the one of the config.
+   *
+   * @param checkpointDirectory a directory that doesn't hold a crawl already.
+   */
+  public CompletableFuture<CrawlResult> crawlAsync(
+      URI startUri, VisitListener listener, Path checkpointDirectory) {
+    try {
+      checkCheckpointable();
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    return runAsync(() -> newCrawl(startUri, listener, checkpointDirectory));
+  }
+
+  /**
+   * Carries on a checkpointed crawl from where it stopped. Pages visited before are not visited
+   * again, the pages that were waiting or in progress are.
+   *
+   * @param checkpointDirectory the checkpoint directory of the earlier crawl.
+   * @return all pages visited by this and the earlier crawl and all links on those pages.
+   * @throws CrawlFailedException if the crawl fails.
+   */
+  public CrawlResult resume(Path checkpointDirectory) throws CrawlFailedException {
+    var visitedPages = ConcurrentHashMap.<VisitedPage>newKeySet();
+    return withVisitedPages(resume(checkpointDirectory, visitedPages::add), visitedPages);
+  }
+
+  /**
+   * Like {@link #resume(Path)}, but passes each page to the listener instead of keeping them all in
+   * memory. Pages visited before the crawl was resumed are passed to it first.
+   *
+   * @return a summary of the crawl without the visited pages.
+   * @throws CrawlFailedException if the crawl or the listener fails.
+   */
+  public CrawlResult resume(Path checkpointDirectory, VisitListener listener)
+      throws CrawlFailedException {
+    checkCheckpointable();
+    return run(
+        () -> {
+          var responseCache = responseCache();
+          Checkpoint checkpoint;
+          try {
+            checkpoint = Checkpoint.open(checkpointDirectory);
+          } catch (IOException e) {
+            throw new CrawlFailedException(e);
+          }
+          return newCrawl(checkpoint.getStart(), listener, checkpoint, responseCache);
+        });
+  }
+
+  /**
+   * Cancels the crawls that are running and waits for them to finish, then stops the threads of
+   * the crawler. Crawls can't be started once it's closed. Does nothing if it's already closed.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    running.keySet().forEach(Crawl::cancel);
+    boolean interrupted = false;
+    try {
+      CompletableFuture.allOf(running.values().toArray(new CompletableFuture<?>[0])).join();
+    } catch (CompletionException e) {
+      // Failed crawls are finished too.
+    }
+    ExecutorService crawlThreads;
+    ResponseCache responseCache;
+    synchronized (this) {
+      crawlThreads = this.crawlThreads;
+      responseCache = this.responseCache;
+    }
+    executorService.shutdown();
+    if (crawlThreads != null) {
+      crawlThreads.shutdown();
+    }
+    try {
+      executorService.awaitTermination(1, TimeUnit.MINUTES);
+      if (crawlThreads != null) {
+        crawlThreads.awaitTermination(1, TimeUnit.MINUTES);
+      }
+    } catch (InterruptedException e) {
+      interrupted = true;
+    }
+    politeness.close();
+    if (responseCache != null) {
+      try {
+        responseCache.close();
+      } catch (IOException e) {
+        System.err.println("Could not compact the response cache");
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Whether the threads of the crawler have all stopped, which they have once it's closed. */
+  synchronized boolean isTerminated() {
+    return executorService.isTerminated() && (crawlThreads == null || crawlThreads.isTerminated());
+  }
+
+  /**
+   * Creates a crawl and runs it on the calling thread, so that closing the crawler can cancel it.
+   * The crawl is created under the lock of the crawler, which closing it takes too: either the
+   * crawl is running by the time the crawler is closed, or it is never created.
+   */
+  private CrawlResult run(CrawlFactory factory) throws CrawlFailedException {
+    var finished = new CompletableFuture<Void>();
+    Crawl crawl;
+    synchronized (this) {
+      checkOpen();
+      crawl = factory.create();
+      running.put(crawl, finished);
+    }
+    try {
+      return crawl.start();
+    } finally {
+      running.remove(crawl);
+      finished.complete(null);
+    }
+  }
+
+  /** Creates a crawl and runs it on a thread of the crawler, unless the future is cancelled. */
+  private CompletableFuture<CrawlResult> runAsync(CrawlFactory factory) {
+    var result = new CompletableFuture<CrawlResult>();
+    try {
+      var threads = crawlThreads();
+      threads.execute(
+          () -> {
+            if (result.isCancelled()) {
+              return;
+            }
+            try {
+              result.complete(
+                  run(
+                      () -> {
+                        var crawl = factory.create();
+                        // Cancelled in the meantime, the crawl stops as soon as it starts.
+                        result.whenComplete(
+                            (summary, e) -> {
+                              if (result.isCancelled()) {
+                                crawl.cancel();
+                              }
+                            });
+                        return crawl;
+                      }));
+            } catch (CrawlFailedException | RuntimeException e) {
+              result.completeExceptionally(e);
+            }
+          });
+    } catch (RuntimeException e) {
+      // The crawler is closed.
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  /**
+   * Creates a crawl, checkpointed in the directory unless it is null. The shared response cache is
+   * opened first, so that failing to open it doesn't leave a checkpoint behind.
+   */
+  private Crawl newCrawl(URI startUri, VisitListener listener, Path checkpointDirectory)
+      throws CrawlFailedException {
+    var responseCache = responseCache();
+    Checkpoint checkpoint = null;
+    if (checkpointDirectory != null) {
+      try {
+        checkpoint = Checkpoint.create(checkpointDirectory, startUri);
+      } catch (IOException e) {
+        throw new CrawlFailedException(e);
+      }
+    }
+    return newCrawl(startUri, listener, checkpoint, responseCache);
+  }
+
+  private Crawl newCrawl(
+      URI startUri, VisitListener listener, Checkpoint checkpoint, ResponseCache responseCache) {
+    return new Crawl(
+        startUri,
+        httpClient,
+        executorService,
+        politeness,
+        budget,
+        linkExtractor(),
+        config,
+        listener,
+        checkpoint,
+        responseCache,
+        metrics);
+  }
+
+  /** Returns the response cache of the crawls, opening it unless it isn't configured. */
+  private synchronized ResponseCache responseCache() throws CrawlFailedException {
+    if (responseCache == null && config.getResponseCacheDirectory() != null) {
+      try {
+        responseCache = new ResponseCache(config.getResponseCacheDirectory());
+      } catch (IOException e) {
+        throw new CrawlFailedException(e);
+      }
+    }
+    return responseCache;
+  }
+
+  /** Returns the threads of crawlAsync, creating them unless the crawler is closed. */
+  private synchronized ExecutorService crawlThreads() {
+    checkOpen();
+    if (crawlThreads == null) {
+      crawlThreads = Executors.newCachedThreadPool(daemonThreads("crawl"));
+    }
+    return crawlThreads;
+  }
+
+  private void checkCheckpointable() {
+    if (config.getFrontierPriority() != null) {
+      throw new IllegalArgumentException("A checkpointed crawl can't use a frontierPriority");
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("The crawler is closed");
+    }
+  }
+
+  private static CrawlResult withVisitedPages(CrawlResult result, Set<VisitedPage> visitedPages) {
+    return new CrawlResult(
+        result.getStart(),
+        visitedPages,
+        result.getTotalVisited(),
+        result.getVisitedSetStats(),
+        result.getDuplicates(),
+        result.getUnvisited());
+  }
+
+  private static ExecutorService executorService(CrawlConfig config) {
+    switch (config.getMode()) {
+      case BLOCKING:
+        return Executors.newFixedThreadPool(32, daemonThreads("visit"));
+      case ASYNC:
+        return Executors.newFixedThreadPool(config.getParseThreads(), daemonThreads("parse"));
+      case VIRTUAL_THREADS:
+        return VirtualThreads.newVirtualThreadPerTaskExecutor();
+      default:
+        throw new IllegalArgumentException("Unknown mode " + config.getMode());
+    }
+  }
+
+  /** Names the threads 'webcrawler-kind-N', and doesn't let them keep the JVM alive. */
+  private static ThreadFactory daemonThreads(String kind) {
+    var count = new AtomicInteger();
+    return runnable -> {
+      var thread = new Thread(runnable, "webcrawler-" + kind + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  private LinkExtractor linkExtractor() {
+    switch (config.getParser()) {
+      case JSOUP:
+        return new JsoupLinkExtractor();
+      case STREAMING:
+        return new StreamingLinkExtractor();
+      default:
+        throw new IllegalArgumentException("Unknown parser " + config.getParser());
+    }
+  }
+
+  /** Creates the crawl to run, with the resources it doesn't share with other crawls. */
+  private interface CrawlFactory {
+    Crawl create() throws CrawlFailedException;
   }
 }
@@ -0,0 +1,151 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the {@link ContentFingerprint} of every distinct page visited, to find pages with the
+ * same or nearly the same text as one seen before. Safe for concurrent use.
+ *
+ * <p>A page is a duplicate if it has the same words as an earlier page, or if both have at least
+ * {@link #MIN_SHINGLES} shingles and at least the given share of their MinHash signatures is
+ * equal. Below that the shares are too coarse to compare.
+ *
+ * <p>Signatures are split into 8 bands of 4 values, each band with a table chaining together the
+ * pages with the same hash of the band. Only pages that agree on a whole band are compared, which
+ * finds pages sharing 90% of their shingles practically always and pages sharing half of them
+ * rarely. Only the low 16 bits of each value are kept. The tables take 2 MiB, and each page about
+ * 110 bytes more plus its link. Duplicates are not added, so a cluster can't drift away from its
+ * first page.
+ *
+ * <p>Pages with too few shingles are kept out of the band tables and found by their exact hash in
+ * a map instead. Their signatures are mostly empty values, so they would all share one chain per
+ * band and each of them would be checked against all the others.
+ */
+class DuplicateIndex {
+
+  /** Pages with fewer shingles than this are only compared by their exact hash. */
+  static final int MIN_SHINGLES = 8;
+
+  private static final int SIGNATURE = ContentFingerprint.MIN_HASHES;
+  private static final int BANDS = 8;
+  private static final int ROWS = SIGNATURE / BANDS;
+  private static final int TABLE_BITS = 16;
+  private static final int NONE = -1;
+
+  /** How many values of two signatures must be equal for the pages to be duplicates. */
+  private final int minEqualHashes;
+  /** For each band, the newest page with each hash of the band. */
+  private final int[][] heads;
+
+  private short[] signatures = new short[1024 * SIGNATURE];
+  private long[] exactHashes = new long[1024];
+  /** For each page and band, the next older page with the same hash of the band. */
+  private int[] next = new int[1024 * BANDS];
+  /** The page with each exact hash, of those with too few shingles to be in the band tables. */
+  private final Map<Long, Integer> uncomparable = new HashMap<>();
+  private final List<String> pages = new ArrayList<>();
+
+  /** The duplicates of each page that has some, in the order they were found. */
+  private final Map<Integer, List<String>> clusters = new LinkedHashMap<>();
+
+  /** @param similarity the share of shingles pages must have in common to be duplicates. */
+  DuplicateIndex(double similarity) {
+    if (!(similarity > 0 && similarity <= 1)) {
+      throw new IllegalArgumentException(
+          "similarity must be more than 0 and at most 1 but was " + similarity);
+    }
+    this.minEqualHashes = (int) Math.ceil(similarity * SIGNATURE);
+    this.heads = new int[BANDS][1 << TABLE_BITS];
+    for (var band : heads) {
+      Arrays.fill(band, NONE);
+    }
+  }
+
+  /**
+   * Adds a page, unless it's a duplicate of a page added before.
+   *
+   * @param page the normalized uri of the page.
+   * @param fingerprint the fingerprint of the whole text of the page.
+   * @return the normalized uri of the page it duplicates, or null if it was added.
+   */
+  synchronized String add(String page, ContentFingerprint fingerprint) {
+    var signature = new short[SIGNATURE];
+    for (int i = 0; i < SIGNATURE; i++) {
+      signature[i] = (short) fingerprint.getMinHash(i);
+    }
+    long exactHash = fingerprint.getExactHash();
+    boolean isComparable = fingerprint.getShingles() >= MIN_SHINGLES;
+
+    int original =
+        isComparable ? find(signature, exactHash) : uncomparable.getOrDefault(exactHash, NONE);
+    if (original != NONE) {
+      clusters.computeIfAbsent(original, p -> new ArrayList<>()).add(page);
+      return pages.get(original);
+    }
+
+    int id = pages.size();
+    if (id == exactHashes.length) {
+      signatures = Arrays.copyOf(signatures, id * 2 * SIGNATURE);
+      exactHashes = Arrays.copyOf(exactHashes, id * 2);
+      next = Arrays.copyOf(next, id * 2 * BANDS);
+    }
+    pages.add(page);
+    System.arraycopy(signature, 0, signatures, id * SIGNATURE, SIGNATURE);
+    exactHashes[id] = exactHash;
+    if (!isComparable) {
+      uncomparable.put(exactHash, id);
+      return null;
+    }
+    for (int band = 0; band < BANDS; band++) {
+      int hash = bandHash(signature, band);
+      next[id * BANDS + band] = heads[band][hash];
+      heads[band][hash] = id;
+    }
+    return null;
+  }
+
+  /**
+   * The pages that have duplicates and their duplicates, in the order they were found.
+   *
+   * @return normalized uris of the first page with some text, mapped to the later pages with it.
+   */
+  synchronized Map<String, List<String>> getClusters() {
+    var result = new LinkedHashMap<String, List<String>>();
+    clusters.forEach((page, duplicates) -> result.put(pages.get(page), List.copyOf(duplicates)));
+    return result;
+  }
+
+  /** Returns the id of the newest page the fingerprint duplicates, or NONE if there isn't one. */
+  private int find(short[] signature, long exactHash) {
+    for (int band = 0; band < BANDS; band++) {
+      int hash = bandHash(signature, band);
+      for (int id = heads[band][hash]; id != NONE; id = next[id * BANDS + band]) {
+        if (exactHashes[id] == exactHash) return id;
+        if (equalHashes(signature, id) >= minEqualHashes) return id;
+      }
+    }
+    return NONE;
+  }
+
+  private int equalHashes(short[] signature, int id) {
+    int equal = 0;
+    for (int i = 0, offset = id * SIGNATURE; i < SIGNATURE; i++) {
+      if (signatures[offset + i] == signature[i]) equal++;
+    }
+    return equal;
+  }
+
+  /** The rows of the band packed into a long and mixed down to an index in its table. */
+  private static int bandHash(short[] signature, int band) {
+    long rows = 0;
+    for (int i = band * ROWS, end = i + ROWS; i < end; i++) {
+      rows = (rows << 16) | (signature[i] & 0xffff);
+    }
+    return (int) (ContentFingerprint.mix(rows) >>> (Long.SIZE - TABLE_BITS));
+  }
+}
@@ -0,0 +1,88 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Collects the links reported by a {@link LinkExtractor}, and fingerprints the text if asked. Or
+ * passes each link on as soon as it's reported, see {@link #ExtractedLinks(URI, BiConsumer)}.
+ */
+class ExtractedLinks implements LinkExtractor.Listener {
+
+  private final List<String> hrefs = new ArrayList<>();
+  private final ContentFingerprint fingerprint;
+  private final URI pageUri;
+  private final BiConsumer<UriCanonicalizer, String> onLink;
+  private String base;
+  /** Resolves the links passed on, created at the first one. */
+  private UriCanonicalizer canonicalizer;
+
+  ExtractedLinks() {
+    this((ContentFingerprint) null);
+  }
+
+  /** @param fingerprint receives the text of the page, or null if it isn't fingerprinted. */
+  ExtractedLinks(ContentFingerprint fingerprint) {
+    this.fingerprint = fingerprint;
+    this.pageUri = null;
+    this.onLink = null;
+  }
+
+  /**
+   * Passes each link to onLink as soon as it's reported instead of collecting it, together with
+   * the canonicalizer resolving it. Links are resolved against the '<base>' reported before the
+   * first of them, which html requires to come first anyway. A later one is ignored.
+   */
+  ExtractedLinks(URI pageUri, BiConsumer<UriCanonicalizer, String> onLink) {
+    this.fingerprint = null;
+    this.pageUri = pageUri;
+    this.onLink = onLink;
+  }
+
+  @Override
+  public void onBase(String href) {
+    base = href;
+  }
+
+  @Override
+  public void onAnchor(String href) {
+    if (onLink == null) {
+      hrefs.add(href);
+      return;
+    }
+    if (canonicalizer == null) {
+      canonicalizer = canonicalizer(pageUri);
+    }
+    onLink.accept(canonicalizer, href);
+  }
+
+  @Override
+  public void onText(char[] chars, int offset, int length) {
+    if (fingerprint != null) {
+      fingerprint.onText(chars, offset, length);
+    }
+  }
+
+  @Override
+  public boolean wantsText() {
+    return fingerprint != null;
+  }
+
+  /** Returns the links collected, none if they were passed on. */
+  List<String> getHrefs() {
+    return hrefs;
+  }
+
+  /**
+   * Returns a canonicalizer resolving the links on the page. They are resolved against the
+   * '<base>' href if the page has a usable one, otherwise against the page uri itself.
+   */
+  UriCanonicalizer canonicalizer(URI pageUri) {
+    var canonicalizer = new UriCanonicalizer(pageUri);
+    if (base == null || !canonicalizer.canonicalize(base)) return canonicalizer;
+
+    return new UriCanonicalizer(canonicalizer.toString());
+  }
+}
@@ -0,0 +1,117 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+/**
+ * Keeps a 64-bit fingerprint of each normalized uri in primitive open addressing tables, using
+ * 11-21 bytes per uri however long it is. Two uris only clash if their fingerprints are equal,
+ * which is vanishingly unlikely below billions of uris.
+ *
+ * <p>The table is split into stripes by the top bits of the fingerprint, each with its own lock, so
+ * concurrent adds rarely contend and a resize only copies one stripe.
+ */
+class FingerprintVisitedSet implements VisitedSet {
+
+  private static final int STRIPE_BITS = 6;
+  private static final int MIN_STRIPE_CAPACITY = 16;
+  /** The empty slot marker, no fingerprint is ever stored as this. */
+  private static final long EMPTY = 0;
+
+  private final Stripe[] stripes;
+
+  FingerprintVisitedSet(long expectedUris) {
+    int stripeCapacity = MIN_STRIPE_CAPACITY;
+    // Sized so the expected uris fit without a resize.
+    while (isFull(stripeCapacity, expectedUris >> STRIPE_BITS) && stripeCapacity < 1 << 28) {
+      stripeCapacity <<= 1;
+    }
+
+    this.stripes = new Stripe[1 << STRIPE_BITS];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe(stripeCapacity);
+    }
+  }
+
+  @Override
+  public boolean add(String normalizedUri) {
+    long fingerprint = fingerprint(normalizedUri);
+    if (fingerprint == EMPTY) fingerprint = 1;
+    return stripes[(int) (fingerprint >>> (64 - STRIPE_BITS))].add(fingerprint);
+  }
+
+  @Override
+  public VisitedSetStats stats() {
+    long size = 0;
+    long memoryBytes = 0;
+    for (var stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size;
+        memoryBytes += 16 + 16 + stripe.table.length * 8L;
+      }
+    }
+    // Each stored fingerprint matches an unseen uri with probability 2^-64.
+    return new VisitedSetStats(
+        CrawlConfig.VisitedSetType.FINGERPRINT, size, memoryBytes, size / 0x1p64);
+  }
+
+  /** Tables are grown once they are three quarters full, linear probing slows down past that. */
+  private static boolean isFull(int capacity, long size) {
+    return size > capacity - (capacity >> 2);
+  }
+
+  /**
+   * A 64-bit hash of the characters: FNV-1a followed by the MurmurHash3 finalizer, so every input
+   * bit affects every output bit.
+   */
+  static long fingerprint(CharSequence s) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); i++) {
+      hash ^= s.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /** A linear probing hash table of fingerprints. */
+  private static final class Stripe {
+
+    private long[] table;
+    private int size;
+
+    Stripe(int capacity) {
+      this.table = new long[capacity];
+    }
+
+    synchronized boolean add(long fingerprint) {
+      if (!insert(table, fingerprint)) return false;
+      if (isFull(table.length, ++size)) {
+        resize();
+      }
+      return true;
+    }
+
+    private void resize() {
+      var larger = new long[table.length * 2];
+      for (long fingerprint : table) {
+        if (fingerprint != EMPTY) insert(larger, fingerprint);
+      }
+      table = larger;
+    }
+
+    /** Inserts into the table, returning false if the fingerprint was already there. */
+    private static boolean insert(long[] table, long fingerprint) {
+      int mask = table.length - 1;
+      // The low bits are independent of the top bits used to pick the stripe.
+      for (int i = (int) fingerprint & mask; ; i = (i + 1) & mask) {
+        if (table[i] == fingerprint) return false;
+        if (table[i] == EMPTY) {
+          table[i] = fingerprint;
+          return true;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.TaskExecutor;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Uris waiting to be visited. Uris are handed to the dispatcher in queue order, but only while
+ * fewer than the maximum number of visits are in flight. Every dispatched visit must be followed by
+ * a call to release() once it is finished.
+ *
+ * <p>Each visit also takes a slot of the {@link ConcurrencyBudget} shared by the crawls of a
+ * crawler. A frontier that finds none free waits its turn, and dispatches again once it's granted
+ * one. The wait counts as a task of the crawl, so the crawl isn't finished while it has uris
+ * waiting for a slot.
+ *
+ * <p>The frontier stops for good once it has dispatched the most visits allowed, its time budget
+ * is up or it's stopped. Uris can still be pushed, but none are dispatched any more. The visits in
+ * flight carry on, and the crawl finishes once they have.
+ *
+ * <p>Safe for concurrent use, never waits for capacity.
+ */
+class Frontier {
+
+  private final FrontierQueue pending;
+  private final AtomicInteger inFlight;
+  private final int maxInFlight;
+  private final ConcurrencyBudget budget;
+  private final TaskExecutor taskExecutor;
+  private final Consumer<Visit> dispatcher;
+  /** Completes once the frontier is granted a slot, while it waits in line for one. */
+  private volatile CompletableFuture<Void> turn;
+
+  /** How many more visits may be started. */
+  private final AtomicLong visitsLeft;
+  /** The {@link System#nanoTime()} no more visits may be started after, if timed. */
+  private final long deadline;
+  private final boolean timed;
+  private volatile boolean stopped;
+
+  /**
+   * @param budget the slots shared with the other crawls of the crawler.
+   * @param taskExecutor the tasks of the crawl, waiting for a slot is one.
+   * @param maxVisits the most visits started, including redirects followed by a visit.
+   * @param timeBudget how long visits may be started for from now on, or null for no limit.
+   */
+  Frontier(
+      FrontierQueue pending,
+      int maxInFlight,
+      ConcurrencyBudget budget,
+      TaskExecutor taskExecutor,
+      long maxVisits,
+      Duration timeBudget,
+      Consumer<Visit> dispatcher) {
+    this.pending = pending;
+    this.inFlight = new AtomicInteger(0);
+    this.maxInFlight = maxInFlight;
+    this.budget = budget;
+    this.taskExecutor = taskExecutor;
+    this.dispatcher = dispatcher;
+    this.visitsLeft = new AtomicLong(maxVisits);
+    this.timed = timeBudget != null;
+    this.deadline = timed ? System.nanoTime() + timeBudget.toNanos() : 0;
+  }
+
+  /**
+   * Adds a uri to the frontier, dispatching it straight away if there is capacity.
+   *
+   * @param depth the number of links followed from the start uri to reach it.
+   */
+  void push(URI uri, int depth) {
+    pending.add(uri, depth);
+    dispatch();
+  }
+
+  /**
+   * Takes one of the visits left for a visit that doesn't go through the queue, e.g. following a
+   * redirect. Stops the frontier if there are none left or the time is up.
+   *
+   * @return false if the visit mustn't be started.
+   */
+  boolean tryStartVisit() {
+    if (stopped) return false;
+    if (timed && System.nanoTime() - deadline >= 0 || visitsLeft.getAndDecrement() <= 0) {
+      stopped = true;
+      return false;
+    }
+    return true;
+  }
+
+  /** Stops the frontier for good, e.g. when the crawl is cancelled. */
+  void stop() {
+    stopped = true;
+  }
+
+  /** Whether a limit was reached or it was stopped, so no more visits are dispatched. */
+  boolean isStopped() {
+    return stopped;
+  }
+
+  /** Marks a dispatched visit as finished, freeing its capacity for the next pending uri. */
+  void release() {
+    inFlight.decrementAndGet();
+    budget.release();
+    dispatch();
+  }
+
+  /**
+   * Dispatches a visit with a slot of the budget handed over by another visit that was released,
+   * giving it back if there is nothing to dispatch any more, then carries on dispatching.
+   */
+  void granted() {
+    // Dispatching may join the line again, which starts a new turn.
+    var waited = turn;
+    try {
+      if (!tryAcquire()) {
+        budget.release();
+        return;
+      }
+      if (!dispatchOne()) {
+        budget.release();
+        return;
+      }
+      dispatch();
+    } finally {
+      // Only once the visits it dispatched are tasks themselves.
+      waited.complete(null);
+    }
+  }
+
+  /** Starts waiting in line for a slot of the budget, called by the budget. */
+  void waitForTurn() {
+    var waiting = new CompletableFuture<Void>();
+    turn = waiting;
+    taskExecutor.scheduleAsyncTask(() -> waiting);
+  }
+
+  /** Number of uris waiting to be dispatched. */
+  long size() {
+    return pending.size();
+  }
+
+  /** Number of dispatched visits that haven't been released yet. */
+  int inFlight() {
+    return inFlight.get();
+  }
+
+  /** Dispatches uris that were already in the queue when the frontier was created. */
+  void resume() {
+    dispatch();
+  }
+
+  /**
+   * Dispatches pending uris until there are none left or there is no capacity.
+   *
+   * <p>Capacity is always claimed before polling and is given back if the poll loses a race, then
+   * the queue is checked again. That way a uri pushed while another thread held the last slot is
+   * picked up by whichever thread releases it. A slot of the budget is taken the same way, once
+   * the frontier has capacity of its own.
+   */
+  private void dispatch() {
+    while (!pending.isEmpty()) {
+      if (!tryAcquire()) return;
+      if (!budget.tryAcquire(this)) {
+        inFlight.decrementAndGet();
+        return;
+      }
+      if (!dispatchOne()) {
+        budget.release();
+        if (stopped) return;
+      }
+    }
+  }
+
+  /**
+   * Dispatches the next pending uri with the capacity and budget slot already claimed for it.
+   *
+   * @return false if there was nothing to dispatch, the capacity has been given back but not the
+   *     slot.
+   */
+  private boolean dispatchOne() {
+    if (!tryStartVisit()) {
+      inFlight.decrementAndGet();
+      return false;
+    }
+    var visit = pending.poll();
+    if (visit == null) {
+      inFlight.decrementAndGet();
+      visitsLeft.incrementAndGet();
+      return false;
+    }
+    dispatcher.accept(visit);
+    return true;
+  }
+
+  private boolean tryAcquire() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= maxInFlight) return false;
+      if (inFlight.compareAndSet(current, current + 1)) return true;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.net.URI;
+
+/**
+ * Decides which of the uris waiting in the frontier are visited first. Each uri is given a rank
+ * from 0 to {@link #MAX_RANK}, lower ranks are visited first and uris of the same rank in the order
+ * they were found.
+ *
+ * <p>Must be safe for concurrent use and fast, it's called every time a uri is scheduled.
+ */
+public interface FrontierPriority {
+
+  /** The highest rank, ranks above it are treated as it and below 0 as 0. */
+  int MAX_RANK = 63;
+
+  /**
+   * Ranks a uri waiting to be visited.
+   *
+   * @param uri the uri to rank.
+   * @param depth the number of links followed from the start uri to reach it.
+   * @param inLinks the number of visited pages found linking to it so far.
+   * @return the rank of the uri, lower is visited sooner.
+   */
+  int rank(URI uri, int depth, int inLinks);
+
+  /**
+   * Whether the rank depends on the in-links. If it does, a uri is ranked again each time another
+   * page links to it while it waits, which keeps the key of every waiting uri on the heap.
+   */
+  default boolean usesInLinks() {
+    return true;
+  }
+
+  /** Shallowest pages first, a breadth first crawl however long each visit takes. */
+  static FrontierPriority byDepth() {
+    return new FrontierPriority() {
+      @Override
+      public int rank(URI uri, int depth, int inLinks) {
+        return depth;
+      }
+
+      @Override
+      public boolean usesInLinks() {
+        return false;
+      }
+    };
+  }
+
+  /** Pages most linked to by the pages visited so far first, counting up to {@link #MAX_RANK}. */
+  static FrontierPriority byInLinks() {
+    return (uri, depth, inLinks) -> MAX_RANK - inLinks;
+  }
+}
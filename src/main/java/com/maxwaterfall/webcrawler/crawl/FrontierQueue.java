@@ -0,0 +1,17 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.net.URI;
+
+/** The uris waiting in the {@link Frontier}, in the order they will be visited. */
+interface FrontierQueue {
+
+  /** @param depth the number of links followed from the start uri to reach this one. */
+  void add(URI uri, int depth);
+
+  /** Removes the next visit, or returns null if the queue is empty. */
+  Visit poll();
+
+  boolean isEmpty();
+
+  long size();
+}
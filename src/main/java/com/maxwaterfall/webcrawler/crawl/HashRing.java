@@ -0,0 +1,55 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.util.Arrays;
+
+/**
+ * Splits the normalized uri space between the nodes of a cluster by consistent hashing. Each node
+ * owns many points on a ring of 64-bit hashes, and a uri belongs to the node owning the first point
+ * at or after the uri's fingerprint.
+ *
+ * <p>Every node builds the same ring from the number of nodes, so they agree on who owns what
+ * without talking. Immutable, safe for concurrent use.
+ */
+class HashRing {
+
+  /** Points per node, enough to spread the uris within a few percent of evenly. */
+  static final int POINTS_PER_NODE = 256;
+
+  private final long[] points;
+  private final int[] owners;
+
+  HashRing(int nodes) {
+    if (nodes < 1) {
+      throw new IllegalArgumentException("A ring needs at least 1 node but was given " + nodes);
+    }
+
+    var hashes = new long[nodes * POINTS_PER_NODE];
+    for (int node = 0; node < nodes; node++) {
+      for (int point = 0; point < POINTS_PER_NODE; point++) {
+        hashes[node * POINTS_PER_NODE + point] =
+            FingerprintVisitedSet.fingerprint("node-" + node + "#" + point);
+      }
+    }
+
+    var order = new Integer[hashes.length];
+    Arrays.setAll(order, i -> i);
+    Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+    this.points = new long[hashes.length];
+    this.owners = new int[hashes.length];
+    for (int i = 0; i < order.length; i++) {
+      points[i] = hashes[order[i]];
+      owners[i] = order[i] / POINTS_PER_NODE;
+    }
+  }
+
+  /** Returns the index of the node that owns the normalized uri. */
+  int owner(String normalizedUri) {
+    long hash = FingerprintVisitedSet.fingerprint(normalizedUri);
+    int i = Arrays.binarySearch(points, hash);
+    if (i < 0) {
+      i = -i - 1;
+    }
+    // Past the last point wraps round to the first.
+    return owners[i == points.length ? 0 : i];
+  }
+}
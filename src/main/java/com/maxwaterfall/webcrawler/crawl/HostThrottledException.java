@@ -0,0 +1,11 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.net.URI;
+
+/** Thrown when a host answers 429 or 503, the visit should be tried again later. */
+class HostThrottledException extends RuntimeException {
+
+  HostThrottledException(URI pageUri, int statusCode) {
+    super(pageUri + " answered " + statusCode);
+  }
+}
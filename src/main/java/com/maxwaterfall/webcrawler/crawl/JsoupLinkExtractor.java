@@ -0,0 +1,32 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import org.jsoup.Jsoup;
+
+/**
+ * Extracts links by building the full Jsoup document. Slower and uses more memory than {@link
+ * StreamingLinkExtractor} but is more lenient with badly formed html.
+ */
+class JsoupLinkExtractor implements LinkExtractor {
+
+  @Override
+  public void extract(InputStream html, Charset charset, URI pageUri, Listener listener)
+      throws IOException {
+    var doc = Jsoup.parse(html, charset == null ? null : charset.name(), pageUri.toString());
+
+    var base = doc.selectFirst("base[href]");
+    if (base != null) {
+      listener.onBase(base.attr("href"));
+    }
+
+    doc.body().getElementsByTag("a").forEach(e -> listener.onAnchor(e.attr("href")));
+
+    if (listener.wantsText()) {
+      var text = doc.body().text().toCharArray();
+      listener.onText(text, 0, text.length);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies in log-linear buckets, in the style of an HDR histogram. Every power of two is
+ * split into 32 buckets, so percentiles are within about 3% of the true value.
+ *
+ * <p>Recording is lock free and doesn't allocate. Safe for concurrent use.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final AtomicLongArray counts;
+  private final LongAdder sum;
+  private final AtomicLong max;
+
+  LatencyHistogram() {
+    this.counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+    this.sum = new LongAdder();
+    this.max = new AtomicLong();
+  }
+
+  /** Records a latency in nanoseconds, negative latencies count as 0. */
+  void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(index(value));
+    sum.add(value);
+    max.accumulateAndGet(value, Math::max);
+  }
+
+  /** Number of latencies recorded. */
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /** Mean latency in nanoseconds, or 0 if none were recorded. */
+  public double getMean() {
+    long count = getCount();
+    return count == 0 ? 0 : (double) sum.sum() / count;
+  }
+
+  /** Highest latency recorded in nanoseconds. */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the latency that the given percentage of recorded latencies are at or below.
+   *
+   * @param percentile between 0 and 100.
+   * @return the latency in nanoseconds, or 0 if none were recorded.
+   */
+  public long getPercentile(double percentile) {
+    var snapshot = new long[counts.length()];
+    long count = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      count += snapshot[i];
+    }
+    if (count == 0) return 0;
+
+    long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      seen += snapshot[i];
+      if (seen >= target) {
+        return Math.min(highestValue(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Values below 32 get a bucket each. Above that, the bucket is picked by the position of the
+   * highest set bit and the 5 bits after it.
+   */
+  static int index(long value) {
+    if (value < SUB_BUCKETS) return (int) value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    long mantissa = value >>> (exponent - SUB_BUCKET_BITS);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int) (mantissa - SUB_BUCKETS);
+  }
+
+  /** The highest value that falls in the bucket. */
+  static long highestValue(int index) {
+    if (index < SUB_BUCKETS) return index;
+    int group = index / SUB_BUCKETS;
+    long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (group - 1);
+    return lowest + (1L << (group - 1)) - 1;
+  }
+}
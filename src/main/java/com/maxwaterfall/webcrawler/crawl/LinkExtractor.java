@@ -0,0 +1,58 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.PooledBody;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+
+/** Extracts the 'href' attribute values of '<a>' and '<base>' tags from html. */
+interface LinkExtractor {
+
+  /**
+   * Reads the given html and reports every link found to the listener, in document order.
+   *
+   * @param html the html to read, not closed by this method.
+   * @param charset the charset of the html, or null if unknown.
+   * @param pageUri the uri the html was fetched from.
+   * @param listener receives the extracted links.
+   */
+  void extract(InputStream html, Charset charset, URI pageUri, Listener listener)
+      throws IOException;
+
+  /**
+   * Reads html held in pooled buffers, otherwise the same as {@link #extract(InputStream, Charset,
+   * URI, Listener)}. Reads it as a stream by default.
+   *
+   * @param html the html to read, not closed by this method.
+   */
+  default void extract(PooledBody html, Charset charset, URI pageUri, Listener listener)
+      throws IOException {
+    extract(html.inputStream(), charset, pageUri, listener);
+  }
+
+  /** Receives links as they are extracted. */
+  interface Listener {
+
+    /** Called once with the 'href' of the first '<base>' tag, if there is one. */
+    void onBase(String href);
+
+    /** Called with the 'href' of every '<a>' tag. */
+    void onAnchor(String href);
+
+    /**
+     * Called with the text of the page between its tags, in document order. A run of text may be
+     * split over several calls. The characters must not be kept after the call returns. Ignored by
+     * default.
+     */
+    default void onText(char[] chars, int offset, int length) {}
+
+    /**
+     * Whether the text is wanted. An extractor may then skip decoding the text, and not call {@link
+     * #onText}. False by default.
+     */
+    default boolean wantsText() {
+      return false;
+    }
+  }
+}
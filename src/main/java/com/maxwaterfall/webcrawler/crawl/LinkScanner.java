@@ -0,0 +1,488 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A push parser that finds the 'href' attribute values of '<a>' and '<base>' tags without building
+ * a document. Html can be fed in chunks of any size, only the attribute value currently being read
+ * is held in memory.
+ *
+ * <p>Understands just enough html to avoid false positives: comments, doctypes and the contents of
+ * raw text elements such as '<script>' are skipped. Character references in 'href' values are
+ * decoded, the text between tags is passed on as it is. NOT safe for concurrent use.
+ *
+ * <p>Html in a charset where ascii is single bytes that are never part of another char, see {@link
+ * #canScanBytes}, can be fed as bytes without decoding it. Only the bytes of 'href' values are
+ * decoded then, and the text between tags isn't passed on.
+ */
+final class LinkScanner {
+
+  private static final int TEXT = 0;
+  private static final int TAG_OPEN = 1;
+  private static final int MARKUP_DECLARATION = 2;
+  private static final int COMMENT = 3;
+  private static final int BOGUS = 4;
+  private static final int END_TAG = 5;
+  private static final int TAG_NAME = 6;
+  private static final int BEFORE_ATTRIBUTE_NAME = 7;
+  private static final int ATTRIBUTE_NAME = 8;
+  private static final int AFTER_ATTRIBUTE_NAME = 9;
+  private static final int BEFORE_ATTRIBUTE_VALUE = 10;
+  private static final int ATTRIBUTE_VALUE_DOUBLE_QUOTED = 11;
+  private static final int ATTRIBUTE_VALUE_SINGLE_QUOTED = 12;
+  private static final int ATTRIBUTE_VALUE_UNQUOTED = 13;
+  private static final int RAW_TEXT = 14;
+
+  private static final int OTHER_TAG = 0;
+  private static final int A_TAG = 1;
+  private static final int BASE_TAG = 2;
+  private static final int RAW_TEXT_TAG = 3;
+
+  /** Elements whose content is not html, so any '<a>' inside them is not a link. */
+  private static final char[][] RAW_TEXT_TAGS = {
+    "script".toCharArray(), "style".toCharArray(), "textarea".toCharArray(), "title".toCharArray()
+  };
+
+  private static final char[] HREF = "href".toCharArray();
+
+  private final LinkExtractor.Listener listener;
+  /** The charset of html fed as bytes, or null if it's fed as chars. */
+  private final Charset charset;
+  private final char[] tagName = new char[8];
+  private final StringBuilder value = new StringBuilder();
+
+  private int state = TEXT;
+  private int tagNameLength;
+  private int tagKind;
+  private char[] rawTextEndTag;
+  private int rawTextMatched;
+  private int commentDashes;
+  /** Number of characters of 'href' the current attribute name matches, or -1 if it differs. */
+  private int hrefMatched;
+
+  private boolean capturing;
+  private String href;
+  private boolean baseSeen;
+
+  /** Creates a scanner for html fed as chars. */
+  LinkScanner(LinkExtractor.Listener listener) {
+    this(listener, null);
+  }
+
+  /**
+   * Creates a scanner for html fed as bytes.
+   *
+   * @param charset the charset of the html, one that {@link #canScanBytes}.
+   */
+  LinkScanner(LinkExtractor.Listener listener, Charset charset) {
+    this.listener = listener;
+    this.charset = charset;
+  }
+
+  /**
+   * Whether html in the charset can be fed as bytes: those in the ascii range are always the ascii
+   * chars, as in UTF-8 and the single byte charsets.
+   */
+  static boolean canScanBytes(Charset charset) {
+    var name = charset.name();
+    return name.equals("UTF-8")
+        || name.equals("US-ASCII")
+        || name.startsWith("ISO-8859-")
+        || name.startsWith("windows-125");
+  }
+
+  /** Scans the next chunk of html, passing runs of text outside of tags to the listener. */
+  void feed(char[] chars, int offset, int length) {
+    int textStart = -1;
+    for (int i = offset, end = offset + length; i < end; i++) {
+      char c = chars[i];
+      if (state == TEXT && c != '<') {
+        if (textStart < 0) textStart = i;
+        continue;
+      }
+      if (textStart >= 0) {
+        listener.onText(chars, textStart, i - textStart);
+        textStart = -1;
+      }
+      scan(c);
+    }
+    if (textStart >= 0) {
+      listener.onText(chars, textStart, offset + length - textStart);
+    }
+  }
+
+  /** Scans the next chunk of html fed as bytes. */
+  void feed(byte[] bytes, int offset, int length) {
+    for (int i = offset, end = offset + length; i < end; i++) {
+      byte b = bytes[i];
+      if (state == TEXT && b != '<') continue;
+      // Bytes outside the ascii range are only ever part of the text or of attribute values.
+      scan((char) (b & 0xFF));
+    }
+  }
+
+  /** Scans the bytes of a buffer between its position and limit, without moving its position. */
+  void feed(ByteBuffer bytes) {
+    for (int i = bytes.position(), end = bytes.limit(); i < end; i++) {
+      byte b = bytes.get(i);
+      if (state == TEXT && b != '<') continue;
+      scan((char) (b & 0xFF));
+    }
+  }
+
+  private void scan(char c) {
+    switch (state) {
+      case TEXT:
+        if (c == '<') state = TAG_OPEN;
+        break;
+      case TAG_OPEN:
+        if (c == '!') {
+          state = MARKUP_DECLARATION;
+          commentDashes = 0;
+        } else if (c == '/') {
+          state = END_TAG;
+        } else if (c == '?') {
+          state = BOGUS;
+        } else if (isAsciiLetter(c)) {
+          startTag(c);
+        } else if (c != '<') {
+          state = TEXT;
+        }
+        break;
+      case MARKUP_DECLARATION:
+        if (c == '-') {
+          if (++commentDashes == 2) {
+            state = COMMENT;
+            commentDashes = 0;
+          }
+        } else {
+          state = c == '>' ? TEXT : BOGUS;
+        }
+        break;
+      case COMMENT:
+        if (c == '-') {
+          commentDashes++;
+        } else if (c == '>' && commentDashes >= 2) {
+          state = TEXT;
+        } else {
+          commentDashes = 0;
+        }
+        break;
+      case BOGUS:
+      case END_TAG:
+        if (c == '>') state = TEXT;
+        break;
+      case TAG_NAME:
+        if (isWhitespace(c) || c == '/') {
+          endTagName();
+          state = BEFORE_ATTRIBUTE_NAME;
+        } else if (c == '>') {
+          endTagName();
+          endTag();
+        } else {
+          if (tagNameLength < tagName.length) tagName[tagNameLength] = toLowerCase(c);
+          tagNameLength++;
+        }
+        break;
+      case BEFORE_ATTRIBUTE_NAME:
+        if (c == '>') {
+          endTag();
+        } else if (!isWhitespace(c) && c != '/') {
+          startAttribute(c);
+        }
+        break;
+      case ATTRIBUTE_NAME:
+        if (isWhitespace(c)) {
+          state = AFTER_ATTRIBUTE_NAME;
+        } else if (c == '=') {
+          state = BEFORE_ATTRIBUTE_VALUE;
+        } else if (c == '/') {
+          endAttribute();
+          state = BEFORE_ATTRIBUTE_NAME;
+        } else if (c == '>') {
+          endAttribute();
+          endTag();
+        } else {
+          matchAttributeName(c);
+        }
+        break;
+      case AFTER_ATTRIBUTE_NAME:
+        if (c == '=') {
+          state = BEFORE_ATTRIBUTE_VALUE;
+        } else if (c == '>') {
+          endAttribute();
+          endTag();
+        } else if (c == '/') {
+          endAttribute();
+          state = BEFORE_ATTRIBUTE_NAME;
+        } else if (!isWhitespace(c)) {
+          endAttribute();
+          startAttribute(c);
+        }
+        break;
+      case BEFORE_ATTRIBUTE_VALUE:
+        if (c == '"') {
+          startValue();
+          state = ATTRIBUTE_VALUE_DOUBLE_QUOTED;
+        } else if (c == '\'') {
+          startValue();
+          state = ATTRIBUTE_VALUE_SINGLE_QUOTED;
+        } else if (c == '>') {
+          endAttribute();
+          endTag();
+        } else if (!isWhitespace(c)) {
+          startValue();
+          appendValue(c);
+          state = ATTRIBUTE_VALUE_UNQUOTED;
+        }
+        break;
+      case ATTRIBUTE_VALUE_DOUBLE_QUOTED:
+        if (c == '"') {
+          endAttribute();
+          state = BEFORE_ATTRIBUTE_NAME;
+        } else {
+          appendValue(c);
+        }
+        break;
+      case ATTRIBUTE_VALUE_SINGLE_QUOTED:
+        if (c == '\'') {
+          endAttribute();
+          state = BEFORE_ATTRIBUTE_NAME;
+        } else {
+          appendValue(c);
+        }
+        break;
+      case ATTRIBUTE_VALUE_UNQUOTED:
+        if (isWhitespace(c)) {
+          endAttribute();
+          state = BEFORE_ATTRIBUTE_NAME;
+        } else if (c == '>') {
+          endAttribute();
+          endTag();
+        } else {
+          appendValue(c);
+        }
+        break;
+      case RAW_TEXT:
+        scanRawText(c);
+        break;
+      default:
+        throw new IllegalStateException("Unknown state " + state);
+    }
+  }
+
+  private void startTag(char c) {
+    state = TAG_NAME;
+    tagName[0] = toLowerCase(c);
+    tagNameLength = 1;
+    tagKind = OTHER_TAG;
+    href = null;
+  }
+
+  private void endTagName() {
+    if (equals(tagName, tagNameLength, "a")) {
+      tagKind = A_TAG;
+    } else if (equals(tagName, tagNameLength, "base")) {
+      tagKind = BASE_TAG;
+    } else {
+      for (var rawTextTag : RAW_TEXT_TAGS) {
+        if (tagNameLength == rawTextTag.length && startsWith(tagName, rawTextTag)) {
+          tagKind = RAW_TEXT_TAG;
+          rawTextEndTag = rawTextTag;
+          break;
+        }
+      }
+    }
+  }
+
+  private void endTag() {
+    state = TEXT;
+    if (tagKind == A_TAG && href != null) {
+      listener.onAnchor(href);
+    } else if (tagKind == BASE_TAG && href != null && !baseSeen) {
+      baseSeen = true;
+      listener.onBase(href);
+    } else if (tagKind == RAW_TEXT_TAG) {
+      state = RAW_TEXT;
+      rawTextMatched = 0;
+    }
+  }
+
+  private void startAttribute(char c) {
+    state = ATTRIBUTE_NAME;
+    hrefMatched = 0;
+    matchAttributeName(c);
+  }
+
+  private void matchAttributeName(char c) {
+    if (hrefMatched >= 0 && hrefMatched < HREF.length && toLowerCase(c) == HREF[hrefMatched]) {
+      hrefMatched++;
+    } else {
+      hrefMatched = -1;
+    }
+  }
+
+  private boolean isWantedHref() {
+    return (tagKind == A_TAG || tagKind == BASE_TAG) && hrefMatched == HREF.length && href == null;
+  }
+
+  private void startValue() {
+    capturing = isWantedHref();
+    value.setLength(0);
+  }
+
+  private void appendValue(char c) {
+    if (capturing) value.append(c);
+  }
+
+  /** Records the attribute if it is the first 'href' of an interesting tag. */
+  private void endAttribute() {
+    if (isWantedHref()) {
+      href = capturing ? unescape(charset == null ? value : decode(value)) : "";
+    }
+    capturing = false;
+    hrefMatched = -1;
+  }
+
+  /** Decodes a value fed as bytes, held one byte per char. Ascii needs no decoding. */
+  private CharSequence decode(StringBuilder bytes) {
+    int length = bytes.length();
+    int i = 0;
+    while (i < length && bytes.charAt(i) < 0x80) i++;
+    if (i == length) return bytes;
+
+    var encoded = new byte[length];
+    for (i = 0; i < length; i++) {
+      encoded[i] = (byte) bytes.charAt(i);
+    }
+    return new String(encoded, charset);
+  }
+
+  /** Looks for the end tag of the current raw text element e.g. '</script>'. */
+  private void scanRawText(char c) {
+    if (rawTextMatched == 0) {
+      if (c == '<') rawTextMatched = 1;
+    } else if (rawTextMatched == 1) {
+      rawTextMatched = c == '/' ? 2 : c == '<' ? 1 : 0;
+    } else if (rawTextMatched - 2 < rawTextEndTag.length) {
+      if (toLowerCase(c) == rawTextEndTag[rawTextMatched - 2]) {
+        rawTextMatched++;
+      } else {
+        rawTextMatched = c == '<' ? 1 : 0;
+      }
+    } else if (c == '>') {
+      state = TEXT;
+    } else if (isWhitespace(c) || c == '/') {
+      state = END_TAG;
+    } else {
+      rawTextMatched = c == '<' ? 1 : 0;
+    }
+  }
+
+  /**
+   * Decodes numeric character references and the common named ones. Unknown references are left as
+   * they are.
+   */
+  static String unescape(CharSequence s) {
+    int amp = indexOf(s, '&', 0);
+    if (amp < 0) return s.toString();
+
+    var out = new StringBuilder(s.length());
+    int copied = 0;
+    while (amp >= 0) {
+      out.append(s, copied, amp);
+      copied = amp;
+      int end = amp + 1;
+      int codePoint = -1;
+
+      if (end < s.length() && s.charAt(end) == '#') {
+        end++;
+        int radix = 10;
+        if (end < s.length() && (s.charAt(end) == 'x' || s.charAt(end) == 'X')) {
+          radix = 16;
+          end++;
+        }
+        int digitsStart = end;
+        long value = 0;
+        while (end < s.length()
+            && Character.digit(s.charAt(end), radix) >= 0
+            && value <= 0x10FFFF) {
+          value = value * radix + Character.digit(s.charAt(end), radix);
+          end++;
+        }
+        if (end > digitsStart && value > 0 && Character.isValidCodePoint((int) value)) {
+          codePoint = (int) value;
+          if (end < s.length() && s.charAt(end) == ';') end++;
+        }
+      } else {
+        int semicolon = indexOf(s, ';', end);
+        if (semicolon > end && semicolon - end <= 4) {
+          codePoint = namedReference(s.subSequence(end, semicolon).toString());
+          end = semicolon + 1;
+        }
+      }
+
+      if (codePoint >= 0) {
+        out.appendCodePoint(codePoint);
+        copied = end;
+      }
+      amp = indexOf(s, '&', amp + 1);
+    }
+    out.append(s, copied, s.length());
+    return out.toString();
+  }
+
+  private static int namedReference(String name) {
+    switch (name) {
+      case "amp":
+        return '&';
+      case "lt":
+        return '<';
+      case "gt":
+        return '>';
+      case "quot":
+        return '"';
+      case "apos":
+        return '\'';
+      case "nbsp":
+        return 0xA0;
+      default:
+        return -1;
+    }
+  }
+
+  private static int indexOf(CharSequence s, char c, int from) {
+    for (int i = from; i < s.length(); i++) {
+      if (s.charAt(i) == c) return i;
+    }
+    return -1;
+  }
+
+  private static boolean equals(char[] chars, int length, String s) {
+    if (length != s.length()) return false;
+    for (int i = 0; i < length; i++) {
+      if (chars[i] != s.charAt(i)) return false;
+    }
+    return true;
+  }
+
+  private static boolean startsWith(char[] chars, char[] prefix) {
+    for (int i = 0; i < prefix.length; i++) {
+      if (chars[i] != prefix[i]) return false;
+    }
+    return true;
+  }
+
+  private static boolean isAsciiLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+  }
+
+  private static char toLowerCase(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+}
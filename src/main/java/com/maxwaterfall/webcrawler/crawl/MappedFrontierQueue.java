@@ -0,0 +1,177 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An append-only queue of uris in memory-mapped segment files, so the frontier can grow far beyond
+ * the heap and survives the process dying.
+ *
+ * <p>Each record is '[int length][byte done][int depth][utf-8 uri]'. Records are never removed,
+ * instead a record is marked done once its visit has been journaled. Reopening the queue replays
+ * every record, and polling skips those that are done, so visits that were pending or in flight
+ * when the process died are visited again.
+ *
+ * <p>Records are written payload first and length last, a zero length marks the end of the data and
+ * -1 the end of a segment.
+ */
+class MappedFrontierQueue implements FrontierQueue {
+
+  static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  private static final int HEADER_SIZE = 9;
+  private static final int END_OF_SEGMENT = -1;
+  private static final byte DONE = 1;
+
+  private final Path directory;
+  private final int segmentSize;
+  private final List<MappedByteBuffer> segments;
+
+  private int writeSegment;
+  private int writePosition;
+  private int readSegment;
+  private int readPosition;
+  /** Records that have been neither polled nor marked done. */
+  private long size;
+
+  /**
+   * Opens the queue in the directory, creating it if there are no segments yet.
+   *
+   * @param replay receives the uri of every record already in the queue, done or not.
+   */
+  MappedFrontierQueue(Path directory, int segmentSize, Consumer<URI> replay) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.segments = new ArrayList<>();
+
+    for (int i = 0; Files.exists(segmentPath(i)); i++) {
+      segments.add(map(segmentPath(i)));
+    }
+    if (segments.isEmpty()) {
+      segments.add(map(segmentPath(0)));
+    }
+    replay(replay);
+    if (writeSegment == segments.size()) {
+      segments.add(map(segmentPath(writeSegment)));
+    }
+  }
+
+  @Override
+  public synchronized void add(URI uri, int depth) {
+    var bytes = uri.toString().getBytes(StandardCharsets.UTF_8);
+    int recordSize = HEADER_SIZE + bytes.length;
+    if (recordSize + 4 > segmentSize) {
+      throw new IllegalArgumentException("Uri is too long for the frontier: " + uri);
+    }
+
+    // Always leave room for the end of segment marker.
+    if (writePosition + recordSize + 4 > segmentSize) {
+      segments.get(writeSegment).putInt(writePosition, END_OF_SEGMENT);
+      writeSegment++;
+      writePosition = 0;
+      try {
+        segments.add(map(segmentPath(writeSegment)));
+      } catch (IOException e) {
+        throw new IllegalStateException("Could not grow the frontier", e);
+      }
+    }
+
+    var segment = segments.get(writeSegment);
+    segment.duplicate().position(writePosition + HEADER_SIZE).put(bytes);
+    segment.put(writePosition + 4, (byte) 0);
+    segment.putInt(writePosition + 5, depth);
+    segment.putInt(writePosition, bytes.length);
+    writePosition += recordSize;
+    size++;
+  }
+
+  @Override
+  public synchronized Visit poll() {
+    while (readSegment != writeSegment || readPosition != writePosition) {
+      var segment = segments.get(readSegment);
+      int length = segment.getInt(readPosition);
+      if (length == END_OF_SEGMENT) {
+        readSegment++;
+        readPosition = 0;
+        continue;
+      }
+
+      long id = (long) readSegment * segmentSize + readPosition;
+      boolean done = segment.get(readPosition + 4) == DONE;
+      var uri = done ? null : readUri(segment, readPosition, length);
+      int depth = segment.getInt(readPosition + 5);
+      readPosition += HEADER_SIZE + length;
+      if (!done) {
+        size--;
+        return new Visit(uri, id, depth);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public synchronized long size() {
+    return size;
+  }
+
+  /** Marks the record of a visit as done, so it won't be visited again after a restart. */
+  synchronized void markDone(long id) {
+    segments.get((int) (id / segmentSize)).put((int) (id % segmentSize) + 4, DONE);
+  }
+
+  /** Finds the end of the existing records, counting those not yet done as pending. */
+  private void replay(Consumer<URI> replay) {
+    for (int i = 0; i < segments.size(); i++) {
+      var segment = segments.get(i);
+      int position = 0;
+      int length;
+      while ((length = segment.getInt(position)) > 0) {
+        replay.accept(readUri(segment, position, length));
+        if (segment.get(position + 4) != DONE) size++;
+        position += HEADER_SIZE + length;
+      }
+
+      writeSegment = i;
+      writePosition = position;
+      if (length != END_OF_SEGMENT) break;
+    }
+
+    // The last segment was full, the next record starts a new one.
+    if (writePosition > 0 && segments.get(writeSegment).getInt(writePosition) == END_OF_SEGMENT) {
+      writeSegment++;
+      writePosition = 0;
+    }
+  }
+
+  private static URI readUri(MappedByteBuffer segment, int position, int length) {
+    var bytes = new byte[length];
+    segment.duplicate().position(position + HEADER_SIZE).get(bytes);
+    return URI.create(new String(bytes, StandardCharsets.UTF_8));
+  }
+
+  private Path segmentPath(int index) {
+    return directory.resolve(String.format("frontier-%06d.seg", index));
+  }
+
+  private MappedByteBuffer map(Path path) throws IOException {
+    try (var channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+  }
+}
@@ -0,0 +1,299 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides when each visit may go to its host. Every host gets a token bucket limiting its request
+ * rate, a limit on concurrent connections, and is paused when it answers 429 or 503, for as long as
+ * its 'Retry-After' header asks or with exponential backoff if it doesn't say.
+ *
+ * <p>With adaptive concurrency the connection limit of each host is tuned AIMD-style from its
+ * response times: it grows by one for every 'limit' fast responses, and is cut when responses get
+ * much slower than the fastest seen, fail, or the host asks to slow down.
+ *
+ * <p>Visits wait without holding a thread. Safe for concurrent use.
+ */
+class PolitenessScheduler implements AutoCloseable {
+
+  /** Concurrent connections an adaptive host starts with. */
+  static final int INITIAL_ADAPTIVE_LIMIT = 4;
+
+  /** Responses this much slower than the fastest seen mean the host is struggling. */
+  private static final double LATENCY_TOLERANCE = 2.0;
+
+  private static final double DECREASE_FACTOR = 0.7;
+  private static final long INITIAL_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long MAX_BACKOFF_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+  private final double requestsPerSecond;
+  private final int maxConnections;
+  private final boolean adaptive;
+  private final LongSupplier nanoTime;
+  private final Map<String, Host> hosts;
+  private final ScheduledExecutorService timer;
+
+  PolitenessScheduler(CrawlConfig config) {
+    this(
+        config.getHostRequestsPerSecond(),
+        config.getMaxConnectionsPerHost(),
+        config.isAdaptiveConcurrency(),
+        System::nanoTime);
+  }
+
+  /** Alternative constructor with a clock for testing. */
+  PolitenessScheduler(
+      double requestsPerSecond, int maxConnections, boolean adaptive, LongSupplier nanoTime) {
+    this.requestsPerSecond = requestsPerSecond;
+    this.maxConnections = maxConnections;
+    this.adaptive = adaptive;
+    this.nanoTime = nanoTime;
+    this.hosts = new ConcurrentHashMap<>();
+    this.timer =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              var thread = new Thread(runnable, "politeness-timer");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Waits for the host to accept another request.
+   *
+   * @return a future that completes with a permit once the request may be sent. The permit must be
+   *     released once the response has been read.
+   */
+  CompletableFuture<Permit> acquire(String host) {
+    var future = new CompletableFuture<Permit>();
+    var state = hosts.computeIfAbsent(host, Host::new);
+    state.enqueue(future);
+    state.grant();
+    return future;
+  }
+
+  /** Current concurrent connection limit of a host. */
+  int getLimit(String host) {
+    var state = hosts.get(host);
+    return state == null ? initialLimit() : state.limit();
+  }
+
+  @Override
+  public void close() {
+    timer.shutdownNow();
+  }
+
+  private int initialLimit() {
+    return adaptive ? Math.min(INITIAL_ADAPTIVE_LIMIT, maxConnections) : maxConnections;
+  }
+
+  /**
+   * Works out how long a host asked to be left alone from its 'Retry-After' header, either a number
+   * of seconds or a http date.
+   *
+   * @return the delay in nanoseconds, or -1 if the header is missing or not understood.
+   */
+  static long retryAfterNanos(String retryAfter, ZonedDateTime now) {
+    if (retryAfter == null || retryAfter.isBlank()) return -1;
+    try {
+      return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(retryAfter.strip())));
+    } catch (NumberFormatException e) {
+      // Not a number of seconds, try a date instead.
+    }
+    try {
+      var until = ZonedDateTime.parse(retryAfter.strip(), DateTimeFormatter.RFC_1123_DATE_TIME);
+      return Math.max(0, Duration.between(now, until).toNanos());
+    } catch (DateTimeParseException e) {
+      return -1;
+    }
+  }
+
+  /** Allows one request to a host, release it once the response has been read. */
+  class Permit {
+
+    private final Host host;
+    private boolean released;
+
+    private Permit(Host host) {
+      this.host = host;
+    }
+
+    /**
+     * Frees the connection and tells the scheduler how the request went.
+     *
+     * @param statusCode the response status, or -1 if the request failed without one.
+     * @param retryAfter the 'Retry-After' header of the response, or null.
+     * @param latency the nanoseconds from sending the request to the response, not counting the
+     *     time the visit waited for a thread after the permit was granted. Ignored without a
+     *     response.
+     */
+    void release(int statusCode, String retryAfter, long latency) {
+      synchronized (host) {
+        if (released) return;
+        released = true;
+      }
+      host.release(statusCode, retryAfter, latency);
+      host.grant();
+    }
+  }
+
+  /** The state of a single host, guarded by its own lock. */
+  private class Host {
+
+    private final String name;
+    private final ArrayDeque<CompletableFuture<Permit>> waiting;
+    private int inFlight;
+    private double limit;
+    private double tokens;
+    private long refilledAt;
+    /** No requests are sent to the host before this time. */
+    private long pausedUntil;
+
+    private int consecutiveThrottles;
+    /** The fastest response seen, drifting up slowly so the host can get slower over time. */
+    private long baselineLatency;
+
+    private long decreasedAt;
+    /** Whether a timer is already set to wake the waiting visits. */
+    private boolean wakeUpScheduled;
+
+    Host(String name) {
+      this.name = name;
+      this.waiting = new ArrayDeque<>();
+      this.limit = initialLimit();
+      this.tokens = burst();
+      this.refilledAt = nanoTime.getAsLong();
+      this.pausedUntil = refilledAt;
+      this.baselineLatency = Long.MAX_VALUE;
+      this.decreasedAt = refilledAt;
+    }
+
+    synchronized void enqueue(CompletableFuture<Permit> future) {
+      waiting.add(future);
+    }
+
+    synchronized int limit() {
+      return (int) limit;
+    }
+
+    /** Hands out as many permits as the host allows right now, waking up later if need be. */
+    void grant() {
+      List<CompletableFuture<Permit>> granted = new ArrayList<>();
+      List<Permit> permits = new ArrayList<>();
+      synchronized (this) {
+        long now = nanoTime.getAsLong();
+        refill(now);
+        while (!waiting.isEmpty() && inFlight < (int) limit) {
+          long wait = Math.max(pausedUntil - now, tokenWait());
+          if (wait > 0) {
+            scheduleWakeUp(wait);
+            break;
+          }
+          inFlight++;
+          if (requestsPerSecond > 0) tokens--;
+          granted.add(waiting.poll());
+          permits.add(new Permit(this));
+        }
+      }
+
+      // Completed outside the lock as the visit may start straight away on this thread.
+      for (int i = 0; i < granted.size(); i++) {
+        if (!granted.get(i).complete(permits.get(i))) {
+          permits.get(i).release(-1, null, 0);
+        }
+      }
+    }
+
+    synchronized void release(int statusCode, String retryAfter, long latency) {
+      inFlight--;
+      long now = nanoTime.getAsLong();
+
+      if (statusCode == 429 || statusCode == 503) {
+        consecutiveThrottles++;
+        long pause = retryAfterNanos(retryAfter, ZonedDateTime.now());
+        if (pause < 0) {
+          pause = INITIAL_BACKOFF_NANOS << Math.min(consecutiveThrottles - 1, 16);
+        }
+        pausedUntil = Math.max(pausedUntil, now + Math.min(pause, MAX_BACKOFF_NANOS));
+        decrease(now, true);
+        return;
+      }
+
+      consecutiveThrottles = 0;
+      if (statusCode < 0) {
+        decrease(now, false);
+        return;
+      }
+
+      if (latency < baselineLatency) {
+        baselineLatency = latency;
+      } else {
+        baselineLatency += (latency - baselineLatency) / 1000;
+      }
+      if (latency > baselineLatency * LATENCY_TOLERANCE) {
+        decrease(now, false);
+      } else if (adaptive) {
+        limit = Math.min(maxConnections, limit + 1 / limit);
+      }
+    }
+
+    /**
+     * Cuts the limit multiplicatively. Slow responses and failures cut it at most once per response
+     * time, as everything already in flight will report the same congestion.
+     */
+    private void decrease(long now, boolean throttled) {
+      if (!adaptive) return;
+      long window = baselineLatency == Long.MAX_VALUE ? 0 : baselineLatency;
+      if (!throttled && now - decreasedAt < window) return;
+      limit = Math.max(1, limit * DECREASE_FACTOR);
+      decreasedAt = now;
+    }
+
+    private void refill(long now) {
+      if (requestsPerSecond <= 0) return;
+      tokens = Math.min(burst(), tokens + (now - refilledAt) * requestsPerSecond / 1e9);
+      refilledAt = now;
+    }
+
+    /** Nanoseconds until the next token is available. */
+    private long tokenWait() {
+      if (requestsPerSecond <= 0 || tokens >= 1) return 0;
+      return (long) Math.ceil((1 - tokens) * 1e9 / requestsPerSecond);
+    }
+
+    private double burst() {
+      return Math.max(1, requestsPerSecond);
+    }
+
+    private void scheduleWakeUp(long delayNanos) {
+      if (wakeUpScheduled) return;
+      wakeUpScheduled = true;
+      timer.schedule(
+          () -> {
+            synchronized (this) {
+              wakeUpScheduled = false;
+            }
+            grant();
+          },
+          delayNanos,
+          TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+}
@@ -0,0 +1,177 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Polls the uris with the lowest rank given by a {@link FrontierPriority} first, and uris of the
+ * same rank in the order they were added.
+ *
+ * <p>Each rank has its own {@link SpillingFrontierQueue}, all of them sharing the memory limit, so
+ * adding only locks the queue of one rank and a large frontier still spills to disk. A bit for each
+ * rank marks those that may hold uris, so polling goes straight to the lowest one.
+ *
+ * <p>If the priority uses in-links, the in-links and rank of every waiting uri are kept by its key.
+ * A uri that is ranked differently once it's linked to again is added at its new rank too, and the
+ * entry left behind at the old rank is skipped when it's polled.
+ *
+ * <p>Adding never waits for capacity. Safe for concurrent use.
+ */
+class PriorityFrontierQueue implements FrontierQueue, Closeable {
+
+  private final FrontierPriority priority;
+  private final SpillingFrontierQueue[] ranks;
+  /** Bit r is set if rank r may hold uris. */
+  private final AtomicLong marked;
+  /** Uris waiting to be polled, not counting the entries left behind at an old rank. */
+  private final AtomicLong size;
+  /** The rank of every waiting uri by key, or null if the priority doesn't use in-links. */
+  private final ConcurrentHashMap<String, Waiting> waiting;
+
+  /** @param memoryLimit the most uris kept on the heap by all ranks together before spilling. */
+  PriorityFrontierQueue(FrontierPriority priority, int memoryLimit) {
+    this.priority = priority;
+    this.ranks = new SpillingFrontierQueue[FrontierPriority.MAX_RANK + 1];
+    var room = new AtomicInteger(memoryLimit);
+    for (int rank = 0; rank < ranks.length; rank++) {
+      ranks[rank] = new SpillingFrontierQueue(room);
+    }
+    this.marked = new AtomicLong();
+    this.size = new AtomicLong();
+    this.waiting = priority.usesInLinks() ? new ConcurrentHashMap<>() : null;
+  }
+
+  @Override
+  public void add(URI uri, int depth) {
+    int rank = rank(uri, depth, 1);
+    if (waiting != null) {
+      waiting.put(Crawl.normalizeUri(uri), new Waiting(depth, 1, rank));
+    }
+    size.incrementAndGet();
+    addAt(rank, uri, depth);
+  }
+
+  /**
+   * Counts another page linking to a uri, and ranks it again if it's still waiting. Does nothing if
+   * the priority doesn't use in-links.
+   *
+   * @param key the normalized uri.
+   * @param uri creates the uri to rank, only called before this returns and if it's waiting.
+   */
+  void linked(String key, Supplier<URI> uri) {
+    if (waiting == null) return;
+
+    URI linked = null;
+    while (true) {
+      var current = waiting.get(key);
+      if (current == null) return;
+
+      if (linked == null) {
+        linked = uri.get();
+      }
+      int inLinks = current.inLinks + 1;
+      int rank = rank(linked, current.depth, inLinks);
+      if (waiting.replace(key, current, new Waiting(current.depth, inLinks, rank))) {
+        if (rank != current.rank) {
+          addAt(rank, linked, current.depth);
+        }
+        return;
+      }
+    }
+  }
+
+  @Override
+  public Visit poll() {
+    while (true) {
+      long ranksMarked = marked.get();
+      if (ranksMarked == 0) return null;
+
+      int rank = Long.numberOfTrailingZeros(ranksMarked);
+      var visit = ranks[rank].poll();
+      if (visit == null) {
+        unmark(rank);
+      } else if (take(visit, rank)) {
+        size.decrementAndGet();
+        return visit;
+      }
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size.get() == 0;
+  }
+
+  @Override
+  public long size() {
+    return size.get();
+  }
+
+  /** Deletes the spill files. */
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (var rank : ranks) {
+      try {
+        rank.close();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private int rank(URI uri, int depth, int inLinks) {
+    return Math.max(0, Math.min(FrontierPriority.MAX_RANK, priority.rank(uri, depth, inLinks)));
+  }
+
+  private void addAt(int rank, URI uri, int depth) {
+    ranks[rank].add(uri, depth);
+    marked.getAndUpdate(ranksMarked -> ranksMarked | 1L << rank);
+  }
+
+  private void unmark(int rank) {
+    marked.getAndUpdate(ranksMarked -> ranksMarked & ~(1L << rank));
+    // A uri may have been added and the rank marked again after it was found empty.
+    if (!ranks[rank].isEmpty()) {
+      marked.getAndUpdate(ranksMarked -> ranksMarked | 1L << rank);
+    }
+  }
+
+  /**
+   * Claims a polled uri for a visit.
+   *
+   * @return false if the entry was left behind at an old rank, or the uri was already claimed.
+   */
+  private boolean take(Visit visit, int rank) {
+    if (waiting == null) return true;
+
+    var key = Crawl.normalizeUri(visit.getUri());
+    while (true) {
+      var current = waiting.get(key);
+      if (current == null || current.rank != rank) return false;
+      if (waiting.remove(key, current)) return true;
+    }
+  }
+
+  /** A uri waiting to be polled. */
+  private static class Waiting {
+
+    private final int depth;
+    private final int inLinks;
+    private final int rank;
+
+    Waiting(int depth, int inLinks, int rank) {
+      this.depth = depth;
+      this.inLinks = inLinks;
+      this.rank = rank;
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the validators and links of every page fetched, on disk, so the next crawl can ask the
+ * server whether a page changed and reuse its links if it didn't.
+ *
+ * <p>Entries are appended to a log file as '[int length][payload]' records, a later record for the
+ * same uri replaces the earlier one. Only the position of each uri's latest record is kept in
+ * memory, entries are read back from the file when they are needed. The log is compacted on close
+ * once most of it is replaced records.
+ *
+ * <p>Safe for concurrent use.
+ */
+class ResponseCache implements AutoCloseable {
+
+  private static final String LOG = "responses.log";
+
+  private final Path directory;
+  private final FileChannel channel;
+  /** Position of the latest record of each normalized uri. */
+  private final Map<String, Long> positions;
+  private long end;
+  /** Number of records in the log, including replaced ones. */
+  private long records;
+
+  /** Opens the cache in the directory, creating it if it doesn't exist yet. */
+  ResponseCache(Path directory) throws IOException {
+    this.directory = directory;
+    Files.createDirectories(directory);
+    this.channel =
+        FileChannel.open(
+            directory.resolve(LOG),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    this.positions = new ConcurrentHashMap<>();
+    index();
+  }
+
+  /**
+   * Looks up the entry of a page.
+   *
+   * @param key the normalized uri of the page.
+   * @return the entry, or null if the page isn't cached.
+   */
+  Entry get(String key) throws IOException {
+    var position = positions.get(key);
+    if (position == null) return null;
+
+    var length = ByteBuffer.allocate(4);
+    readFully(length, position);
+    var payload = ByteBuffer.allocate(length.getInt(0));
+    readFully(payload, position + 4);
+    return Entry.decode(payload);
+  }
+
+  /** Stores the entry of a page, replacing any earlier one. */
+  void put(String key, Entry entry) throws IOException {
+    var record = entry.encode(key);
+    synchronized (this) {
+      long position = end;
+      var buffer = ByteBuffer.wrap(record);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer, position + buffer.position());
+      }
+      end += record.length;
+      records++;
+      positions.put(key, position);
+    }
+  }
+
+  /** Number of pages cached. */
+  int size() {
+    return positions.size();
+  }
+
+  /** Compacts the log if most of it is replaced records, then closes it. */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      if (end > 0 && replacedRecords() > positions.size()) {
+        compact();
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  /** Finds the latest record of every uri, dropping a record cut short by the process dying. */
+  private void index() throws IOException {
+    var length = ByteBuffer.allocate(4);
+    long size = channel.size();
+    while (end + 4 <= size) {
+      length.clear();
+      readFully(length, end);
+      int payloadLength = length.getInt(0);
+      if (payloadLength < 0 || end + 4 + payloadLength > size) break;
+
+      var payload = ByteBuffer.allocate(payloadLength);
+      readFully(payload, end + 4);
+      positions.put(Entry.decodeKey(payload), end);
+      end += 4 + payloadLength;
+      records++;
+    }
+    channel.truncate(end);
+  }
+
+  private long replacedRecords() {
+    return records - positions.size();
+  }
+
+  /** Rewrites the log with only the latest record of each uri. */
+  private void compact() throws IOException {
+    var compacted = directory.resolve(LOG + ".compacting");
+    try (var out =
+        FileChannel.open(
+            compacted,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      for (var position : positions.values()) {
+        var length = ByteBuffer.allocate(4);
+        readFully(length, position);
+        var record = ByteBuffer.allocate(4 + length.getInt(0));
+        readFully(record, position);
+        record.flip();
+        while (record.hasRemaining()) {
+          out.write(record);
+        }
+      }
+    }
+    Files.move(
+        compacted,
+        directory.resolve(LOG),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of " + directory.resolve(LOG));
+      }
+    }
+  }
+
+  /** What is known about a page from the last time it was fetched. */
+  static class Entry {
+
+    private final String etag;
+    private final String lastModified;
+    private final List<String> links;
+
+    /**
+     * @param etag the 'ETag' header of the response, or null.
+     * @param lastModified the 'Last-Modified' header of the response, or null.
+     * @param links the absolute uris of the links on the page.
+     */
+    Entry(String etag, String lastModified, List<String> links) {
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.links = links;
+    }
+
+    String getEtag() {
+      return etag;
+    }
+
+    String getLastModified() {
+      return lastModified;
+    }
+
+    List<String> getLinks() {
+      return links;
+    }
+
+    private byte[] encode(String key) throws IOException {
+      var bytes = new ByteArrayOutputStream();
+      var out = new DataOutputStream(bytes);
+      out.writeInt(0);
+      writeString(out, key);
+      writeString(out, etag == null ? "" : etag);
+      writeString(out, lastModified == null ? "" : lastModified);
+      out.writeInt(links.size());
+      for (var link : links) {
+        writeString(out, link);
+      }
+
+      var record = bytes.toByteArray();
+      ByteBuffer.wrap(record).putInt(0, record.length - 4);
+      return record;
+    }
+
+    private static String decodeKey(ByteBuffer payload) {
+      return readString(payload.rewind());
+    }
+
+    private static Entry decode(ByteBuffer payload) {
+      payload.rewind();
+      readString(payload);
+      var etag = readString(payload);
+      var lastModified = readString(payload);
+      int noOfLinks = payload.getInt();
+      var links = new ArrayList<String>(noOfLinks);
+      for (int i = 0; i < noOfLinks; i++) {
+        links.add(readString(payload));
+      }
+      return new Entry(
+          etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified, links);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+      var bytes = s.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+      var bytes = new byte[in.getInt()];
+      in.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,277 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.HttpClient;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The rules of a host's robots.txt for this crawler, see RFC 9309. Fetched once per host and
+ * compiled so checking a uri doesn't allocate.
+ *
+ * <p>Rules of the groups naming {@link #USER_AGENT} are used, or those of the '*' groups if none
+ * do. Every pattern is canonicalized the same way as the uris it's matched against. Rules without a
+ * wildcard are kept in a trie walked once over the path, the others are tried longest first. The
+ * longest matching rule wins, an allow wins a tie, and a path no rule matches is allowed.
+ *
+ * <p>Safe for concurrent use once created.
+ */
+class RobotsRules {
+
+  /** The product token groups are matched against, case-insensitively. */
+  static final String USER_AGENT = "webcrawler";
+  /** The most bytes of a robots.txt that are fetched, the rest is ignored as RFC 9309 allows. */
+  static final int MAX_BYTES = 500 * 1024;
+
+  private static final int MAX_REDIRECTS = 5;
+
+  /** Rules when there is no robots.txt, or it's unavailable. */
+  static final RobotsRules ALLOW_ALL = new RobotsRules(List.of(), List.of());
+  /** Rules when the robots.txt can't be reached, because of a server error. */
+  static final RobotsRules DISALLOW_ALL =
+      new RobotsRules(List.of(new Rule("/", false)), List.of());
+
+  /** The rules without wildcards, by the chars of their path. */
+  private final Node literals;
+  /** The rules with a '*' or a '$', longest first and allows before disallows. */
+  private final Rule[] wildcards;
+
+  private final List<String> sitemaps;
+
+  private RobotsRules(List<Rule> rules, List<String> sitemaps) {
+    this.literals = new Node();
+    var wildcards = new ArrayList<Rule>();
+    for (var rule : rules) {
+      if (rule.segments.length > 1 || rule.anchored) {
+        wildcards.add(rule);
+        continue;
+      }
+      var node = literals;
+      for (int i = 0; i < rule.pattern.length(); i++) {
+        node = node.children.computeIfAbsent(rule.pattern.charAt(i), c -> new Node());
+      }
+      if (rule.allow) {
+        node.allow = true;
+      } else {
+        node.disallow = true;
+      }
+    }
+    wildcards.sort(
+        Comparator.comparingInt((Rule rule) -> -rule.pattern.length())
+            .thenComparing(rule -> !rule.allow));
+    this.wildcards = wildcards.toArray(new Rule[0]);
+    this.sitemaps = List.copyOf(sitemaps);
+  }
+
+  /**
+   * Fetches and parses the robots.txt of the host of a uri, following redirects. A robots.txt that
+   * isn't found allows everything, and one the server fails to give disallows everything.
+   *
+   * @throws IOException if the robots.txt can't be requested, e.g. the host can't be reached.
+   */
+  static RobotsRules fetch(HttpClient httpClient, URI site)
+      throws IOException, InterruptedException {
+    var uri = site.resolve("/robots.txt");
+    for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+      var response = httpClient.getFile(uri, MAX_BYTES);
+      try (var body = response.body()) {
+        int statusCode = response.statusCode();
+        if (statusCode >= 200 && statusCode < 300) return parse(body);
+        if (statusCode >= 500) return DISALLOW_ALL;
+
+        var location = response.headers().firstValue("Location").orElse(null);
+        if (statusCode < 300 || statusCode >= 400 || location == null) return ALLOW_ALL;
+        uri = uri.resolve(location.strip());
+      }
+    }
+    return ALLOW_ALL;
+  }
+
+  /** Parses a robots.txt. Lines that aren't rules, sitemaps or user-agents are ignored. */
+  static RobotsRules parse(InputStream robotsTxt) throws IOException {
+    var reader = new BufferedReader(new InputStreamReader(robotsTxt, StandardCharsets.UTF_8));
+    var ours = new ArrayList<Rule>();
+    var everyone = new ArrayList<Rule>();
+    var sitemaps = new ArrayList<String>();
+    boolean namesUs = false;
+    // Whether the group being read is for this crawler or everyone.
+    boolean groupIsOurs = false;
+    boolean groupIsEveryone = false;
+    boolean inRules = false;
+
+    for (String line; (line = reader.readLine()) != null; ) {
+      int comment = line.indexOf('#');
+      if (comment >= 0) {
+        line = line.substring(0, comment);
+      }
+      int colon = line.indexOf(':');
+      if (colon < 0) continue;
+      var key = line.substring(0, colon).strip().toLowerCase(Locale.ROOT);
+      var value = line.substring(colon + 1).strip();
+
+      switch (key) {
+        case "user-agent":
+          if (inRules) {
+            groupIsOurs = false;
+            groupIsEveryone = false;
+            inRules = false;
+          }
+          var product = value.split("[/\\s]", 2)[0];
+          if (product.equals("*")) {
+            groupIsEveryone = true;
+          } else if (product.equalsIgnoreCase(USER_AGENT)) {
+            groupIsOurs = true;
+            namesUs = true;
+          }
+          break;
+        case "allow":
+        case "disallow":
+          inRules = true;
+          var rule = value.isEmpty() ? null : Rule.create(value, key.equals("allow"));
+          if (rule == null) break;
+          if (groupIsOurs) {
+            ours.add(rule);
+          }
+          if (groupIsEveryone) {
+            everyone.add(rule);
+          }
+          break;
+        case "sitemap":
+          if (!value.isEmpty()) {
+            sitemaps.add(value);
+          }
+          break;
+        default:
+          // Crawl-delay and other extensions aren't supported.
+      }
+    }
+    return new RobotsRules(namesUs ? ours : everyone, sitemaps);
+  }
+
+  /**
+   * Whether a canonical uri may be visited.
+   *
+   * @param uri the canonical uri, see {@link UriCanonicalizer}.
+   * @param pathStart the index of the path in the uri.
+   */
+  boolean isAllowed(CharSequence uri, int pathStart) {
+    if (regionEquals(uri, pathStart, uri.length(), "/robots.txt")) return true;
+
+    int bestLength = -1;
+    boolean allowed = true;
+    var node = literals;
+    for (int i = pathStart; ; i++) {
+      if (node.allow || node.disallow) {
+        bestLength = i - pathStart;
+        allowed = node.allow;
+      }
+      if (i == uri.length()) break;
+      node = node.children.get(uri.charAt(i));
+      if (node == null) break;
+    }
+
+    for (var rule : wildcards) {
+      int length = rule.pattern.length();
+      if (length < bestLength || (length == bestLength && (allowed || !rule.allow))) break;
+      if (rule.matches(uri, pathStart)) return rule.allow;
+    }
+    return allowed;
+  }
+
+  /** The sitemaps listed in the robots.txt, as written. */
+  List<String> getSitemaps() {
+    return sitemaps;
+  }
+
+  private static boolean regionEquals(CharSequence s, int from, int to, String other) {
+    return to - from == other.length() && regionMatches(s, from, other);
+  }
+
+  private static boolean regionMatches(CharSequence s, int at, String other) {
+    if (s.length() - at < other.length()) return false;
+    for (int i = 0; i < other.length(); i++) {
+      if (s.charAt(at + i) != other.charAt(i)) return false;
+    }
+    return true;
+  }
+
+  /** Returns the index of other in s between from and to, or -1. */
+  private static int indexOf(CharSequence s, String other, int from, int to) {
+    for (int i = from; i <= to - other.length(); i++) {
+      if (regionMatches(s, i, other)) return i;
+    }
+    return -1;
+  }
+
+  /** A node of the trie of literal rules. */
+  private static class Node {
+
+    private final Map<Character, Node> children = new HashMap<>();
+    private boolean allow;
+    private boolean disallow;
+  }
+
+  /** An allow or disallow rule. */
+  private static class Rule {
+
+    /** The canonical pattern, its length is how specific the rule is. */
+    private final String pattern;
+    /** The parts of the pattern between its '*'s, without the '$'. */
+    private final String[] segments;
+    /** Whether the pattern ends with '$', so must match to the end of the uri. */
+    private final boolean anchored;
+
+    private final boolean allow;
+
+    Rule(String pattern, boolean allow) {
+      this.pattern = pattern;
+      this.anchored = pattern.endsWith("$");
+      this.segments =
+          (anchored ? pattern.substring(0, pattern.length() - 1) : pattern).split("\\*", -1);
+      this.allow = allow;
+    }
+
+    /**
+     * Canonicalizes a pattern as a path, keeping its '*'s and '$'.
+     *
+     * @return the rule, or null if the pattern isn't a usable path.
+     */
+    static Rule create(String pattern, boolean allow) {
+      var canonicalizer = new UriCanonicalizer((String) null);
+      var prefix = "http://robots.invalid";
+      if (!canonicalizer.canonicalize(prefix + (pattern.startsWith("/") ? "" : "/") + pattern)) {
+        return null;
+      }
+      return new Rule(canonicalizer.toString().substring(prefix.length()), allow);
+    }
+
+    /** Whether the pattern matches the path of a uri from its start. */
+    boolean matches(CharSequence uri, int pathStart) {
+      int end = uri.length();
+      int last = segments.length - 1;
+      if (!regionMatches(uri, pathStart, segments[0])) return false;
+      int at = pathStart + segments[0].length();
+      if (last == 0) return !anchored || at == end;
+
+      for (int i = 1; i < last; i++) {
+        at = indexOf(uri, segments[i], at, end);
+        if (at < 0) return false;
+        at += segments[i].length();
+      }
+      var tail = segments[last];
+      if (anchored) {
+        return end - tail.length() >= at && regionMatches(uri, end - tail.length(), tail);
+      }
+      return indexOf(uri, tail, at, end) >= 0;
+    }
+  }
+}
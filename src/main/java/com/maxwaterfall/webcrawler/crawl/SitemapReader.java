@@ -0,0 +1,124 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Reads the uris out of a sitemap as it downloads, see sitemaps.org. Only one '<loc>' is held at a
+ * time, so a sitemap of any size is read in constant memory.
+ *
+ * <p>A 'urlset' lists pages and a 'sitemapindex' lists other sitemaps. Plain text sitemaps, one
+ * uri per line, and gzipped sitemaps are read too. DTDs and external entities are never loaded.
+ */
+class SitemapReader {
+
+  /** The most uris read from one sitemap, the limit of the sitemaps protocol. */
+  static final int MAX_URIS = 50_000;
+  /** The most bytes of a sitemap that are fetched, the limit of the sitemaps protocol. */
+  static final long MAX_BYTES = 50L * 1024 * 1024;
+
+  private static final XMLInputFactory XML = xmlInputFactory();
+
+  private SitemapReader() {}
+
+  /**
+   * Reads a sitemap, stopping after {@link #MAX_URIS}.
+   *
+   * @param sitemap the body of the sitemap, gzipped or not.
+   * @param pages receives the uri of every page listed, as written.
+   * @param sitemaps receives the uri of every sitemap listed by a sitemap index, as written.
+   * @throws IOException if the sitemap can't be read or isn't well formed. Uris read before the
+   *     error have been passed on already.
+   */
+  static void read(InputStream sitemap, Consumer<String> pages, Consumer<String> sitemaps)
+      throws IOException {
+    var in = new BufferedInputStream(sitemap);
+    if (isGzipped(in)) {
+      in = new BufferedInputStream(new GZIPInputStream(in));
+    }
+    if (isXml(in)) {
+      readXml(in, pages, sitemaps);
+    } else {
+      readText(in, pages);
+    }
+  }
+
+  private static void readXml(InputStream in, Consumer<String> pages, Consumer<String> sitemaps)
+      throws IOException {
+    try {
+      var reader = XML.createXMLStreamReader(in);
+      try {
+        Consumer<String> locs = null;
+        int count = 0;
+        while (reader.hasNext() && count < MAX_URIS) {
+          if (reader.next() != XMLStreamConstants.START_ELEMENT) continue;
+
+          var name = reader.getLocalName();
+          if (locs == null) {
+            // The root element says what the locs are.
+            locs = name.equals("sitemapindex") ? sitemaps : pages;
+          } else if (name.equals("loc")) {
+            var loc = reader.getElementText().strip();
+            if (!loc.isEmpty()) {
+              locs.accept(loc);
+              count++;
+            }
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException("Could not read the sitemap", e);
+    }
+  }
+
+  private static void readText(InputStream in, Consumer<String> pages) throws IOException {
+    var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    int count = 0;
+    for (String line; count < MAX_URIS && (line = reader.readLine()) != null; ) {
+      line = line.strip();
+      if (!line.isEmpty()) {
+        pages.accept(line);
+        count++;
+      }
+    }
+  }
+
+  private static boolean isGzipped(InputStream in) throws IOException {
+    in.mark(2);
+    boolean gzipped = in.read() == 0x1f && in.read() == 0x8b;
+    in.reset();
+    return gzipped;
+  }
+
+  /** Whether the first char that isn't whitespace or a byte order mark is '<'. */
+  private static boolean isXml(InputStream in) throws IOException {
+    in.mark(1024);
+    try {
+      for (int i = 0, b; i < 1024 && (b = in.read()) >= 0; i++) {
+        if (b == '<') return true;
+        if (!Character.isWhitespace(b) && b != 0xEF && b != 0xBB && b != 0xBF) return false;
+      }
+      return false;
+    } finally {
+      in.reset();
+    }
+  }
+
+  private static XMLInputFactory xmlInputFactory() {
+    var factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return factory;
+  }
+}
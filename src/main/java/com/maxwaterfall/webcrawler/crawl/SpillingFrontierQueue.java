@@ -0,0 +1,209 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps up to a limit of pending uris on the heap and spills the rest to a temporary file, so the
+ * memory used by the frontier stays flat however large the site is.
+ *
+ * <p>Once anything is spilled, new uris are spilled too until the file has been read back, so uris
+ * are still polled in the order they were added. The file is only read when the heap is empty, a
+ * batch at a time, and is truncated once everything in it has been read. Each record is '[int
+ * length][int depth][utf-8 uri]'.
+ *
+ * <p>Several queues can share one limit, e.g. the ranks of a {@link PriorityFrontierQueue}. A queue
+ * that has spilled always reads back at least one uri, even if the others have used up the limit.
+ *
+ * <p>Adding never waits for capacity. Safe for concurrent use.
+ */
+class SpillingFrontierQueue implements FrontierQueue, Closeable {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** How many more uris can be kept on the heap, shared with the other queues of the limit. */
+  private final AtomicInteger room;
+
+  private final ArrayDeque<Visit> memory;
+
+  /** Created when the first uri is spilled. */
+  private Path spillFile;
+
+  private FileChannel spill;
+  private ByteBuffer writeBuffer;
+  private ByteBuffer readBuffer;
+  private long writePosition;
+  private long readPosition;
+  /** Records spilled that haven't been read back yet. */
+  private long spilled;
+
+  /** @param memoryLimit the most uris kept on the heap before spilling. */
+  SpillingFrontierQueue(int memoryLimit) {
+    this(new AtomicInteger(memoryLimit));
+  }
+
+  /** @param room the number of uris that can be kept on the heap by all queues sharing it. */
+  SpillingFrontierQueue(AtomicInteger room) {
+    this.room = room;
+    this.memory = new ArrayDeque<>();
+  }
+
+  /** @throws UncheckedIOException if the uri had to be spilled and couldn't be. */
+  @Override
+  public synchronized void add(URI uri, int depth) {
+    if (spilled == 0 && takeRoom()) {
+      memory.add(new Visit(uri, Visit.NO_ID, depth));
+      return;
+    }
+    try {
+      writeRecord(uri.toString().getBytes(StandardCharsets.UTF_8), depth);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    spilled++;
+  }
+
+  /** @throws UncheckedIOException if spilled uris couldn't be read back. */
+  @Override
+  public synchronized Visit poll() {
+    if (memory.isEmpty() && spilled > 0) {
+      try {
+        readBack();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    var visit = memory.poll();
+    if (visit != null) {
+      room.incrementAndGet();
+    }
+    return visit;
+  }
+
+  @Override
+  public synchronized boolean isEmpty() {
+    return memory.isEmpty() && spilled == 0;
+  }
+
+  @Override
+  public synchronized long size() {
+    return memory.size() + spilled;
+  }
+
+  /** Number of uris waiting in the spill file. */
+  synchronized long spilled() {
+    return spilled;
+  }
+
+  /** Deletes the spill file. */
+  @Override
+  public synchronized void close() throws IOException {
+    if (spill == null) return;
+    try {
+      spill.close();
+    } finally {
+      Files.deleteIfExists(spillFile);
+    }
+  }
+
+  private void writeRecord(byte[] uri, int depth) throws IOException {
+    if (spill == null) {
+      spillFile = Files.createTempFile("frontier", ".spill");
+      spillFile.toFile().deleteOnExit();
+      spill =
+          FileChannel.open(
+              spillFile,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING);
+      writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+      readBuffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+    }
+
+    if (writeBuffer.remaining() < 8 + uri.length) {
+      flushWrites();
+    }
+    if (writeBuffer.remaining() < 8 + uri.length) {
+      // Longer than the whole buffer, write it straight to the file.
+      write(ByteBuffer.allocate(8 + uri.length).putInt(uri.length).putInt(depth).put(uri).flip());
+    } else {
+      writeBuffer.putInt(uri.length).putInt(depth).put(uri);
+    }
+  }
+
+  /** Moves a batch of spilled uris back onto the heap, resetting the file once it's all read. */
+  private void readBack() throws IOException {
+    flushWrites();
+    // The first uri is read back even without room, so that it can be polled.
+    room.decrementAndGet();
+    do {
+      ensureReadable(8);
+      int length = readBuffer.getInt();
+      int depth = readBuffer.getInt();
+      ensureReadable(length);
+      var bytes = new byte[length];
+      readBuffer.get(bytes);
+      var uri = URI.create(new String(bytes, StandardCharsets.UTF_8));
+      memory.add(new Visit(uri, Visit.NO_ID, depth));
+      spilled--;
+    } while (spilled > 0 && takeRoom());
+
+    if (spilled == 0) {
+      spill.truncate(0);
+      writePosition = 0;
+      readPosition = 0;
+      readBuffer.clear().flip();
+    }
+  }
+
+  /** Takes room for one more uri on the heap, if there is any. */
+  private boolean takeRoom() {
+    while (true) {
+      int current = room.get();
+      if (current <= 0) return false;
+      if (room.compareAndSet(current, current - 1)) return true;
+    }
+  }
+
+  /** Makes sure the read buffer holds at least the given number of unread bytes. */
+  private void ensureReadable(int bytes) throws IOException {
+    if (readBuffer.remaining() >= bytes) return;
+
+    if (readBuffer.capacity() < bytes) {
+      readBuffer = ByteBuffer.allocate(bytes).put(readBuffer);
+    } else {
+      readBuffer.compact();
+    }
+    while (readBuffer.position() < bytes) {
+      int read = spill.read(readBuffer, readPosition);
+      if (read < 0) {
+        throw new EOFException("Unexpected end of " + spillFile);
+      }
+      readPosition += read;
+    }
+    readBuffer.flip();
+  }
+
+  private void flushWrites() throws IOException {
+    if (writeBuffer == null || writeBuffer.position() == 0) return;
+    write(writeBuffer.flip());
+    writeBuffer.clear();
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      writePosition += spill.write(buffer, writePosition);
+    }
+  }
+}
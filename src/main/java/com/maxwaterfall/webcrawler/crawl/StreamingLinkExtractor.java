@@ -0,0 +1,60 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.PooledBody;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Extracts links by scanning the html as it is read, never holding more than a small buffer of it
+ * in memory.
+ *
+ * <p>Html without a known charset is read as UTF-8. Unless the listener wants the text, html in a
+ * charset where {@link LinkScanner#canScanBytes} is scanned as bytes and only its links are
+ * decoded. Html in pooled buffers is then scanned where it is, without copying it.
+ */
+class StreamingLinkExtractor implements LinkExtractor {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  @Override
+  public void extract(InputStream html, Charset charset, URI pageUri, Listener listener)
+      throws IOException {
+    charset = charset == null ? StandardCharsets.UTF_8 : charset;
+    if (listener.wantsText() || !LinkScanner.canScanBytes(charset)) {
+      var scanner = new LinkScanner(listener);
+      var reader = new InputStreamReader(html, charset);
+      var buffer = new char[BUFFER_SIZE];
+      int read;
+      while ((read = reader.read(buffer)) != -1) {
+        scanner.feed(buffer, 0, read);
+      }
+      return;
+    }
+
+    var scanner = new LinkScanner(listener, charset);
+    var buffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = html.read(buffer)) != -1) {
+      scanner.feed(buffer, 0, read);
+    }
+  }
+
+  @Override
+  public void extract(PooledBody html, Charset charset, URI pageUri, Listener listener)
+      throws IOException {
+    charset = charset == null ? StandardCharsets.UTF_8 : charset;
+    if (listener.wantsText() || !LinkScanner.canScanBytes(charset)) {
+      extract(html.inputStream(), charset, pageUri, listener);
+      return;
+    }
+
+    var scanner = new LinkScanner(listener, charset);
+    for (var buffer : html.buffers()) {
+      scanner.feed(buffer);
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Keeps every normalized uri as a String. Exact, but the largest of the visited sets. */
+class StringVisitedSet implements VisitedSet {
+
+  /** Approximate heap used by each entry: hash map node, table slot, String and its array. */
+  private static final long ENTRY_OVERHEAD = 32 + 8 + 24 + 16;
+
+  private final Set<String> uris = ConcurrentHashMap.newKeySet();
+  private final LongAdder chars = new LongAdder();
+
+  @Override
+  public boolean add(String normalizedUri) {
+    if (!uris.add(normalizedUri)) return false;
+    chars.add(normalizedUri.length());
+    return true;
+  }
+
+  @Override
+  public VisitedSetStats stats() {
+    long size = uris.size();
+    // Strings are assumed to be Latin-1, one byte per char.
+    return new VisitedSetStats(
+        CrawlConfig.VisitedSetType.STRINGS, size, size * ENTRY_OVERHEAD + chars.sum(), 0);
+  }
+}
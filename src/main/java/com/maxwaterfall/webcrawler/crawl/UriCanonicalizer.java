@@ -0,0 +1,493 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Resolves the hrefs found on a page against the page's base uri and canonicalizes them in a single
+ * pass over their chars, without building a {@link URI} for each one.
+ *
+ * <p>Only http and https uris with a host are accepted. The scheme and host are lowercased, default
+ * ports, the fragment and dot segments are dropped, and percent-encoding is normalized: unreserved
+ * chars are decoded, other escapes are uppercased and chars that aren't allowed are escaped as
+ * UTF-8. Leading and trailing whitespace is ignored, as browsers do.
+ *
+ * <p>After {@link #canonicalize} accepts an href the result can be read as the dedupe {@link
+ * #key()}, the canonical uri string or a {@link URI}. The canonicalizer is reused for every href on
+ * a page. NOT safe for concurrent use.
+ */
+class UriCanonicalizer {
+
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  /** Chars allowed unescaped in userinfo: unreserved, sub-delims and ':'. */
+  private static final boolean[] USERINFO_CHARS = new boolean[128];
+  /** Chars allowed unescaped in a path: the userinfo chars, '@' and '/'. */
+  private static final boolean[] PATH_CHARS = new boolean[128];
+  /** Chars allowed unescaped in a query: the path chars and '?'. */
+  private static final boolean[] QUERY_CHARS = new boolean[128];
+  /** Chars that may be decoded from an escape without changing the meaning of the uri. */
+  private static final boolean[] UNRESERVED = new boolean[128];
+
+  static {
+    for (char c = 'a'; c <= 'z'; c++) UNRESERVED[c] = true;
+    for (char c = 'A'; c <= 'Z'; c++) UNRESERVED[c] = true;
+    for (char c = '0'; c <= '9'; c++) UNRESERVED[c] = true;
+    for (char c : "-._~".toCharArray()) UNRESERVED[c] = true;
+    System.arraycopy(UNRESERVED, 0, USERINFO_CHARS, 0, 128);
+    for (char c : "!$&'()*+,;=:".toCharArray()) USERINFO_CHARS[c] = true;
+    System.arraycopy(USERINFO_CHARS, 0, PATH_CHARS, 0, 128);
+    PATH_CHARS['@'] = true;
+    PATH_CHARS['/'] = true;
+    System.arraycopy(PATH_CHARS, 0, QUERY_CHARS, 0, 128);
+    QUERY_CHARS['?'] = true;
+  }
+
+  /** The canonical uri of the last accepted href. */
+  private final StringBuilder uri;
+
+  private final StringBuilder scratch;
+  private byte[] bytes;
+
+  private int authorityStart;
+  private int hostStart;
+  private int hostEnd;
+  private int pathStart;
+  /** Index of the '?' in the uri, or -1 if there is no query. */
+  private int queryStart;
+
+  /** The parts of the base uri, all null if it isn't usable and only absolute hrefs resolve. */
+  private String baseScheme;
+
+  private String baseAuthority;
+  private String basePath;
+  private String baseQuery;
+
+  /** @param base the uri relative hrefs are resolved against. */
+  UriCanonicalizer(URI base) {
+    this(base.toString());
+  }
+
+  /** @param base the uri relative hrefs are resolved against, or null to only accept absolute. */
+  UriCanonicalizer(String base) {
+    this.uri = new StringBuilder(128);
+    this.scratch = new StringBuilder(128);
+    this.bytes = new byte[16];
+    if (base != null && canonicalize(base)) {
+      int pathEnd = queryStart < 0 ? uri.length() : queryStart;
+      baseScheme = uri.substring(0, authorityStart - 3);
+      baseAuthority = uri.substring(authorityStart, pathStart);
+      basePath = uri.substring(pathStart, pathEnd);
+      baseQuery = queryStart < 0 ? null : uri.substring(queryStart + 1);
+    }
+  }
+
+  /**
+   * Returns the dedupe key of a uri, or null if it isn't a http or https uri with a host. The key
+   * is the authority, the decoded path and the decoded query, e.g. 'example.com/a b?q=1'.
+   */
+  static String key(URI uri) {
+    var canonicalizer = new UriCanonicalizer((String) null);
+    return canonicalizer.canonicalize(uri.toString()) ? canonicalizer.key() : null;
+  }
+
+  /**
+   * Resolves and canonicalizes an href.
+   *
+   * @return true if the href is a usable http or https uri, its canonical form can then be read.
+   */
+  boolean canonicalize(CharSequence href) {
+    int start = 0;
+    int end = href.length();
+    while (start < end && href.charAt(start) <= ' ') start++;
+    while (end > start && href.charAt(end - 1) <= ' ') end--;
+    if (start == end) return false;
+
+    uri.setLength(0);
+    queryStart = -1;
+
+    String scheme;
+    int i = start;
+    int colon = schemeEnd(href, start, end);
+    if (colon >= 0) {
+      scheme = httpScheme(href, start, colon);
+      if (scheme == null) return false;
+      i = colon + 1;
+      // 'http:page' has no host of its own.
+      if (!startsWithSlashes(href, i, end)) return false;
+    } else if (baseScheme == null) {
+      return false;
+    } else {
+      scheme = baseScheme;
+    }
+    uri.append(scheme).append("://");
+    authorityStart = uri.length();
+
+    boolean hasAuthority = startsWithSlashes(href, i, end);
+    if (hasAuthority) {
+      int authorityEnd = i + 2;
+      while (authorityEnd < end && !endsAuthority(href.charAt(authorityEnd))) authorityEnd++;
+      if (!appendAuthority(href, i + 2, authorityEnd, scheme)) return false;
+      i = authorityEnd;
+    } else {
+      hostStart = -1;
+      uri.append(baseAuthority);
+    }
+    pathStart = uri.length();
+
+    int pathEnd = i;
+    while (pathEnd < end && href.charAt(pathEnd) != '?' && href.charAt(pathEnd) != '#') pathEnd++;
+    boolean hasQuery = pathEnd < end && href.charAt(pathEnd) == '?';
+
+    if (hasAuthority || (pathEnd > i && isSlash(href.charAt(i)))) {
+      appendEscaped(href, i, pathEnd, PATH_CHARS);
+      removeDotSegments();
+    } else if (pathEnd > i) {
+      // Merge with the directory of the base path.
+      uri.append(basePath, 0, basePath.lastIndexOf('/') + 1);
+      appendEscaped(href, i, pathEnd, PATH_CHARS);
+      removeDotSegments();
+    } else {
+      uri.append(basePath);
+      if (!hasQuery && baseQuery != null) {
+        queryStart = uri.length();
+        uri.append('?').append(baseQuery);
+      }
+    }
+    if (uri.length() == pathStart) {
+      uri.append('/');
+    }
+    if (hostStart < 0) {
+      locateBaseHost();
+    }
+
+    if (hasQuery) {
+      int queryEnd = pathEnd + 1;
+      while (queryEnd < end && href.charAt(queryEnd) != '#') queryEnd++;
+      queryStart = uri.length();
+      uri.append('?');
+      appendEscaped(href, pathEnd + 1, queryEnd, QUERY_CHARS);
+    }
+    return true;
+  }
+
+  /**
+   * The dedupe key of the last accepted href: the authority, the decoded path and, if there is one,
+   * '?' and the decoded query.
+   */
+  String key() {
+    scratch.setLength(0);
+    scratch.append(uri, authorityStart, pathStart);
+    appendDecoded(pathStart, queryStart < 0 ? uri.length() : queryStart);
+    if (queryStart >= 0) {
+      scratch.append('?');
+      appendDecoded(queryStart + 1, uri.length());
+    }
+    return scratch.toString();
+  }
+
+  /** Whether the host of the last accepted href is the given lowercase host. */
+  boolean hasHost(String host) {
+    if (hostEnd - hostStart != host.length()) return false;
+    for (int i = 0; i < host.length(); i++) {
+      if (uri.charAt(hostStart + i) != host.charAt(i)) return false;
+    }
+    return true;
+  }
+
+  /** Whether the robots.txt rules allow the path and query of the last accepted href. */
+  boolean isAllowed(RobotsRules robots) {
+    return robots.isAllowed(uri, pathStart);
+  }
+
+  /** The last accepted href as a uri. */
+  URI toUri() {
+    return URI.create(uri.toString());
+  }
+
+  /** The canonical form of the last accepted href. */
+  @Override
+  public String toString() {
+    return uri.toString();
+  }
+
+  /** Returns the index of the ':' ending a scheme at the start of the href, or -1. */
+  private static int schemeEnd(CharSequence href, int start, int end) {
+    if (!isAlpha(href.charAt(start))) return -1;
+    for (int i = start + 1; i < end; i++) {
+      char c = href.charAt(i);
+      if (c == ':') return i;
+      if (!isAlpha(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.') return -1;
+    }
+    return -1;
+  }
+
+  private static String httpScheme(CharSequence href, int start, int colon) {
+    if (!regionMatchesIgnoreCase(href, start, "http")) return null;
+    if (colon - start == 4) return "http";
+    if (colon - start == 5 && (href.charAt(start + 4) | 0x20) == 's') return "https";
+    return null;
+  }
+
+  /** Parses and appends '[userinfo@]host[:port]', dropping the port if it's the default. */
+  private boolean appendAuthority(CharSequence href, int from, int to, String scheme) {
+    int at = -1;
+    for (int i = to - 1; i >= from; i--) {
+      if (href.charAt(i) == '@') {
+        at = i;
+        break;
+      }
+    }
+    if (at >= 0) {
+      appendEscaped(href, from, at, USERINFO_CHARS);
+      uri.append('@');
+      from = at + 1;
+    }
+
+    int portColon = -1;
+    hostStart = uri.length();
+    if (from < to && href.charAt(from) == '[') {
+      // An IPv6 literal.
+      int close = from + 1;
+      while (close < to && href.charAt(close) != ']') close++;
+      if (close == to) return false;
+      uri.append('[');
+      for (int i = from + 1; i < close; i++) {
+        char c = lowerCase(href.charAt(i));
+        if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f') && c != ':' && c != '.') {
+          return false;
+        }
+        uri.append(c);
+      }
+      uri.append(']');
+      if (close + 1 < to) {
+        if (href.charAt(close + 1) != ':') return false;
+        portColon = close + 1;
+      }
+    } else {
+      int hostTo = to;
+      for (int i = from; i < to; i++) {
+        if (href.charAt(i) == ':') {
+          portColon = i;
+          hostTo = i;
+          break;
+        }
+      }
+      for (int i = from; i < hostTo; i++) {
+        char c = lowerCase(href.charAt(i));
+        if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '-' && c != '.') {
+          return false;
+        }
+        uri.append(c);
+      }
+    }
+    hostEnd = uri.length();
+    if (hostEnd == hostStart) return false;
+
+    if (portColon >= 0 && portColon + 1 < to) {
+      int port = 0;
+      for (int i = portColon + 1; i < to; i++) {
+        char c = href.charAt(i);
+        if (c < '0' || c > '9') return false;
+        port = port * 10 + (c - '0');
+        if (port > 65535) return false;
+      }
+      int defaultPort = scheme.equals("http") ? 80 : 443;
+      if (port != defaultPort) {
+        uri.append(':').append(port);
+      }
+    }
+    return true;
+  }
+
+  /** Finds the host in a base authority that was copied into the uri. */
+  private void locateBaseHost() {
+    hostStart = authorityStart;
+    for (int i = pathStart - 1; i >= authorityStart; i--) {
+      if (uri.charAt(i) == '@') {
+        hostStart = i + 1;
+        break;
+      }
+    }
+    hostEnd = hostStart;
+    if (hostEnd < pathStart && uri.charAt(hostEnd) == '[') {
+      while (uri.charAt(hostEnd) != ']') hostEnd++;
+      hostEnd++;
+    } else {
+      while (hostEnd < pathStart && uri.charAt(hostEnd) != ':') hostEnd++;
+    }
+  }
+
+  /**
+   * Appends chars normalizing their percent-encoding. Tabs and newlines are dropped and, as in
+   * browsers, a '\' in a path is a '/'.
+   */
+  private void appendEscaped(CharSequence s, int from, int to, boolean[] allowed) {
+    for (int i = from; i < to; i++) {
+      // Most chars are allowed as they are, append them a run at a time.
+      int run = i;
+      while (run < to && s.charAt(run) < 128 && allowed[s.charAt(run)]) run++;
+      if (run > i) {
+        uri.append(s, i, run);
+        i = run;
+        if (i == to) break;
+      }
+
+      char c = s.charAt(i);
+      if (c == '\t' || c == '\n' || c == '\r') continue;
+      if (c == '\\' && allowed == PATH_CHARS) c = '/';
+
+      if (c == '%') {
+        if (i + 2 < to && isHex(s.charAt(i + 1)) && isHex(s.charAt(i + 2))) {
+          int value = hexValue(s, i + 1);
+          if (value < 128 && UNRESERVED[value]) {
+            uri.append((char) value);
+          } else {
+            appendEscape(value);
+          }
+          i += 2;
+        } else {
+          appendEscape('%');
+        }
+      } else if (c < 128) {
+        if (allowed[c]) {
+          uri.append(c);
+        } else {
+          appendEscape(c);
+        }
+      } else {
+        int codePoint = c;
+        if (Character.isHighSurrogate(c)
+            && i + 1 < to
+            && Character.isLowSurrogate(s.charAt(i + 1))) {
+          codePoint = Character.toCodePoint(c, s.charAt(++i));
+        } else if (Character.isSurrogate(c)) {
+          codePoint = 0xFFFD;
+        }
+        appendUtf8(codePoint);
+      }
+    }
+  }
+
+  private void appendUtf8(int codePoint) {
+    if (codePoint < 0x800) {
+      appendEscape(0xC0 | codePoint >> 6);
+      appendEscape(0x80 | codePoint & 0x3F);
+    } else if (codePoint < 0x10000) {
+      appendEscape(0xE0 | codePoint >> 12);
+      appendEscape(0x80 | codePoint >> 6 & 0x3F);
+      appendEscape(0x80 | codePoint & 0x3F);
+    } else {
+      appendEscape(0xF0 | codePoint >> 18);
+      appendEscape(0x80 | codePoint >> 12 & 0x3F);
+      appendEscape(0x80 | codePoint >> 6 & 0x3F);
+      appendEscape(0x80 | codePoint & 0x3F);
+    }
+  }
+
+  private void appendEscape(int value) {
+    uri.append('%').append(HEX[value >> 4]).append(HEX[value & 0xF]);
+  }
+
+  /** Removes '.' and '..' segments from the path at the end of the uri, see RFC 3986 5.2.4. */
+  private void removeDotSegments() {
+    if (!hasDotSegment()) return;
+
+    scratch.setLength(0);
+    scratch.append(uri, pathStart, uri.length());
+    uri.setLength(pathStart);
+    int n = scratch.length();
+    int i = 0;
+    while (i < n) {
+      int segmentEnd = i + 1;
+      while (segmentEnd < n && scratch.charAt(segmentEnd) != '/') segmentEnd++;
+      int length = segmentEnd - i - 1;
+
+      if (length == 1 && scratch.charAt(i + 1) == '.') {
+        if (segmentEnd == n) uri.append('/');
+      } else if (length == 2 && scratch.charAt(i + 1) == '.' && scratch.charAt(i + 2) == '.') {
+        int last = uri.length() - 1;
+        while (last >= pathStart && uri.charAt(last) != '/') last--;
+        uri.setLength(Math.max(pathStart, last));
+        if (segmentEnd == n) uri.append('/');
+      } else {
+        uri.append(scratch, i, segmentEnd);
+      }
+      i = segmentEnd;
+    }
+  }
+
+  private boolean hasDotSegment() {
+    for (int i = pathStart; i < uri.length(); i++) {
+      if (uri.charAt(i) == '.' && uri.charAt(i - 1) == '/') {
+        int next = i + 1;
+        if (next == uri.length() || uri.charAt(next) == '/') return true;
+        if (uri.charAt(next) == '.' && (next + 1 == uri.length() || uri.charAt(next + 1) == '/')) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Appends part of the uri to the scratch buffer, decoding escapes as UTF-8. */
+  private void appendDecoded(int from, int to) {
+    int i = from;
+    while (i < to) {
+      char c = uri.charAt(i);
+      if (c != '%') {
+        scratch.append(c);
+        i++;
+        continue;
+      }
+
+      int length = 0;
+      while (i < to && uri.charAt(i) == '%') {
+        if (length == bytes.length) {
+          bytes = Arrays.copyOf(bytes, length * 2);
+        }
+        bytes[length++] = (byte) hexValue(uri, i + 1);
+        i += 3;
+      }
+      scratch.append(new String(bytes, 0, length, StandardCharsets.UTF_8));
+    }
+  }
+
+  /** The value of the two hex digits at the index. */
+  private static int hexValue(CharSequence s, int i) {
+    return Character.digit(s.charAt(i), 16) << 4 | Character.digit(s.charAt(i + 1), 16);
+  }
+
+  private static boolean startsWithSlashes(CharSequence s, int i, int end) {
+    return i + 1 < end && isSlash(s.charAt(i)) && isSlash(s.charAt(i + 1));
+  }
+
+  private static boolean endsAuthority(char c) {
+    return c == '/' || c == '\\' || c == '?' || c == '#';
+  }
+
+  private static boolean isSlash(char c) {
+    return c == '/' || c == '\\';
+  }
+
+  private static boolean isAlpha(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isHex(char c) {
+    return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+  }
+
+  private static char lowerCase(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c | 0x20) : c;
+  }
+
+  private static boolean regionMatchesIgnoreCase(CharSequence s, int start, String lowerCase) {
+    if (start + lowerCase.length() > s.length()) return false;
+    for (int i = 0; i < lowerCase.length(); i++) {
+      if (lowerCase(s.charAt(start + i)) != lowerCase.charAt(i)) return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,34 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.net.URI;
+
+/** A uri taken from the frontier to be visited. */
+class Visit {
+
+  /** The id of visits that aren't checkpointed. */
+  static final long NO_ID = -1;
+
+  private final URI uri;
+  private final long id;
+  private final int depth;
+
+  Visit(URI uri, long id, int depth) {
+    this.uri = uri;
+    this.id = id;
+    this.depth = depth;
+  }
+
+  URI getUri() {
+    return uri;
+  }
+
+  /** Where the visit is stored in a checkpointed frontier, or {@link #NO_ID}. */
+  long getId() {
+    return id;
+  }
+
+  /** The number of links followed from the start uri to reach this one, 0 for the start uri. */
+  int getDepth() {
+    return depth;
+  }
+}
@@ -0,0 +1,14 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+/**
+ * Receives pages as their visits finish, so a crawl's result can be written out while it runs
+ * instead of being held in memory until the end.
+ *
+ * <p>Called from many threads at once, implementations must be safe for concurrent use. Pages
+ * arrive in no particular order.
+ */
+public interface VisitListener {
+
+  /** Called once for every page visited, including those visited before a crawl was resumed. */
+  void onVisited(VisitedPage page);
+}
@@ -13,7 +13,7 @@ public class VisitedPage {
   private final String pageLink;
   private final List<String> seenLinks;
 
-  VisitedPage(String pageLink, List<String> seenLinks) {
+  public VisitedPage(String pageLink, List<String> seenLinks) {
     this.pageLink = pageLink;
     this.seenLinks = seenLinks;
   }
@@ -0,0 +1,35 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+/**
+ * The normalized uris that have been scheduled to be visited, used to make sure each page is only
+ * visited once. Implementations trade memory for accuracy, see {@link CrawlConfig.VisitedSetType}.
+ *
+ * <p>Implementations are safe for concurrent use.
+ */
+interface VisitedSet {
+
+  /**
+   * Adds a normalized uri to the set.
+   *
+   * @return true if the uri was not already in the set. Approximate sets may wrongly return false
+   *     for a uri that was never added, at most at their false positive rate.
+   */
+  boolean add(String normalizedUri);
+
+  /** Describes the size and accuracy of the set. */
+  VisitedSetStats stats();
+
+  /** Creates the set selected by the config. */
+  static VisitedSet create(CrawlConfig config) {
+    switch (config.getVisitedSet()) {
+      case STRINGS:
+        return new StringVisitedSet();
+      case FINGERPRINT:
+        return new FingerprintVisitedSet(config.getExpectedUris());
+      case BLOOM:
+        return new BloomVisitedSet(config.getExpectedUris(), config.getBloomFalsePositiveRate());
+      default:
+        throw new IllegalArgumentException("Unknown visited set " + config.getVisitedSet());
+    }
+  }
+}
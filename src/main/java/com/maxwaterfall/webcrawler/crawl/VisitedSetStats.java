@@ -0,0 +1,40 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+/** The size and accuracy of the set of visited uris at the end of a crawl. */
+public class VisitedSetStats {
+
+  private final CrawlConfig.VisitedSetType type;
+  private final long size;
+  private final long memoryBytes;
+  private final double falsePositiveRate;
+
+  VisitedSetStats(
+      CrawlConfig.VisitedSetType type, long size, long memoryBytes, double falsePositiveRate) {
+    this.type = type;
+    this.size = size;
+    this.memoryBytes = memoryBytes;
+    this.falsePositiveRate = falsePositiveRate;
+  }
+
+  public CrawlConfig.VisitedSetType getType() {
+    return type;
+  }
+
+  /** Number of uris added to the set. Approximate for a Bloom filter. */
+  public long getSize() {
+    return size;
+  }
+
+  /** Estimated heap used by the set, in bytes. */
+  public long getMemoryBytes() {
+    return memoryBytes;
+  }
+
+  /**
+   * The probability that a uri that was never added would be reported as already visited, given how
+   * full the set is now.
+   */
+  public double getFalsePositiveRate() {
+    return falsePositiveRate;
+  }
+}
@@ -0,0 +1,195 @@
+package com.maxwaterfall.webcrawler;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyManagementException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import javax.net.ssl.SSLContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class HttpClientTest {
+
+  private static final String PAGE = "<html><body>" + "<a href=\"/next\">next</a>".repeat(100);
+
+  private HttpServer server;
+  /** Speaks HTTP/2 without TLS, and gzips bodies without a Content-Length if asked to. */
+  private WireMockServer h2cServer;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/page", exchange -> respond(exchange, "text/html; charset=utf-8", true));
+    server.createContext("/pdf", exchange -> respond(exchange, "application/pdf", true));
+    server.createContext("/chunked", exchange -> respond(exchange, "text/html", false));
+    server.start();
+
+    h2cServer = new WireMockServer(options().dynamicPort());
+    h2cServer.start();
+    h2cServer.stubFor(
+        WireMock.get("/page")
+            .willReturn(aResponse().withHeader("Content-Type", "text/html").withBody(PAGE)));
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+    h2cServer.stop();
+  }
+
+  @DisplayName("Asks for compressed pages and decodes them")
+  @Test
+  void compressionTest() throws Exception {
+    var client = HttpClient.builder().build();
+    Assertions.assertEquals(PAGE, body(client.get(uri("/page"), Map.of()).body()));
+    Assertions.assertEquals(PAGE, string(client.getAsync(uri("/page")).get().body()));
+
+    var uncompressed = HttpClient.builder().compression(false).build();
+    var response = uncompressed.get(uri("/page"));
+    Assertions.assertTrue(response.headers().firstValue("Content-Encoding").isEmpty());
+    Assertions.assertEquals(PAGE, body(response.body()));
+  }
+
+  @DisplayName("Skips pages that aren't html")
+  @Test
+  void contentTypeTest() throws Exception {
+    var client = HttpClient.builder().build();
+    Assertions.assertEquals("", body(client.get(uri("/pdf")).body()));
+    Assertions.assertEquals("", string(client.getAsync(uri("/pdf")).get().body()));
+  }
+
+  @DisplayName("Skips pages declared too large and cuts off the rest at the limit")
+  @Test
+  void sizeLimitTest() throws Exception {
+    var client = HttpClient.builder().compression(false).maxBodyBytes(100).build();
+    Assertions.assertEquals("", body(client.get(uri("/page")).body()));
+    Assertions.assertEquals("", string(client.getAsync(uri("/page")).get().body()));
+
+    Assertions.assertEquals(PAGE.substring(0, 100), body(client.get(uri("/chunked")).body()));
+    Assertions.assertEquals(
+        PAGE.substring(0, 100), string(client.getAsync(uri("/chunked")).get().body()));
+
+    // The limit is on the decoded page.
+    var compressed = HttpClient.builder().maxBodyBytes(100).build();
+    Assertions.assertEquals(PAGE.substring(0, 100), body(compressed.get(uri("/chunked")).body()));
+    Assertions.assertEquals(
+        PAGE.substring(0, 100), string(compressed.getAsync(uri("/chunked")).get().body()));
+  }
+
+  @DisplayName("Decodes compressed pages sent over HTTP/2, to the end of the gzip stream")
+  @Test
+  void http2CompressionTest() throws Exception {
+    var client = HttpClient.builder().build();
+    var response = client.getPooledAsync(h2cUri("/page"), Map.of()).get(10, TimeUnit.SECONDS);
+    Assertions.assertEquals(java.net.http.HttpClient.Version.HTTP_2, response.version());
+    Assertions.assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(""));
+    Assertions.assertEquals(PAGE, string(response.body()));
+
+    Assertions.assertEquals(PAGE, string(client.getAsync(h2cUri("/page")).get().body()));
+    Assertions.assertEquals(PAGE, body(client.get(h2cUri("/page")).body()));
+  }
+
+  @DisplayName("Cuts off pages sent over HTTP/2 at the limit")
+  @Test
+  void http2SizeLimitTest() throws Exception {
+    for (boolean compression : new boolean[] {false, true}) {
+      var client = HttpClient.builder().compression(compression).maxBodyBytes(100).build();
+      var pooled = client.getPooledAsync(h2cUri("/page"), Map.of()).get(10, TimeUnit.SECONDS);
+      Assertions.assertEquals(PAGE.substring(0, 100), string(pooled.body()), "pooled");
+      var bytes = client.getAsync(h2cUri("/page")).get(10, TimeUnit.SECONDS);
+      Assertions.assertEquals(PAGE.substring(0, 100), string(bytes.body()), "bytes");
+      Assertions.assertEquals(PAGE.substring(0, 100), body(client.get(h2cUri("/page")).body()));
+    }
+  }
+
+  @DisplayName("Rejects timeouts that aren't positive")
+  @Test
+  void timeoutTest() {
+    Assertions.assertThrows(
+        IllegalArgumentException.class, () -> HttpClient.builder().connectTimeout(Duration.ZERO));
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () -> HttpClient.builder().requestTimeout(Duration.ofSeconds(-1)));
+  }
+
+  @DisplayName("TLS is left to the default context, which is only asked once it's needed")
+  @Test
+  void tlsTest() throws Exception {
+    var context = LazySslContext.create();
+    var engine = context.createSSLEngine("localhost", 443);
+    Assertions.assertEquals("localhost", engine.getPeerHost());
+    Assertions.assertSame(
+        SSLContext.getDefault().getClientSessionContext(), context.getClientSessionContext());
+    Assertions.assertThrows(KeyManagementException.class, () -> context.init(null, null, null));
+
+    var protocols = List.of(LazySslContext.defaultParameters().getProtocols());
+    Assertions.assertTrue(protocols.contains("TLSv1.2"), "http/2 needs " + protocols);
+    Assertions.assertTrue(
+        List.of(engine.getSupportedProtocols()).containsAll(protocols), protocols.toString());
+  }
+
+  /** Sends the page, gzipped if the client asked for it. */
+  private static void respond(HttpExchange exchange, String contentType, boolean withLength)
+      throws IOException {
+    var body = PAGE.getBytes(StandardCharsets.UTF_8);
+    var acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+    if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+      var compressed = new ByteArrayOutputStream();
+      try (var gzip = new GZIPOutputStream(compressed)) {
+        gzip.write(body);
+      }
+      body = compressed.toByteArray();
+      exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+    }
+    exchange.getResponseHeaders().add("Content-Type", contentType);
+    exchange.sendResponseHeaders(200, withLength ? body.length : 0);
+    try (var out = exchange.getResponseBody()) {
+      out.write(body);
+    } catch (IOException e) {
+      // The client stopped reading.
+    }
+  }
+
+  private URI uri(String path) {
+    return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+  }
+
+  private URI h2cUri(String path) {
+    return URI.create("http://localhost:" + h2cServer.port() + path);
+  }
+
+  private static String body(InputStream body) throws IOException {
+    try (body) {
+      return string(body.readAllBytes());
+    }
+  }
+
+  private static String string(byte[] body) {
+    return new String(body, StandardCharsets.UTF_8);
+  }
+
+  private static String string(PooledBody body) throws IOException {
+    try (body) {
+      return body(body.inputStream());
+    }
+  }
+}
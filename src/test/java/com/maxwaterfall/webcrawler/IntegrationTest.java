@@ -9,10 +9,14 @@ import com.github.tomakehurst.wiremock.WireMockServer;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -22,6 +26,38 @@ public class IntegrationTest {
   @DisplayName("Correct output for small website")
   @Test
   void smallWebsiteTest() throws Exception {
+    crawlSmallWebsite();
+  }
+
+  @DisplayName("Correct output for small website using the Jsoup parser")
+  @Test
+  void smallWebsiteJsoupTest() throws Exception {
+    crawlSmallWebsite("--parser=jsoup");
+  }
+
+  @DisplayName("Correct output for small website using asynchronous fetching")
+  @Test
+  void smallWebsiteAsyncTest() throws Exception {
+    crawlSmallWebsite("--mode=async", "--max-concurrent-requests=2");
+  }
+
+  @DisplayName("Correct output for small website when checkpointing the crawl")
+  @Test
+  void smallWebsiteCheckpointTest() throws Exception {
+    var directory = Files.createTempDirectory("checkpoint");
+    try {
+      crawlSmallWebsite("--checkpoint-dir=" + directory.resolve("crawl"));
+    } finally {
+      try (var paths = Files.walk(directory)) {
+        for (var path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+          Files.delete(path);
+        }
+      }
+    }
+  }
+
+  /** Crawls the stubbed website with the given options and checks the output is as expected. */
+  private void crawlSmallWebsite(String... options) throws Exception {
     WireMockServer wireMockServer = new WireMockServer();
     wireMockServer.start();
 
@@ -54,7 +90,14 @@ public class IntegrationTest {
     var clock = Clock.fixed(Instant.ofEpochMilli(0), ZoneOffset.UTC);
 
     // errorStream is null as this test does not expect any errors.
-    int output = new Cli(outputPrinter, null, clock).interpret("http://localhost:8080/page1.html");
+    var args = new ArrayList<>(List.of(options));
+    args.add("http://localhost:8080/page1.html");
+    int output;
+    try {
+      output = new Cli(outputPrinter, null, clock).interpret(args.toArray(new String[0]));
+    } finally {
+      wireMockServer.stop();
+    }
 
     Assertions.assertEquals(0, output);
 
@@ -64,8 +107,6 @@ public class IntegrationTest {
     var expected =
         Files.readString(Paths.get(getClass().getResource("/integration-expected.txt").toURI()));
 
-    wireMockServer.stop();
-
     Assertions.assertEquals(expected, actual);
   }
 }
@@ -0,0 +1,233 @@
+package com.maxwaterfall.webcrawler;
+
+import com.maxwaterfall.webcrawler.crawl.CrawlConfig;
+import com.maxwaterfall.webcrawler.crawl.CrawlMetrics;
+import com.maxwaterfall.webcrawler.crawl.Crawler;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Crawls a {@link SyntheticSite} served in-process and reports how the crawler and the JVM held up:
+ * throughput, peak heap, time spent in GC and threads. Checks scaling changes without a network.
+ *
+ * <p>Run with 'mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--pages=1000000
+ * --mode=async"'. The site is set up with '--pages=N', '--fan-out=N', '--latency-ms=N',
+ * '--latency-p99-ms=N' for a log-normal latency, '--slow-rate=R' with '--slow-ms=N',
+ * '--error-rate=R', '--redirect-rate=R' and '--trap-rate=R'. Every other option is a crawler
+ * option of the CLI, give one of the limits with traps. Prints one json object of what the JVM
+ * did, then one of the crawler's metrics.
+ */
+public class LoadHarness {
+
+  private static final long SAMPLE_MILLIS = 20;
+
+  private LoadHarness() {}
+
+  public static void main(String[] args) throws Exception {
+    var options = new HashMap<String, String>();
+    for (var arg : args) {
+      if (!arg.startsWith("--")) {
+        throw new IllegalArgumentException("Unexpected argument '" + arg + "'");
+      }
+      var nameAndValue = arg.substring(2).split("=", 2);
+      options.put(nameAndValue[0], nameAndValue.length == 2 ? nameAndValue[1] : "");
+    }
+
+    var site = site(options);
+    var httpClient = Cli.httpClient(options).build();
+    var report = run(site, httpClient, Cli.crawlConfig(options));
+    System.out.println(report);
+    MetricsReport.write(report.metrics, report.crawlTime, System.out);
+  }
+
+  /** Serves the site, crawls all of it the config allows and closes both again. */
+  static Report run(SyntheticSite.Builder siteBuilder, HttpClient httpClient, CrawlConfig config)
+      throws Exception {
+    var threads = ManagementFactory.getThreadMXBean();
+    var memory = ManagementFactory.getMemoryMXBean();
+    var report = new Report();
+    report.crawlerThreadsBefore = crawlerThreads();
+
+    var peakHeap = new AtomicLong();
+    var sampler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              var thread = new Thread(runnable, "load-harness-sampler");
+              thread.setDaemon(true);
+              return thread;
+            });
+    sampler.scheduleAtFixedRate(
+        () -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+        0,
+        SAMPLE_MILLIS,
+        TimeUnit.MILLISECONDS);
+
+    try (var site = siteBuilder.build()) {
+      long gcMillis = gcMillis();
+      long gcCount = gcCount();
+      threads.resetPeakThreadCount();
+      long start = System.nanoTime();
+      try (var crawler = new Crawler(httpClient, config)) {
+        var result = crawler.crawl(site.startUri(), page -> {});
+        report.crawlTime = Duration.ofNanos(System.nanoTime() - start);
+        report.pagesVisited = result.getTotalVisited();
+        report.unvisited = result.getUnvisited();
+        report.metrics = crawler.getMetrics();
+      }
+      report.requests = site.getRequests();
+      report.gcMillis = gcMillis() - gcMillis;
+      report.gcCount = gcCount() - gcCount;
+      report.peakThreads = threads.getPeakThreadCount();
+    } finally {
+      sampler.shutdownNow();
+    }
+    // Give the threads of the crawler a moment to finish stopping.
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+    while (crawlerThreads() > report.crawlerThreadsBefore && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    report.crawlerThreadsAfterClose = crawlerThreads();
+    report.peakHeapBytes = peakHeap.get();
+    return report;
+  }
+
+  /** Builds the site from the options about it, removing them from the options. */
+  static SyntheticSite.Builder site(Map<String, String> options) {
+    var site = SyntheticSite.builder();
+    var pages = options.remove("pages");
+    if (pages != null) {
+      site.pages(intOption("pages", pages));
+    }
+    var fanOut = options.remove("fan-out");
+    if (fanOut != null) {
+      site.fanOut(intOption("fan-out", fanOut));
+    }
+    var latency = options.remove("latency-ms");
+    var latencyP99 = options.remove("latency-p99-ms");
+    if (latencyP99 != null) {
+      site.latency(
+          millisOption("latency-ms", latency == null ? latencyP99 : latency),
+          millisOption("latency-p99-ms", latencyP99));
+    } else if (latency != null) {
+      site.latency(millisOption("latency-ms", latency));
+    }
+    var slowRate = options.remove("slow-rate");
+    var slow = options.remove("slow-ms");
+    if (slowRate != null) {
+      site.slowPages(
+          doubleOption("slow-rate", slowRate), millisOption("slow-ms", slow == null ? "0" : slow));
+    }
+    var errorRate = options.remove("error-rate");
+    if (errorRate != null) {
+      site.errorRate(doubleOption("error-rate", errorRate));
+    }
+    var redirectRate = options.remove("redirect-rate");
+    if (redirectRate != null) {
+      site.redirectRate(doubleOption("redirect-rate", redirectRate));
+    }
+    var trapRate = options.remove("trap-rate");
+    if (trapRate != null) {
+      site.trapRate(doubleOption("trap-rate", trapRate));
+    }
+    return site;
+  }
+
+  /** Number of threads of every crawler that are alive. */
+  private static int crawlerThreads() {
+    return (int)
+        Thread.getAllStackTraces().keySet().stream()
+            .filter(thread -> thread.getName().startsWith("webcrawler-"))
+            .count();
+  }
+
+  private static long gcMillis() {
+    long millis = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += Math.max(0, gc.getCollectionTime());
+    }
+    return millis;
+  }
+
+  private static long gcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+  private static int intOption(String name, String value) {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("'" + value + "' is not a valid number for --" + name);
+    }
+  }
+
+  private static double doubleOption(String name, String value) {
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("'" + value + "' is not a valid number for --" + name);
+    }
+  }
+
+  private static Duration millisOption(String name, String value) {
+    return Duration.ofMillis(intOption(name, value));
+  }
+
+  /** What a load test run did. The heap is sampled, so short peaks may be missed. */
+  static class Report {
+
+    Duration crawlTime;
+    long pagesVisited;
+    long unvisited;
+    /** Requests the site answered, including redirects, errors and robots.txt. */
+    long requests;
+    long peakHeapBytes;
+    long gcMillis;
+    long gcCount;
+    /** The most threads alive at once, including those of the site and the http client. */
+    int peakThreads;
+    /** Threads of crawlers alive before the run, e.g. of crawlers that were never closed. */
+    int crawlerThreadsBefore;
+    /** Threads of crawlers alive once the run is over, more than before is a leak. */
+    int crawlerThreadsAfterClose;
+    CrawlMetrics metrics;
+
+    double pagesPerSecond() {
+      return pagesVisited / Math.max(crawlTime.toNanos() / 1e9, 1e-9);
+    }
+
+    @Override
+    public String toString() {
+      return "{\"crawlTimeMillis\":"
+          + crawlTime.toMillis()
+          + ",\"pagesVisited\":"
+          + pagesVisited
+          + ",\"unvisited\":"
+          + unvisited
+          + ",\"requests\":"
+          + requests
+          + ",\"pagesPerSecond\":"
+          + Math.round(pagesPerSecond())
+          + ",\"peakHeapBytes\":"
+          + peakHeapBytes
+          + ",\"gcMillis\":"
+          + gcMillis
+          + ",\"gcCount\":"
+          + gcCount
+          + ",\"peakThreads\":"
+          + peakThreads
+          + ",\"crawlerThreadsLeaked\":"
+          + Math.max(0, crawlerThreadsAfterClose - crawlerThreadsBefore)
+          + "}";
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package com.maxwaterfall.webcrawler;
+
+import com.maxwaterfall.webcrawler.crawl.CrawlConfig;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class LoadHarnessTest {
+
+  @DisplayName("A site with every kind of trouble is crawled to the limits and reported")
+  @Test
+  void troubleTest() throws Exception {
+    var site =
+        SyntheticSite.builder()
+            .pages(2_000)
+            .fanOut(5)
+            .latency(Duration.ofMillis(1), Duration.ofMillis(10))
+            .slowPages(0.01, Duration.ofMillis(200))
+            .errorRate(0.05)
+            .redirectRate(0.1)
+            .trapRate(0.05);
+    // Without a max depth the calendars are never done.
+    var config = CrawlConfig.builder().mode(CrawlConfig.Mode.ASYNC).maxDepth(12).build();
+    var report = LoadHarness.run(site, new HttpClient(), config);
+
+    var statuses = report.metrics.getStatusCounts();
+    Assertions.assertTrue(statuses.get(500) > 0, statuses.toString());
+    Assertions.assertTrue(statuses.get(301) > 0, statuses.toString());
+    Assertions.assertTrue(report.pagesVisited > 1_000, report.toString());
+    Assertions.assertTrue(report.requests >= report.pagesVisited, report.toString());
+    Assertions.assertTrue(report.peakHeapBytes > 0, report.toString());
+    Assertions.assertTrue(report.peakThreads > 0, report.toString());
+    Assertions.assertTrue(
+        report.crawlerThreadsAfterClose <= report.crawlerThreadsBefore, report.toString());
+  }
+
+  @DisplayName("Site options are taken out and the rest left for the crawler")
+  @Test
+  void optionsTest() {
+    var options = new HashMap<String, String>();
+    options.put("pages", "10");
+    options.put("latency-p99-ms", "50");
+    options.put("mode", "async");
+    LoadHarness.site(options);
+    Assertions.assertEquals(Map.of("mode", "async"), options);
+
+    options.put("error-rate", "2");
+    Assertions.assertThrows(IllegalArgumentException.class, () -> LoadHarness.site(options));
+  }
+}
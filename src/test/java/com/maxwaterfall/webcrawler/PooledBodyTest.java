@@ -0,0 +1,172 @@
+package com.maxwaterfall.webcrawler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class PooledBodyTest {
+
+  /** Html larger than one pooled buffer. */
+  private static final String HTML = "<p>Some text about a page.</p>\n".repeat(2000);
+
+  private HttpServer server;
+  /** The body and Content-Encoding to send, by path. */
+  private Map<String, byte[]> bodies;
+  private Map<String, String> encodings;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    bodies = new ConcurrentHashMap<>();
+    encodings = new ConcurrentHashMap<>();
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", this::respond);
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  @DisplayName("Bodies are read into pooled buffers, decoded whatever the encoding")
+  @Test
+  void encodingTest() throws Exception {
+    var html = HTML.getBytes(StandardCharsets.UTF_8);
+    bodies.put("/plain", html);
+    bodies.put("/gzip", gzip(html));
+    encodings.put("/gzip", "gzip");
+    bodies.put("/deflate", deflate(html));
+    encodings.put("/deflate", "deflate");
+
+    var client = new HttpClient();
+    for (var path : bodies.keySet()) {
+      try (var body = get(client, path)) {
+        Assertions.assertEquals(HTML, read(body), path);
+        Assertions.assertTrue(body.buffers().size() > 1, path);
+        Assertions.assertTrue(body.buffers().stream().allMatch(buffer -> buffer.isDirect()), path);
+      }
+    }
+  }
+
+  @DisplayName("Bodies are cut off at the limit and pages that aren't html are skipped")
+  @Test
+  void limitTest() throws Exception {
+    var html = HTML.getBytes(StandardCharsets.UTF_8);
+    bodies.put("/gzip", gzip(html));
+    encodings.put("/gzip", "gzip");
+    bodies.put("/plain", html);
+    bodies.put("/image.png", html);
+
+    var client = HttpClient.builder().maxBodyBytes(20_000).build();
+    try (var body = get(client, "/gzip")) {
+      Assertions.assertEquals(HTML.substring(0, 20_000), read(body));
+    }
+    try (var body = get(client, "/image.png")) {
+      Assertions.assertEquals(0, body.length());
+    }
+    // Without a Content-Length, so it isn't skipped up front.
+    encodings.put("/plain", "identity");
+    try (var body = get(client, "/plain")) {
+      Assertions.assertEquals(20_000, body.length());
+    }
+  }
+
+  @DisplayName("The pool keeps no more buffers than its bound, and hands them out again")
+  @Test
+  void poolTest() {
+    var pool = new BufferPool(1024, 2);
+    var first = pool.acquire();
+    var second = pool.acquire();
+    var third = pool.acquire();
+    Assertions.assertTrue(first.isDirect());
+    Assertions.assertEquals(1024, first.capacity());
+
+    first.put((byte) 1);
+    pool.release(first);
+    pool.release(second);
+    pool.release(third);
+    Assertions.assertEquals(2, pool.available());
+
+    var reused = pool.acquire();
+    Assertions.assertSame(second, reused);
+    Assertions.assertSame(first, pool.acquire());
+    Assertions.assertEquals(0, first.position(), "cleared");
+
+    var body = new PooledBody(pool);
+    body.writable().put(new byte[1024]);
+    body.writable().put((byte) 2);
+    body.finish();
+    Assertions.assertEquals(1025, body.length());
+    body.close();
+    body.close();
+    Assertions.assertEquals(2, pool.available());
+  }
+
+  private PooledBody get(HttpClient client, String path) throws Exception {
+    var uri = URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    var response = client.getPooledAsync(uri, Map.of()).get(10, TimeUnit.SECONDS);
+    Assertions.assertEquals(200, response.statusCode());
+    return response.body();
+  }
+
+  private static String read(PooledBody body) throws IOException {
+    try (var in = body.inputStream()) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  /** Gzips with a file name and comment in the header, as few servers do. */
+  private static byte[] gzip(byte[] bytes) throws IOException {
+    var out = new ByteArrayOutputStream();
+    out.write(new byte[] {0x1f, (byte) 0x8b, 8, 8 | 16, 0, 0, 0, 0, 0, (byte) 0xff});
+    out.write("page.html\0a comment\0".getBytes(StandardCharsets.US_ASCII));
+    var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try (var deflated = new DeflaterOutputStream(out, deflater)) {
+      deflated.write(bytes);
+    }
+    deflater.end();
+    // The trailer isn't checked.
+    return out.toByteArray();
+  }
+
+  private static byte[] deflate(byte[] bytes) throws IOException {
+    var out = new ByteArrayOutputStream();
+    try (var deflated = new DeflaterOutputStream(out)) {
+      deflated.write(bytes);
+    }
+    return out.toByteArray();
+  }
+
+  /** Sends the body in small chunks, so it arrives split in many places. */
+  private void respond(HttpExchange exchange) throws IOException {
+    var path = exchange.getRequestURI().getPath();
+    var body = bodies.get(path);
+    var encoding = encodings.get(path);
+    if (encoding != null) {
+      exchange.getResponseHeaders().set("Content-Encoding", encoding);
+    }
+    exchange.getResponseHeaders().set("Content-Type", path.endsWith(".png") ? "image/png" : "");
+    exchange.sendResponseHeaders(200, encoding == null ? body.length : 0);
+    try (var out = exchange.getResponseBody()) {
+      for (int i = 0; i < body.length; i += 7) {
+        out.write(body, i, Math.min(7, body.length - i));
+        out.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package com.maxwaterfall.webcrawler;
+
+import com.maxwaterfall.webcrawler.crawl.VisitedPage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class ResultWriterTest {
+
+  @DisplayName("Pages spilled to disk come out in the same order as an in-memory sort")
+  @Test
+  void externalSortTest() throws IOException {
+    var random = new Random(7);
+    var inMemory = new ExternalPageSorter();
+    var external = new ExternalPageSorter(4 * 1024);
+    for (int i = 0; i < 2_000; i++) {
+      var link = "example.com/" + random.nextInt(1_000_000);
+      var links = List.of("example.com/" + random.nextInt(100), "example.com/" + i);
+      inMemory.add(new VisitedPage(link, new ArrayList<>(links)));
+      external.add(new VisitedPage(link, new ArrayList<>(links)));
+    }
+    Assertions.assertTrue(external.getSpilledRuns() > 10, "runs spilled");
+
+    var expected = new ByteArrayOutputStream();
+    var actual = new ByteArrayOutputStream();
+    drain(inMemory, expected);
+    drain(external, actual);
+    Assertions.assertEquals(
+        expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+  }
+
+  @DisplayName("Ndjson escapes quotes, backslashes and control characters")
+  @Test
+  void ndjsonTest() throws IOException {
+    var out = new ByteArrayOutputStream();
+    var writer = new NdjsonResultWriter(out);
+    writer.write(new VisitedPage("example.com/\"a\\b", List.of("example.com/\t", "example.com/c")));
+    writer.write(new VisitedPage("example.com/d", List.of()));
+    writer.finish();
+
+    Assertions.assertEquals(
+        "{\"page\":\"example.com/\\\"a\\\\b\",\"links\":[\"example.com/\\u0009\",\"example.com/c\"]}\n"
+            + "{\"page\":\"example.com/d\",\"links\":[]}\n",
+        out.toString(StandardCharsets.UTF_8));
+  }
+
+  @DisplayName("Edge list defines each uri once and refers to it by id")
+  @Test
+  void edgeListTest() throws IOException {
+    var out = new ByteArrayOutputStream();
+    var writer = new EdgeListResultWriter(out);
+    writer.write(new VisitedPage("a", List.of("b", "a")));
+    writer.write(new VisitedPage("b", List.of("a", "c")));
+    writer.finish();
+
+    var in = new ByteArrayInputStream(out.toByteArray());
+    var uris = new ArrayList<String>();
+    var edges = new ArrayList<String>();
+    int tag;
+    while ((tag = in.read()) != -1) {
+      if (tag == EdgeListResultWriter.NODE) {
+        uris.add(new String(in.readNBytes(readVarint(in)), StandardCharsets.UTF_8));
+      } else {
+        Assertions.assertEquals(EdgeListResultWriter.PAGE, tag);
+        var page = uris.get(readVarint(in));
+        for (int i = readVarint(in); i > 0; i--) {
+          edges.add(page + "->" + uris.get(readVarint(in)));
+        }
+      }
+    }
+
+    Assertions.assertEquals(List.of("a", "b", "c"), uris);
+    Assertions.assertEquals(List.of("a->b", "a->a", "b->a", "b->c"), edges);
+  }
+
+  @DisplayName("Graph maps each uri to an id and answers its out and in links")
+  @Test
+  void graphTest() throws IOException {
+    var path = Files.createTempFile("graph", ".bin");
+    try {
+      try (var file =
+          FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        var writer = new GraphResultWriter(file);
+        writer.write(new VisitedPage("a", List.of("b", "a", "c")));
+        writer.write(new VisitedPage("b", List.of("a", "c")));
+        writer.write(new VisitedPage("d/\u00e9", List.of()));
+        writer.finish();
+      }
+
+      try (var graph = CrawlGraph.open(path)) {
+        Assertions.assertEquals(4, graph.getNodeCount());
+        Assertions.assertEquals(5, graph.getEdgeCount());
+        int a = graph.getId("a");
+        int b = graph.getId("b");
+        int c = graph.getId("c");
+        int d = graph.getId("d/\u00e9");
+        Assertions.assertEquals("d/\u00e9", graph.getUri(d));
+        Assertions.assertEquals(-1, graph.getId("e"));
+
+        Assertions.assertArrayEquals(new int[] {b, a, c}, graph.getOutLinks(a));
+        Assertions.assertArrayEquals(new int[] {a, c}, graph.getOutLinks(b));
+        Assertions.assertArrayEquals(new int[0], graph.getOutLinks(c));
+        Assertions.assertArrayEquals(new int[] {a, b}, graph.getInLinks(a));
+        Assertions.assertArrayEquals(new int[] {a, b}, graph.getInLinks(c));
+        Assertions.assertEquals(0, graph.getInDegree(d));
+        Assertions.assertTrue(graph.isVisited(a));
+        Assertions.assertTrue(graph.isVisited(d));
+        Assertions.assertFalse(graph.isVisited(c));
+      }
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  private static void drain(ExternalPageSorter sorter, ByteArrayOutputStream out)
+      throws IOException {
+    var writer = new NdjsonResultWriter(out);
+    sorter.drainTo(writer);
+    writer.finish();
+  }
+
+  private static int readVarint(InputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = in.read();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return value;
+    }
+  }
+}
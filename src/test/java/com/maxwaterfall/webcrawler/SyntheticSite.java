@@ -0,0 +1,324 @@
+package com.maxwaterfall.webcrawler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process website for benchmarks and load tests, served on a random local port. Use {@link
+ * #builder()} to add trouble to it.
+ *
+ * <p>Pages form a tree: '/page/n' links to its children '/page/(n * fanOut + 1)' to '/page/(n *
+ * fanOut + fanOut)' and back to the root, so every page is reachable from '/page/0'. Pages are
+ * generated as they are requested, so a site can have millions of them. Each response is delayed
+ * by the latency to simulate a slow server, without holding a thread while it waits.
+ *
+ * <p>Which pages are slow, failing, linked through a redirect or link to a trap is picked by a hash
+ * of their number, so it's the same every time. The root page is always plain.
+ */
+public class SyntheticSite implements AutoCloseable {
+
+  /** The z-score of the 99th percentile of the normal distribution. */
+  private static final double Z_99 = 2.3263;
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final ScheduledExecutorService delays;
+  private final int pages;
+  private final int fanOut;
+  private final long latencyNanos;
+  /** The sigma of the log-normal latency, or 0 if it's fixed. */
+  private final double latencySigma;
+  private final double slowRate;
+  private final long slowLatencyNanos;
+  private final double errorRate;
+  private final double redirectRate;
+  private final double trapRate;
+  private final AtomicLong requests;
+
+  public SyntheticSite(int pages, int fanOut, Duration latency) throws IOException {
+    this(builder().pages(pages).fanOut(fanOut).latency(latency));
+  }
+
+  private SyntheticSite(Builder builder) throws IOException {
+    this.pages = builder.pages;
+    this.fanOut = builder.fanOut;
+    this.latencyNanos = builder.latency.toNanos();
+    this.latencySigma =
+        builder.latencyP99 == null
+            ? 0
+            : Math.log((double) builder.latencyP99.toNanos() / latencyNanos) / Z_99;
+    this.slowRate = builder.slowRate;
+    this.slowLatencyNanos = builder.slowLatency.toNanos();
+    this.errorRate = builder.errorRate;
+    this.redirectRate = builder.redirectRate;
+    this.trapRate = builder.trapRate;
+    this.requests = new AtomicLong();
+
+    // Responses are delayed on a scheduler, so the handlers never block.
+    int threads = Runtime.getRuntime().availableProcessors();
+    this.executor = Executors.newFixedThreadPool(threads);
+    this.delays = Executors.newScheduledThreadPool(threads);
+    this.server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4096);
+    this.server.createContext("/", this::handle);
+    this.server.setExecutor(executor);
+    this.server.start();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /** The uri of the root page, from which every other page can be reached. */
+  public URI startUri() {
+    return pageUri(0);
+  }
+
+  public int getPages() {
+    return pages;
+  }
+
+  /** Number of requests the site has answered, for anything. */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    delays.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  private URI pageUri(int page) {
+    var address = server.getAddress();
+    return URI.create(
+        "http://" + address.getHostString() + ":" + address.getPort() + "/page/" + page);
+  }
+
+  private void handle(HttpExchange exchange) {
+    requests.incrementAndGet();
+    var path = exchange.getRequestURI().getPath();
+    long delay = latencyNanos(path);
+    if (delay <= 0) {
+      respond(exchange);
+    } else {
+      delays.schedule(() -> respond(exchange), delay, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void respond(HttpExchange exchange) {
+    try {
+      var path = exchange.getRequestURI().getPath();
+      String html;
+      if (path.startsWith("/redirect/")) {
+        exchange.getResponseHeaders().set("Location", "/page/" + path.substring(10));
+        exchange.sendResponseHeaders(301, -1);
+        return;
+      }
+      if (path.startsWith("/trap/")) {
+        html = trapHtml(path, exchange.getRequestURI().getQuery());
+      } else {
+        int page = pageNumber(path);
+        if (page < 0) {
+          exchange.sendResponseHeaders(404, -1);
+          return;
+        }
+        if (page > 0 && fraction(page, 1) < errorRate) {
+          exchange.sendResponseHeaders(500, -1);
+          return;
+        }
+        html = html(page);
+      }
+
+      var body = html.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+    } catch (IOException e) {
+      // The crawler gave up on the request.
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /** Returns how long to wait before answering a request for the path. */
+  private long latencyNanos(String path) {
+    int page = pageNumber(path);
+    if (page > 0 && fraction(page, 2) < slowRate) return slowLatencyNanos;
+    if (latencySigma == 0) return latencyNanos;
+    double gaussian = ThreadLocalRandom.current().nextGaussian();
+    return (long) (latencyNanos * Math.exp(latencySigma * gaussian));
+  }
+
+  /** Returns the page number of the path, or -1 if there's no such page. */
+  private int pageNumber(String path) {
+    if (!path.startsWith("/page/")) return -1;
+    try {
+      int page = Integer.parseInt(path.substring("/page/".length()));
+      return page < pages ? page : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private String html(int page) {
+    var html = new StringBuilder(256 + fanOut * 48);
+    html.append("<!DOCTYPE html>\n<html>\n<head><title>Page ").append(page).append("</title>");
+    html.append("</head>\n<body>\n<h1>Page ").append(page).append("</h1>\n");
+    html.append("<a href=\"/page/0\">Home</a>\n");
+    for (long child = (long) page * fanOut + 1; child <= (long) page * fanOut + fanOut; child++) {
+      if (child >= pages) break;
+      var path = fraction(child, 3) < redirectRate ? "/redirect/" : "/page/";
+      html.append("<p>Some text about page ").append(child).append(".</p>\n");
+      html.append("<a href=\"").append(path).append(child).append("\">Page ").append(child);
+      html.append("</a>\n");
+    }
+    if (page > 0 && fraction(page, 4) < trapRate) {
+      html.append("<a href=\"/trap/").append(page).append("?day=1\">Calendar</a>\n");
+    }
+    html.append("</body>\n</html>\n");
+    return html.toString();
+  }
+
+  /** A calendar whose every day links to the next one, without end. */
+  private String trapHtml(String path, String query) {
+    long day = 0;
+    try {
+      day = query == null ? 0 : Long.parseLong(query.substring(query.indexOf('=') + 1));
+    } catch (NumberFormatException e) {
+      // Day zero.
+    }
+    return "<!DOCTYPE html>\n<html>\n<body>\n<h1>Day "
+        + day
+        + "</h1>\n<a href=\"/page/0\">Home</a>\n<a href=\""
+        + path
+        + "?day="
+        + (day + 1)
+        + "\">Next day</a>\n</body>\n</html>\n";
+  }
+
+  /** A number in [0, 1) picked by a hash of the page and what it's for. */
+  private static double fraction(long page, long salt) {
+    // The finalizer of SplitMix64.
+    long x = page * 0x9E3779B97F4A7C15L + salt;
+    x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+    x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+    x ^= x >>> 31;
+    return (x >>> 11) * 0x1.0p-53;
+  }
+
+  public static class Builder {
+
+    private int pages = 1000;
+    private int fanOut = 10;
+    private Duration latency = Duration.ZERO;
+    private Duration latencyP99;
+    private double slowRate;
+    private Duration slowLatency = Duration.ZERO;
+    private double errorRate;
+    private double redirectRate;
+    private double trapRate;
+
+    private Builder() {}
+
+    /** Number of pages in the tree. 1000 by default. */
+    public Builder pages(int pages) {
+      if (pages < 1) {
+        throw new IllegalArgumentException("pages must be at least 1 but was " + pages);
+      }
+      this.pages = pages;
+      return this;
+    }
+
+    /** Number of children each page links to. 10 by default. */
+    public Builder fanOut(int fanOut) {
+      if (fanOut < 1) {
+        throw new IllegalArgumentException("fanOut must be at least 1 but was " + fanOut);
+      }
+      this.fanOut = fanOut;
+      return this;
+    }
+
+    /** How long every response is delayed. None by default. */
+    public Builder latency(Duration latency) {
+      this.latency = requireNotNegative("latency", latency);
+      this.latencyP99 = null;
+      return this;
+    }
+
+    /**
+     * Delays responses by a log-normal distribution with the given median and 99th percentile,
+     * which is the long tail real servers have.
+     */
+    public Builder latency(Duration median, Duration p99) {
+      requireNotNegative("median", median);
+      if (median.isZero() || p99.compareTo(median) < 0) {
+        throw new IllegalArgumentException(
+            "median must be positive and at most the p99 but was " + median + " and " + p99);
+      }
+      this.latency = median;
+      this.latencyP99 = p99;
+      return this;
+    }
+
+    /** The fraction of pages that take the given time to answer instead. */
+    public Builder slowPages(double rate, Duration latency) {
+      this.slowRate = requireRate("slowRate", rate);
+      this.slowLatency = requireNotNegative("slowLatency", latency);
+      return this;
+    }
+
+    /** The fraction of pages that answer with a server error, so their children are unreachable. */
+    public Builder errorRate(double errorRate) {
+      this.errorRate = requireRate("errorRate", errorRate);
+      return this;
+    }
+
+    /** The fraction of pages that are linked to through a redirect. */
+    public Builder redirectRate(double redirectRate) {
+      this.redirectRate = requireRate("redirectRate", redirectRate);
+      return this;
+    }
+
+    /**
+     * The fraction of pages that link to a calendar with a page for every day, each linking to the
+     * next by its query string. Crawl with a limit, it has no end.
+     */
+    public Builder trapRate(double trapRate) {
+      this.trapRate = requireRate("trapRate", trapRate);
+      return this;
+    }
+
+    /** Starts serving the site. */
+    public SyntheticSite build() throws IOException {
+      return new SyntheticSite(this);
+    }
+
+    private static double requireRate(String name, double rate) {
+      if (!(rate >= 0 && rate <= 1)) {
+        throw new IllegalArgumentException(name + " must be between 0 and 1 but was " + rate);
+      }
+      return rate;
+    }
+
+    private static Duration requireNotNegative(String name, Duration value) {
+      if (value.isNegative()) {
+        throw new IllegalArgumentException(name + " must not be negative but was " + value);
+      }
+      return value;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package com.maxwaterfall.webcrawler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class TaskExecutorTest {
+
+  private static final int SCHEDULERS = 4;
+  private static final int WAITERS = 3;
+  private static final int DEPTH = 6;
+  /** Each tree has a task for every node and an async task under every leaf. */
+  private static final int TASKS_PER_TREE = (1 << (DEPTH + 1)) - 1 + (1 << DEPTH);
+
+  @DisplayName("Waiters are all released, only once every task and the tasks it scheduled have run")
+  @Test
+  void waitForCompletionTest() throws Exception {
+    var pool = Executors.newFixedThreadPool(8);
+    try {
+      var executor = new TaskExecutor(pool);
+      var ran = new AtomicInteger();
+      // Holds the executor busy until every waiter and scheduler has started.
+      var gate = new CountDownLatch(1);
+      executor.scheduleTask(
+          () -> {
+            try {
+              gate.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          });
+
+      var seenByWaiters = new CopyOnWriteArrayList<Integer>();
+      var waiters = new ArrayList<Thread>();
+      for (int i = 0; i < WAITERS; i++) {
+        waiters.add(
+            start(
+                () -> {
+                  try {
+                    executor.waitForCompletion();
+                    seenByWaiters.add(ran.get());
+                  } catch (InterruptedException e) {
+                    // Not released, the test fails below.
+                  }
+                }));
+      }
+      var schedulers = new ArrayList<Thread>();
+      for (int i = 0; i < SCHEDULERS; i++) {
+        schedulers.add(start(() -> schedule(executor, pool, ran, 0)));
+      }
+      join(schedulers);
+      Assertions.assertEquals(List.of(), seenByWaiters, "released while tasks are pending");
+      gate.countDown();
+
+      join(waiters);
+      Assertions.assertEquals(SCHEDULERS * TASKS_PER_TREE, ran.get());
+      Assertions.assertEquals(List.of(ran.get(), ran.get(), ran.get()), seenByWaiters);
+      Assertions.assertEquals(0, executor.getPendingTasks());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /** Schedules a task that schedules two children down to the depth, then an async task. */
+  private static void schedule(TaskExecutor executor, Executor pool, AtomicInteger ran, int depth) {
+    executor.scheduleTask(
+        () -> {
+          if (depth < DEPTH) {
+            schedule(executor, pool, ran, depth + 1);
+            schedule(executor, pool, ran, depth + 1);
+          } else {
+            executor.scheduleAsyncTask(
+                () -> CompletableFuture.runAsync(ran::incrementAndGet, pool));
+          }
+          Thread.yield();
+          ran.incrementAndGet();
+        });
+  }
+
+  private static Thread start(Runnable runnable) {
+    var thread = new Thread(runnable);
+    thread.start();
+    return thread;
+  }
+
+  private static void join(List<Thread> threads) throws InterruptedException {
+    for (var thread : threads) {
+      thread.join(10_000);
+      Assertions.assertFalse(thread.isAlive(), thread.getName() + " still running");
+    }
+  }
+}
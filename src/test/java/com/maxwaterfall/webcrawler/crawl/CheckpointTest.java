@@ -0,0 +1,130 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class CheckpointTest {
+
+  private static final int SEGMENT_SIZE = 256;
+  private static final int URIS = 100;
+
+  private Path directory;
+
+  @BeforeEach
+  void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("checkpoint");
+  }
+
+  @AfterEach
+  void deleteDirectory() throws IOException {
+    try (var paths = Files.walk(directory)) {
+      for (var path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @DisplayName("Mapped frontier replays every uri and only polls those not done after reopening")
+  @Test
+  void frontierTest() throws IOException {
+    var queue =
+        new MappedFrontierQueue(
+            directory, SEGMENT_SIZE, uri -> Assertions.fail("nothing to replay"));
+    for (int i = 0; i < URIS; i++) {
+      queue.add(uri(i), i);
+    }
+    Assertions.assertEquals(URIS, queue.size());
+
+    // Visit the first half, then stop as if the process died.
+    for (int i = 0; i < URIS / 2; i++) {
+      var visit = queue.poll();
+      Assertions.assertEquals(uri(i), visit.getUri());
+      Assertions.assertEquals(i, visit.getDepth());
+      queue.markDone(visit.getId());
+    }
+    var inFlight = queue.poll();
+
+    var replayed = new ArrayList<URI>();
+    var reopened = new MappedFrontierQueue(directory, SEGMENT_SIZE, replayed::add);
+    Assertions.assertEquals(URIS, replayed.size());
+    Assertions.assertEquals(URIS - URIS / 2, reopened.size());
+    Assertions.assertEquals(inFlight.getUri(), reopened.poll().getUri());
+
+    // New uris go after the old ones, even though the last segment may have been full.
+    reopened.add(uri(URIS), 0);
+    var rest = new ArrayList<URI>();
+    for (Visit visit; (visit = reopened.poll()) != null; ) {
+      rest.add(visit.getUri());
+    }
+    Assertions.assertEquals(URIS - URIS / 2, rest.size());
+    Assertions.assertEquals(uri(URIS), rest.get(rest.size() - 1));
+    Assertions.assertTrue(reopened.isEmpty());
+  }
+
+  @DisplayName("Journal keeps every complete record and drops a torn one")
+  @Test
+  void journalTest() throws IOException {
+    var start = uri(0);
+    var checkpoint = Checkpoint.create(directory, start, SEGMENT_SIZE);
+    var frontier = checkpoint.openFrontier(uri -> Assertions.fail("nothing to replay"));
+    checkpoint.openJournal(page -> Assertions.fail("nothing to replay"));
+    frontier.add(uri(1), 1);
+    frontier.add(uri(2), 1);
+    var first = frontier.poll();
+    checkpoint.record(first, new VisitedPage(first.getUri().toString(), List.of("a", "b")));
+    checkpoint.close();
+
+    // A record cut short part way through.
+    Files.write(
+        directory.resolve("visited.journal"), new byte[] {0, 0, 0}, StandardOpenOption.APPEND);
+
+    var reopened = Checkpoint.open(directory, SEGMENT_SIZE);
+    Assertions.assertEquals(start, reopened.getStart());
+    var scheduled = new ArrayList<URI>();
+    var pending = reopened.openFrontier(scheduled::add);
+    var visited = new ArrayList<VisitedPage>();
+    reopened.openJournal(visited::add);
+
+    Assertions.assertEquals(List.of(uri(1), uri(2)), scheduled);
+    Assertions.assertEquals(1, visited.size());
+    Assertions.assertEquals(uri(1).toString(), visited.get(0).getPageLink());
+    Assertions.assertEquals(List.of("a", "b"), visited.get(0).getSeenLinks());
+    Assertions.assertEquals(uri(2), pending.poll().getUri());
+    Assertions.assertNull(pending.poll());
+    reopened.close();
+
+    Assertions.assertEquals(
+        1, readJournal(Checkpoint.open(directory, SEGMENT_SIZE)).size(), "torn record truncated");
+  }
+
+  @DisplayName("A directory that already holds a crawl can't be used for a new one")
+  @Test
+  void existingCrawlTest() throws IOException {
+    Checkpoint.create(directory, uri(0));
+    Assertions.assertThrows(
+        IllegalStateException.class, () -> Checkpoint.create(directory, uri(0)));
+  }
+
+  private List<VisitedPage> readJournal(Checkpoint checkpoint) throws IOException {
+    var visited = new ArrayList<VisitedPage>();
+    checkpoint.openFrontier(uri -> {});
+    checkpoint.openJournal(visited::add);
+    checkpoint.close();
+    return visited;
+  }
+
+  private static URI uri(int i) {
+    return URI.create("http://localhost/page/" + i);
+  }
+}
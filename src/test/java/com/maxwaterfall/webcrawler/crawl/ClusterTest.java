@@ -0,0 +1,84 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.HttpClient;
+import com.maxwaterfall.webcrawler.SyntheticSite;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class ClusterTest {
+
+  private static final int NODES = 3;
+  private static final int PAGES = 2_000;
+
+  @DisplayName("Nodes of a cluster visit every page exactly once between them")
+  @Test
+  void clusterTest() throws Exception {
+    var addresses = new ArrayList<InetSocketAddress>();
+    for (int i = 0; i < NODES; i++) {
+      addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), freePort()));
+    }
+
+    var executor = Executors.newFixedThreadPool(NODES);
+    var crawlers = new ArrayList<Crawler>();
+    try (var site = new SyntheticSite(PAGES, 5, Duration.ZERO)) {
+      var results = new ArrayList<Future<CrawlResult>>();
+      for (int node = 0; node < NODES; node++) {
+        var config = CrawlConfig.builder().cluster(addresses, node).build();
+        var crawler = new Crawler(new HttpClient(), config);
+        crawlers.add(crawler);
+        results.add(executor.submit(() -> crawler.crawl(site.startUri())));
+      }
+
+      var ring = new HashRing(NODES);
+      var visited = new HashSet<String>();
+      long total = 0;
+      for (int node = 0; node < NODES; node++) {
+        var result = results.get(node).get();
+        total += result.getTotalVisited();
+        for (var page : result.getVisitedPages()) {
+          Assertions.assertEquals(node, ring.owner(page.getPageLink()), page.getPageLink());
+          visited.add(page.getPageLink());
+        }
+        Assertions.assertTrue(result.getTotalVisited() > 0, "node " + node + " visited pages");
+      }
+      Assertions.assertEquals(PAGES, visited.size());
+      Assertions.assertEquals(PAGES, total, "no page visited twice");
+    } finally {
+      executor.shutdownNow();
+      crawlers.forEach(Crawler::close);
+    }
+  }
+
+  @DisplayName("The ring splits uris roughly evenly and every node agrees on the owner")
+  @Test
+  void ringTest() {
+    var ring = new HashRing(NODES);
+    var otherNodesRing = new HashRing(NODES);
+    var counts = new int[NODES];
+    for (int i = 0; i < 30_000; i++) {
+      var uri = "localhost/page/" + i;
+      counts[ring.owner(uri)]++;
+      Assertions.assertEquals(ring.owner(uri), otherNodesRing.owner(uri));
+    }
+    for (var count : counts) {
+      Assertions.assertEquals(10_000, count, 2_000);
+    }
+  }
+
+  private static int freePort() throws IOException {
+    try (var socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
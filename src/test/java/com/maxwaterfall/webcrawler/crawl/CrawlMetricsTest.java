@@ -0,0 +1,60 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class CrawlMetricsTest {
+
+  @DisplayName("Histogram percentiles are within the bucket precision")
+  @Test
+  void percentileTest() {
+    var histogram = new LatencyHistogram();
+    for (long millis = 1; millis <= 1000; millis++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    Assertions.assertEquals(1000, histogram.getCount());
+    Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), histogram.getMax());
+    Assertions.assertEquals(500.5e6, histogram.getMean(), 1);
+    for (var percentile : new double[] {1, 50, 90, 99, 100}) {
+      double expected = TimeUnit.MILLISECONDS.toNanos((long) (percentile * 10));
+      double actual = histogram.getPercentile(percentile);
+      Assertions.assertEquals(expected, actual, expected * 0.04, "p" + percentile);
+    }
+  }
+
+  @DisplayName("Every value falls in a bucket whose range holds it")
+  @Test
+  void bucketTest() {
+    for (var value : new long[] {0, 1, 31, 32, 33, 63, 64, 1000, 123_456_789, Long.MAX_VALUE}) {
+      int index = LatencyHistogram.index(value);
+      Assertions.assertTrue(LatencyHistogram.highestValue(index) >= value, "highest of " + value);
+      Assertions.assertTrue(
+          index == 0 || LatencyHistogram.highestValue(index - 1) < value, "lowest of " + value);
+    }
+  }
+
+  @DisplayName("Status codes and errors are counted by type")
+  @Test
+  void countTest() {
+    var metrics = new CrawlMetrics();
+    metrics.recordStatus(200);
+    metrics.recordStatus(200);
+    metrics.recordStatus(304);
+    metrics.recordError(new IOException());
+    metrics.recordError(new SocketTimeoutException());
+    metrics.recordError(new IOException());
+
+    Assertions.assertEquals(Map.of(200, 2L, 304, 1L), metrics.getStatusCounts());
+    Assertions.assertEquals(3, metrics.getErrors());
+    Assertions.assertEquals(
+        Map.of("java.io.IOException", 2L, "java.net.SocketTimeoutException", 1L),
+        metrics.getErrorCounts());
+    Assertions.assertEquals(0, metrics.getRequestsInFlight(), "no crawl running");
+  }
+}
@@ -0,0 +1,300 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.HttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class CrawlerTest {
+
+  private HttpServer server;
+  private ExecutorService serverThreads;
+  private AtomicInteger inFlight;
+  private AtomicInteger maxInFlight;
+  private List<String> requested;
+  private CountDownLatch childRequested;
+  private AtomicBoolean stalledInVain;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    inFlight = new AtomicInteger();
+    maxInFlight = new AtomicInteger();
+    requested = new CopyOnWriteArrayList<>();
+    childRequested = new CountDownLatch(1);
+    stalledInVain = new AtomicBoolean();
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", this::respond);
+    serverThreads = Executors.newCachedThreadPool();
+    server.setExecutor(serverThreads);
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+    serverThreads.shutdownNow();
+  }
+
+  @DisplayName("Crawls running at the same time share the budget in turn and both finish")
+  @Test
+  void sharedBudgetTest() throws Exception {
+    var config =
+        CrawlConfig.builder().maxConcurrentRequests(8).totalConcurrentRequests(2).build();
+    try (var crawler = new Crawler(new HttpClient(), config)) {
+      var first = crawler.crawlAsync(uri("/a/0"), page -> {});
+      var second = crawler.crawlAsync(uri("/b/0"), page -> {});
+
+      Assertions.assertEquals(30, first.get(10, TimeUnit.SECONDS).getTotalVisited());
+      Assertions.assertEquals(30, second.get(10, TimeUnit.SECONDS).getTotalVisited());
+      Assertions.assertTrue(maxInFlight.get() <= 2, maxInFlight.get() + " in flight");
+
+      var firstPages = requested.subList(0, 12);
+      long fromFirst = firstPages.stream().filter(path -> path.startsWith("/a/")).count();
+      Assertions.assertTrue(fromFirst >= 4 && fromFirst <= 8, "taking turns " + firstPages);
+    }
+  }
+
+  @DisplayName("Cancelling stops a crawl, closing cancels the rest and stops the threads")
+  @Test
+  void cancelTest() throws Exception {
+    var config = CrawlConfig.builder().maxConcurrentRequests(2).build();
+    try (var crawler = new Crawler(new HttpClient(), config)) {
+      var cancelled = crawler.crawlAsync(uri("/a/0"), page -> {});
+      awaitRequests(5);
+      Assertions.assertTrue(cancelled.cancel(true));
+      Thread.sleep(200);
+      int afterCancel = requested.size();
+      Thread.sleep(200);
+      Assertions.assertEquals(afterCancel, requested.size(), "no visits started once cancelled");
+
+      var closed = crawler.crawlAsync(uri("/b/0?deep"), page -> {});
+      awaitRequests(afterCancel + 5);
+      crawler.close();
+      Assertions.assertTrue(closed.isDone(), "close waits for the crawls");
+      Assertions.assertTrue(closed.get().getUnvisited() > 0);
+      Assertions.assertThrows(IllegalStateException.class, () -> crawler.crawl(uri("/a/0")));
+      Assertions.assertTrue(crawler.isTerminated(), "threads stopped");
+    }
+  }
+
+  @DisplayName("Links are fetched while the page linking to them is still downloading")
+  @Test
+  void pipelineTest() throws Exception {
+    try (var crawler = new Crawler(new HttpClient(), CrawlConfig.builder().build())) {
+      var result = crawler.crawl(uri("/stalling/0"));
+
+      Assertions.assertEquals(2, result.getTotalVisited());
+      Assertions.assertFalse(stalledInVain.get(), "child not requested before the end");
+    }
+  }
+
+  @DisplayName("A crawl that fails still closes its checkpoint, which can then be resumed")
+  @Test
+  void failedCrawlTest() throws Exception {
+    var directory = Files.createTempDirectory("checkpoint");
+    var writers = threads("checkpoint-writer");
+    var config =
+        CrawlConfig.builder().maxConcurrentRequests(1).checkpointDirectory(directory).build();
+    try (var crawler = new Crawler(new HttpClient(), config)) {
+      var failure = new AtomicReference<Throwable>();
+      var crawling =
+          new Thread(
+              () -> {
+                try {
+                  crawler.crawl(uri("/a/0"), page -> {});
+                } catch (Throwable e) {
+                  failure.set(e);
+                }
+              });
+      crawling.start();
+      awaitRequests(3);
+      crawling.interrupt();
+      crawling.join(10_000);
+      Assertions.assertTrue(
+          failure.get() instanceof CrawlFailedException, "failed with " + failure.get());
+      // Interrupted, the crawl doesn't wait for the writer to finish the journal.
+      var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (!writers.equals(threads("checkpoint-writer")) && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      Assertions.assertEquals(writers, threads("checkpoint-writer"), "checkpoint closed");
+
+      var resumed = crawler.resume(directory);
+      Assertions.assertEquals(30, resumed.getTotalVisited());
+    } finally {
+      delete(directory);
+    }
+  }
+
+  @DisplayName("Crawls running at the same time share one response cache and keep all its pages")
+  @Test
+  void sharedResponseCacheTest() throws Exception {
+    var directory = Files.createTempDirectory("cache");
+    var config = CrawlConfig.builder().responseCacheDirectory(directory).build();
+    try {
+      try (var crawler = new Crawler(new HttpClient(), config)) {
+        var first = crawler.crawlAsync(uri("/a/0"), page -> {});
+        var second = crawler.crawlAsync(uri("/b/0"), page -> {});
+        Assertions.assertEquals(30, first.get(10, TimeUnit.SECONDS).getTotalVisited());
+        Assertions.assertEquals(30, second.get(10, TimeUnit.SECONDS).getTotalVisited());
+      }
+      try (var cache = new ResponseCache(directory)) {
+        Assertions.assertEquals(60, cache.size());
+      }
+    } finally {
+      delete(directory);
+    }
+  }
+
+  @DisplayName("Each checkpointed crawl needs its own directory, failures complete the future")
+  @Test
+  void checkpointDirectoryTest() throws Exception {
+    var directory = Files.createTempDirectory("checkpoint");
+    var other = Files.createTempDirectory("checkpoint");
+    var config = CrawlConfig.builder().checkpointDirectory(directory).build();
+    try {
+      try (var crawler = new Crawler(new HttpClient(), config)) {
+        var first = crawler.crawlAsync(uri("/a/0"), page -> {});
+        Assertions.assertEquals(30, first.get(10, TimeUnit.SECONDS).getTotalVisited());
+        var again = crawler.crawlAsync(uri("/b/0"), page -> {});
+        var failure = Assertions.assertThrows(ExecutionException.class, again::get);
+        Assertions.assertTrue(failure.getCause() instanceof IllegalStateException);
+        var elsewhere = crawler.crawlAsync(uri("/b/0"), page -> {}, other);
+        Assertions.assertEquals(30, elsewhere.get(10, TimeUnit.SECONDS).getTotalVisited());
+
+        delete(other);
+        crawler.close();
+        var closed = crawler.crawlAsync(uri("/b/0"), page -> {}, other);
+        failure = Assertions.assertThrows(ExecutionException.class, closed::get);
+        Assertions.assertTrue(failure.getCause() instanceof IllegalStateException);
+        Assertions.assertFalse(Files.exists(other), "no checkpoint for a rejected crawl");
+      }
+    } finally {
+      delete(directory);
+      if (Files.exists(other)) {
+        delete(other);
+      }
+    }
+  }
+
+  private static Set<Thread> threads(String namePrefix) {
+    return Thread.getAllStackTraces().keySet().stream()
+        .filter(thread -> thread.getName().startsWith(namePrefix))
+        .collect(Collectors.toSet());
+  }
+
+  private static void delete(Path directory) throws IOException {
+    try (var paths = Files.walk(directory)) {
+      for (var path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  private void awaitRequests(int count) throws InterruptedException {
+    var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (requested.size() < count) {
+      Assertions.assertTrue(System.nanoTime() < deadline, "only " + requested.size() + " requests");
+      Thread.sleep(10);
+    }
+  }
+
+  private URI uri(String path) {
+    return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+  }
+
+  /**
+   * Serves '/p/n' as a page linking to '/p/2n+1' and '/p/2n+2' for 30 pages of each prefix p, or
+   * without end with a query. Every page takes 20ms and has an ETag.
+   */
+  private void respond(HttpExchange exchange) throws IOException {
+    var path = exchange.getRequestURI().getPath();
+    if (path.equals("/robots.txt")) {
+      exchange.sendResponseHeaders(404, -1);
+      exchange.close();
+      return;
+    }
+    if (path.startsWith("/stalling/")) {
+      respondStalling(exchange, path);
+      return;
+    }
+    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+    requested.add(path);
+    try {
+      Thread.sleep(20);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    int slash = path.lastIndexOf('/');
+    var prefix = path.substring(0, slash + 1);
+    int n = Integer.parseInt(path.substring(slash + 1));
+    var query = exchange.getRequestURI().getQuery();
+    var html = new StringBuilder();
+    for (int child = 2 * n + 1; child <= 2 * n + 2; child++) {
+      if (child < 30 || query != null) {
+        html.append("<a href='")
+            .append(prefix)
+            .append(child)
+            .append(query == null ? "" : "?" + query)
+            .append("'>")
+            .append(child)
+            .append("</a>");
+      }
+    }
+    var body = html.toString().getBytes(StandardCharsets.UTF_8);
+    inFlight.decrementAndGet();
+    exchange.getResponseHeaders().add("Content-Type", "text/html");
+    exchange.getResponseHeaders().add("ETag", '"' + path + '"');
+    exchange.sendResponseHeaders(200, body.length);
+    try (var out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  /**
+   * Serves '/stalling/0' as a page that links to '/stalling/1' and then stalls until that is
+   * requested, for at most 2s, before sending the rest.
+   */
+  private void respondStalling(HttpExchange exchange, String path) throws IOException {
+    exchange.getResponseHeaders().add("Content-Type", "text/html");
+    exchange.sendResponseHeaders(200, 0);
+    try (var out = exchange.getResponseBody()) {
+      if (path.equals("/stalling/1")) {
+        childRequested.countDown();
+        out.write("<p>The end.</p>".getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+      out.write("<a href='/stalling/1'>1</a><p>".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      stalledInVain.set(!childRequested.await(2, TimeUnit.SECONDS));
+      out.write("More text.</p>".getBytes(StandardCharsets.UTF_8));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.HttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class DuplicateIndexTest {
+
+  private static final String ARTICLE =
+      "The quick brown fox jumps over the lazy dog while the farmer watches from the porch of an"
+          + " old wooden house at the edge of the valley where the river bends twice before it"
+          + " reaches the sea and the fishing boats wait for the morning tide to carry them out."
+          + " In the village the baker has been up since four, the bread is cooling on the racks"
+          + " by the window and the first customers are already queueing in the narrow street"
+          + " outside. Later the market opens in the square, with stalls selling cheese, honey,"
+          + " apples from the orchards on the hill and fish landed by the boats that went out at"
+          + " dawn. By the evening the square is quiet again and the lamps are lit one by one";
+
+  private HttpServer server;
+  private Set<String> requested;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    requested = ConcurrentHashMap.newKeySet();
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", this::respond);
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  @DisplayName("Pages with the same words have the same fingerprint, whatever the markup")
+  @Test
+  void exactTest() {
+    var plain = fingerprint(ARTICLE);
+    var marked =
+        fingerprint("<div><h1>" + ARTICLE.replace(" ", "</b> <b>").toUpperCase() + "</div>");
+
+    Assertions.assertEquals(plain.getExactHash(), marked.getExactHash());
+    for (int i = 0; i < ContentFingerprint.MIN_HASHES; i++) {
+      Assertions.assertEquals(plain.getMinHash(i), marked.getMinHash(i));
+    }
+    Assertions.assertNotEquals(
+        plain.getExactHash(), fingerprint(ARTICLE + " again").getExactHash());
+
+    var index = new DuplicateIndex(1);
+    Assertions.assertNull(index.add("a", plain));
+    Assertions.assertEquals("a", index.add("b", marked));
+    Assertions.assertNull(index.add("c", fingerprint("Something else entirely")));
+    Assertions.assertEquals(Map.of("a", List.of("b")), index.getClusters());
+  }
+
+  @DisplayName("Pages that differ by a word are near-duplicates, different pages aren't")
+  @Test
+  void nearTest() {
+    var index = new DuplicateIndex(0.9);
+    Assertions.assertNull(index.add("a", fingerprint(ARTICLE + " session 1234")));
+    Assertions.assertEquals("a", index.add("b", fingerprint(ARTICLE + " session 5678")));
+    Assertions.assertEquals("a", index.add("c", fingerprint(ARTICLE.replace("old", "new"))));
+
+    var other =
+        "Prices for every model in the catalogue are listed below with their delivery times and"
+            + " the colours each of them comes in for this season";
+    Assertions.assertNull(index.add("d", fingerprint(other)));
+    Assertions.assertNull(index.add("e", fingerprint(ARTICLE.substring(0, ARTICLE.length() / 2))));
+    // Too few shingles to compare by signature, only the same words count.
+    Assertions.assertNull(index.add("f", fingerprint("Page 1")));
+    Assertions.assertNull(index.add("g", fingerprint("Page 2")));
+    Assertions.assertEquals("f", index.add("h", fingerprint("page 1")));
+
+    Assertions.assertEquals(Map.of("a", List.of("b", "c"), "f", List.of("h")), index.getClusters());
+  }
+
+  @DisplayName("Pages too short to compare are only matched by their words, however many there are")
+  @Test
+  void shortPagesTest() {
+    var index = new DuplicateIndex(0.9);
+    Assertions.assertNull(index.add("long", fingerprint(ARTICLE)));
+    for (int i = 0; i < 50_000; i++) {
+      Assertions.assertNull(index.add("page" + i, fingerprint("Page " + i)));
+    }
+    Assertions.assertEquals("page123", index.add("again", fingerprint("page 123")));
+    Assertions.assertEquals("long", index.add("copy", fingerprint(ARTICLE)));
+    Assertions.assertNull(index.add("empty", fingerprint("")));
+    Assertions.assertEquals("empty", index.add("blank", fingerprint("<p> </p>")));
+  }
+
+  @DisplayName("Only the first of pages served under many query strings has its links followed")
+  @Test
+  void crawlTest() throws Exception {
+    for (var mode : List.of(CrawlConfig.Mode.BLOCKING, CrawlConfig.Mode.ASYNC)) {
+      requested.clear();
+      var config = CrawlConfig.builder().mode(mode).skipDuplicates(true).build();
+      CrawlResult result;
+      try (var crawler = new Crawler(new HttpClient(), config)) {
+        result = crawler.crawl(uri("/"));
+      }
+
+      // Both sorts and the next variant of the first sort visited, the variants never end.
+      var authority = "localhost:" + server.getAddress().getPort();
+      Assertions.assertEquals(4, result.getTotalVisited(), mode.name());
+      Assertions.assertEquals(1, result.getDuplicates().size(), mode.name());
+      var cluster = result.getDuplicates().entrySet().iterator().next();
+      Assertions.assertTrue(cluster.getKey().startsWith(authority + "/list?sort="), mode.name());
+      Assertions.assertEquals(2, cluster.getValue().size(), mode.name());
+      Assertions.assertTrue(cluster.getValue().contains(cluster.getKey() + "&page=2"), mode.name());
+      for (var page : result.getVisitedPages()) {
+        Assertions.assertFalse(page.getSeenLinks().isEmpty(), "links are still recorded");
+      }
+      Assertions.assertEquals(4, requested.size(), mode.name() + " " + requested);
+    }
+  }
+
+  private void respond(HttpExchange exchange) throws IOException {
+    var uri = exchange.getRequestURI();
+    if (uri.getPath().equals("/robots.txt")) {
+      exchange.sendResponseHeaders(404, -1);
+      exchange.close();
+      return;
+    }
+    requested.add(uri.toString());
+
+    String html;
+    if (uri.getPath().equals("/")) {
+      html = "<p>Home</p><a href=/list?sort=asc>up</a><a href=/list?sort=desc>down</a>";
+    } else {
+      // The same list under every query string, each linking to a further variant.
+      var next = uri.getQuery() + "&page=2";
+      html = "<p>" + ARTICLE + "</p><a href='/list?" + next + "'>next</a>";
+    }
+    var body = html.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "text/html");
+    exchange.sendResponseHeaders(200, body.length);
+    try (var out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private URI uri(String path) {
+    return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+  }
+
+  private static ContentFingerprint fingerprint(String html) {
+    var fingerprint = new ContentFingerprint();
+    var chars = html.toCharArray();
+    new LinkScanner(new ExtractedLinks(fingerprint)).feed(chars, 0, chars.length);
+    return fingerprint;
+  }
+}
@@ -0,0 +1,124 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.HttpClient;
+import com.maxwaterfall.webcrawler.SyntheticSite;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class FrontierPriorityTest {
+
+  @DisplayName("Uris are polled shallowest first and in the order added, however many are spilled")
+  @Test
+  void depthTest() throws IOException {
+    var expected = new ArrayList<Visit>();
+    try (var queue = new PriorityFrontierQueue(FrontierPriority.byDepth(), 10)) {
+      for (int i = 0; i < 1_000; i++) {
+        int depth = (i * 7) % 5;
+        queue.add(uri(i), depth);
+        expected.add(new Visit(uri(i), Visit.NO_ID, depth));
+      }
+      Assertions.assertEquals(1_000, queue.size());
+      expected.sort(Comparator.comparingInt(Visit::getDepth));
+
+      var polled = new ArrayList<URI>();
+      for (Visit visit; (visit = queue.poll()) != null; ) {
+        polled.add(visit.getUri());
+      }
+      Assertions.assertEquals(
+          expected.stream().map(Visit::getUri).collect(Collectors.toList()), polled);
+      Assertions.assertTrue(queue.isEmpty());
+    }
+  }
+
+  @DisplayName("A uri is ranked again each time it's linked to, and still only polled once")
+  @Test
+  void inLinksTest() throws IOException {
+    try (var queue = new PriorityFrontierQueue(FrontierPriority.byInLinks(), 100)) {
+      for (int i = 0; i < 3; i++) {
+        queue.add(uri(i), 1);
+      }
+      queue.linked(Crawl.normalizeUri(uri(2)), () -> uri(2));
+      queue.linked(Crawl.normalizeUri(uri(2)), () -> uri(2));
+      queue.linked(Crawl.normalizeUri(uri(1)), () -> uri(1));
+      queue.linked("localhost/not/waiting", () -> Assertions.fail("only waiting uris are ranked"));
+      Assertions.assertEquals(3, queue.size());
+
+      Assertions.assertEquals(uri(2), queue.poll().getUri());
+      queue.linked(Crawl.normalizeUri(uri(2)), () -> Assertions.fail("no longer waiting"));
+      Assertions.assertEquals(uri(1), queue.poll().getUri());
+      Assertions.assertEquals(uri(0), queue.poll().getUri());
+      Assertions.assertNull(queue.poll(), "entries left at old ranks are skipped");
+      Assertions.assertTrue(queue.isEmpty());
+    }
+  }
+
+  @DisplayName("Max depth, max pages and the time budget each stop the crawl")
+  @Test
+  void limitsTest() throws Exception {
+    try (var site = new SyntheticSite(1_000, 3, Duration.ZERO)) {
+      for (var mode : List.of(CrawlConfig.Mode.BLOCKING, CrawlConfig.Mode.ASYNC)) {
+        var config = CrawlConfig.builder().mode(mode).maxDepth(2).build();
+        try (var crawler = new Crawler(new HttpClient(), config)) {
+          var result = crawler.crawl(site.startUri());
+          // The root, its 3 children and their 9.
+          Assertions.assertEquals(pages(site, 13), links(result), mode.name());
+          Assertions.assertEquals(0, result.getUnvisited(), mode.name());
+        }
+
+        config =
+            CrawlConfig.builder()
+                .mode(mode)
+                .maxConcurrentRequests(1)
+                .frontierPriority(FrontierPriority.byDepth())
+                .maxPages(10)
+                .build();
+        try (var crawler = new Crawler(new HttpClient(), config)) {
+          var result = crawler.crawl(site.startUri());
+          Assertions.assertEquals(pages(site, 10), links(result), mode.name());
+          Assertions.assertTrue(result.getUnvisited() > 0, mode.name());
+        }
+      }
+    }
+
+    try (var site = new SyntheticSite(1_000, 3, Duration.ofMillis(100))) {
+      var config =
+          CrawlConfig.builder().maxConcurrentRequests(1).timeBudget(Duration.ofMillis(350)).build();
+      try (var crawler = new Crawler(new HttpClient(), config)) {
+        long start = System.nanoTime();
+        var result = crawler.crawl(site.startUri());
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        Assertions.assertTrue(result.getTotalVisited() <= 5, result.getTotalVisited() + " visited");
+        Assertions.assertTrue(result.getUnvisited() > 0);
+        Assertions.assertTrue(millis < 2_000, "took " + millis + "ms");
+      }
+    }
+  }
+
+  private static Set<String> links(CrawlResult result) {
+    return result.getVisitedPages().stream()
+        .map(VisitedPage::getPageLink)
+        .collect(Collectors.toSet());
+  }
+
+  /** The normalized links of the first pages of the site. */
+  private static Set<String> pages(SyntheticSite site, int count) {
+    var root = Crawl.normalizeUri(site.startUri());
+    var prefix = root.substring(0, root.length() - 1);
+    return IntStream.range(0, count).mapToObj(i -> prefix + i).collect(Collectors.toSet());
+  }
+
+  private static URI uri(int i) {
+    return URI.create("http://localhost/page/" + i);
+  }
+}
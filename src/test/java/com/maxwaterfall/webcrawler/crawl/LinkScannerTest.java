@@ -0,0 +1,156 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class LinkScannerTest {
+
+  @DisplayName("Finds hrefs in all attribute styles")
+  @Test
+  void attributeStylesTest() {
+    var links =
+        scan(
+            "<a href=\"/double\">x</a><A HREF='/single'></A><a href=/unquoted>"
+                + "<a class=x href = \"/spaced\" id=y><a href><a name=top>");
+
+    Assertions.assertEquals(List.of("/double", "/single", "/unquoted", "/spaced", ""), links);
+  }
+
+  @DisplayName("Only the first href of a tag is used")
+  @Test
+  void duplicateHrefTest() {
+    Assertions.assertEquals(List.of("/first"), scan("<a href=/first href=/second>"));
+  }
+
+  @DisplayName("Ignores links in comments, scripts and other tags")
+  @Test
+  void ignoredLinksTest() {
+    var links =
+        scan(
+            "<!-- <a href=/comment> --><!DOCTYPE html><script>var s = '<a href=/script>';</script >"
+                + "<link href=/stylesheet><abbr href=/abbr><area href=/area><a href=/real>");
+
+    Assertions.assertEquals(List.of("/real"), links);
+  }
+
+  @DisplayName("Reports the first base href")
+  @Test
+  void baseTest() {
+    var base = new ArrayList<String>();
+    var anchors = new ArrayList<String>();
+    feed(
+        "<head><base target=_blank><base href='/dir/'><base href=/other/></head><a href=page>",
+        listener(base, anchors),
+        Integer.MAX_VALUE);
+
+    Assertions.assertEquals(List.of("/dir/"), base);
+    Assertions.assertEquals(List.of("page"), anchors);
+  }
+
+  @DisplayName("Decodes character references")
+  @Test
+  void characterReferenceTest() {
+    var links = scan("<a href=\"/a?b=1&amp;c=2&#38;d=&#x33;&unknown;&\">");
+
+    Assertions.assertEquals(List.of("/a?b=1&c=2&d=3&unknown;&"), links);
+  }
+
+  @DisplayName("Gives the same result however the html is split into chunks")
+  @Test
+  void chunkBoundaryTest() {
+    var html = "<p>text</p><!-- x --><script>'</a>'</script><a  href = '/page?x=1&amp;y=2' >";
+    for (int chunkSize = 1; chunkSize < html.length(); chunkSize++) {
+      var anchors = new ArrayList<String>();
+      feed(html, listener(new ArrayList<>(), anchors), chunkSize);
+      Assertions.assertEquals(List.of("/page?x=1&y=2"), anchors, "chunk size " + chunkSize);
+    }
+  }
+
+  @DisplayName("Passes on the text between tags, but not in comments or scripts")
+  @Test
+  void textTest() {
+    var html =
+        "<p>Some <b>bold</b> text</p><!-- comment --><script>code</script><a href=x>link</a>";
+    for (int chunkSize : new int[] {1, 7, Integer.MAX_VALUE}) {
+      var text = new StringBuilder();
+      var listener =
+          new LinkExtractor.Listener() {
+            @Override
+            public void onBase(String href) {}
+
+            @Override
+            public void onAnchor(String href) {}
+
+            @Override
+            public void onText(char[] chars, int offset, int length) {
+              text.append(chars, offset, length);
+            }
+          };
+      feed(html, listener, chunkSize);
+      Assertions.assertEquals("Some bold textlink", text.toString(), "chunk size " + chunkSize);
+    }
+  }
+
+  @DisplayName("Html fed as bytes gives the same links, decoded in its charset")
+  @Test
+  void bytesTest() {
+    var html =
+        "<p>caf\u00e9</p><a href='/caf\u00e9?q=\u00fc&amp;x'>\u00e9</a>"
+            + "<script>'<a href=/x>'</script><a href=/plain>";
+    var expected = List.of("/caf\u00e9?q=\u00fc&x", "/plain");
+    for (var charset : List.of(StandardCharsets.UTF_8, Charset.forName("windows-1252"))) {
+      var bytes = html.getBytes(charset);
+      for (int chunkSize = 1; chunkSize <= bytes.length; chunkSize++) {
+        var anchors = new ArrayList<String>();
+        var scanner = new LinkScanner(listener(new ArrayList<>(), anchors), charset);
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+          int length = Math.min(chunkSize, bytes.length - i);
+          if (i % 2 == 0) {
+            scanner.feed(bytes, i, length);
+          } else {
+            scanner.feed(ByteBuffer.wrap(bytes, i, length));
+          }
+        }
+        Assertions.assertEquals(expected, anchors, charset + " in chunks of " + chunkSize);
+      }
+    }
+
+    Assertions.assertTrue(LinkScanner.canScanBytes(StandardCharsets.ISO_8859_1));
+    Assertions.assertFalse(LinkScanner.canScanBytes(StandardCharsets.UTF_16));
+    Assertions.assertFalse(LinkScanner.canScanBytes(Charset.forName("ISO-2022-JP")));
+  }
+
+  private static List<String> scan(String html) {
+    var anchors = new ArrayList<String>();
+    feed(html, listener(new ArrayList<>(), anchors), Integer.MAX_VALUE);
+    return anchors;
+  }
+
+  private static void feed(String html, LinkExtractor.Listener listener, int chunkSize) {
+    var scanner = new LinkScanner(listener);
+    var chars = html.toCharArray();
+    for (int i = 0; i < chars.length; i += chunkSize) {
+      scanner.feed(chars, i, Math.min(chunkSize, chars.length - i));
+    }
+  }
+
+  private static LinkExtractor.Listener listener(List<String> base, List<String> anchors) {
+    return new LinkExtractor.Listener() {
+      @Override
+      public void onBase(String href) {
+        base.add(href);
+      }
+
+      @Override
+      public void onAnchor(String href) {
+        anchors.add(href);
+      }
+    };
+  }
+}
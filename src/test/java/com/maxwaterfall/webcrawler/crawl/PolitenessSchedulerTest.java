@@ -0,0 +1,118 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class PolitenessSchedulerTest {
+
+  private static final String HOST = "localhost";
+
+  @DisplayName("No more connections than the limit are handed out")
+  @Test
+  void maxConnectionsTest() {
+    try (var scheduler = new PolitenessScheduler(0, 2, false, System::nanoTime)) {
+      var first = scheduler.acquire(HOST);
+      var second = scheduler.acquire(HOST);
+      var third = scheduler.acquire(HOST);
+      Assertions.assertTrue(first.isDone() && second.isDone());
+      Assertions.assertFalse(third.isDone());
+
+      first.join().release(200, null, 0);
+      Assertions.assertTrue(third.isDone());
+      Assertions.assertTrue(scheduler.acquire("other").isDone(), "hosts are independent");
+    }
+  }
+
+  @DisplayName("Requests beyond the burst wait for the token bucket to refill")
+  @Test
+  void rateLimitTest() {
+    try (var scheduler = new PolitenessScheduler(20, 100, false, System::nanoTime)) {
+      long start = System.nanoTime();
+      var permits = new ArrayList<CompletableFuture<PolitenessScheduler.Permit>>();
+      for (int i = 0; i < 30; i++) {
+        permits.add(scheduler.acquire(HOST));
+      }
+      Assertions.assertEquals(20, permits.stream().filter(CompletableFuture::isDone).count());
+
+      CompletableFuture.allOf(permits.toArray(new CompletableFuture<?>[0]))
+          .orTimeout(5, TimeUnit.SECONDS)
+          .join();
+      long elapsed = System.nanoTime() - start;
+      Assertions.assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(400), "took " + elapsed);
+    }
+  }
+
+  @DisplayName("A host that answers 503 is left alone for as long as Retry-After asks")
+  @Test
+  void retryAfterTest() throws InterruptedException {
+    try (var scheduler = new PolitenessScheduler(0, 10, false, System::nanoTime)) {
+      scheduler.acquire(HOST).join().release(503, "1", 0);
+      var next = scheduler.acquire(HOST);
+      Thread.sleep(300);
+      Assertions.assertFalse(next.isDone());
+      next.orTimeout(5, TimeUnit.SECONDS).join();
+    }
+  }
+
+  @DisplayName("Adaptive limit grows while responses are fast and is cut when they slow down")
+  @Test
+  void adaptiveTest() {
+    var now = new AtomicLong();
+    try (var scheduler = new PolitenessScheduler(0, 64, true, now::get)) {
+      Assertions.assertEquals(PolitenessScheduler.INITIAL_ADAPTIVE_LIMIT, scheduler.getLimit(HOST));
+
+      for (int i = 0; i < 200; i++) {
+        var permit = scheduler.acquire(HOST).join();
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        permit.release(200, null, TimeUnit.MILLISECONDS.toNanos(10));
+      }
+      int grown = scheduler.getLimit(HOST);
+      Assertions.assertTrue(grown > 10, "grew to " + grown);
+
+      var slow = scheduler.acquire(HOST).join();
+      now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+      slow.release(200, null, TimeUnit.MILLISECONDS.toNanos(100));
+      Assertions.assertTrue(scheduler.getLimit(HOST) < grown, "cut when slow");
+
+      int beforeThrottle = scheduler.getLimit(HOST);
+      scheduler.acquire(HOST).join().release(429, "0", 0);
+      Assertions.assertTrue(scheduler.getLimit(HOST) < beforeThrottle, "cut when throttled");
+    }
+  }
+
+  @DisplayName("Time a visit waits for a thread after its permit is granted isn't latency")
+  @Test
+  void queuedTest() {
+    var now = new AtomicLong();
+    try (var scheduler = new PolitenessScheduler(0, 64, true, now::get)) {
+      for (int i = 0; i < 200; i++) {
+        var permit = scheduler.acquire(HOST).join();
+        // Queued behind other visits for longer than the fetch itself takes, more so each time.
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(10 + i));
+        permit.release(200, null, TimeUnit.MILLISECONDS.toNanos(10));
+      }
+      int grown = scheduler.getLimit(HOST);
+      Assertions.assertTrue(grown > 10, "grew to " + grown);
+    }
+  }
+
+  @DisplayName("Retry-After is understood as seconds or as a date")
+  @Test
+  void retryAfterParsingTest() {
+    var now = ZonedDateTime.of(2015, 10, 21, 7, 28, 0, 0, ZoneOffset.UTC);
+    Assertions.assertEquals(
+        TimeUnit.SECONDS.toNanos(120), PolitenessScheduler.retryAfterNanos("120", now));
+    Assertions.assertEquals(
+        TimeUnit.SECONDS.toNanos(30),
+        PolitenessScheduler.retryAfterNanos("Wed, 21 Oct 2015 07:28:30 GMT", now));
+    Assertions.assertEquals(-1, PolitenessScheduler.retryAfterNanos("soon", now));
+    Assertions.assertEquals(-1, PolitenessScheduler.retryAfterNanos(null, now));
+  }
+}
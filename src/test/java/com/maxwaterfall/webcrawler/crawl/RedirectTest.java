@@ -0,0 +1,112 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.HttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class RedirectTest {
+
+  /** Where each redirecting path sends the client, the rest are pages linking to the links. */
+  private static final Map<String, String> REDIRECTS =
+      Map.of(
+          "/relative", "target",
+          "/chain/1", "/chain/2",
+          "/chain/2", "/chain/3",
+          "/chain/3", "/target",
+          "/loop/a", "/loop/b",
+          "/loop/b", "/loop/a");
+
+  private static final List<String> LINKS =
+      List.of("/relative", "/chain/1", "/loop/a", "/long/0", "/target");
+
+  private HttpServer server;
+  private Map<String, AtomicInteger> requests;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    requests = new ConcurrentHashMap<>();
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", this::respond);
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  @DisplayName("Redirects are followed by the same visit and every page is requested once")
+  @Test
+  void redirectTest() throws Exception {
+    for (var mode : List.of(CrawlConfig.Mode.BLOCKING, CrawlConfig.Mode.ASYNC)) {
+      requests.clear();
+      CrawlResult result;
+      try (var crawler = new Crawler(new HttpClient(), CrawlConfig.builder().mode(mode).build())) {
+        result = crawler.crawl(uri("/"));
+      }
+
+      var pages = new HashMap<String, List<String>>();
+      for (var page : result.getVisitedPages()) {
+        Assertions.assertNull(pages.put(page.getPageLink(), page.getSeenLinks()), "visited once");
+      }
+      var authority = "localhost:" + server.getAddress().getPort();
+      Assertions.assertEquals(List.of(), pages.get(authority + "/relative"), mode.name());
+      Assertions.assertEquals(List.of(), pages.get(authority + "/chain/3"), mode.name());
+      Assertions.assertEquals(List.of(), pages.get(authority + "/loop/b"), mode.name());
+      Assertions.assertTrue(pages.containsKey(authority + "/target"), mode.name());
+      // Longer chains carry on from the frontier.
+      Assertions.assertTrue(pages.containsKey(authority + "/long/20"), mode.name());
+      Assertions.assertEquals(1 + 1 + 1 + 3 + 2 + 21, pages.size(), mode.name());
+      for (var path : requests.entrySet()) {
+        Assertions.assertEquals(1, path.getValue().get(), path.getKey() + " requested once");
+      }
+    }
+  }
+
+  private void respond(HttpExchange exchange) throws IOException {
+    var path = exchange.getRequestURI().getPath();
+    requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+
+    var location = REDIRECTS.get(path);
+    if (location == null && path.startsWith("/long/")) {
+      int hop = Integer.parseInt(path.substring("/long/".length()));
+      location = hop < 20 ? "/long/" + (hop + 1) : null;
+    }
+    if (location != null) {
+      exchange.getResponseHeaders().add("Location", location);
+      exchange.sendResponseHeaders(301, -1);
+      exchange.close();
+      return;
+    }
+
+    var html = new StringBuilder("<html><body>");
+    for (var link : LINKS) {
+      html.append("<a href=\"").append(link).append("\">link</a>");
+    }
+    var body = html.toString().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "text/html");
+    exchange.sendResponseHeaders(200, body.length);
+    try (var out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private URI uri(String path) {
+    return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+  }
+}
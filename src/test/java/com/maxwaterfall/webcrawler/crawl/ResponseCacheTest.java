@@ -0,0 +1,77 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class ResponseCacheTest {
+
+  private Path directory;
+
+  @BeforeEach
+  void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("responses");
+  }
+
+  @AfterEach
+  void deleteDirectory() throws IOException {
+    try (var paths = Files.walk(directory)) {
+      for (var path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @DisplayName("Entries are kept after reopening and a later entry replaces an earlier one")
+  @Test
+  void reopenTest() throws IOException {
+    try (var cache = new ResponseCache(directory)) {
+      cache.put("localhost/a", new ResponseCache.Entry("\"1\"", null, List.of("http://x/b")));
+      cache.put("localhost/b", new ResponseCache.Entry(null, "Mon, 01 Jan 2024", List.of()));
+      cache.put("localhost/a", new ResponseCache.Entry("\"2\"", null, List.of("http://x/c")));
+      Assertions.assertEquals(2, cache.size());
+    }
+
+    try (var cache = new ResponseCache(directory)) {
+      Assertions.assertEquals(2, cache.size());
+      var a = cache.get("localhost/a");
+      Assertions.assertEquals("\"2\"", a.getEtag());
+      Assertions.assertNull(a.getLastModified());
+      Assertions.assertEquals(List.of("http://x/c"), a.getLinks());
+      var b = cache.get("localhost/b");
+      Assertions.assertNull(b.getEtag());
+      Assertions.assertEquals("Mon, 01 Jan 2024", b.getLastModified());
+      Assertions.assertEquals(List.of(), b.getLinks());
+      Assertions.assertNull(cache.get("localhost/c"));
+    }
+  }
+
+  @DisplayName("A torn record is dropped and replaced records are compacted away")
+  @Test
+  void tornRecordAndCompactionTest() throws IOException {
+    try (var cache = new ResponseCache(directory)) {
+      for (int i = 0; i < 10; i++) {
+        cache.put("localhost/a", new ResponseCache.Entry("\"" + i + "\"", null, List.of()));
+      }
+    }
+    var log = directory.resolve("responses.log");
+    long compacted = Files.size(log);
+
+    // A record cut short part way through.
+    Files.write(log, new byte[] {0, 0, 0}, StandardOpenOption.APPEND);
+
+    try (var cache = new ResponseCache(directory)) {
+      Assertions.assertEquals(1, cache.size());
+      Assertions.assertEquals("\"9\"", cache.get("localhost/a").getEtag());
+    }
+    Assertions.assertEquals(compacted, Files.size(log), "one record left after compaction");
+  }
+}
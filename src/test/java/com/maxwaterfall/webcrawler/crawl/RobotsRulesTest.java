@@ -0,0 +1,209 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.HttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class RobotsRulesTest {
+
+  private HttpServer server;
+  private Map<String, String> files;
+  private Set<String> requested;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    files = new ConcurrentHashMap<>();
+    requested = ConcurrentHashMap.newKeySet();
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", this::respond);
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  @DisplayName("The longest matching rule wins, an allow wins a tie and wildcards match anywhere")
+  @Test
+  void matchTest() throws IOException {
+    var robots =
+        parse(
+            "User-agent: *",
+            "Disallow: /private",
+            "Allow: /private/open",
+            "Disallow: /*.pdf$",
+            "Disallow: /search*q=",
+            "Allow: /tie",
+            "Disallow: /tie",
+            "Disallow: /caf%c3%a9 # a comment",
+            "Disallow:",
+            "Sitemap: http://localhost/sitemap.xml");
+
+    Assertions.assertTrue(allowed(robots, "/"));
+    Assertions.assertTrue(allowed(robots, "/public"));
+    Assertions.assertFalse(allowed(robots, "/private"));
+    Assertions.assertFalse(allowed(robots, "/private/closed?x=1"));
+    Assertions.assertTrue(allowed(robots, "/private/open/page"));
+    Assertions.assertFalse(allowed(robots, "/docs/a.pdf"));
+    Assertions.assertTrue(allowed(robots, "/docs/a.pdf?download"));
+    Assertions.assertFalse(allowed(robots, "/search/all?page=2&q=fox"));
+    Assertions.assertTrue(allowed(robots, "/search?page=2"));
+    Assertions.assertTrue(allowed(robots, "/tie"));
+    Assertions.assertFalse(allowed(robots, "/caf\u00e9"));
+    Assertions.assertTrue(allowed(robots, "/robots.txt"));
+    Assertions.assertEquals(List.of("http://localhost/sitemap.xml"), robots.getSitemaps());
+  }
+
+  @DisplayName("Only the groups naming this crawler are used, or those for everyone if none do")
+  @Test
+  void userAgentTest() throws IOException {
+    var named =
+        parse(
+            "User-agent: otherbot",
+            "User-agent: WebCrawler/2.0",
+            "Disallow: /ours",
+            "",
+            "User-agent: *",
+            "Disallow: /everyone",
+            "",
+            "User-agent: otherbot",
+            "Disallow: /theirs");
+    Assertions.assertFalse(allowed(named, "/ours"));
+    Assertions.assertTrue(allowed(named, "/everyone"));
+    Assertions.assertTrue(allowed(named, "/theirs"));
+
+    var unnamed =
+        parse("User-agent: otherbot", "Disallow: /theirs", "User-agent: *", "Disallow: /");
+    Assertions.assertFalse(allowed(unnamed, "/page"));
+    Assertions.assertTrue(allowed(parse("Disallow: /before-any-group"), "/before-any-group"));
+  }
+
+  @DisplayName("A robots.txt is fetched through redirects, missing allows all and an error none")
+  @Test
+  void fetchTest() throws Exception {
+    var client = new HttpClient();
+    Assertions.assertSame(RobotsRules.ALLOW_ALL, RobotsRules.fetch(client, uri("/")));
+
+    files.put("/robots.txt", "redirect:/moved.txt");
+    files.put("/moved.txt", "User-agent: *\nDisallow: /private\n");
+    var robots = RobotsRules.fetch(client, uri("/some/page"));
+    Assertions.assertFalse(allowed(robots, "/private"));
+
+    files.put("/robots.txt", "error");
+    Assertions.assertSame(RobotsRules.DISALLOW_ALL, RobotsRules.fetch(client, uri("/")));
+  }
+
+  @DisplayName("Disallowed links aren't visited and sitemaps seed pages nothing links to")
+  @Test
+  void crawlTest() throws Exception {
+    files.put("/", "<a href=\"/a\">a</a><a href=\"/private/b\">b</a>");
+    files.put("/a", "");
+    files.put("/private/b", "");
+    files.put("/unlinked", "");
+    files.put("/private/c", "");
+    files.put("/robots.txt", "User-agent: *\nDisallow: /private\nSitemap: /index.xml\n");
+    files.put(
+        "/index.xml",
+        "<?xml version=\"1.0\"?>"
+            + "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">"
+            + "<sitemap><loc>/pages.xml.gz</loc></sitemap></sitemapindex>");
+    files.put(
+        "/pages.xml.gz",
+        "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">"
+            + "<url><loc> "
+            + uri("/unlinked")
+            + " </loc></url><url><loc>/private/c</loc></url>"
+            + "<url><loc>http://elsewhere.invalid/</loc></url></urlset>");
+
+    var config = CrawlConfig.builder().seedSitemaps(true).build();
+    try (var crawler = new Crawler(new HttpClient(), config)) {
+      var result = crawler.crawl(uri("/"));
+      Assertions.assertEquals(Set.of("", "a", "unlinked"), visited(result));
+      Assertions.assertFalse(requested.contains("/private/b"));
+      Assertions.assertFalse(requested.contains("/private/c"));
+    }
+
+    config = CrawlConfig.builder().respectRobotsTxt(false).build();
+    try (var crawler = new Crawler(new HttpClient(), config)) {
+      var result = crawler.crawl(uri("/"));
+      Assertions.assertEquals(Set.of("", "a", "private/b"), visited(result));
+    }
+  }
+
+  @DisplayName("Plain text sitemaps are read line by line")
+  @Test
+  void textSitemapTest() throws IOException {
+    var pages = new ArrayList<String>();
+    var body = "\n http://localhost/a\nhttp://localhost/b\n\n".getBytes(StandardCharsets.UTF_8);
+    SitemapReader.read(
+        new ByteArrayInputStream(body), pages::add, loc -> Assertions.fail("not an index"));
+    Assertions.assertEquals(List.of("http://localhost/a", "http://localhost/b"), pages);
+  }
+
+  private Set<String> visited(CrawlResult result) {
+    var prefix = Crawl.normalizeUri(uri("/"));
+    return result.getVisitedPages().stream()
+        .map(page -> page.getPageLink().substring(prefix.length()))
+        .collect(Collectors.toSet());
+  }
+
+  private static RobotsRules parse(String... lines) throws IOException {
+    var robotsTxt = String.join("\n", lines).getBytes(StandardCharsets.UTF_8);
+    return RobotsRules.parse(new ByteArrayInputStream(robotsTxt));
+  }
+
+  private static boolean allowed(RobotsRules robots, String path) {
+    var canonicalizer = new UriCanonicalizer((String) null);
+    Assertions.assertTrue(canonicalizer.canonicalize("http://localhost" + path));
+    return canonicalizer.isAllowed(robots);
+  }
+
+  private URI uri(String path) {
+    return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+  }
+
+  private void respond(HttpExchange exchange) throws IOException {
+    var path = exchange.getRequestURI().getPath();
+    requested.add(path);
+    var file = files.get(path);
+    if (file == null || file.equals("error")) {
+      exchange.sendResponseHeaders(file == null ? 404 : 500, -1);
+    } else if (file.startsWith("redirect:")) {
+      exchange.getResponseHeaders().set("Location", file.substring("redirect:".length()));
+      exchange.sendResponseHeaders(301, -1);
+    } else {
+      var body = file.getBytes(StandardCharsets.UTF_8);
+      if (path.endsWith(".gz")) {
+        var gzipped = new ByteArrayOutputStream();
+        try (var out = new GZIPOutputStream(gzipped)) {
+          out.write(body);
+        }
+        body = gzipped.toByteArray();
+      }
+      exchange.getResponseHeaders().set("Content-Type", "text/html");
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+    }
+    exchange.close();
+  }
+}
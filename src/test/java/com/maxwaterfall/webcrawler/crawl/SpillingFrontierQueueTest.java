@@ -0,0 +1,70 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class SpillingFrontierQueueTest {
+
+  private static final int MEMORY_LIMIT = 10;
+
+  @DisplayName("Uris are polled in the order they were added, however many are spilled")
+  @Test
+  void orderTest() throws IOException {
+    var expected = new ArrayList<URI>();
+    var polled = new ArrayList<URI>();
+    try (var queue = new SpillingFrontierQueue(MEMORY_LIMIT)) {
+      // Add faster than polling, as a crawl of a link dense site does.
+      for (int i = 0; i < 10_000; i++) {
+        expected.add(uri(i));
+        queue.add(uri(i), i % 7);
+        if (i % 3 == 0) {
+          var visit = queue.poll();
+          Assertions.assertEquals(polled.size() % 7, visit.getDepth(), "depth survives spilling");
+          polled.add(visit.getUri());
+        }
+        Assertions.assertEquals(expected.size() - polled.size(), queue.size());
+      }
+      Assertions.assertTrue(queue.spilled() > 0, "spilled past the memory limit");
+
+      polled.addAll(pollAll(queue));
+      Assertions.assertTrue(queue.isEmpty());
+      Assertions.assertEquals(expected, polled);
+
+      // Spilling again after the file has been emptied.
+      for (int i = 0; i < MEMORY_LIMIT * 3; i++) {
+        queue.add(uri(i), 0);
+      }
+      Assertions.assertEquals(expected.subList(0, MEMORY_LIMIT * 3), pollAll(queue));
+    }
+  }
+
+  @DisplayName("Uris longer than the spill buffer survive spilling")
+  @Test
+  void longUriTest() throws IOException {
+    var longUri = URI.create("http://localhost/" + "a".repeat(200_000));
+    try (var queue = new SpillingFrontierQueue(1)) {
+      queue.add(uri(0), 0);
+      queue.add(longUri, 0);
+      queue.add(uri(1), 0);
+
+      Assertions.assertEquals(List.of(uri(0), longUri, uri(1)), pollAll(queue));
+    }
+  }
+
+  private static List<URI> pollAll(SpillingFrontierQueue queue) {
+    var uris = new ArrayList<URI>();
+    for (Visit visit; (visit = queue.poll()) != null; ) {
+      uris.add(visit.getUri());
+    }
+    return uris;
+  }
+
+  private static URI uri(int i) {
+    return URI.create("http://localhost/page/" + i);
+  }
+}
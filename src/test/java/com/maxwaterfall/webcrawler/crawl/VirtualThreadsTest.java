@@ -0,0 +1,84 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import com.maxwaterfall.webcrawler.HttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class VirtualThreadsTest {
+
+  private HttpServer server;
+  private Set<String> threads;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    threads = ConcurrentHashMap.newKeySet();
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", this::respond);
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  @DisplayName("Virtual threads crawl from Java 21, and are refused by older JVMs")
+  @Test
+  void virtualThreadsTest() throws Exception {
+    var config = CrawlConfig.builder().mode(CrawlConfig.Mode.VIRTUAL_THREADS).build();
+    boolean supported = Runtime.version().feature() >= 21;
+    Assertions.assertEquals(supported, VirtualThreads.isSupported());
+    if (!supported) {
+      Assertions.assertThrows(
+          UnsupportedOperationException.class, () -> new Crawler(new HttpClient(), config));
+      return;
+    }
+
+    try (var crawler = new Crawler(new HttpClient(), config)) {
+      // Thread.isVirtual() can't be called from Java 11, a virtual thread says what it is instead.
+      var result =
+          crawler.crawl(
+              uri("/0"),
+              page -> threads.add(Thread.currentThread().toString().split("\\[", 2)[0]));
+      Assertions.assertEquals(15, result.getTotalVisited());
+      Assertions.assertEquals(Set.of("VirtualThread"), threads, "visited on virtual threads");
+    }
+  }
+
+  /** Serves '/n' as a page linking to '/2n+1' and '/2n+2', for 15 pages. */
+  private void respond(HttpExchange exchange) throws IOException {
+    var path = exchange.getRequestURI().getPath();
+    if (path.equals("/robots.txt")) {
+      exchange.sendResponseHeaders(404, -1);
+      exchange.close();
+      return;
+    }
+    int n = Integer.parseInt(path.substring(1));
+    var html = new StringBuilder();
+    for (int child = 2 * n + 1; child <= 2 * n + 2 && child < 15; child++) {
+      html.append("<a href='/").append(child).append("'>").append(child).append("</a>");
+    }
+    var body = html.toString().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "text/html");
+    exchange.sendResponseHeaders(200, body.length);
+    try (var out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private URI uri(String path) {
+    return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+  }
+}
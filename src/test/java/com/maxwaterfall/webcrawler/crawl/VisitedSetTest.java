@@ -0,0 +1,102 @@
+package com.maxwaterfall.webcrawler.crawl;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class VisitedSetTest {
+
+  private static final int URIS = 200_000;
+
+  @DisplayName("Fingerprint set is exact as it grows past its expected size")
+  @Test
+  void fingerprintTest() {
+    var set = new FingerprintVisitedSet(1_000);
+    for (int i = 0; i < URIS; i++) {
+      Assertions.assertTrue(set.add(uri(i)), "first add of " + uri(i));
+    }
+    for (int i = 0; i < URIS; i++) {
+      Assertions.assertFalse(set.add(uri(i)), "second add of " + uri(i));
+    }
+
+    var stats = set.stats();
+    Assertions.assertEquals(URIS, stats.getSize());
+    Assertions.assertTrue(stats.getMemoryBytes() <= URIS * 22L + 64 * 32, "memory per uri");
+    Assertions.assertTrue(stats.getFalsePositiveRate() < 1e-12);
+  }
+
+  @DisplayName("Bloom set stays close to its configured false positive rate")
+  @Test
+  void bloomTest() {
+    var set = new BloomVisitedSet(URIS, 0.01);
+    int falsePositives = 0;
+    for (int i = 0; i < URIS; i++) {
+      if (!set.add(uri(i))) falsePositives++;
+    }
+    for (int i = 0; i < URIS; i++) {
+      Assertions.assertFalse(set.add(uri(i)), "second add of " + uri(i));
+    }
+
+    var stats = set.stats();
+    // False positives while filling average well under the rate at full size.
+    Assertions.assertTrue(falsePositives < URIS * 0.01, falsePositives + " false positives");
+    Assertions.assertEquals(0.01, stats.getFalsePositiveRate(), 0.005);
+    Assertions.assertTrue(stats.getMemoryBytes() < URIS * 2L, "memory per uri");
+  }
+
+  @DisplayName("Bloom set reports a uri added by several threads at once as new only once")
+  @Test
+  void bloomConcurrentTest() throws Exception {
+    int threads = 8;
+    int uris = 20_000;
+    var set = new BloomVisitedSet(uris, 0.01);
+    var added = new AtomicIntegerArray(uris);
+    var start = new CountDownLatch(1);
+    var pool = Executors.newFixedThreadPool(threads);
+    try {
+      var done = new ArrayList<Future<?>>();
+      for (int t = 0; t < threads; t++) {
+        done.add(
+            pool.submit(
+                () -> {
+                  start.await();
+                  for (int i = 0; i < uris; i++) {
+                    if (set.add(uri(i))) added.incrementAndGet(i);
+                  }
+                  return null;
+                }));
+      }
+      start.countDown();
+      for (var future : done) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    for (int i = 0; i < uris; i++) {
+      // A false positive is never reported as new at all.
+      Assertions.assertTrue(added.get(i) <= 1, uri(i) + " new " + added.get(i) + " times");
+    }
+  }
+
+  @DisplayName("String set reports its size")
+  @Test
+  void stringTest() {
+    var set = new StringVisitedSet();
+    Assertions.assertTrue(set.add("example.com/"));
+    Assertions.assertFalse(set.add("example.com/"));
+    Assertions.assertEquals(1, set.stats().getSize());
+    Assertions.assertEquals(0, set.stats().getFalsePositiveRate());
+  }
+
+  private static String uri(int i) {
+    return "example.com/section/" + (i % 100) + "/page-" + i + "?query=" + (i * 31);
+  }
+}